@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Measures how many rows per second each way of writing a forecast manages, for a normal
+ * forecast of 14 days and for much larger batches. The results are written to logcat under
+ * the TestBulkInsertBenchmark tag, one line per batch size:
+ * <pre>
+ *     1000 rows: SQLiteDatabase#insert N rows/s, bulkInsert N rows/s, bulkInsertBatch N rows/s
+ * </pre>
+ * The numbers depend too much on the device to assert on; the tests only check that every row
+ * made it into the table.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestBulkInsertBenchmark {
+
+    private static final String TAG = TestBulkInsertBenchmark.class.getSimpleName();
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @Before
+    public void setUp() {
+        deleteAllRecordsFromWeatherTable();
+    }
+
+    @After
+    public void tearDown() {
+        deleteAllRecordsFromWeatherTable();
+    }
+
+    @Test
+    public void testForecastOf14Rows() {
+        benchmark(14);
+    }
+
+    @Test
+    public void testBatchOf1000Rows() {
+        benchmark(1000);
+    }
+
+    @Test
+    public void testBatchOf100000Rows() {
+        benchmark(100000);
+    }
+
+    /**
+     * Writes the same rows three times, each time into an empty table: with
+     * SQLiteDatabase#insert in one transaction, as the provider used to; through the provider's
+     * bulkInsert; and through the provider's METHOD_BULK_INSERT_BATCH.
+     *
+     * @param rowCount The number of rows to write each time
+     */
+    private void benchmark(int rowCount) {
+        ForecastBatch batch = createForecastBatch(rowCount);
+        ContentValues[] values = new ContentValues[rowCount];
+        for (int i = 0; i < rowCount; i++) {
+            values[i] = batch.toContentValues(i);
+            values[i].put(WeatherContract.WeatherEntry.COLUMN_LOCATION_ID,
+                    TestUtilities.TEST_LOCATION_ID);
+        }
+
+        ContentResolver contentResolver = mContext.getContentResolver();
+
+        /* A small write first, so that opening the database isn't counted against any of them */
+        contentResolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI,
+                new ContentValues[]{values[0]});
+        deleteAllRecordsFromWeatherTable();
+
+        long start = System.nanoTime();
+        int rowsInserted = insertWithoutProvider(values);
+        long insertNanos = System.nanoTime() - start;
+        assertEquals(rowCount, rowsInserted);
+        deleteAllRecordsFromWeatherTable();
+
+        start = System.nanoTime();
+        rowsInserted = contentResolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI,
+                values);
+        long bulkInsertNanos = System.nanoTime() - start;
+        assertEquals(rowCount, rowsInserted);
+        deleteAllRecordsFromWeatherTable();
+
+        start = System.nanoTime();
+        Bundle result = contentResolver.call(WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_BULK_INSERT_BATCH, TestUtilities.TEST_LOCATION,
+                batch.toBundle());
+        long batchNanos = System.nanoTime() - start;
+        assertEquals(rowCount, result.getInt(WeatherContract.KEY_ROWS_INSERTED));
+
+        Log.i(TAG, rowCount + " rows: "
+                + "SQLiteDatabase#insert " + rowsPerSecond(rowCount, insertNanos) + " rows/s, "
+                + "bulkInsert " + rowsPerSecond(rowCount, bulkInsertNanos) + " rows/s, "
+                + "bulkInsertBatch " + rowsPerSecond(rowCount, batchNanos) + " rows/s");
+    }
+
+    /**
+     * Inserts rows the way WeatherProvider#bulkInsert used to, compiling the INSERT again for
+     * every one of them.
+     */
+    private int insertWithoutProvider(ContentValues[] values) {
+        WeatherDbHelper helper = new WeatherDbHelper(mContext);
+        SQLiteDatabase database = helper.getWritableDatabase();
+
+        int rowsInserted = 0;
+        database.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                if (database.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value) != -1) {
+                    rowsInserted++;
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        database.close();
+        return rowsInserted;
+    }
+
+    private static long rowsPerSecond(int rowCount, long nanos) {
+        return rowCount * 1000000000L / Math.max(nanos, 1);
+    }
+
+    /**
+     * Creates a batch of consecutive days, so that no row replaces another.
+     */
+    private static ForecastBatch createForecastBatch(int rowCount) {
+        ForecastBatch batch = new ForecastBatch(rowCount);
+        for (int i = 0; i < rowCount; i++) {
+            batch.add(TestUtilities.DATE_NORMALIZED + i * SunshineDateUtils.DAY_IN_MILLIS,
+                    321 + i % 500, 70 + i % 10, 65 - i % 10, 1.2 + 0.01 * (i % 50),
+                    1.3 - 0.01 * (i % 50), 5.5 + 0.2 * (i % 10), i % 360);
+        }
+        return batch;
+    }
+
+    private void deleteAllRecordsFromWeatherTable() {
+        WeatherDbHelper helper = new WeatherDbHelper(mContext);
+        SQLiteDatabase database = helper.getWritableDatabase();
+        database.delete(WeatherContract.WeatherEntry.TABLE_NAME, null, null);
+        database.close();
+    }
+}
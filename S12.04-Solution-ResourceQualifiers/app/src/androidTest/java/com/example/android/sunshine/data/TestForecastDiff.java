@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class TestForecastDiff {
+
+    private static final long DAY = SunshineDateUtils.DAY_IN_MILLIS;
+    private static final long DATE_OF_DAY_0 = TestUtilities.DATE_NORMALIZED;
+
+    @Test
+    public void testSameForecastNeedsNoChanges() {
+        ForecastDiff diff = ForecastDiff.compute(forecast(0, 14), forecast(0, 14));
+
+        assertTrue(diff.isEmpty());
+        assertEquals(14, diff.getUnchangedCount());
+    }
+
+    @Test
+    public void testEmptyStoreInsertsEverything() {
+        ForecastDiff diff = ForecastDiff.compute(new ForecastBatch(), forecast(0, 14));
+
+        assertEquals(14, diff.getInsertIndices().length);
+        assertEquals(0, diff.getUpdateIndices().length);
+        assertEquals(0, diff.getRemovedDates().length);
+    }
+
+    @Test
+    public void testNextDayRemovesYesterdayAndInsertsNewDay() {
+        ForecastDiff diff = ForecastDiff.compute(forecast(0, 14), forecast(1, 14));
+
+        assertEquals(1, diff.getRemovedDates().length);
+        assertEquals(DATE_OF_DAY_0, diff.getRemovedDates()[0]);
+
+        assertEquals(1, diff.getInsertIndices().length);
+        assertEquals(DATE_OF_DAY_0 + 14 * DAY,
+                diff.getIncoming().getDate(diff.getInsertIndices()[0]));
+
+        assertEquals(0, diff.getUpdateIndices().length);
+        assertEquals(13, diff.getUnchangedCount());
+    }
+
+    @Test
+    public void testChangedWeatherIsUpdated() {
+        ForecastBatch stored = forecast(0, 3);
+        ForecastBatch incoming = new ForecastBatch();
+        for (int i = 0; i < stored.size(); i++) {
+            double maxTemp = stored.getMaxTemp(i) + (i == 1 ? 0.5 : 0);
+            incoming.add(stored.getDate(i), stored.getWeatherId(i), stored.getMinTemp(i),
+                    maxTemp, stored.getHumidity(i), stored.getPressure(i),
+                    stored.getWindSpeed(i), stored.getDegrees(i));
+        }
+
+        ForecastDiff diff = ForecastDiff.compute(stored, incoming);
+
+        assertEquals(1, diff.getUpdateIndices().length);
+        assertEquals(1, diff.getUpdateIndices()[0]);
+        assertEquals(0, diff.getInsertIndices().length);
+        assertEquals(0, diff.getRemovedDates().length);
+        assertEquals(2, diff.getUnchangedCount());
+    }
+
+    @Test
+    public void testUnsortedForecastWithRepeatedDate() {
+        ForecastBatch stored = forecast(0, 3);
+
+        /* Day 2, day 0, then day 0 again with different weather; the last one should win */
+        ForecastBatch incoming = new ForecastBatch();
+        addDay(incoming, 2);
+        addDay(incoming, 0);
+        incoming.add(DATE_OF_DAY_0, 200, 1, 2, 3, 4, 5, 6);
+
+        ForecastDiff diff = ForecastDiff.compute(stored, incoming);
+
+        assertEquals(1, diff.getUpdateIndices().length);
+        assertEquals(2, diff.getUpdateIndices()[0]);
+        assertEquals(1, diff.getRemovedDates().length);
+        assertEquals(DATE_OF_DAY_0 + DAY, diff.getRemovedDates()[0]);
+        assertEquals(0, diff.getInsertIndices().length);
+        assertEquals(1, diff.getUnchangedCount());
+    }
+
+    /**
+     * Builds a forecast of consecutive days, whose weather depends only on the day.
+     */
+    private static ForecastBatch forecast(int firstDay, int dayCount) {
+        ForecastBatch batch = new ForecastBatch(dayCount);
+        for (int day = firstDay; day < firstDay + dayCount; day++) {
+            addDay(batch, day);
+        }
+        return batch;
+    }
+
+    private static void addDay(ForecastBatch batch, int day) {
+        batch.add(DATE_OF_DAY_0 + day * DAY, 800 + day % 4, 10 + day % 5, 20 + day % 7,
+                50 + day, 1000 + day, 2.5, day * 10 % 360);
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class TestHistoryCompaction {
+
+    private static final String TAG = TestHistoryCompaction.class.getSimpleName();
+
+    private static final long DAY = SunshineDateUtils.DAY_IN_MILLIS;
+
+    /* The 15th of a month, so that "today" is never close to the start of a month */
+    private static final long TODAY =
+            HistoryCompaction.startOfMonth(TestUtilities.DATE_NORMALIZED) + 14 * DAY;
+
+    private static final long LOCATION_ID = TestUtilities.TEST_LOCATION_ID;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private WeatherDbHelper mHelper;
+    private SQLiteDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        mHelper = new WeatherDbHelper(mContext);
+        mDatabase = mHelper.getWritableDatabase();
+        mDatabase.delete(HistoryEntry.TABLE_NAME, null, null);
+    }
+
+    @After
+    public void tearDown() {
+        mDatabase.delete(HistoryEntry.TABLE_NAME, null, null);
+        mHelper.close();
+    }
+
+    @Test
+    public void testRecentMonthsKeepDailyRows() {
+        long startOfMonth = HistoryCompaction.startOfMonth(TODAY);
+        long twoMonthsAgo = HistoryCompaction.addMonths(startOfMonth, -2);
+        int rowCount = insertDays(LOCATION_ID, twoMonthsAgo, startOfMonth + 14 * DAY);
+
+        HistoryCompaction compaction = compact(3, HistoryCompaction.DEFAULT_MAX_ROWS);
+
+        assertTrue("Nothing should have been compacted", compaction.isEmpty());
+        assertEquals(rowCount, countRows(null));
+    }
+
+    /**
+     * An old month is downsampled to periods of a week, starting on the 1st. Each period keeps
+     * the extremes of its temperatures and the most common weather.
+     */
+    @Test
+    public void testOldMonthsAreDownsampled() {
+        long oldMonth = HistoryCompaction.addMonths(HistoryCompaction.startOfMonth(TODAY), -5);
+        long nextMonth = HistoryCompaction.addMonths(oldMonth, 1);
+        int daysInMonth = insertDays(LOCATION_ID, oldMonth, nextMonth);
+
+        HistoryCompaction compaction = compact(3, HistoryCompaction.DEFAULT_MAX_ROWS);
+
+        int periods = (daysInMonth + HistoryCompaction.DAYS_PER_PERIOD - 1)
+                / HistoryCompaction.DAYS_PER_PERIOD;
+        assertEquals(periods, compaction.getRowsInserted());
+        assertEquals(daysInMonth, compaction.getRowsDeleted());
+
+        Cursor cursor = mDatabase.query(HistoryEntry.TABLE_NAME, null, null, null, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(periods, cursor.getCount());
+
+        /* The first week: days 0 to 6 of the month, see insertDays for their weather */
+        assertTrue(cursor.moveToFirst());
+        ContentValues firstWeek = new ContentValues();
+        firstWeek.put(WeatherEntry.COLUMN_DATE, oldMonth);
+        firstWeek.put(HistoryEntry.COLUMN_DAYS, HistoryCompaction.DAYS_PER_PERIOD);
+        firstWeek.put(WeatherEntry.COLUMN_WEATHER_ID, 800);
+        firstWeek.put(WeatherEntry.COLUMN_MIN_TEMP, 10.0);
+        firstWeek.put(WeatherEntry.COLUMN_MAX_TEMP, 26.0);
+        TestUtilities.validateCurrentRecord("Error validating the first week", cursor, firstWeek);
+        assertEquals(53.0,
+                cursor.getDouble(cursor.getColumnIndexOrThrow(WeatherEntry.COLUMN_HUMIDITY)),
+                0.001);
+
+        /* The last period holds whatever days are left after the 28th */
+        assertTrue(cursor.moveToLast());
+        assertEquals(oldMonth + 4 * HistoryCompaction.DAYS_PER_PERIOD * DAY,
+                cursor.getLong(cursor.getColumnIndexOrThrow(WeatherEntry.COLUMN_DATE)));
+        assertEquals(daysInMonth - 4 * HistoryCompaction.DAYS_PER_PERIOD,
+                cursor.getInt(cursor.getColumnIndexOrThrow(HistoryEntry.COLUMN_DAYS)));
+        cursor.close();
+    }
+
+    /**
+     * Downsamples a month with rain on every third day, which is never the most common weather
+     * of a period, and sums it up through the provider. Every rainy day is still counted.
+     */
+    @Test
+    public void testDownsampledMonthKeepsPrecipitationDays() {
+        long oldMonth = HistoryCompaction.addMonths(HistoryCompaction.startOfMonth(TODAY), -5);
+        long nextMonth = HistoryCompaction.addMonths(oldMonth, 1);
+        int daysInMonth = insertDays(LOCATION_ID, oldMonth, nextMonth);
+        compact(3, HistoryCompaction.DEFAULT_MAX_ROWS);
+
+        /* Days 2 and 5 of the first week */
+        Cursor history = mDatabase.query(HistoryEntry.TABLE_NAME,
+                new String[]{HistoryEntry.COLUMN_PRECIPITATION_DAYS}, null, null, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        assertTrue(history.moveToFirst());
+        assertEquals(2, history.getInt(0));
+        history.close();
+
+        Cursor months = mContext.getContentResolver().query(
+                WeatherContract.StatsEntry.buildMonthlyStatsUri(LOCATION_ID), null,
+                WeatherEntry.COLUMN_DATE + " = ?", new String[]{Long.toString(oldMonth)}, null);
+        assertNotNull(months);
+        assertTrue(months.moveToFirst());
+        assertEquals(daysInMonth, months.getInt(
+                months.getColumnIndexOrThrow(HistoryEntry.COLUMN_DAYS)));
+        /* Days 2, 5, 8 and so on */
+        assertEquals((daysInMonth + 1) / 3, months.getInt(months.getColumnIndexOrThrow(
+                WeatherContract.StatsEntry.COLUMN_PRECIPITATION_DAYS)));
+        months.close();
+    }
+
+    @Test
+    public void testCompactingTwiceChangesNothing() {
+        long oldMonth = HistoryCompaction.addMonths(HistoryCompaction.startOfMonth(TODAY), -8);
+        insertDays(LOCATION_ID, oldMonth, HistoryCompaction.addMonths(oldMonth, 2));
+
+        assertFalse(compact(3, HistoryCompaction.DEFAULT_MAX_ROWS).isEmpty());
+        int rowCount = countRows(null);
+
+        assertTrue("A compacted history should be left as it is",
+                compact(3, HistoryCompaction.DEFAULT_MAX_ROWS).isEmpty());
+        assertEquals(rowCount, countRows(null));
+    }
+
+    /**
+     * Once the history is over its budget, the oldest months go, whole. No month is left half
+     * there.
+     */
+    @Test
+    public void testBudgetDropsWholeOldestMonths() {
+        long startOfMonth = HistoryCompaction.startOfMonth(TODAY);
+        long lastMonth = HistoryCompaction.addMonths(startOfMonth, -1);
+        long monthBeforeLast = HistoryCompaction.addMonths(startOfMonth, -2);
+        int oldestMonthDays = insertDays(LOCATION_ID, monthBeforeLast, lastMonth);
+        int newerDays = insertDays(LOCATION_ID, lastMonth, TODAY);
+
+        /* One row over the budget, which has to cost the whole oldest month */
+        HistoryCompaction compaction = compact(12, newerDays + oldestMonthDays - 1);
+
+        assertEquals(oldestMonthDays, compaction.getRowsDeleted());
+        assertEquals(0, countRows(WeatherEntry.COLUMN_DATE + " < " + lastMonth));
+        assertEquals(newerDays, countRows(null));
+    }
+
+    @Test
+    public void testRangeQueryUsesIndex() {
+        Cursor cursor = mDatabase.rawQuery("EXPLAIN QUERY PLAN SELECT * FROM "
+                + HistoryEntry.TABLE_NAME + " WHERE " + WeatherEntry.COLUMN_LOCATION_ID + " = ?"
+                + " AND " + WeatherEntry.COLUMN_DATE + " >= ? AND "
+                + WeatherEntry.COLUMN_DATE + " < ?", new String[]{"1", "0", "1"});
+        assertTrue(cursor.moveToFirst());
+        String plan = cursor.getString(cursor.getColumnIndexOrThrow("detail"));
+        cursor.close();
+
+        assertTrue("The range should be searched through an index: " + plan,
+                plan.contains("SEARCH") && plan.contains("INDEX"));
+    }
+
+    /**
+     * Queries a year of one location's history through the provider, out of three years of
+     * three locations. The fastest of a few runs is logged and has to stay within a few
+     * milliseconds.
+     */
+    @Test
+    public void testYearOfHistoryQueriesQuickly() {
+        long end = HistoryCompaction.startOfMonth(TODAY);
+        long threeYearsAgo = HistoryCompaction.addMonths(end, -36);
+        for (long locationId = LOCATION_ID; locationId < LOCATION_ID + 3; locationId++) {
+            insertDays(locationId, threeYearsAgo, end);
+        }
+
+        long yearAgo = HistoryCompaction.addMonths(end, -12);
+        long fastestNanos = Long.MAX_VALUE;
+        int rowCount = 0;
+        for (int run = 0; run < 5; run++) {
+            long start = System.nanoTime();
+            Cursor cursor = mContext.getContentResolver().query(
+                    HistoryEntry.buildHistoryUriWithLocationAndRange(LOCATION_ID, yearAgo, end),
+                    null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+            rowCount = cursor.getCount();
+            cursor.close();
+            fastestNanos = Math.min(fastestNanos, System.nanoTime() - start);
+        }
+
+        long fastestMillis = TimeUnit.NANOSECONDS.toMillis(fastestNanos);
+        Log.i(TAG, "A year of history, " + rowCount + " rows, took " + fastestMillis + "ms");
+        assertEquals((end - yearAgo) / DAY, rowCount);
+        assertTrue("Querying a year took " + fastestMillis + "ms", fastestMillis < 20);
+    }
+
+    private HistoryCompaction compact(int dailyMonths, int maxRows) {
+        HistoryCompaction compaction = new HistoryCompaction(dailyMonths, maxRows);
+        mDatabase.beginTransaction();
+        try {
+            compaction.compact(mDatabase, TODAY);
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+        return compaction;
+    }
+
+    /**
+     * Inserts a daily row for every day from one date up to another. Day i of a month has a
+     * minimum of 10 + i % 7, a maximum of 20 + i, a humidity of 50 + i, and clear weather except
+     * on every third day.
+     *
+     * @return The number of days inserted
+     */
+    private int insertDays(long locationId, long startDate, long endDate) {
+        int days = 0;
+        mDatabase.beginTransaction();
+        try {
+            for (long date = startDate; date < endDate; date += DAY, days++) {
+                int i = (int) ((date - HistoryCompaction.startOfMonth(date)) / DAY);
+                ContentValues values = new ContentValues();
+                values.put(WeatherEntry.COLUMN_LOCATION_ID, locationId);
+                values.put(WeatherEntry.COLUMN_DATE, date);
+                values.put(WeatherEntry.COLUMN_WEATHER_ID, i % 3 == 2 ? 500 : 800);
+                values.put(WeatherEntry.COLUMN_MIN_TEMP, 10 + i % 7);
+                values.put(WeatherEntry.COLUMN_MAX_TEMP, 20 + i);
+                values.put(WeatherEntry.COLUMN_HUMIDITY, 50 + i);
+                values.put(WeatherEntry.COLUMN_PRESSURE, 1000);
+                values.put(WeatherEntry.COLUMN_WIND_SPEED, 2.5);
+                values.put(WeatherEntry.COLUMN_DEGREES, 90);
+                assertTrue(mDatabase.insert(HistoryEntry.TABLE_NAME, null, values) != -1);
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+        return days;
+    }
+
+    private int countRows(String selection) {
+        Cursor cursor = mDatabase.query(HistoryEntry.TABLE_NAME, null, selection, null, null,
+                null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+
+@RunWith(AndroidJUnit4.class)
+public class TestNotificationCoalescer {
+
+    private static final long WINDOW_MILLIS = 100;
+
+    private static final long LOCATION_ID = TestUtilities.TEST_LOCATION_ID;
+
+    private final ContentResolver mResolver =
+            InstrumentationRegistry.getTargetContext().getContentResolver();
+
+    private HandlerThread mHandlerThread;
+    private Handler mHandler;
+    private TestUtilities.TestContentObserver mForecastObserver;
+
+    @Before
+    public void setUp() {
+        mHandlerThread = new HandlerThread("NotificationCoalescerThread");
+        mHandlerThread.start();
+        mHandler = new Handler(mHandlerThread.getLooper());
+
+        mForecastObserver = TestUtilities.getTestContentObserver();
+        mResolver.registerContentObserver(WeatherEntry.buildWeatherListUri(LOCATION_ID), true,
+                mForecastObserver);
+    }
+
+    @After
+    public void tearDown() {
+        mResolver.unregisterContentObserver(mForecastObserver);
+        mForecastObserver.mHT.quit();
+        mHandlerThread.quit();
+    }
+
+    /**
+     * Three writes to the same day within one window notify the day and the forecast once.
+     */
+    @Test
+    public void testWritesWithinWindowAreNotifiedOnce() {
+        NotificationCoalescer coalescer =
+                new NotificationCoalescer(mResolver, mHandler, WINDOW_MILLIS);
+        for (int i = 0; i < 3; i++) {
+            coalescer.post(changesOf(TestUtilities.DATE_NORMALIZED));
+        }
+
+        mForecastObserver.waitForNotificationOrFail();
+
+        assertEquals(1, mForecastObserver.mChangeCount);
+        assertEquals(6, coalescer.getNotificationsRequested());
+        assertEquals(2, coalescer.getNotificationsSent());
+        assertEquals(4, coalescer.getRequeriesSaved());
+    }
+
+    /**
+     * Writes to different days within one window notify every day, but the forecast only once.
+     */
+    @Test
+    public void testDaysAreMergedIntoOneForecastNotification() {
+        NotificationCoalescer coalescer =
+                new NotificationCoalescer(mResolver, mHandler, WINDOW_MILLIS);
+        for (int i = 0; i < 3; i++) {
+            coalescer.post(changesOf(
+                    TestUtilities.DATE_NORMALIZED + i * SunshineDateUtils.DAY_IN_MILLIS));
+        }
+
+        mForecastObserver.waitForNotificationOrFail();
+
+        assertEquals(1, mForecastObserver.mChangeCount);
+        assertEquals(4, coalescer.getNotificationsSent());
+        assertEquals(2, coalescer.getRequeriesSaved());
+    }
+
+    @Test
+    public void testNoWindowNotifiesStraightAway() {
+        NotificationCoalescer coalescer = new NotificationCoalescer(mResolver, mHandler, 0);
+        coalescer.post(changesOf(TestUtilities.DATE_NORMALIZED));
+
+        mForecastObserver.waitForNotificationOrFail();
+
+        assertEquals(2, coalescer.getNotificationsSent());
+        assertEquals(0, coalescer.getRequeriesSaved());
+    }
+
+    /**
+     * Flushing sends what is held back without waiting for the window, and leaves nothing for
+     * the window to send when it ends.
+     */
+    @Test
+    public void testFlushSendsPendingNotifications() {
+        NotificationCoalescer coalescer =
+                new NotificationCoalescer(mResolver, mHandler, Long.MAX_VALUE / 2);
+        coalescer.post(changesOf(TestUtilities.DATE_NORMALIZED));
+        assertEquals(0, coalescer.getNotificationsSent());
+
+        coalescer.flush();
+        mForecastObserver.waitForNotificationOrFail();
+        assertEquals(2, coalescer.getNotificationsSent());
+
+        coalescer.flush();
+        assertEquals(2, coalescer.getNotificationsSent());
+    }
+
+    @Test
+    public void testEmptyChangesAreNotNotified() {
+        NotificationCoalescer coalescer = new NotificationCoalescer(mResolver, mHandler, 0);
+        coalescer.post(new WeatherChanges());
+
+        assertEquals(0, coalescer.getNotificationsRequested());
+        assertFalse(mForecastObserver.mContentChanged);
+    }
+
+    private static WeatherChanges changesOf(long date) {
+        WeatherChanges changes = new WeatherChanges();
+        changes.addDate(LOCATION_ID, date);
+        return changes;
+    }
+}
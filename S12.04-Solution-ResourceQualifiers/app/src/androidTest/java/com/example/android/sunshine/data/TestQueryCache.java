@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class TestQueryCache {
+
+    private static final String[] COLUMNS = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_PRESSURE
+    };
+
+    @Test
+    public void testHitReturnsTheSameRows() {
+        QueryCache cache = new QueryCache(QueryCache.DEFAULT_MAX_ENTRIES);
+        QueryCache.Key key = keyFor(1);
+
+        assertNull(cache.get(key));
+        Cursor missed = cache.put(key, cache.getVersion(), weatherCursor(3));
+        assertNotNull(missed);
+        missed.close();
+
+        /* A key made from equal arguments finds the same result */
+        Cursor hit = cache.get(keyFor(1));
+        assertNotNull(hit);
+        assertEquals(3, hit.getCount());
+        for (int i = 0; hit.moveToNext(); i++) {
+            assertEquals(TestUtilities.DATE_NORMALIZED + i, hit.getLong(0));
+            assertEquals(20.5 + i, hit.getDouble(1), 0.001);
+            assertTrue(hit.isNull(2));
+            assertEquals(Cursor.FIELD_TYPE_NULL, hit.getType(2));
+        }
+        hit.close();
+
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testInvalidateDropsResults() {
+        QueryCache cache = new QueryCache(QueryCache.DEFAULT_MAX_ENTRIES);
+        cache.put(keyFor(1), cache.getVersion(), weatherCursor(1)).close();
+
+        cache.invalidate();
+
+        assertNull(cache.get(keyFor(1)));
+    }
+
+    /**
+     * A result read while a write was made may be from before the write, so it mustn't be
+     * kept, although the query still gets it.
+     */
+    @Test
+    public void testResultReadDuringWriteIsNotKept() {
+        QueryCache cache = new QueryCache(QueryCache.DEFAULT_MAX_ENTRIES);
+        long version = cache.getVersion();
+        cache.invalidate();
+
+        Cursor cursor = cache.put(keyFor(1), version, weatherCursor(2));
+        assertEquals(2, cursor.getCount());
+        cursor.close();
+
+        assertNull(cache.get(keyFor(1)));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedResultGoesFirst() {
+        QueryCache cache = new QueryCache(2);
+        cache.put(keyFor(1), cache.getVersion(), weatherCursor(1)).close();
+        cache.put(keyFor(2), cache.getVersion(), weatherCursor(1)).close();
+
+        /* Using the first makes the second the least recently used */
+        cache.get(keyFor(1)).close();
+        cache.put(keyFor(3), cache.getVersion(), weatherCursor(1)).close();
+
+        assertNotNull(cache.get(keyFor(1)));
+        assertNull(cache.get(keyFor(2)));
+        assertNotNull(cache.get(keyFor(3)));
+    }
+
+    @Test
+    public void testLargeResultsAreNotKept() {
+        QueryCache cache = new QueryCache(QueryCache.DEFAULT_MAX_ENTRIES);
+        Cursor cursor = weatherCursor(QueryCache.MAX_ROWS + 1);
+
+        assertNull(cache.put(keyFor(1), cache.getVersion(), cursor));
+        assertTrue("A result that isn't kept should be left open for the query",
+                !cursor.isClosed());
+        cursor.close();
+
+        assertNull(cache.get(keyFor(1)));
+    }
+
+    private static QueryCache.Key keyFor(long locationId) {
+        return new QueryCache.Key(WeatherEntry.buildWeatherUriWithLocation(locationId),
+                COLUMNS, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+    }
+
+    /* Consecutive days with a max of 20.5 and up, and no pressure */
+    private static Cursor weatherCursor(int rows) {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        for (int i = 0; i < rows; i++) {
+            cursor.addRow(new Object[]{TestUtilities.DATE_NORMALIZED + i, 20.5 + i, null});
+        }
+        return cursor;
+    }
+}
@@ -19,7 +19,9 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 import android.provider.BaseColumns;
 import android.support.test.InstrumentationRegistry;
 import android.support.test.runner.AndroidJUnit4;
@@ -31,7 +33,9 @@ import org.junit.runner.RunWith;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import static com.example.android.sunshine.data.TestUtilities.getConstantNameByStringValue;
@@ -41,6 +45,7 @@ import static com.example.android.sunshine.data.TestUtilities.studentReadableCla
 import static com.example.android.sunshine.data.TestUtilities.studentReadableNoSuchField;
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertNotSame;
 import static junit.framework.Assert.assertTrue;
 import static junit.framework.Assert.fail;
@@ -193,7 +198,7 @@ public class TestSunshineDatabase {
 
     @Test
     public void testDatabaseVersionWasIncremented() {
-        int expectedDatabaseVersion = 3;
+        int expectedDatabaseVersion = 6;
         String databaseVersionShouldBe1 = "Database version should be "
                 + expectedDatabaseVersion + " but isn't."
                 + "\n Database version: ";
@@ -382,9 +387,10 @@ public class TestSunshineDatabase {
     }
 
     /**
-     * This method tests the {@link WeatherDbHelper#onUpgrade(SQLiteDatabase, int, int)}. The proper
-     * behavior for this method in our case is to simply DROP (or delete) the weather table from
-     * the database and then have the table recreated.
+     * This method tests the {@link WeatherDbHelper#onUpgrade(SQLiteDatabase, int, int)}. There is
+     * no migration from version 13, so the proper behavior for this method in our case is to
+     * simply DROP (or delete) the weather table from the database and then have the table
+     * recreated.
      */
     @Test
     public void testOnUpgradeBehavesCorrectly() {
@@ -456,6 +462,8 @@ public class TestSunshineDatabase {
 
         /* Here, we add the name of our only table in this particular database */
         tableNameHashSet.add(REFLECTED_TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.LocationEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.HistoryEntry.TABLE_NAME);
         /* Students, here is where you would add any other table names if you had them */
 //        tableNameHashSet.add(MyAwesomeSuperCoolTableName);
 //        tableNameHashSet.add(MyOtherCoolTableNameThatContainsOtherCoolData);
@@ -572,4 +580,245 @@ public class TestSunshineDatabase {
         /* Close cursor */
         weatherCursor.close();
     }
+
+    /**
+     * Migrates a database with a row in it through two versions, one step at a time, and checks
+     * that both steps ran in order and that the row is still there afterwards.
+     */
+    @Test
+    public void testMigrationsKeepExistingRows() {
+        testInsertSingleRecordIntoWeatherTable();
+
+        final List<Integer> versionsMigrated = new ArrayList<>();
+        WeatherDbHelper.Migration[] migrations = {
+                /* Deliberately out of order; migrate should sort them out by version */
+                new WeatherDbHelper.Migration(4) {
+                    @Override
+                    void migrate(SQLiteDatabase sqLiteDatabase) {
+                        versionsMigrated.add(fromVersion);
+                        sqLiteDatabase.execSQL("CREATE INDEX weather_note_index ON "
+                                + REFLECTED_TABLE_NAME + " (note)");
+                    }
+                },
+                new WeatherDbHelper.Migration(3) {
+                    @Override
+                    void migrate(SQLiteDatabase sqLiteDatabase) {
+                        versionsMigrated.add(fromVersion);
+                        sqLiteDatabase.execSQL("ALTER TABLE " + REFLECTED_TABLE_NAME
+                                + " ADD COLUMN note TEXT NOT NULL DEFAULT 'migrated'");
+                    }
+                }
+        };
+
+        assertTrue("Migrating from version 3 to 5 should have succeeded",
+                WeatherDbHelper.migrate(database, 3, 5, migrations));
+
+        assertEquals("Migrations should run one version at a time, in order",
+                2, versionsMigrated.size());
+        assertEquals(3, (int) versionsMigrated.get(0));
+        assertEquals(4, (int) versionsMigrated.get(1));
+
+        Cursor weatherCursor = database.query(REFLECTED_TABLE_NAME,
+                null, null, null, null, null, null);
+        assertEquals("Migrating should have kept the existing row", 1, weatherCursor.getCount());
+        assertTrue(weatherCursor.moveToFirst());
+        assertEquals("migrated",
+                weatherCursor.getString(weatherCursor.getColumnIndexOrThrow("note")));
+        weatherCursor.close();
+
+        database.close();
+    }
+
+    /**
+     * If any version along the way has no migration, nothing may be run, so that onUpgrade can
+     * rebuild the database from the schema it started with.
+     */
+    @Test
+    public void testMigrationWithGapRunsNothing() {
+        final List<Integer> versionsMigrated = new ArrayList<>();
+        WeatherDbHelper.Migration[] migrations = {
+                new WeatherDbHelper.Migration(3) {
+                    @Override
+                    void migrate(SQLiteDatabase sqLiteDatabase) {
+                        versionsMigrated.add(fromVersion);
+                    }
+                },
+                new WeatherDbHelper.Migration(5) {
+                    @Override
+                    void migrate(SQLiteDatabase sqLiteDatabase) {
+                        versionsMigrated.add(fromVersion);
+                    }
+                }
+        };
+
+        assertFalse("There is no migration from version 4",
+                WeatherDbHelper.migrate(database, 3, 6, migrations));
+        assertTrue("No migration should have run", versionsMigrated.isEmpty());
+
+        database.close();
+    }
+
+    /**
+     * A migration that fails must be reported, so that onUpgrade falls back to rebuilding the
+     * database instead of leaving it half migrated.
+     */
+    @Test
+    public void testFailedMigrationIsReported() {
+        WeatherDbHelper.Migration[] migrations = {
+                new WeatherDbHelper.Migration(3) {
+                    @Override
+                    void migrate(SQLiteDatabase sqLiteDatabase) {
+                        sqLiteDatabase.execSQL("ALTER TABLE no_such_table ADD COLUMN note TEXT");
+                    }
+                }
+        };
+
+        assertFalse("The failed migration should have been reported",
+                WeatherDbHelper.migrate(database, 3, 4, migrations));
+
+        /* The weather table itself must be untouched */
+        Cursor weatherCursor = database.query(REFLECTED_TABLE_NAME,
+                null, null, null, null, null, null);
+        assertNotNull(weatherCursor);
+        weatherCursor.close();
+
+        database.close();
+    }
+
+    /**
+     * Each location keeps its own forecast, so the same date may be stored once per location
+     * without one row replacing the other.
+     */
+    @Test
+    public void testSameDateInTwoLocations() {
+        ContentValues firstLocationValues = TestUtilities.createTestWeatherContentValues();
+        ContentValues secondLocationValues = TestUtilities.createTestWeatherContentValues();
+        secondLocationValues.put(WeatherContract.WeatherEntry.COLUMN_LOCATION_ID,
+                TestUtilities.TEST_LOCATION_ID + 1);
+
+        assertTrue(database.insert(REFLECTED_TABLE_NAME, null, firstLocationValues) != -1);
+        assertTrue(database.insert(REFLECTED_TABLE_NAME, null, secondLocationValues) != -1);
+
+        Cursor weatherCursor = database.query(REFLECTED_TABLE_NAME,
+                null, null, null, null, null, null);
+        assertEquals("Both locations should have their own row for the date",
+                2, weatherCursor.getCount());
+        weatherCursor.close();
+
+        database.close();
+    }
+
+    /**
+     * Migrating a version 3 database, which only knew a single location, must keep its forecast
+     * and file it under the location setting the user had chosen.
+     */
+    @Test
+    public void testMigrationToLocationsKeepsRows() {
+        database.execSQL("DROP TABLE " + REFLECTED_TABLE_NAME);
+        database.execSQL("DROP TABLE " + WeatherContract.LocationEntry.TABLE_NAME);
+        database.execSQL("CREATE TABLE " + REFLECTED_TABLE_NAME + " ("
+                + BaseColumns._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + REFLECTED_COLUMN_DATE + " INTEGER NOT NULL, "
+                + REFLECTED_COLUMN_WEATHER_ID + " INTEGER NOT NULL, "
+                + REFLECTED_COLUMN_MIN + " REAL NOT NULL, "
+                + REFLECTED_COLUMN_MAX + " REAL NOT NULL, "
+                + REFLECTED_COLUMN_HUMIDITY + " REAL NOT NULL, "
+                + REFLECTED_COLUMN_PRESSURE + " REAL NOT NULL, "
+                + REFLECTED_COLUMN_WIND_SPEED + " REAL NOT NULL, "
+                + REFLECTED_COLUMN_WIND_DIR + " REAL NOT NULL, "
+                + " UNIQUE (" + REFLECTED_COLUMN_DATE + ") ON CONFLICT REPLACE);");
+
+        ContentValues testWeatherValues = TestUtilities.createTestWeatherContentValues();
+        testWeatherValues.remove(WeatherContract.WeatherEntry.COLUMN_LOCATION_ID);
+        assertTrue(database.insert(REFLECTED_TABLE_NAME, null, testWeatherValues) != -1);
+
+        WeatherDbHelper.migrateToLocations(database, TestUtilities.TEST_LOCATION);
+
+        Cursor locationCursor = database.query(WeatherContract.LocationEntry.TABLE_NAME,
+                null, null, null, null, null, null);
+        assertTrue("The location setting should have been stored", locationCursor.moveToFirst());
+        assertEquals(TestUtilities.TEST_LOCATION, locationCursor.getString(locationCursor
+                .getColumnIndexOrThrow(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING)));
+        long locationId = locationCursor.getLong(
+                locationCursor.getColumnIndexOrThrow(BaseColumns._ID));
+        locationCursor.close();
+
+        Cursor weatherCursor = database.query(REFLECTED_TABLE_NAME,
+                null, null, null, null, null, null);
+        assertTrue("Migrating should have kept the existing row", weatherCursor.moveToFirst());
+        TestUtilities.validateCurrentRecord("Error validating the migrated row",
+                weatherCursor, testWeatherValues);
+        assertEquals(locationId, weatherCursor.getLong(weatherCursor
+                .getColumnIndexOrThrow(WeatherContract.WeatherEntry.COLUMN_LOCATION_ID)));
+        weatherCursor.close();
+
+        database.close();
+    }
+
+    /**
+     * A new database gets incremental auto-vacuum from the start, so it never needs the full
+     * VACUUM that turning it on later takes. One created without it gets it from
+     * enableIncrementalVacuum, which the history compaction job runs while charging.
+     */
+    @Test
+    public void testIncrementalVacuumIsEnabled() {
+        WeatherDbHelper helper = (WeatherDbHelper) dbHelper;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            assertEquals(2, DatabaseUtils.longForQuery(database, "PRAGMA auto_vacuum", null));
+            assertEquals("A new database shouldn't need a VACUUM",
+                    0, helper.enableIncrementalVacuum());
+        }
+
+        /* As a database from before incremental auto-vacuum was asked for */
+        database.execSQL("PRAGMA auto_vacuum = 0");
+        database.execSQL("VACUUM");
+        assertEquals(0, DatabaseUtils.longForQuery(database, "PRAGMA auto_vacuum", null));
+
+        /* Reclaiming space, as after a sync, mustn't convert it */
+        helper.reclaimSpace();
+        assertEquals(0, DatabaseUtils.longForQuery(database, "PRAGMA auto_vacuum", null));
+
+        helper.enableIncrementalVacuum();
+        assertEquals(2, DatabaseUtils.longForQuery(database, "PRAGMA auto_vacuum", null));
+
+        database.close();
+    }
+
+    /**
+     * If migrating to locations fails after the old weather table was renamed, rebuilding the
+     * database must drop that table as well, or the old forecast stays in the file for good.
+     */
+    @Test
+    public void testFailedMigrationToLocationsLeavesNoOldTable() {
+        database.execSQL("DROP TABLE " + WeatherContract.HistoryEntry.TABLE_NAME);
+        database.execSQL("DROP TABLE " + REFLECTED_TABLE_NAME);
+        database.execSQL("DROP TABLE " + WeatherContract.LocationEntry.TABLE_NAME);
+
+        /* Without a wind direction column, copying the rows fails once the table is renamed */
+        database.execSQL("CREATE TABLE " + REFLECTED_TABLE_NAME + " ("
+                + BaseColumns._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + REFLECTED_COLUMN_DATE + " INTEGER NOT NULL, "
+                + REFLECTED_COLUMN_WEATHER_ID + " INTEGER NOT NULL, "
+                + REFLECTED_COLUMN_MIN + " REAL NOT NULL, "
+                + REFLECTED_COLUMN_MAX + " REAL NOT NULL, "
+                + REFLECTED_COLUMN_HUMIDITY + " REAL NOT NULL, "
+                + REFLECTED_COLUMN_PRESSURE + " REAL NOT NULL, "
+                + REFLECTED_COLUMN_WIND_SPEED + " REAL NOT NULL);");
+
+        dbHelper.onUpgrade(database, 3, 5);
+
+        Cursor tableNameCursor = database.rawQuery(
+                "SELECT name FROM sqlite_master WHERE type='table' AND name=?",
+                new String[]{REFLECTED_TABLE_NAME + "_v3"});
+        assertEquals("The renamed weather table should have been dropped",
+                0, tableNameCursor.getCount());
+        tableNameCursor.close();
+
+        Cursor weatherCursor = database.query(REFLECTED_TABLE_NAME,
+                null, null, null, null, null, null);
+        assertEquals("The rebuilt weather table should be empty", 0, weatherCursor.getCount());
+        weatherCursor.close();
+
+        database.close();
+    }
 }
\ No newline at end of file
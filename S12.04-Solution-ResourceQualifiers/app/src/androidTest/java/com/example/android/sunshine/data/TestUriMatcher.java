@@ -19,6 +19,8 @@ import android.content.UriMatcher;
 import android.net.Uri;
 import android.support.test.runner.AndroidJUnit4;
 
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -37,6 +39,22 @@ public class TestUriMatcher {
     private static final Uri TEST_WEATHER_DIR = WeatherContract.WeatherEntry.CONTENT_URI;
     private static final Uri TEST_WEATHER_WITH_DATE_DIR = WeatherContract.WeatherEntry
             .buildWeatherUriWithDate(TestUtilities.DATE_NORMALIZED);
+    private static final Uri TEST_WEATHER_WITH_LOCATION_DIR = WeatherContract.WeatherEntry
+            .buildWeatherUriWithLocation(TestUtilities.TEST_LOCATION_ID);
+    private static final Uri TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR = WeatherContract.WeatherEntry
+            .buildWeatherUriWithLocationAndDate(TestUtilities.TEST_LOCATION_ID,
+                    TestUtilities.DATE_NORMALIZED);
+    private static final Uri TEST_HISTORY_WITH_LOCATION_DIR = WeatherContract.HistoryEntry
+            .buildHistoryUriWithLocation(TestUtilities.TEST_LOCATION_ID);
+    private static final Uri TEST_HISTORY_WITH_LOCATION_AND_RANGE_DIR = WeatherContract.HistoryEntry
+            .buildHistoryUriWithLocationAndRange(TestUtilities.TEST_LOCATION_ID,
+                    TestUtilities.DATE_NORMALIZED,
+                    TestUtilities.DATE_NORMALIZED + SunshineDateUtils.DAY_IN_MILLIS);
+    private static final Uri TEST_WEEKLY_STATS_DIR = WeatherContract.StatsEntry
+            .buildWeeklyStatsUri(TestUtilities.TEST_LOCATION_ID);
+    private static final Uri TEST_MONTHLY_STATS_DIR = WeatherContract.StatsEntry
+            .buildMonthlyStatsUri(TestUtilities.TEST_LOCATION_ID);
+    private static final Uri TEST_METRICS_DIR = WeatherContract.MetricsEntry.CONTENT_URI;
 
     private static final String weatherCodeVariableName = "CODE_WEATHER";
     private static int REFLECTED_WEATHER_CODE;
@@ -44,6 +62,29 @@ public class TestUriMatcher {
     private static final String weatherCodeWithDateVariableName = "CODE_WEATHER_WITH_DATE";
     private static int REFLECTED_WEATHER_WITH_DATE_CODE;
 
+    private static final String weatherCodeWithLocationVariableName = "CODE_WEATHER_WITH_LOCATION";
+    private static int REFLECTED_WEATHER_WITH_LOCATION_CODE;
+
+    private static final String weatherCodeWithLocationAndDateVariableName =
+            "CODE_WEATHER_WITH_LOCATION_AND_DATE";
+    private static int REFLECTED_WEATHER_WITH_LOCATION_AND_DATE_CODE;
+
+    private static final String historyCodeWithLocationVariableName = "CODE_HISTORY_WITH_LOCATION";
+    private static int REFLECTED_HISTORY_WITH_LOCATION_CODE;
+
+    private static final String historyCodeWithLocationAndRangeVariableName =
+            "CODE_HISTORY_WITH_LOCATION_AND_RANGE";
+    private static int REFLECTED_HISTORY_WITH_LOCATION_AND_RANGE_CODE;
+
+    private static final String weeklyStatsCodeVariableName = "CODE_STATS_WEEKLY";
+    private static int REFLECTED_STATS_WEEKLY_CODE;
+
+    private static final String monthlyStatsCodeVariableName = "CODE_STATS_MONTHLY";
+    private static int REFLECTED_STATS_MONTHLY_CODE;
+
+    private static final String metricsCodeVariableName = "CODE_METRICS";
+    private static int REFLECTED_METRICS_CODE;
+
     private UriMatcher testMatcher;
 
     @Before
@@ -61,6 +102,34 @@ public class TestUriMatcher {
                     WeatherProvider.class,
                     weatherCodeWithDateVariableName);
 
+            REFLECTED_WEATHER_WITH_LOCATION_CODE = getStaticIntegerField(
+                    WeatherProvider.class,
+                    weatherCodeWithLocationVariableName);
+
+            REFLECTED_WEATHER_WITH_LOCATION_AND_DATE_CODE = getStaticIntegerField(
+                    WeatherProvider.class,
+                    weatherCodeWithLocationAndDateVariableName);
+
+            REFLECTED_HISTORY_WITH_LOCATION_CODE = getStaticIntegerField(
+                    WeatherProvider.class,
+                    historyCodeWithLocationVariableName);
+
+            REFLECTED_HISTORY_WITH_LOCATION_AND_RANGE_CODE = getStaticIntegerField(
+                    WeatherProvider.class,
+                    historyCodeWithLocationAndRangeVariableName);
+
+            REFLECTED_STATS_WEEKLY_CODE = getStaticIntegerField(
+                    WeatherProvider.class,
+                    weeklyStatsCodeVariableName);
+
+            REFLECTED_STATS_MONTHLY_CODE = getStaticIntegerField(
+                    WeatherProvider.class,
+                    monthlyStatsCodeVariableName);
+
+            REFLECTED_METRICS_CODE = getStaticIntegerField(
+                    WeatherProvider.class,
+                    metricsCodeVariableName);
+
         } catch (NoSuchFieldException e) {
             fail(studentReadableNoSuchField(e));
         } catch (IllegalAccessException e) {
@@ -101,5 +170,34 @@ public class TestUriMatcher {
         assertEquals(weatherWithDateUriCodeDoesNotMatch,
                 expectedWeatherWithDateCode,
                 actualWeatherWithDateCode);
+
+        /* The weather of one location, and of one location on one date */
+        assertEquals("Error: The CODE_WEATHER WITH LOCATION URI was matched incorrectly.",
+                REFLECTED_WEATHER_WITH_LOCATION_CODE,
+                testMatcher.match(TEST_WEATHER_WITH_LOCATION_DIR));
+        assertEquals("Error: The CODE_WEATHER WITH LOCATION AND DATE URI was matched incorrectly.",
+                REFLECTED_WEATHER_WITH_LOCATION_AND_DATE_CODE,
+                testMatcher.match(TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR));
+
+        /* The history of one location, and of one location over a range of dates */
+        assertEquals("Error: The CODE_HISTORY WITH LOCATION URI was matched incorrectly.",
+                REFLECTED_HISTORY_WITH_LOCATION_CODE,
+                testMatcher.match(TEST_HISTORY_WITH_LOCATION_DIR));
+        assertEquals("Error: The CODE_HISTORY WITH LOCATION AND RANGE URI was matched incorrectly.",
+                REFLECTED_HISTORY_WITH_LOCATION_AND_RANGE_CODE,
+                testMatcher.match(TEST_HISTORY_WITH_LOCATION_AND_RANGE_DIR));
+
+        /* The weather of one location summed up by week and by month */
+        assertEquals("Error: The CODE_STATS_WEEKLY URI was matched incorrectly.",
+                REFLECTED_STATS_WEEKLY_CODE,
+                testMatcher.match(TEST_WEEKLY_STATS_DIR));
+        assertEquals("Error: The CODE_STATS_MONTHLY URI was matched incorrectly.",
+                REFLECTED_STATS_MONTHLY_CODE,
+                testMatcher.match(TEST_MONTHLY_STATS_DIR));
+
+        /* The provider's metrics, which tests see since they run against a debug build */
+        assertEquals("Error: The CODE_METRICS URI was matched incorrectly.",
+                REFLECTED_METRICS_CODE,
+                testMatcher.match(TEST_METRICS_DIR));
     }
 }
@@ -35,6 +35,7 @@ import java.util.regex.Pattern;
 import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_DATE;
 import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_DEGREES;
 import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_HUMIDITY;
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_LOCATION_ID;
 import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_MAX_TEMP;
 import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_MIN_TEMP;
 import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_PRESSURE;
@@ -59,6 +60,10 @@ class TestUtilities {
 
     static final int BULK_INSERT_RECORDS_TO_INSERT = 10;
 
+    /* The location setting passed to the provider's call methods, and the ID test rows use */
+    static final String TEST_LOCATION = "94043";
+    static final long TEST_LOCATION_ID = 1;
+
     /**
      * Ensures there is a non empty cursor and validates the cursor's data by checking it against
      * a set of expected values. This method will then close the cursor.
@@ -120,6 +125,7 @@ class TestUtilities {
 
         ContentValues testWeatherValues = new ContentValues();
 
+        testWeatherValues.put(COLUMN_LOCATION_ID, TEST_LOCATION_ID);
         testWeatherValues.put(COLUMN_DATE, DATE_NORMALIZED);
         testWeatherValues.put(COLUMN_DEGREES, 1.1);
         testWeatherValues.put(COLUMN_HUMIDITY, 1.2);
@@ -157,6 +163,7 @@ class TestUtilities {
 
             ContentValues weatherValues = new ContentValues();
 
+            weatherValues.put(COLUMN_LOCATION_ID, TEST_LOCATION_ID);
             weatherValues.put(COLUMN_DATE, normalizedTestDate);
             weatherValues.put(COLUMN_DEGREES, 1.1);
             weatherValues.put(COLUMN_HUMIDITY, 1.2 + 0.01 * (float) i);
@@ -172,6 +179,31 @@ class TestUtilities {
         return bulkTestWeatherValues;
     }
 
+    /**
+     * Builds a {@link ForecastBatch} holding the same days as
+     * {@link #createBulkInsertTestWeatherValues()}, so that rows inserted from it can be checked
+     * with {@link #validateCurrentRecord(String, Cursor, ContentValues)} as well.
+     *
+     * @return A ForecastBatch that can be inserted into our ContentProvider
+     */
+    static ForecastBatch createBulkInsertTestForecastBatch() {
+        ContentValues[] bulkTestWeatherValues = createBulkInsertTestWeatherValues();
+        ForecastBatch batch = new ForecastBatch(bulkTestWeatherValues.length);
+
+        for (ContentValues weatherValues : bulkTestWeatherValues) {
+            batch.add(weatherValues.getAsLong(COLUMN_DATE),
+                    weatherValues.getAsInteger(COLUMN_WEATHER_ID),
+                    weatherValues.getAsDouble(COLUMN_MIN_TEMP),
+                    weatherValues.getAsDouble(COLUMN_MAX_TEMP),
+                    weatherValues.getAsDouble(COLUMN_HUMIDITY),
+                    weatherValues.getAsDouble(COLUMN_PRESSURE),
+                    weatherValues.getAsDouble(COLUMN_WIND_SPEED),
+                    weatherValues.getAsDouble(COLUMN_DEGREES));
+        }
+
+        return batch;
+    }
+
 
     static TestContentObserver getTestContentObserver() {
         return TestContentObserver.getTestContentObserver();
@@ -188,6 +220,7 @@ class TestUtilities {
     static class TestContentObserver extends ContentObserver {
         final HandlerThread mHT;
         boolean mContentChanged;
+        int mChangeCount;
 
         private TestContentObserver(HandlerThread ht) {
             super(new Handler(ht.getLooper()));
@@ -223,6 +256,7 @@ class TestUtilities {
         @Override
         public void onChange(boolean selfChange, Uri uri) {
             mContentChanged = true;
+            mChangeCount++;
         }
 
         /**
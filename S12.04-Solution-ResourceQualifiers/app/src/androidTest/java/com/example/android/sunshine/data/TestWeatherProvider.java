@@ -16,24 +16,33 @@
 package com.example.android.sunshine.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.UriMatcher;
 import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.os.Bundle;
 import android.support.test.InstrumentationRegistry;
 import android.support.test.runner.AndroidJUnit4;
 
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.ArrayList;
+
 import static com.example.android.sunshine.data.TestUtilities.BULK_INSERT_RECORDS_TO_INSERT;
 import static com.example.android.sunshine.data.TestUtilities.createBulkInsertTestWeatherValues;
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertTrue;
 import static junit.framework.Assert.fail;
@@ -326,6 +335,715 @@ public class TestWeatherProvider {
         cursor.close();
     }
 
+    /**
+     * This test inserts a whole forecast through the provider's call method, the way the sync
+     * does, and checks that the same rows come back out as from {@link #testBulkInsert()}.
+     */
+    @Test
+    public void testBulkInsertBatch() {
+        ForecastBatch batch = TestUtilities.createBulkInsertTestForecastBatch();
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        ContentResolver contentResolver = mContext.getContentResolver();
+        contentResolver.registerContentObserver(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                true,
+                weatherObserver);
+
+        Bundle result = contentResolver.call(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_BULK_INSERT_BATCH,
+                TestUtilities.TEST_LOCATION,
+                batch.toBundle());
+
+        weatherObserver.waitForNotificationOrFail();
+        contentResolver.unregisterContentObserver(weatherObserver);
+
+        assertNotNull("The provider returned no result for the batch insert", result);
+        assertEquals("Number of expected records inserted does not match actual inserted record count",
+                BULK_INSERT_RECORDS_TO_INSERT,
+                result.getInt(WeatherContract.KEY_ROWS_INSERTED));
+
+        Cursor cursor = contentResolver.query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        assertNotNull(cursor);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+
+        cursor.moveToFirst();
+        for (int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, cursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord(
+                    "testBulkInsertBatch. Error validating WeatherEntry " + i,
+                    cursor,
+                    batch.toContentValues(i));
+        }
+
+        cursor.close();
+    }
+
+    /**
+     * Applies a forecast to two locations and checks that each location's URI only sees its own
+     * forecast, and that replacing the forecast of one leaves the other alone.
+     */
+    @Test
+    public void testForecastsOfLocationsAreKeptApart() {
+        ForecastBatch batch = TestUtilities.createBulkInsertTestForecastBatch();
+        ContentResolver contentResolver = mContext.getContentResolver();
+
+        long firstLocationId = applyForecast(TestUtilities.TEST_LOCATION, batch)
+                .getLong(WeatherContract.KEY_LOCATION_ID);
+        long secondLocationId = applyForecast("London,UK", batch)
+                .getLong(WeatherContract.KEY_LOCATION_ID);
+        assertTrue("Each location should get its own ID", firstLocationId != secondLocationId);
+        assertEquals("Applying to a known location should return the same ID",
+                firstLocationId, applyForecast(TestUtilities.TEST_LOCATION, batch)
+                        .getLong(WeatherContract.KEY_LOCATION_ID));
+
+        /* Replace the first location's forecast with one that is a day shorter */
+        ForecastBatch shorterBatch = new ForecastBatch();
+        for (int i = 1; i < batch.size(); i++) {
+            shorterBatch.add(batch.getDate(i), batch.getWeatherId(i), batch.getMinTemp(i),
+                    batch.getMaxTemp(i), batch.getHumidity(i), batch.getPressure(i),
+                    batch.getWindSpeed(i), batch.getDegrees(i));
+        }
+        applyForecast(TestUtilities.TEST_LOCATION, shorterBatch);
+
+        Cursor cursor = contentResolver.query(
+                WeatherContract.WeatherEntry.buildWeatherUriWithLocation(firstLocationId),
+                null, null, null, null);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT - 1, cursor.getCount());
+        cursor.close();
+
+        cursor = contentResolver.query(
+                WeatherContract.WeatherEntry.buildWeatherUriWithLocation(secondLocationId),
+                null, null, null, null);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.close();
+
+        /* The first day is now only stored for the second location */
+        cursor = contentResolver.query(
+                WeatherContract.WeatherEntry.buildWeatherUriWithLocationAndDate(
+                        firstLocationId, batch.getDate(0)),
+                null, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+
+        cursor = contentResolver.query(
+                WeatherContract.WeatherEntry.buildWeatherUriWithLocationAndDate(
+                        secondLocationId, batch.getDate(0)),
+                null, null, null, null);
+        TestUtilities.validateThenCloseCursor("testForecastsOfLocationsAreKeptApart",
+                cursor, batch.toContentValues(0));
+    }
+
+    /**
+     * Stores the same dates for two locations and checks that a query by date alone only
+     * returns the row of the preferred location.
+     */
+    @Test
+    public void testWeatherByDateIsOfThePreferredLocation() {
+        ForecastBatch batch = TestUtilities.createBulkInsertTestForecastBatch();
+        applyForecast(TestUtilities.TEST_LOCATION, batch);
+        long preferredLocationId = applyForecast("London,UK", batch)
+                .getLong(WeatherContract.KEY_LOCATION_ID);
+
+        String preferredLocation = SunshinePreferences.getPreferredWeatherLocation(mContext);
+        long savedLocationId = SunshinePreferences.getPreferredLocationId(mContext);
+        SunshinePreferences.saveLocationId(mContext, preferredLocation, preferredLocationId);
+        try {
+            Cursor cursor = mContext.getContentResolver().query(
+                    WeatherContract.WeatherEntry.buildWeatherUriWithDate(batch.getDate(0)),
+                    null, null, null, null);
+            assertEquals(1, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals(preferredLocationId, cursor.getLong(cursor.getColumnIndex(
+                    WeatherContract.WeatherEntry.COLUMN_LOCATION_ID)));
+            cursor.close();
+        } finally {
+            SunshinePreferences.saveLocationId(mContext, preferredLocation, savedLocationId);
+        }
+    }
+
+    /**
+     * Days before today that drop out of the forecast are moved into the history table. Days
+     * still to come that drop out are simply removed.
+     */
+    @Test
+    public void testPastDaysAreArchived() {
+        long today = SunshineDateUtils.normalizeDate(System.currentTimeMillis());
+        long day = SunshineDateUtils.DAY_IN_MILLIS;
+
+        /* A forecast from two days ago, then today's, which ends a day earlier */
+        ForecastBatch oldForecast = forecast(today - 2 * day, 5);
+        long locationId = applyForecast(TestUtilities.TEST_LOCATION, oldForecast)
+                .getLong(WeatherContract.KEY_LOCATION_ID);
+        Bundle result = applyForecast(TestUtilities.TEST_LOCATION, forecast(today, 2));
+
+        assertEquals(3, result.getInt(WeatherContract.KEY_ROWS_DELETED));
+        assertEquals(2, result.getInt(WeatherContract.KEY_ROWS_ARCHIVED));
+
+        ContentResolver contentResolver = mContext.getContentResolver();
+        Cursor cursor = contentResolver.query(
+                WeatherContract.HistoryEntry.buildHistoryUriWithLocation(locationId),
+                null, null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        assertNotNull(cursor);
+        assertEquals(2, cursor.getCount());
+
+        cursor.moveToFirst();
+        for (int i = 0; i < 2; i++, cursor.moveToNext()) {
+            ContentValues expectedValues = oldForecast.toContentValues(i);
+            expectedValues.put(WeatherContract.HistoryEntry.COLUMN_DAYS, 1);
+            TestUtilities.validateCurrentRecord("testPastDaysAreArchived. Error validating day "
+                    + i, cursor, expectedValues);
+        }
+        cursor.close();
+
+        /* Yesterday on its own, through a range */
+        cursor = contentResolver.query(
+                WeatherContract.HistoryEntry.buildHistoryUriWithLocationAndRange(
+                        locationId, today - day, today),
+                null, null, null, null);
+        TestUtilities.validateThenCloseCursor("testPastDaysAreArchived",
+                cursor, oldForecast.toContentValues(1));
+    }
+
+    /**
+     * Pruning moves the past days of every location into the history table, however many
+     * batches they take, and leaves the days still to come where they are.
+     */
+    @Test
+    public void testPastDaysOfEveryLocationArePruned() {
+        long today = SunshineDateUtils.normalizeDate(System.currentTimeMillis());
+        long day = SunshineDateUtils.DAY_IN_MILLIS;
+        int pastDays = WeatherProvider.PRUNE_BATCH_ROWS + 10;
+
+        long firstLocationId = applyForecast(TestUtilities.TEST_LOCATION,
+                forecast(today - pastDays * day, pastDays + 3))
+                .getLong(WeatherContract.KEY_LOCATION_ID);
+        long secondLocationId = applyForecast("London,UK", forecast(today - day, 3))
+                .getLong(WeatherContract.KEY_LOCATION_ID);
+
+        ContentResolver contentResolver = mContext.getContentResolver();
+        Bundle result = contentResolver.call(WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_PRUNE_WEATHER, null, null);
+        assertNotNull(result);
+        assertEquals(pastDays + 1, result.getInt(WeatherContract.KEY_ROWS_ARCHIVED));
+        assertTrue(result.containsKey(WeatherContract.KEY_BYTES_RECLAIMED));
+
+        long[] locationIds = {firstLocationId, secondLocationId};
+        int[] historyDays = {pastDays, 1};
+        int[] forecastDays = {3, 2};
+        for (int i = 0; i < locationIds.length; i++) {
+            Cursor cursor = contentResolver.query(
+                    WeatherContract.HistoryEntry.buildHistoryUriWithLocation(locationIds[i]),
+                    null, null, null, null);
+            assertEquals(historyDays[i], cursor.getCount());
+            cursor.close();
+
+            cursor = contentResolver.query(
+                    WeatherContract.WeatherEntry.buildWeatherUriWithLocation(locationIds[i]),
+                    null, null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+            assertEquals(forecastDays[i], cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals(today, cursor.getLong(
+                    cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE)));
+            cursor.close();
+        }
+
+        /* Nothing is left to prune */
+        result = contentResolver.call(WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_PRUNE_WEATHER, null, null);
+        assertEquals(0, result.getInt(WeatherContract.KEY_ROWS_ARCHIVED));
+    }
+
+    /**
+     * Inserts a day through the location's URI, then changes it through the URI of that day.
+     */
+    @Test
+    public void testInsertAndUpdate() {
+        ContentResolver contentResolver = mContext.getContentResolver();
+        Uri locationUri = WeatherContract.WeatherEntry.buildWeatherUriWithLocation(
+                TestUtilities.TEST_LOCATION_ID);
+
+        ContentValues values = TestUtilities.createTestWeatherContentValues();
+        values.remove(WeatherContract.WeatherEntry.COLUMN_LOCATION_ID);
+        Uri dayUri = contentResolver.insert(locationUri, values);
+        assertEquals(WeatherContract.WeatherEntry.buildWeatherUriWithLocationAndDate(
+                TestUtilities.TEST_LOCATION_ID, TestUtilities.DATE_NORMALIZED), dayUri);
+
+        ContentValues newWeather = new ContentValues();
+        newWeather.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, 500);
+        newWeather.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 12.5);
+        assertEquals(1, contentResolver.update(dayUri, newWeather, null, null));
+
+        /* Only the columns that were updated have changed */
+        values.putAll(newWeather);
+        TestUtilities.validateThenCloseCursor("testInsertAndUpdate",
+                contentResolver.query(dayUri, null, null, null, null), values);
+
+        /* Another location has no weather on that date to update */
+        Uri otherDayUri = WeatherContract.WeatherEntry.buildWeatherUriWithLocationAndDate(
+                TestUtilities.TEST_LOCATION_ID + 1, TestUtilities.DATE_NORMALIZED);
+        assertEquals(0, contentResolver.update(otherDayUri, newWeather, null, null));
+    }
+
+    /**
+     * Applies inserts, an update and a delete in one batch. They all take effect, and observers
+     * of the forecast are told about them once rather than once per operation.
+     */
+    @Test
+    public void testApplyBatchNotifiesOnce() throws Exception {
+        ContentValues[] days = createBulkInsertTestWeatherValues();
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (ContentValues day : days) {
+            operations.add(ContentProviderOperation
+                    .newInsert(WeatherContract.WeatherEntry.CONTENT_URI)
+                    .withValues(day)
+                    .build());
+        }
+
+        ContentValues newWeather = new ContentValues();
+        newWeather.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, 500);
+        long firstDate = days[0].getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        long lastDate = days[days.length - 1].getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        operations.add(ContentProviderOperation
+                .newUpdate(WeatherContract.WeatherEntry.buildWeatherUriWithLocationAndDate(
+                        TestUtilities.TEST_LOCATION_ID, firstDate))
+                .withValues(newWeather)
+                .build());
+        operations.add(ContentProviderOperation
+                .newDelete(WeatherContract.WeatherEntry.buildWeatherUriWithLocationAndDate(
+                        TestUtilities.TEST_LOCATION_ID, lastDate))
+                .build());
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        ContentResolver contentResolver = mContext.getContentResolver();
+        contentResolver.registerContentObserver(
+                WeatherContract.WeatherEntry.buildWeatherListUri(TestUtilities.TEST_LOCATION_ID),
+                true,
+                weatherObserver);
+
+        ContentProviderResult[] results =
+                contentResolver.applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+
+        weatherObserver.waitForNotificationOrFail();
+        contentResolver.unregisterContentObserver(weatherObserver);
+
+        assertEquals(operations.size(), results.length);
+        assertEquals(1, results[days.length].count.intValue());
+        assertEquals(1, results[days.length + 1].count.intValue());
+        assertEquals("The batch should have notified observers once",
+                1, weatherObserver.mChangeCount);
+
+        Cursor cursor = contentResolver.query(WeatherContract.WeatherEntry.CONTENT_URI,
+                null, null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        assertNotNull(cursor);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT - 1, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(500, cursor.getInt(
+                cursor.getColumnIndexOrThrow(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID)));
+        cursor.close();
+    }
+
+    /**
+     * A batch that fails part way through leaves nothing behind, not even the operations before
+     * the one that failed.
+     */
+    @Test
+    public void testApplyBatchIsAtomic() throws Exception {
+        ContentValues day = TestUtilities.createTestWeatherContentValues();
+        ContentValues badDay = new ContentValues(day);
+        badDay.put(WeatherContract.WeatherEntry.COLUMN_DATE, TestUtilities.DATE_NORMALIZED + 1);
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation
+                .newInsert(WeatherContract.WeatherEntry.CONTENT_URI)
+                .withValues(day)
+                .build());
+        operations.add(ContentProviderOperation
+                .newInsert(WeatherContract.WeatherEntry.CONTENT_URI)
+                .withValues(badDay)
+                .build());
+
+        ContentResolver contentResolver = mContext.getContentResolver();
+        try {
+            contentResolver.applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+            fail("A day that isn't normalized should fail the batch");
+        } catch (IllegalArgumentException e) {
+            /* Expected */
+        }
+
+        Cursor cursor = contentResolver.query(WeatherContract.WeatherEntry.CONTENT_URI,
+                null, null, null, null);
+        assertNotNull(cursor);
+        assertEquals("The first insert should have been rolled back", 0, cursor.getCount());
+        cursor.close();
+    }
+
+    /**
+     * Applies a forecast that only changes its second day. Observers of that day and of the
+     * forecast are notified; observers of the first day, which is the same as before, are not.
+     */
+    @Test
+    public void testOnlyChangedDaysAreNotified() {
+        long today = SunshineDateUtils.normalizeDate(System.currentTimeMillis());
+        ForecastBatch batch = forecast(today, 3);
+        ContentResolver contentResolver = mContext.getContentResolver();
+
+        /* Wait for the first forecast to be notified, so its days aren't notified with ours */
+        TestUtilities.TestContentObserver firstForecastObserver =
+                TestUtilities.getTestContentObserver();
+        contentResolver.registerContentObserver(WeatherContract.WeatherEntry.LIST_URI, true,
+                firstForecastObserver);
+        long locationId = applyForecast(TestUtilities.TEST_LOCATION, batch)
+                .getLong(WeatherContract.KEY_LOCATION_ID);
+        firstForecastObserver.waitForNotificationOrFail();
+        contentResolver.unregisterContentObserver(firstForecastObserver);
+
+        ForecastBatch changedBatch = new ForecastBatch(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            changedBatch.add(batch.getDate(i), i == 1 ? 500 : batch.getWeatherId(i),
+                    batch.getMinTemp(i), batch.getMaxTemp(i), batch.getHumidity(i),
+                    batch.getPressure(i), batch.getWindSpeed(i), batch.getDegrees(i));
+        }
+
+        TestUtilities.TestContentObserver unchangedDayObserver =
+                TestUtilities.getTestContentObserver();
+        TestUtilities.TestContentObserver changedDayObserver =
+                TestUtilities.getTestContentObserver();
+        TestUtilities.TestContentObserver forecastObserver =
+                TestUtilities.getTestContentObserver();
+        contentResolver.registerContentObserver(
+                WeatherContract.WeatherEntry.buildWeatherUriWithLocationAndDate(
+                        locationId, batch.getDate(0)),
+                true,
+                unchangedDayObserver);
+        contentResolver.registerContentObserver(
+                WeatherContract.WeatherEntry.buildWeatherUriWithLocationAndDate(
+                        locationId, batch.getDate(1)),
+                true,
+                changedDayObserver);
+        contentResolver.registerContentObserver(
+                WeatherContract.WeatherEntry.buildWeatherListUri(locationId),
+                true,
+                forecastObserver);
+
+        Bundle result = applyForecast(TestUtilities.TEST_LOCATION, changedBatch);
+        assertEquals(1, result.getInt(WeatherContract.KEY_ROWS_UPDATED));
+
+        /* The forecast is notified after the days, so by then any day would have been too */
+        changedDayObserver.waitForNotificationOrFail();
+        forecastObserver.waitForNotificationOrFail();
+        contentResolver.unregisterContentObserver(unchangedDayObserver);
+        unchangedDayObserver.mHT.quit();
+        contentResolver.unregisterContentObserver(changedDayObserver);
+        contentResolver.unregisterContentObserver(forecastObserver);
+
+        assertEquals("The forecast should have been notified once",
+                1, forecastObserver.mChangeCount);
+        assertFalse("A day that didn't change shouldn't be notified",
+                unchangedDayObserver.mContentChanged);
+    }
+
+    /**
+     * Queries the same day twice. The second query is answered from the cache, with the same
+     * values, until a write changes the day.
+     */
+    @Test
+    public void testRepeatedQueriesAreCached() {
+        ContentResolver contentResolver = mContext.getContentResolver();
+        ContentValues values = TestUtilities.createTestWeatherContentValues();
+        Uri dayUri = contentResolver.insert(WeatherContract.WeatherEntry.CONTENT_URI, values);
+        assertNotNull(dayUri);
+
+        Bundle before = cacheStats();
+        TestUtilities.validateThenCloseCursor("testRepeatedQueriesAreCached",
+                contentResolver.query(dayUri, null, null, null, null), values);
+        TestUtilities.validateThenCloseCursor("testRepeatedQueriesAreCached",
+                contentResolver.query(dayUri, null, null, null, null), values);
+        Bundle after = cacheStats();
+
+        assertEquals(1, after.getLong(WeatherContract.KEY_CACHE_MISSES)
+                - before.getLong(WeatherContract.KEY_CACHE_MISSES));
+        assertEquals(1, after.getLong(WeatherContract.KEY_CACHE_HITS)
+                - before.getLong(WeatherContract.KEY_CACHE_HITS));
+
+        /* The update has to be seen, not the result from before it */
+        ContentValues newWeather = new ContentValues();
+        newWeather.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, 500);
+        assertEquals(1, contentResolver.update(dayUri, newWeather, null, null));
+
+        values.putAll(newWeather);
+        TestUtilities.validateThenCloseCursor("testRepeatedQueriesAreCached",
+                contentResolver.query(dayUri, null, null, null, null), values);
+        assertEquals(after.getLong(WeatherContract.KEY_CACHE_HITS),
+                cacheStats().getLong(WeatherContract.KEY_CACHE_HITS));
+    }
+
+    private Bundle cacheStats() {
+        Bundle stats = mContext.getContentResolver().call(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_QUERY_CACHE_STATS,
+                null,
+                null);
+        assertNotNull("The provider returned no cache stats", stats);
+        return stats;
+    }
+
+    /**
+     * Bulk inserts, queries and deletes a forecast, and checks that the provider's metrics
+     * count each call and its rows under the URI code it matched.
+     */
+    @Test
+    public void testOperationsAreMeasured() {
+        Uri locationUri = WeatherContract.WeatherEntry.buildWeatherUriWithLocation(
+                TestUtilities.TEST_LOCATION_ID);
+        long[] bulkInsertsBefore = metrics(WeatherContract.MetricsEntry.OPERATION_BULK_INSERT,
+                WeatherProvider.CODE_WEATHER_WITH_LOCATION);
+        long[] queriesBefore = metrics(WeatherContract.MetricsEntry.OPERATION_QUERY,
+                WeatherProvider.CODE_WEATHER_WITH_LOCATION);
+        long[] deletesBefore = metrics(WeatherContract.MetricsEntry.OPERATION_DELETE,
+                WeatherProvider.CODE_WEATHER_WITH_LOCATION);
+
+        ContentResolver contentResolver = mContext.getContentResolver();
+        contentResolver.bulkInsert(locationUri, createBulkInsertTestWeatherValues());
+        contentResolver.query(locationUri, null, null, null, null).close();
+        contentResolver.delete(locationUri, null, null);
+
+        assertMeasured(WeatherContract.MetricsEntry.OPERATION_BULK_INSERT, bulkInsertsBefore,
+                metrics(WeatherContract.MetricsEntry.OPERATION_BULK_INSERT,
+                        WeatherProvider.CODE_WEATHER_WITH_LOCATION));
+        assertMeasured(WeatherContract.MetricsEntry.OPERATION_QUERY, queriesBefore,
+                metrics(WeatherContract.MetricsEntry.OPERATION_QUERY,
+                        WeatherProvider.CODE_WEATHER_WITH_LOCATION));
+        assertMeasured(WeatherContract.MetricsEntry.OPERATION_DELETE, deletesBefore,
+                metrics(WeatherContract.MetricsEntry.OPERATION_DELETE,
+                        WeatherProvider.CODE_WEATHER_WITH_LOCATION));
+    }
+
+    /**
+     * The sync writes every forecast through METHOD_APPLY_FORECAST, so the call must show up in
+     * the metrics, with the rows it wrote.
+     */
+    @Test
+    public void testProviderMethodsAreMeasured() {
+        long[] callsBefore = metrics(WeatherContract.MetricsEntry.OPERATION_CALL,
+                UriMatcher.NO_MATCH, WeatherContract.METHOD_APPLY_FORECAST);
+
+        applyForecast(TestUtilities.TEST_LOCATION,
+                TestUtilities.createBulkInsertTestForecastBatch());
+
+        assertMeasured(WeatherContract.METHOD_APPLY_FORECAST, callsBefore,
+                metrics(WeatherContract.MetricsEntry.OPERATION_CALL, UriMatcher.NO_MATCH,
+                        WeatherContract.METHOD_APPLY_FORECAST));
+    }
+
+    /* One more call, with all of the forecast's rows, and in one bucket of the histogram */
+    private static void assertMeasured(String operation, long[] before, long[] after) {
+        assertEquals("Wrong number of " + operation + " calls", before[0] + 1, after[0]);
+        assertEquals("Wrong number of " + operation + " rows",
+                before[1] + BULK_INSERT_RECORDS_TO_INSERT, after[1]);
+        assertEquals("The " + operation + " histogram doesn't add up to its calls",
+                after[0], after[2]);
+    }
+
+    /**
+     * Returns the number of calls, the number of rows and the sum of the histogram buckets the
+     * provider's metrics have for an operation on a URI code, all 0 if there are none yet.
+     */
+    private long[] metrics(String operation, int uriCode) {
+        return metrics(operation, uriCode, null);
+    }
+
+    /**
+     * Like {@link #metrics(String, int)}, for the calls of a provider method, or for the
+     * operations that aren't calls if the method is null.
+     */
+    private long[] metrics(String operation, int uriCode, String method) {
+        String[] buckets = {
+                WeatherContract.MetricsEntry.COLUMN_UNDER_1_MS,
+                WeatherContract.MetricsEntry.COLUMN_UNDER_4_MS,
+                WeatherContract.MetricsEntry.COLUMN_UNDER_16_MS,
+                WeatherContract.MetricsEntry.COLUMN_UNDER_64_MS,
+                WeatherContract.MetricsEntry.COLUMN_UNDER_256_MS,
+                WeatherContract.MetricsEntry.COLUMN_OVER_256_MS
+        };
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.MetricsEntry.CONTENT_URI, null, null, null, null);
+        assertNotNull("The provider returned no metrics", cursor);
+
+        long[] metrics = new long[3];
+        while (cursor.moveToNext()) {
+            if (!operation.equals(cursor.getString(
+                    cursor.getColumnIndex(WeatherContract.MetricsEntry.COLUMN_OPERATION)))
+                    || uriCode != cursor.getInt(
+                    cursor.getColumnIndex(WeatherContract.MetricsEntry.COLUMN_URI_CODE))) {
+                continue;
+            }
+            String rowMethod = cursor.getString(
+                    cursor.getColumnIndex(WeatherContract.MetricsEntry.COLUMN_METHOD));
+            if (method == null ? rowMethod != null : !method.equals(rowMethod)) {
+                continue;
+            }
+            metrics[0] = cursor.getLong(
+                    cursor.getColumnIndex(WeatherContract.MetricsEntry.COLUMN_CALLS));
+            metrics[1] = cursor.getLong(
+                    cursor.getColumnIndex(WeatherContract.MetricsEntry.COLUMN_ROWS));
+            for (String bucket : buckets) {
+                metrics[2] += cursor.getLong(cursor.getColumnIndex(bucket));
+            }
+        }
+        cursor.close();
+        return metrics;
+    }
+
+    /**
+     * Reads the forecast a page at a time, each page starting after the last date of the page
+     * before, until a page comes back short.
+     */
+    @Test
+    public void testForecastIsReadInPages() {
+        ContentValues[] bulkInsertTestContentValues = createBulkInsertTestWeatherValues();
+        ContentResolver contentResolver = mContext.getContentResolver();
+        contentResolver.bulkInsert(WeatherContract.WeatherEntry.buildWeatherUriWithLocation(
+                TestUtilities.TEST_LOCATION_ID), bulkInsertTestContentValues);
+
+        /* 10 days in pages of 4 are read as pages of 4, 4 and 2 */
+        int limit = 4;
+        int[] expectedPageSizes = {4, 4, 2};
+        Uri pageUri = WeatherContract.WeatherEntry.buildWeatherPageUri(
+                TestUtilities.TEST_LOCATION_ID, limit);
+        int row = 0;
+        for (int expectedPageSize : expectedPageSizes) {
+            Cursor page = contentResolver.query(pageUri, null, null, null, null);
+            assertNotNull(page);
+            assertEquals("Wrong number of rows in the page " + pageUri,
+                    expectedPageSize, page.getCount());
+            while (page.moveToNext()) {
+                TestUtilities.validateCurrentRecord("Error validating row " + row + " of the pages",
+                        page, bulkInsertTestContentValues[row]);
+                row++;
+            }
+
+            page.moveToLast();
+            pageUri = WeatherContract.buildNextPageUri(pageUri, page.getLong(
+                    page.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE)));
+            page.close();
+        }
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, row);
+
+        /* Sorted any other way, the pages would skip or repeat days */
+        try {
+            contentResolver.query(pageUri, null, null, null,
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " DESC");
+            fail("A page sorted by descending date should have been refused");
+        } catch (IllegalArgumentException e) {
+            /* Expected */
+        }
+    }
+
+    /**
+     * Sums up two weeks of forecast, starting on a Monday, and a day of history before them,
+     * by week and by month.
+     */
+    @Test
+    public void testWeeklyAndMonthlyStats() {
+        long day = SunshineDateUtils.DAY_IN_MILLIS;
+
+        /* Monday the 1st of August 2016 */
+        long firstMonday = 1470009600000L;
+
+        /* Day i has a minimum of 10 + i, a maximum of 20 + i, and rain on every third day */
+        ContentValues[] forecast = new ContentValues[14];
+        for (int i = 0; i < forecast.length; i++) {
+            forecast[i] = new ContentValues();
+            forecast[i].put(WeatherContract.WeatherEntry.COLUMN_DATE, firstMonday + i * day);
+            forecast[i].put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+                    i % 3 == 0 ? 500 : 800);
+            forecast[i].put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, 10.0 + i);
+            forecast[i].put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 20.0 + i);
+            forecast[i].put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, 50.0 + i);
+            forecast[i].put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, 1000.0);
+            forecast[i].put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, 2.5);
+            forecast[i].put(WeatherContract.WeatherEntry.COLUMN_DEGREES, 90.0);
+        }
+        ContentResolver contentResolver = mContext.getContentResolver();
+        contentResolver.bulkInsert(WeatherContract.WeatherEntry.buildWeatherUriWithLocation(
+                TestUtilities.TEST_LOCATION_ID), forecast);
+
+        /* Sunday the 31st of July, in the week and month before */
+        ContentValues pastDay = new ContentValues(forecast[0]);
+        pastDay.put(WeatherContract.WeatherEntry.COLUMN_LOCATION_ID,
+                TestUtilities.TEST_LOCATION_ID);
+        pastDay.put(WeatherContract.WeatherEntry.COLUMN_DATE, firstMonday - day);
+        WeatherDbHelper helper = new WeatherDbHelper(mContext);
+        assertTrue(helper.getWritableDatabase()
+                .insert(WeatherContract.HistoryEntry.TABLE_NAME, null, pastDay) != -1);
+        helper.close();
+
+        Cursor weeks = contentResolver.query(WeatherContract.StatsEntry.buildWeeklyStatsUri(
+                TestUtilities.TEST_LOCATION_ID), null, null, null, null);
+        assertNotNull(weeks);
+        assertEquals(3, weeks.getCount());
+        weeks.moveToFirst();
+        validateStats(weeks, firstMonday - 7 * day, 1, 10, 20, 15, 50, 1);
+        weeks.moveToNext();
+        validateStats(weeks, firstMonday, 7, 10, 26, 18, 53, 3);
+        weeks.moveToNext();
+        validateStats(weeks, firstMonday + 7 * day, 7, 17, 33, 25, 60, 2);
+        weeks.close();
+
+        /* Only August, through a selection on the start of the month */
+        Cursor months = contentResolver.query(WeatherContract.StatsEntry.buildMonthlyStatsUri(
+                TestUtilities.TEST_LOCATION_ID), null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " >= ?",
+                new String[]{Long.toString(firstMonday)}, null);
+        assertNotNull(months);
+        assertEquals(1, months.getCount());
+        months.moveToFirst();
+        validateStats(months, firstMonday, 14, 10, 33, 21.5, 56.5, 5);
+        months.close();
+    }
+
+    private static void validateStats(Cursor cursor, long startDate, int days, double minTemp,
+                                      double maxTemp, double averageTemp, double humidity,
+                                      int precipitationDays) {
+        ContentValues expected = new ContentValues();
+        expected.put(WeatherContract.WeatherEntry.COLUMN_DATE, startDate);
+        expected.put(WeatherContract.HistoryEntry.COLUMN_DAYS, days);
+        expected.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, minTemp);
+        expected.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, maxTemp);
+        expected.put(WeatherContract.StatsEntry.COLUMN_AVERAGE_TEMP, averageTemp);
+        expected.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
+        expected.put(WeatherContract.StatsEntry.COLUMN_PRECIPITATION_DAYS, precipitationDays);
+        TestUtilities.validateCurrentRecord("Error validating the stats starting on "
+                + startDate, cursor, expected);
+    }
+
+    private Bundle applyForecast(String locationSetting, ForecastBatch batch) {
+        Bundle result = mContext.getContentResolver().call(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_APPLY_FORECAST,
+                locationSetting,
+                batch.toBundle());
+        assertNotNull("The provider returned no result for the forecast", result);
+        return result;
+    }
+
+    /* A forecast of consecutive days, whose weather depends only on the day */
+    private static ForecastBatch forecast(long firstDate, int dayCount) {
+        ForecastBatch batch = new ForecastBatch(dayCount);
+        for (int i = 0; i < dayCount; i++) {
+            batch.add(firstDate + i * SunshineDateUtils.DAY_IN_MILLIS, 800 + i, 10 + i, 20 + i,
+                    50 + i, 1000 + i, 2.5, i * 10);
+        }
+        return batch;
+    }
+
     /**
      * This test deletes all records from the weather table using the ContentProvider. It also
      * verifies that registered ContentObservers receive onChange callbacks when data is deleted.
@@ -442,6 +1160,7 @@ public class TestWeatherProvider {
 
         /* The delete method deletes all of the desired rows from the table, not the table itself */
         database.delete(WeatherContract.WeatherEntry.TABLE_NAME, null, null);
+        database.delete(WeatherContract.HistoryEntry.TABLE_NAME, null, null);
 
         /* Always close the database when you're through with it */
         database.close();
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.android.sunshine.data.TestUtilities.BULK_INSERT_RECORDS_TO_INSERT;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class TestWriteAheadLogging {
+
+    /* Large enough that a sync of this many rows would keep a reader waiting noticeably */
+    private static final int LONG_WRITE_ROW_COUNT = 20000;
+
+    private static final long TIMEOUT_SECONDS = 30;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private WeatherDbHelper mHelper;
+
+    @Before
+    public void setUp() {
+        mHelper = new WeatherDbHelper(mContext);
+        mHelper.getWritableDatabase().delete(WeatherContract.WeatherEntry.TABLE_NAME, null, null);
+    }
+
+    @After
+    public void tearDown() {
+        mHelper.getWritableDatabase().delete(WeatherContract.WeatherEntry.TABLE_NAME, null, null);
+        mHelper.close();
+    }
+
+    @Test
+    public void testDatabaseUsesWriteAheadLog() {
+        Cursor cursor = mHelper.getReadableDatabase().rawQuery("PRAGMA journal_mode", null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("wal", cursor.getString(0).toLowerCase());
+        cursor.close();
+    }
+
+    @Test
+    public void testCheckpointSizeIsConfigurable() {
+        WeatherDbHelper helper = new WeatherDbHelper(mContext, 0);
+        Cursor cursor = helper.getWritableDatabase().rawQuery("PRAGMA wal_autocheckpoint", null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(0, cursor.getInt(0));
+        cursor.close();
+
+        /* With automatic checkpoints off, an explicit one must still work */
+        helper.checkpoint();
+        helper.close();
+    }
+
+    /**
+     * Holds a large write transaction open on one thread while querying the provider on
+     * another. The query has to come back while the write is still going on, and it has to see
+     * the forecast as it was before the write started.
+     */
+    @Test
+    public void testReadsProceedDuringLongWrite() throws Exception {
+        ContentResolver contentResolver = mContext.getContentResolver();
+        contentResolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI,
+                TestUtilities.createBulkInsertTestWeatherValues());
+
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch finishWriting = new CountDownLatch(1);
+        final Throwable[] writerError = new Throwable[1];
+
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                SQLiteDatabase database = mHelper.getWritableDatabase();
+                database.beginTransaction();
+                try {
+                    database.delete(WeatherContract.WeatherEntry.TABLE_NAME, null, null);
+                    for (int i = 0; i < LONG_WRITE_ROW_COUNT; i++) {
+                        database.insert(WeatherContract.WeatherEntry.TABLE_NAME, null,
+                                createWeatherValues(i));
+                    }
+                    writing.countDown();
+
+                    /* Keep the transaction open until the reader is done */
+                    finishWriting.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                    database.setTransactionSuccessful();
+                } catch (Throwable t) {
+                    writerError[0] = t;
+                } finally {
+                    database.endTransaction();
+                    writing.countDown();
+                }
+            }
+        });
+        writer.start();
+
+        try {
+            assertTrue("The writer never got going",
+                    writing.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+            long start = System.nanoTime();
+            Cursor cursor = contentResolver.query(WeatherContract.WeatherEntry.CONTENT_URI,
+                    null, null, null, null);
+            int countDuringWrite = cursor.getCount();
+            cursor.close();
+            long readMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            assertTrue("The writer should still be in its transaction", writer.isAlive());
+            assertEquals("The reader should see the forecast from before the write",
+                    BULK_INSERT_RECORDS_TO_INSERT, countDuringWrite);
+            assertTrue("Reading took " + readMillis + "ms", readMillis < 1000);
+        } finally {
+            finishWriting.countDown();
+            writer.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+        }
+
+        assertNull("The writer failed: " + writerError[0], writerError[0]);
+
+        Cursor cursor = contentResolver.query(WeatherContract.WeatherEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals(LONG_WRITE_ROW_COUNT, cursor.getCount());
+        cursor.close();
+    }
+
+    private static ContentValues createWeatherValues(int day) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.WeatherEntry.COLUMN_LOCATION_ID,
+                TestUtilities.TEST_LOCATION_ID);
+        values.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                TestUtilities.DATE_NORMALIZED + day * SunshineDateUtils.DAY_IN_MILLIS);
+        values.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, 800);
+        values.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, 10.0);
+        values.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 20.0);
+        values.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, 50.0);
+        values.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, 1000.0);
+        values.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, 2.5);
+        values.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, 90.0);
+        return values;
+    }
+}
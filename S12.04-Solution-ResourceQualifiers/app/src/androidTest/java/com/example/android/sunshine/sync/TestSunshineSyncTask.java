@@ -0,0 +1,305 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.data.SunshinePreferences;
+import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.utilities.ForecastResponseCache;
+import com.example.android.sunshine.utilities.NetworkUtils;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+import com.example.android.sunshine.utils.ForecastPayloads;
+import com.example.android.sunshine.utils.MockWeatherServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Runs the whole sync, from {@link NetworkUtils} through {@link
+ * com.example.android.sunshine.utilities.OpenWeatherJsonUtils} into the WeatherProvider, against a
+ * {@link MockWeatherServer} instead of the real weather server.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestSunshineSyncTask {
+
+    private static final String TAG = TestSunshineSyncTask.class.getSimpleName();
+
+    /* The number of timed syncs for each payload size in the benchmark */
+    private static final int BENCHMARK_RUNS = 5;
+
+    /* A retry policy that doesn't keep the tests waiting */
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long BACKOFF_MILLIS = 10;
+    private static final int FAILURE_THRESHOLD = 2;
+    private static final long OPEN_MILLIS = 60 * 60 * 1000;
+
+    private final Context context = InstrumentationRegistry.getTargetContext();
+
+    private MockWeatherServer server;
+    private SyncRetryPolicy retryPolicy;
+    private SyncIntervalPolicy intervalPolicy;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWeatherServer();
+        server.start();
+        NetworkUtils.setForecastBaseUrl(server.getUrl("/staticweather"));
+
+        retryPolicy = new SyncRetryPolicy(context, MAX_ATTEMPTS, BACKOFF_MILLIS, BACKOFF_MILLIS,
+                FAILURE_THRESHOLD, OPEN_MILLIS);
+        retryPolicy.reset();
+        SyncRetryPolicy.setInstance(retryPolicy);
+
+        intervalPolicy = new SyncIntervalPolicy(context,
+                SyncIntervalPolicy.DEFAULT_INTERVAL_SECONDS,
+                SyncIntervalPolicy.DEFAULT_MIN_INTERVAL_SECONDS,
+                SyncIntervalPolicy.DEFAULT_FRESHNESS_TARGET_SECONDS,
+                new File(context.getCacheDir(), "test_sync_decisions.csv"));
+        intervalPolicy.reset();
+        SyncIntervalPolicy.setInstance(intervalPolicy);
+
+        forgetPreviousSyncs();
+        context.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        NetworkUtils.setForecastBaseUrl(null);
+        retryPolicy.reset();
+        SyncRetryPolicy.setInstance(null);
+        intervalPolicy.reset();
+        SyncIntervalPolicy.setInstance(null);
+        server.shutdown();
+    }
+
+    @Test
+    public void testSyncStoresRecordedForecast() throws Exception {
+        server.enqueue(new MockWeatherServer.MockResponse()
+                .setBody(ForecastPayloads.readRecorded(InstrumentationRegistry.getContext())));
+
+        assertEquals(SunshineSyncTask.Result.SUCCESS, SunshineSyncTask.syncWeather(context));
+
+        MockWeatherServer.RecordedRequest request = server.takeRequest(1000);
+        assertNotNull("The sync never contacted the server", request);
+        assertTrue("Unexpected request path: " + request.path,
+                request.path.startsWith("/staticweather"));
+
+        assertStoredDays(ForecastPayloads.RECORDED_DAY_COUNT);
+    }
+
+    @Test
+    public void testServerErrorKeepsStoredForecast() throws Exception {
+        server.enqueue(new MockWeatherServer.MockResponse()
+                .setBody(ForecastPayloads.readRecorded(InstrumentationRegistry.getContext())));
+        SunshineSyncTask.syncWeather(context);
+
+        /*
+         * Make sure the next sync goes to the server, which is now having trouble. Every attempt
+         * after the first gets the server's default response, 503 (Service Unavailable).
+         */
+        ForecastResponseCache.getInstance(context).clear();
+        server.enqueue(new MockWeatherServer.MockResponse().setStatusCode(500));
+        assertEquals(SunshineSyncTask.Result.RETRY_LATER, SunshineSyncTask.syncWeather(context));
+
+        assertEquals(1 + MAX_ATTEMPTS, server.getPendingRequestCount());
+        assertStoredDays(ForecastPayloads.RECORDED_DAY_COUNT);
+    }
+
+    @Test
+    public void testServerErrorIsRetried() throws Exception {
+        server.enqueue(new MockWeatherServer.MockResponse().setStatusCode(503));
+        server.enqueue(new MockWeatherServer.MockResponse()
+                .setBody(ForecastPayloads.readRecorded(InstrumentationRegistry.getContext())));
+
+        assertEquals(SunshineSyncTask.Result.SUCCESS, SunshineSyncTask.syncWeather(context));
+
+        assertEquals(2, server.getPendingRequestCount());
+        assertStoredDays(ForecastPayloads.RECORDED_DAY_COUNT);
+    }
+
+    @Test
+    public void testClientErrorIsNotRetried() {
+        server.enqueue(new MockWeatherServer.MockResponse().setStatusCode(404));
+
+        assertEquals(SunshineSyncTask.Result.FAILED, SunshineSyncTask.syncWeather(context));
+
+        assertEquals(1, server.getPendingRequestCount());
+        assertEquals(SyncRetryPolicy.State.CLOSED, retryPolicy.getState());
+    }
+
+    @Test
+    public void testRepeatedFailuresOpenCircuitBreaker() {
+        for (int sync = 0; sync < FAILURE_THRESHOLD; sync++) {
+            assertEquals(SunshineSyncTask.Result.RETRY_LATER,
+                    SunshineSyncTask.syncWeather(context));
+        }
+        assertEquals(FAILURE_THRESHOLD * MAX_ATTEMPTS, server.getPendingRequestCount());
+        assertEquals(SyncRetryPolicy.State.OPEN, retryPolicy.getState());
+
+        /* While the breaker is open, syncs must leave the server alone, and not be retried */
+        assertEquals(SunshineSyncTask.Result.BREAKER_OPEN, SunshineSyncTask.syncWeather(context));
+        assertEquals(FAILURE_THRESHOLD * MAX_ATTEMPTS, server.getPendingRequestCount());
+    }
+
+    /**
+     * Syncing a location we have no weather for forgets only its own validators, so the
+     * forecasts of other locations can still be requested conditionally.
+     */
+    @Test
+    public void testFullDownloadKeepsOtherValidators() throws Exception {
+        String otherUrl = server.getUrl("/otherweather");
+        SunshinePreferences.saveHttpValidators(context, otherUrl, "\"other\"", null);
+
+        server.enqueue(new MockWeatherServer.MockResponse()
+                .setBody(ForecastPayloads.readRecorded(InstrumentationRegistry.getContext())));
+        assertEquals(SunshineSyncTask.Result.SUCCESS, SunshineSyncTask.syncWeather(context));
+
+        assertEquals("\"other\"", SunshinePreferences.getHttpValidators(context, otherUrl)[0]);
+    }
+
+    /**
+     * A sync answered from a fresh cache never reaches the server, so it mustn't count as the
+     * server having recovered.
+     */
+    @Test
+    public void testCachedSyncLeavesFailuresCounted() throws Exception {
+        server.enqueue(new MockWeatherServer.MockResponse()
+                .setBody(ForecastPayloads.readRecorded(InstrumentationRegistry.getContext())));
+        assertEquals(SunshineSyncTask.Result.SUCCESS, SunshineSyncTask.syncWeather(context));
+        server.takeRequest(1000);
+
+        for (int failure = 1; failure < FAILURE_THRESHOLD; failure++) {
+            retryPolicy.onFailure();
+        }
+
+        assertEquals(SunshineSyncTask.Result.SUCCESS, SunshineSyncTask.syncWeather(context));
+        assertNull("The cached forecast should have been used", server.takeRequest(100));
+
+        /* Had the cached sync reset the failures, this one wouldn't open the breaker */
+        retryPolicy.onFailure();
+        assertEquals(SyncRetryPolicy.State.OPEN, retryPolicy.getState());
+    }
+
+    @Test
+    public void testErrorCodeInPayloadStoresNothing() {
+        server.enqueue(new MockWeatherServer.MockResponse().setBody(ForecastPayloads.error(404)));
+
+        assertEquals(SunshineSyncTask.Result.FAILED, SunshineSyncTask.syncWeather(context));
+
+        assertStoredDays(0);
+    }
+
+    @Test
+    public void testNotModifiedKeepsStoredForecast() throws Exception {
+        server.enqueue(new MockWeatherServer.MockResponse()
+                .setHeader("ETag", "\"recorded\"")
+                .setBody(ForecastPayloads.readRecorded(InstrumentationRegistry.getContext())));
+        SunshineSyncTask.syncWeather(context);
+        server.takeRequest(1000);
+
+        ForecastResponseCache.getInstance(context).clear();
+        server.enqueue(new MockWeatherServer.MockResponse().setStatusCode(304));
+        SunshineSyncTask.syncWeather(context);
+
+        MockWeatherServer.RecordedRequest request = server.takeRequest(1000);
+        assertNotNull(request);
+        assertEquals("\"recorded\"", request.getHeader("If-None-Match"));
+        assertStoredDays(ForecastPayloads.RECORDED_DAY_COUNT);
+
+        /* Nothing changed, so the next sync can wait longer */
+        assertTrue(intervalPolicy.getIntervalSeconds()
+                > SyncIntervalPolicy.DEFAULT_INTERVAL_SECONDS);
+    }
+
+    /**
+     * Times full syncs of forecasts of different sizes over a slow, high latency link. Results
+     * are written to the log, since timings vary too much from device to device to assert on.
+     */
+    @Test
+    public void testSyncBenchmark() {
+        for (int dayCount : new int[]{14, 140, 1400}) {
+            server.setDefaultResponse(new MockWeatherServer.MockResponse()
+                    .setDelay(100)
+                    .throttleBody(256 * 1024)
+                    .setBody(ForecastPayloads.generate(dayCount)));
+
+            long[] timings = new long[BENCHMARK_RUNS];
+            for (int run = 0; run < BENCHMARK_RUNS; run++) {
+                forgetPreviousSyncs();
+
+                long start = SystemClock.elapsedRealtime();
+                SunshineSyncTask.syncWeather(context);
+                timings[run] = SystemClock.elapsedRealtime() - start;
+
+                assertStoredDays(dayCount);
+            }
+
+            Arrays.sort(timings);
+            Log.i(TAG, "Sync of " + dayCount + " days: median " + timings[BENCHMARK_RUNS / 2]
+                    + " ms, min " + timings[0] + " ms, max " + timings[BENCHMARK_RUNS - 1] + " ms");
+        }
+    }
+
+    /**
+     * Makes the next sync download the forecast in full, as if it had never synced before.
+     */
+    private void forgetPreviousSyncs() {
+        ForecastResponseCache.getInstance(context).clear();
+        SunshinePreferences.clearHttpValidators(context);
+    }
+
+    /**
+     * Checks that the provider holds one row for each of a number of days, starting today.
+     */
+    private void assertStoredDays(int dayCount) {
+        Cursor cursor = context.getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DATE},
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        assertNotNull(cursor);
+
+        try {
+            assertEquals("Wrong number of days stored", dayCount, cursor.getCount());
+
+            long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+            for (int day = 0; cursor.moveToNext(); day++) {
+                assertEquals("Wrong date stored for day " + day,
+                        today + day * SunshineDateUtils.DAY_IN_MILLIS, cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class TestSyncCoordinator {
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    /* Counted down by every sync once it's running; the syncs wait for mRelease to finish */
+    private final CountDownLatch mStarted = new CountDownLatch(1);
+    private final CountDownLatch mRelease = new CountDownLatch(1);
+
+    private final SyncCoordinator mCoordinator = new SyncCoordinator(new SyncCoordinator.Sync() {
+        @Override
+        public SunshineSyncTask.Result run(Context context) {
+            mStarted.countDown();
+            try {
+                mRelease.await();
+            } catch (InterruptedException e) {
+                return SunshineSyncTask.Result.FAILED;
+            }
+            return SunshineSyncTask.Result.SUCCESS;
+        }
+    });
+
+    @Before
+    public void setUp() {
+        SyncScheduler.resetWakeupCounts(mContext);
+    }
+
+    @After
+    public void tearDown() {
+        mRelease.countDown();
+        SyncScheduler.resetWakeupCounts(mContext);
+    }
+
+    @Test
+    public void testSyncsAskedForTogetherAreCoalesced() throws InterruptedException {
+        SyncCoordinator.SyncHandle launch = mCoordinator.requestSync(mContext,
+                SyncScheduler.Wakeup.IMMEDIATE_SYNC, false);
+        assertTrue("The first sync should start",
+                mStarted.await(5, TimeUnit.SECONDS));
+        assertEquals(SyncCoordinator.SyncHandle.Status.RUNNING, launch.getStatus());
+
+        /* Nothing has changed, so the weather being fetched is as good as any */
+        SyncCoordinator.SyncHandle periodic = mCoordinator.requestSync(mContext,
+                SyncScheduler.Wakeup.PERIODIC_SYNC, false);
+        assertSame(launch, periodic);
+
+        /* The location changed twice while the first sync was running; one more sync will do */
+        SyncCoordinator.SyncHandle firstChange = mCoordinator.requestSync(mContext,
+                SyncScheduler.Wakeup.IMMEDIATE_SYNC, true);
+        SyncCoordinator.SyncHandle secondChange = mCoordinator.requestSync(mContext,
+                SyncScheduler.Wakeup.IMMEDIATE_SYNC, true);
+        assertNotSame(launch, firstChange);
+        assertSame(firstChange, secondChange);
+        assertEquals(SyncCoordinator.SyncHandle.Status.QUEUED, firstChange.getStatus());
+
+        mRelease.countDown();
+
+        assertEquals(SunshineSyncTask.Result.SUCCESS, launch.await(5, TimeUnit.SECONDS));
+        assertEquals(SunshineSyncTask.Result.SUCCESS, firstChange.await(5, TimeUnit.SECONDS));
+        assertEquals(SyncCoordinator.SyncHandle.Status.DONE, firstChange.getStatus());
+
+        assertEquals(4, mCoordinator.getSyncsRequested());
+        assertEquals(2, mCoordinator.getSyncsRun());
+
+        /* The periodic job attached to the launch sync, but it still woke the app up */
+        assertEquals(1, SyncScheduler.getWakeupCount(mContext,
+                SyncScheduler.Wakeup.PERIODIC_SYNC));
+        assertEquals(3, SyncScheduler.getWakeupCount(mContext,
+                SyncScheduler.Wakeup.IMMEDIATE_SYNC));
+    }
+
+    @Test
+    public void testSyncAfterTheLastIsDoneRunsAgain() throws InterruptedException {
+        mRelease.countDown();
+        SyncCoordinator.SyncHandle first = mCoordinator.requestSync(mContext,
+                SyncScheduler.Wakeup.IMMEDIATE_SYNC, false);
+        assertEquals(SunshineSyncTask.Result.SUCCESS, first.await(5, TimeUnit.SECONDS));
+
+        SyncCoordinator.SyncHandle second = mCoordinator.requestSync(mContext,
+                SyncScheduler.Wakeup.PERIODIC_SYNC, false);
+        assertNotSame(first, second);
+        assertEquals(SunshineSyncTask.Result.SUCCESS, second.await(5, TimeUnit.SECONDS));
+        assertEquals(2, mCoordinator.getSyncsRun());
+    }
+}
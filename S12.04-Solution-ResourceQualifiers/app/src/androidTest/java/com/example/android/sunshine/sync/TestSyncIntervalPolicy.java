@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class TestSyncIntervalPolicy {
+
+    private static final int INITIAL_INTERVAL_SECONDS = 4000;
+    private static final int MIN_INTERVAL_SECONDS = 1000;
+    private static final int FRESHNESS_TARGET_SECONDS = 12000;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private File mDecisionLog;
+    private SyncIntervalPolicy mPolicy;
+
+    @Before
+    public void setUp() {
+        mDecisionLog = new File(mContext.getCacheDir(), "test_sync_decisions.csv");
+        mDecisionLog.delete();
+        mPolicy = new SyncIntervalPolicy(mContext, INITIAL_INTERVAL_SECONDS,
+                MIN_INTERVAL_SECONDS, FRESHNESS_TARGET_SECONDS, mDecisionLog);
+        mPolicy.reset();
+    }
+
+    @After
+    public void tearDown() {
+        mPolicy.reset();
+        mDecisionLog.delete();
+    }
+
+    /**
+     * Unchanged forecasts lengthen the interval, but never so far that a sync could run later
+     * than the freshness target.
+     */
+    @Test
+    public void testCalmForecastsLengthenIntervalUpToFreshnessTarget() {
+        int intervalSeconds = mPolicy.getIntervalSeconds();
+        assertEquals(INITIAL_INTERVAL_SECONDS, intervalSeconds);
+
+        for (int i = 0; i < 10; i++) {
+            int nextIntervalSeconds = mPolicy.onForecastSynced(0, 14);
+            assertTrue(nextIntervalSeconds >= intervalSeconds);
+            intervalSeconds = nextIntervalSeconds;
+        }
+
+        assertTrue("The interval should have grown", intervalSeconds > INITIAL_INTERVAL_SECONDS);
+        assertTrue("A sync could run after the freshness target",
+                intervalSeconds + SyncIntervalPolicy.getFlextimeSeconds(intervalSeconds)
+                        <= FRESHNESS_TARGET_SECONDS);
+    }
+
+    @Test
+    public void testVolatileForecastsShortenIntervalDownToMinimum() {
+        assertEquals(INITIAL_INTERVAL_SECONDS / 2, mPolicy.onForecastSynced(10, 14));
+        for (int i = 0; i < 10; i++) {
+            mPolicy.onForecastSynced(14, 14);
+        }
+        assertEquals(MIN_INTERVAL_SECONDS, mPolicy.getIntervalSeconds());
+    }
+
+    @Test
+    public void testSomeChangeKeepsInterval() {
+        assertEquals(INITIAL_INTERVAL_SECONDS, mPolicy.onForecastSynced(4, 14));
+    }
+
+    @Test
+    public void testNothingToCompareMakesNoDecision() throws IOException {
+        assertEquals(INITIAL_INTERVAL_SECONDS, mPolicy.onForecastSynced(0, 0));
+        assertEquals(0, readDecisions().size());
+    }
+
+    /**
+     * Each decision is logged with what it was made from, so replaying the log through
+     * nextIntervalSeconds decides the same again.
+     */
+    @Test
+    public void testDecisionsCanBeReplayedFromLog() throws IOException {
+        mPolicy.onForecastSynced(0, 14);
+        mPolicy.onForecastSynced(12, 14);
+        mPolicy.onForecastSynced(3, 14);
+
+        List<String> decisions = readDecisions();
+        assertEquals(3, decisions.size());
+
+        int maxIntervalSeconds = FRESHNESS_TARGET_SECONDS / 4 * 3;
+        for (String decision : decisions) {
+            String[] values = decision.split(",");
+            assertEquals(5, values.length);
+            double changedFraction =
+                    Integer.parseInt(values[1]) / (double) Integer.parseInt(values[2]);
+            assertEquals(Integer.parseInt(values[4]), SyncIntervalPolicy.nextIntervalSeconds(
+                    Integer.parseInt(values[3]), changedFraction, MIN_INTERVAL_SECONDS,
+                    maxIntervalSeconds));
+        }
+    }
+
+    private List<String> readDecisions() throws IOException {
+        List<String> decisions = new ArrayList<>();
+        if (!mDecisionLog.exists()) {
+            return decisions;
+        }
+
+        BufferedReader reader = new BufferedReader(new FileReader(mDecisionLog));
+        try {
+            for (String line; (line = reader.readLine()) != null; ) {
+                decisions.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return decisions;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class TestSyncRetryPolicy {
+
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long INITIAL_BACKOFF_MILLIS = 1000;
+    private static final long MAX_BACKOFF_MILLIS = 8000;
+    private static final int FAILURE_THRESHOLD = 2;
+    private static final long OPEN_MILLIS = 200;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private SyncRetryPolicy mPolicy;
+
+    @Before
+    public void setUp() {
+        mPolicy = new SyncRetryPolicy(mContext, MAX_ATTEMPTS, INITIAL_BACKOFF_MILLIS,
+                MAX_BACKOFF_MILLIS, FAILURE_THRESHOLD, OPEN_MILLIS);
+        mPolicy.reset();
+    }
+
+    @After
+    public void tearDown() {
+        mPolicy.reset();
+    }
+
+    @Test
+    public void testBackoffGrowsWithJitterUpToTheMaximum() {
+        long expectedBackoff = INITIAL_BACKOFF_MILLIS;
+        for (int failedAttempts = 1; failedAttempts <= 8; failedAttempts++) {
+            for (int sample = 0; sample < 50; sample++) {
+                long backoff = mPolicy.getBackoffMillis(failedAttempts);
+                assertTrue("Backoff " + backoff + " below half of " + expectedBackoff,
+                        backoff >= expectedBackoff / 2);
+                assertTrue("Backoff " + backoff + " above " + expectedBackoff,
+                        backoff <= expectedBackoff);
+            }
+            expectedBackoff = Math.min(expectedBackoff * 2, MAX_BACKOFF_MILLIS);
+        }
+    }
+
+    @Test
+    public void testNetworkErrorsAreRetryable() throws Exception {
+        assertTrue(mPolicy.isRetryable(new SocketTimeoutException()));
+        assertTrue(mPolicy.isRetryable(new IOException("Connection reset")));
+    }
+
+    @Test
+    public void testBreakerOpensAfterRepeatedFailures() {
+        assertEquals(SyncRetryPolicy.State.CLOSED, mPolicy.getState());
+        assertEquals(MAX_ATTEMPTS, mPolicy.getAttemptsAllowed());
+
+        mPolicy.onFailure();
+        assertEquals(SyncRetryPolicy.State.CLOSED, mPolicy.getState());
+
+        mPolicy.onFailure();
+        assertEquals(SyncRetryPolicy.State.OPEN, mPolicy.getState());
+        assertEquals(0, mPolicy.getAttemptsAllowed());
+        assertTrue(mPolicy.getMillisUntilHalfOpen() > 0);
+    }
+
+    @Test
+    public void testSuccessAfterOpenPeriodClosesBreaker() throws Exception {
+        mPolicy.onFailure();
+        mPolicy.onFailure();
+
+        Thread.sleep(OPEN_MILLIS + 50);
+        assertEquals(SyncRetryPolicy.State.HALF_OPEN, mPolicy.getState());
+        assertEquals("A half open breaker allows a single attempt", 1,
+                mPolicy.getAttemptsAllowed());
+
+        mPolicy.onSuccess();
+        assertEquals(SyncRetryPolicy.State.CLOSED, mPolicy.getState());
+        assertEquals(MAX_ATTEMPTS, mPolicy.getAttemptsAllowed());
+    }
+
+    @Test
+    public void testFailureWhileHalfOpenReopensBreaker() throws Exception {
+        mPolicy.onFailure();
+        mPolicy.onFailure();
+
+        Thread.sleep(OPEN_MILLIS + 50);
+        assertEquals(SyncRetryPolicy.State.HALF_OPEN, mPolicy.getState());
+
+        mPolicy.onFailure();
+        assertEquals(SyncRetryPolicy.State.OPEN, mPolicy.getState());
+    }
+
+    @Test
+    public void testStateIsSharedBetweenInstances() {
+        mPolicy.onFailure();
+        mPolicy.onFailure();
+
+        /* A scheduled sync in a new process creates a new policy; it must see the open breaker */
+        SyncRetryPolicy otherPolicy = new SyncRetryPolicy(mContext, MAX_ATTEMPTS,
+                INITIAL_BACKOFF_MILLIS, MAX_BACKOFF_MILLIS, FAILURE_THRESHOLD, OPEN_MILLIS);
+        assertEquals(SyncRetryPolicy.State.OPEN, otherPolicy.getState());
+
+        otherPolicy.onSuccess();
+        assertFalse(mPolicy.getState() == SyncRetryPolicy.State.OPEN);
+    }
+}
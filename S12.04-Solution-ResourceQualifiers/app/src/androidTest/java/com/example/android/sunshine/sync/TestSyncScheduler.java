@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertEquals;
+
+@RunWith(AndroidJUnit4.class)
+public class TestSyncScheduler {
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @Before
+    public void setUp() {
+        SyncScheduler.resetWakeupCounts(mContext);
+    }
+
+    @After
+    public void tearDown() {
+        SyncScheduler.resetWakeupCounts(mContext);
+    }
+
+    @Test
+    public void testWakeupsAreCountedApart() {
+        SyncScheduler.countWakeup(mContext, SyncScheduler.Wakeup.PERIODIC_SYNC);
+        SyncScheduler.countWakeup(mContext, SyncScheduler.Wakeup.PERIODIC_SYNC);
+        SyncScheduler.countWakeup(mContext, SyncScheduler.Wakeup.HISTORY_COMPACTION);
+
+        assertEquals(2, SyncScheduler.getWakeupCount(mContext,
+                SyncScheduler.Wakeup.PERIODIC_SYNC));
+        assertEquals(0, SyncScheduler.getWakeupCount(mContext,
+                SyncScheduler.Wakeup.IMMEDIATE_SYNC));
+        assertEquals(1, SyncScheduler.getWakeupCount(mContext,
+                SyncScheduler.Wakeup.HISTORY_COMPACTION));
+    }
+
+    @Test
+    public void testResetClearsEveryCount() {
+        for (SyncScheduler.Wakeup wakeup : SyncScheduler.Wakeup.values()) {
+            SyncScheduler.countWakeup(mContext, wakeup);
+        }
+
+        SyncScheduler.resetWakeupCounts(mContext);
+
+        for (SyncScheduler.Wakeup wakeup : SyncScheduler.Wakeup.values()) {
+            assertEquals(0, SyncScheduler.getWakeupCount(mContext, wakeup));
+        }
+    }
+}
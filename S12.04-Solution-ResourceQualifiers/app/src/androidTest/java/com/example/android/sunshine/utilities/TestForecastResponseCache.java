@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.data.SunshinePreferences;
+import com.example.android.sunshine.utils.MockWeatherServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests the disk cache that forecast responses are kept in, both on its own and as it is used by
+ * NetworkUtils when talking to a stand-in weather server.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestForecastResponseCache {
+
+    private static final long ONE_HOUR = TimeUnit.HOURS.toMillis(1);
+
+    private final Context context = InstrumentationRegistry.getTargetContext();
+
+    /* Converts a response body into a String so we can check what was read */
+    private static final NetworkUtils.ResponseParser<String> STRING_PARSER =
+            new NetworkUtils.ResponseParser<String>() {
+                @Override
+                public String parse(InputStream in) throws IOException {
+                    return readFully(in);
+                }
+            };
+
+    private File directory;
+    private MockWeatherServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = new File(context.getCacheDir(), "test_forecast_responses");
+        deleteDirectory(directory);
+
+        server = new MockWeatherServer();
+        server.start();
+        NetworkUtils.setForecastBaseUrl(server.getUrl("/staticweather"));
+
+        ForecastResponseCache.getInstance(context).clear();
+        SunshinePreferences.clearHttpValidators(context);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        NetworkUtils.setForecastBaseUrl(null);
+        server.shutdown();
+        deleteDirectory(directory);
+    }
+
+    /**
+     * Once the cache grows past its size limit, the least recently used entries are evicted.
+     */
+    @Test
+    public void testLeastRecentlyUsedEntryIsEvicted() throws IOException {
+        ForecastResponseCache cache = new ForecastResponseCache(directory, 100);
+        long now = System.currentTimeMillis();
+
+        put(cache, "http://a", new byte[40], now);
+        put(cache, "http://b", new byte[40], now);
+
+        /* Reading "a" makes "b" the least recently used entry */
+        assertNotNull(cache.get("http://a"));
+
+        put(cache, "http://c", new byte[40], now);
+
+        assertNotNull("Recently used entry was evicted", cache.get("http://a"));
+        assertNull("Least recently used entry was not evicted", cache.get("http://b"));
+        assertNotNull("Newest entry was evicted", cache.get("http://c"));
+        assertTrue("Cache is larger than its limit", cache.size() <= 100);
+
+        /* A new cache over the same directory should see the same entries */
+        ForecastResponseCache reopened = new ForecastResponseCache(directory, 100);
+        assertNotNull(reopened.get("http://a"));
+        assertNull(reopened.get("http://b"));
+    }
+
+    /**
+     * An entry is fresh for as long as the server said, and usable (but stale) for the
+     * stale-while-revalidate window after that.
+     */
+    @Test
+    public void testFreshnessAndStaleWindow() throws IOException {
+        ForecastResponseCache cache = new ForecastResponseCache(directory, 1024);
+        long now = System.currentTimeMillis();
+
+        ForecastResponseCache.Editor editor = cache.edit("http://a");
+        editor.getOutputStream().write(new byte[]{1, 2, 3});
+        editor.commit(now - 2 * ONE_HOUR, ONE_HOUR, TimeUnit.DAYS.toMillis(1));
+
+        ForecastResponseCache.Entry entry = cache.get("http://a");
+        assertNotNull(entry);
+        assertFalse("Entry past its max-age is still fresh", entry.isFresh(now));
+        assertTrue("Entry within its stale window is not usable", entry.isUsable(now));
+        assertFalse("Entry past its stale window is still usable",
+                entry.isUsable(now + TimeUnit.DAYS.toMillis(1)));
+
+        cache.refresh("http://a", now, ONE_HOUR, 0);
+        assertTrue("Refreshed entry is not fresh", cache.get("http://a").isFresh(now));
+    }
+
+    /**
+     * An aborted edit leaves the existing entry alone.
+     */
+    @Test
+    public void testAbortedEditKeepsExistingEntry() throws IOException {
+        ForecastResponseCache cache = new ForecastResponseCache(directory, 1024);
+        put(cache, "http://a", new byte[]{1, 2, 3}, System.currentTimeMillis());
+
+        ForecastResponseCache.Editor editor = cache.edit("http://a");
+        editor.getOutputStream().write(new byte[]{9, 9});
+        editor.abort();
+
+        ForecastResponseCache.Entry entry = cache.get("http://a");
+        assertNotNull(entry);
+        InputStream in = entry.openBody();
+        try {
+            assertEquals(3, readFully(in).length());
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * A response from the network is cached once it is committed, and a 304 from the server
+     * makes the cached copy fresh again.
+     */
+    @Test
+    public void testNetworkResponseIsCachedAndRevalidated() throws Exception {
+        URL url = NetworkUtils.getUrl(context);
+
+        server.enqueue(new MockWeatherServer.MockResponse()
+                .setHeader("ETag", "\"v1\"")
+                .setHeader("Cache-Control", "max-age=0, stale-while-revalidate=3600")
+                .setBody("forecast"));
+
+        NetworkUtils.Response<String> response =
+                NetworkUtils.getResponseFromHttpUrlIfModified(context, url, STRING_PARSER);
+        assertEquals("forecast", response.body);
+        assertNull("Response was cached before it was committed",
+                NetworkUtils.getCachedResponse(context, url, STRING_PARSER));
+
+        NetworkUtils.commitResponse(context, response);
+
+        NetworkUtils.Response<String> cached =
+                NetworkUtils.getCachedResponse(context, url, STRING_PARSER);
+        assertNotNull("Committed response was not cached", cached);
+        assertEquals("forecast", cached.body);
+        assertTrue(cached.isFromCache);
+        assertFalse("Response with max-age=0 is fresh", cached.isFresh);
+
+        server.takeRequest(1000);
+        server.enqueue(new MockWeatherServer.MockResponse()
+                .setStatusCode(304)
+                .setHeader("Cache-Control", "max-age=3600"));
+
+        NetworkUtils.Response<String> revalidated =
+                NetworkUtils.getResponseFromHttpUrlIfModified(context, url, STRING_PARSER);
+        assertTrue(revalidated.isNotModified());
+
+        MockWeatherServer.RecordedRequest request = server.takeRequest(1000);
+        assertNotNull(request);
+        assertEquals("\"v1\"", request.getHeader("If-None-Match"));
+
+        NetworkUtils.commitResponse(context, revalidated);
+        assertTrue("Revalidated response is not fresh",
+                NetworkUtils.isCachedResponseFresh(context, url));
+    }
+
+    /**
+     * Responses the server marks as no-store are never cached.
+     */
+    @Test
+    public void testNoStoreResponseIsNotCached() throws Exception {
+        URL url = NetworkUtils.getUrl(context);
+
+        server.enqueue(new MockWeatherServer.MockResponse()
+                .setHeader("Cache-Control", "no-store")
+                .setBody("forecast"));
+
+        NetworkUtils.Response<String> response =
+                NetworkUtils.getResponseFromHttpUrlIfModified(context, url, STRING_PARSER);
+        NetworkUtils.commitResponse(context, response);
+
+        assertNull(NetworkUtils.getCachedResponse(context, url, STRING_PARSER));
+    }
+
+    private static void put(ForecastResponseCache cache, String url, byte[] body, long now)
+            throws IOException {
+        ForecastResponseCache.Editor editor = cache.edit(url);
+        OutputStream out = editor.getOutputStream();
+        out.write(body);
+        editor.commit(now, ONE_HOUR, ONE_HOUR);
+    }
+
+    private static String readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toString("UTF-8");
+    }
+
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+}
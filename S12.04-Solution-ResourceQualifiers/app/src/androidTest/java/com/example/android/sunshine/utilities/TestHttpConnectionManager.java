@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.utils.MockWeatherServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+/**
+ * Tests that forecast requests keep their connections alive, give up on a stalled server, and
+ * respect the limit on connections per host.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestHttpConnectionManager {
+
+    private MockWeatherServer server;
+    private URL url;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWeatherServer();
+        server.start();
+        url = new URL(server.getUrl("/staticweather"));
+        HttpConnectionManager.resetStats();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        HttpConnectionManager.setTimeouts(
+                HttpConnectionManager.DEFAULT_CONNECT_TIMEOUT_MILLIS,
+                HttpConnectionManager.DEFAULT_READ_TIMEOUT_MILLIS);
+        HttpConnectionManager.setMaxConnectionsPerHost(
+                HttpConnectionManager.DEFAULT_MAX_CONNECTIONS_PER_HOST);
+        server.shutdown();
+    }
+
+    @Test
+    public void testConnectionIsReused() throws IOException {
+        server.enqueue(new MockWeatherServer.MockResponse().setBody("first"));
+        server.enqueue(new MockWeatherServer.MockResponse().setBody("second"));
+
+        assertEquals("first", NetworkUtils.getResponseFromHttpUrl(url));
+        assertEquals("second", NetworkUtils.getResponseFromHttpUrl(url));
+
+        assertEquals("Second request didn't reuse the connection",
+                1, server.getConnectionCount());
+
+        HttpConnectionManager.Stats stats = HttpConnectionManager.getStats();
+        assertEquals(2, stats.requestCount);
+        assertEquals(1, stats.reusedConnectionCount);
+        assertEquals(0, stats.closedConnectionCount);
+        assertEquals(2, stats.timeToFirstByteCount);
+    }
+
+    @Test
+    public void testPartlyReadBodyStillLetsConnectionBeReused() throws IOException {
+        server.enqueue(new MockWeatherServer.MockResponse().setBody("a longer forecast"));
+        server.enqueue(new MockWeatherServer.MockResponse().setBody("second"));
+
+        NetworkUtils.getParsedResponseFromHttpUrl(url,
+                new NetworkUtils.ResponseParser<Integer>() {
+                    @Override
+                    public Integer parse(InputStream in) throws IOException {
+                        /* Stop reading well before the end of the body */
+                        return in.read();
+                    }
+                });
+        assertEquals("second", NetworkUtils.getResponseFromHttpUrl(url));
+
+        assertEquals(1, server.getConnectionCount());
+    }
+
+    @Test
+    public void testStalledServerTimesOut() throws IOException {
+        HttpConnectionManager.setTimeouts(1000, 200);
+        server.enqueue(new MockWeatherServer.MockResponse().setBody("late").setDelay(2000));
+
+        try {
+            NetworkUtils.getResponseFromHttpUrl(url);
+            fail("Request to a stalled server didn't time out");
+        } catch (IOException expected) {
+        }
+
+        assertEquals(1, HttpConnectionManager.getStats().closedConnectionCount);
+    }
+
+    @Test
+    public void testTimeToFirstByteIsRecorded() throws IOException {
+        server.enqueue(new MockWeatherServer.MockResponse().setBody("slow").setDelay(300));
+
+        NetworkUtils.getResponseFromHttpUrl(url);
+
+        HttpConnectionManager.Stats stats = HttpConnectionManager.getStats();
+        assertEquals(1, stats.timeToFirstByteCount);
+        assertTrue("Time to first byte was " + stats.timeToFirstByteMaxMillis,
+                stats.timeToFirstByteMaxMillis >= 300);
+    }
+
+    @Test
+    public void testConnectionsPerHostAreLimited() throws IOException {
+        HttpConnectionManager.setMaxConnectionsPerHost(1);
+        HttpConnectionManager.setTimeouts(200, 1000);
+
+        HttpConnectionManager.Connection first = HttpConnectionManager.open(url);
+        try {
+            HttpConnectionManager.open(url);
+            fail("A second connection was opened to a host limited to one");
+        } catch (IOException expected) {
+        } finally {
+            first.release();
+        }
+
+        /* Once the first connection is released, a new one may be opened */
+        HttpConnectionManager.open(url).release();
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.utils.MockWeatherServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.fail;
+
+/**
+ * Tests how NetworkUtils reads response bodies: negotiating and decoding compressed bodies, and
+ * refusing bodies that are larger than we are willing to read.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestResponseBodyReader {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String FORECAST = "{\"cod\":\"200\",\"list\":[]}";
+
+    private MockWeatherServer server;
+    private URL url;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWeatherServer();
+        server.start();
+        url = new URL(server.getUrl("/staticweather"));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void testRequestsCompressedBody() throws Exception {
+        server.enqueue(new MockWeatherServer.MockResponse().setBody(FORECAST));
+
+        assertEquals(FORECAST, NetworkUtils.getResponseFromHttpUrl(url));
+
+        MockWeatherServer.RecordedRequest request = server.takeRequest(1000);
+        assertEquals(ResponseBodyReader.ACCEPTED_ENCODINGS, request.getHeader("Accept-Encoding"));
+    }
+
+    @Test
+    public void testDecodesGzipBody() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(bytes);
+        out.write(FORECAST.getBytes(UTF_8));
+        out.close();
+
+        server.enqueue(new MockWeatherServer.MockResponse()
+                .setHeader("Content-Encoding", "gzip")
+                .setBody(bytes.toByteArray()));
+
+        assertEquals(FORECAST, NetworkUtils.getResponseFromHttpUrl(url));
+    }
+
+    @Test
+    public void testDecodesZlibAndRawDeflateBodies() throws IOException {
+        server.enqueue(new MockWeatherServer.MockResponse()
+                .setHeader("Content-Encoding", "deflate")
+                .setBody(deflate(FORECAST, false)));
+        server.enqueue(new MockWeatherServer.MockResponse()
+                .setHeader("Content-Encoding", "deflate")
+                .setBody(deflate(FORECAST, true)));
+
+        assertEquals("zlib-wrapped body", FORECAST, NetworkUtils.getResponseFromHttpUrl(url));
+        assertEquals("raw deflate body", FORECAST, NetworkUtils.getResponseFromHttpUrl(url));
+    }
+
+    @Test
+    public void testEmptyBodyIsNull() throws IOException {
+        server.enqueue(new MockWeatherServer.MockResponse());
+
+        assertNull(NetworkUtils.getResponseFromHttpUrl(url));
+    }
+
+    @Test
+    public void testRejectsBodyLargerThanLimit() throws IOException {
+        server.enqueue(new MockWeatherServer.MockResponse()
+                .setBody(new byte[ResponseBodyReader.MAX_BODY_BYTES + 1]));
+
+        try {
+            NetworkUtils.getResponseFromHttpUrl(url);
+            fail("A body larger than the limit was read");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void testRejectsCompressedBodyThatDecodesPastLimit() throws IOException {
+        /* Zeros compress extremely well, so this body is tiny until it is decoded */
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(bytes);
+        out.write(new byte[ResponseBodyReader.MAX_BODY_BYTES * 2]);
+        out.close();
+
+        server.enqueue(new MockWeatherServer.MockResponse()
+                .setHeader("Content-Encoding", "gzip")
+                .setBody(bytes.toByteArray()));
+
+        try {
+            NetworkUtils.getResponseFromHttpUrl(url);
+            fail("A body that decodes past the limit was read");
+        } catch (IOException expected) {
+        }
+    }
+
+    private static byte[] deflate(String body, boolean raw) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DeflaterOutputStream out = new DeflaterOutputStream(
+                bytes, new Deflater(Deflater.DEFAULT_COMPRESSION, raw));
+        out.write(body.getBytes(UTF_8));
+        out.close();
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utils;
+
+import android.content.Context;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+/**
+ * Forecast responses for {@link MockWeatherServer} to send. There's a recorded response in the
+ * format of the staticweather endpoint, and forecasts of any length can be generated in the
+ * same format to see how the sync copes with larger responses.
+ */
+public final class ForecastPayloads {
+
+    /* The recorded forecast, kept in the test APK's assets */
+    public static final String RECORDED_ASSET = "staticweather.json";
+
+    /* The number of days in the recorded forecast */
+    public static final int RECORDED_DAY_COUNT = 14;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /* Used to vary the generated weather from day to day */
+    private static final int[] WEATHER_IDS = {800, 801, 802, 500, 300, 211, 741, 600};
+
+    private ForecastPayloads() {
+    }
+
+    /**
+     * Reads the recorded staticweather response.
+     *
+     * @param testContext The context of the test APK (not the app), which holds the asset
+     * @return The body of the recorded response
+     * @throws IOException If the asset can't be read
+     */
+    public static byte[] readRecorded(Context testContext) throws IOException {
+        InputStream in = testContext.getAssets().open(RECORDED_ASSET);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Generates a forecast in the same format as the staticweather response. The weather is
+     * made up, but always the same for the same number of days.
+     *
+     * @param dayCount The number of days in the forecast
+     * @return The body of the response
+     */
+    public static byte[] generate(int dayCount) {
+        StringBuilder json = new StringBuilder(dayCount * 300 + 200);
+        json.append("{\"city\":{\"id\":5375480,\"name\":\"Mountain View\",")
+                .append("\"coord\":{\"lon\":-122.0838,\"lat\":37.3861},\"country\":\"US\"},")
+                .append("\"cod\":\"200\",\"message\":0,\"cnt\":").append(dayCount)
+                .append(",\"list\":[");
+
+        for (int day = 0; day < dayCount; day++) {
+            double max = 15 + day % 10;
+            double min = max - 4 - day % 3;
+            int weatherId = WEATHER_IDS[day % WEATHER_IDS.length];
+
+            if (day > 0) json.append(',');
+            json.append(String.format(Locale.US,
+                    "{\"dt\":%d,\"temp\":{\"day\":%.2f,\"min\":%.2f,\"max\":%.2f,"
+                            + "\"night\":%.2f,\"eve\":%.2f,\"morn\":%.2f},"
+                            + "\"pressure\":%.2f,\"humidity\":%d,"
+                            + "\"weather\":[{\"id\":%d,\"main\":\"Weather\","
+                            + "\"description\":\"generated\",\"icon\":\"01d\"}],"
+                            + "\"speed\":%.2f,\"deg\":%d,\"clouds\":%d}",
+                    1486324800L + day * 86400L,
+                    (max + min) / 2, min, max, min + 1, max - 2, min + 0.5,
+                    1000.0 + day % 25, 40 + day % 55,
+                    weatherId,
+                    1 + day % 7 * 0.5, day * 37 % 360, day * 13 % 100));
+        }
+
+        json.append("]}");
+        return json.toString().getBytes(UTF_8);
+    }
+
+    /**
+     * Generates the response the weather API sends when it can't provide a forecast.
+     *
+     * @param code The error code to report, such as 404 for an unknown location
+     * @return The body of the response
+     */
+    public static byte[] error(int code) {
+        return String.format(Locale.US, "{\"cod\":\"%d\",\"message\":\"error\"}", code)
+                .getBytes(UTF_8);
+    }
+}
@@ -0,0 +1,357 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utils;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A tiny HTTP server that runs on the device and stands in for the weather server in tests.
+ * Responses are queued up with {@link #enqueue(MockResponse)} and handed out in order, and every
+ * request the server receives is recorded so a test can check what was sent.
+ * <p>
+ * Each response can be given any status code, headers and body (see {@link ForecastPayloads}
+ * for forecasts to send), and can be delayed or throttled to stand in for a slow network.
+ * <p>
+ * Point Sunshine at it with
+ * {@link com.example.android.sunshine.utilities.NetworkUtils#setForecastBaseUrl(String)}.
+ */
+public class MockWeatherServer {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    /* How often a throttled body sends its next chunk */
+    private static final long THROTTLE_PERIOD_MILLIS = 50;
+
+    private final BlockingQueue<MockResponse> mResponses = new LinkedBlockingQueue<>();
+    private final BlockingQueue<RecordedRequest> mRequests = new LinkedBlockingQueue<>();
+
+    private final AtomicInteger mConnectionCount = new AtomicInteger();
+    private final Set<Socket> mOpenSockets =
+            Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+
+    private volatile MockResponse mDefaultResponse;
+
+    private ServerSocket mServerSocket;
+    private Thread mAcceptThread;
+
+    /**
+     * A canned response for the server to send.
+     */
+    public static class MockResponse {
+
+        private int mStatusCode = 200;
+        private final Map<String, String> mHeaders = new LinkedHashMap<>();
+        private byte[] mBody = new byte[0];
+        private long mDelayMillis;
+        private long mBytesPerSecond;
+
+        public MockResponse setStatusCode(int statusCode) {
+            mStatusCode = statusCode;
+            return this;
+        }
+
+        public MockResponse setHeader(String name, String value) {
+            mHeaders.put(name, value);
+            return this;
+        }
+
+        public MockResponse setBody(String body) {
+            mBody = body.getBytes(Charset.forName("UTF-8"));
+            return this;
+        }
+
+        public MockResponse setBody(byte[] body) {
+            mBody = body;
+            return this;
+        }
+
+        /**
+         * @param delayMillis How long the server waits before it starts sending the response
+         */
+        public MockResponse setDelay(long delayMillis) {
+            mDelayMillis = delayMillis;
+            return this;
+        }
+
+        /**
+         * Sends the body no faster than a given rate, to stand in for a slow network.
+         *
+         * @param bytesPerSecond The bandwidth of the simulated network, or 0 for no limit
+         */
+        public MockResponse throttleBody(long bytesPerSecond) {
+            mBytesPerSecond = bytesPerSecond;
+            return this;
+        }
+    }
+
+    /**
+     * A request received by the server.
+     */
+    public static class RecordedRequest {
+
+        public final String method;
+        public final String path;
+        private final Map<String, String> mHeaders;
+
+        RecordedRequest(String method, String path, Map<String, String> headers) {
+            this.method = method;
+            this.path = path;
+            mHeaders = Collections.unmodifiableMap(headers);
+        }
+
+        /**
+         * @param name The name of a request header, in any case
+         * @return The value of the header, or null if it wasn't sent
+         */
+        public String getHeader(String name) {
+            return mHeaders.get(name.toLowerCase(Locale.US));
+        }
+    }
+
+    /**
+     * Starts listening on a free port of the loopback interface. Connections are kept alive, so
+     * a client may send any number of requests over each one.
+     *
+     * @throws IOException If no socket could be opened
+     */
+    public void start() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        mAcceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        }, "MockWeatherServer");
+        mAcceptThread.start();
+    }
+
+    /**
+     * Stops the server. Requests that are still being answered are cut off, and connections
+     * being kept alive are closed.
+     *
+     * @throws IOException If the socket could not be closed
+     */
+    public void shutdown() throws IOException {
+        if (mServerSocket != null) {
+            mServerSocket.close();
+        }
+        for (Socket socket : mOpenSockets) {
+            socket.close();
+        }
+    }
+
+    /**
+     * @param path The path of a resource on this server, starting with a slash
+     * @return The URL of the resource
+     */
+    public String getUrl(String path) {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + path;
+    }
+
+    /**
+     * Queues a response to be sent for the next request that doesn't have one yet. Requests that
+     * arrive when the queue is empty get the default response, which is 503 (Service
+     * Unavailable) unless {@link #setDefaultResponse(MockResponse)} says otherwise.
+     *
+     * @param response The response to send
+     */
+    public void enqueue(MockResponse response) {
+        mResponses.add(response);
+    }
+
+    /**
+     * Sets the response sent whenever no queued response is left. This is handy for benchmarks,
+     * which send the same request over and over again.
+     *
+     * @param response The response to send, or null to send 503 (Service Unavailable)
+     */
+    public void setDefaultResponse(MockResponse response) {
+        mDefaultResponse = response;
+    }
+
+    /**
+     * Waits for the next request the server receives.
+     *
+     * @param timeoutMillis How long to wait
+     * @return The request, or null if none arrived in time
+     * @throws InterruptedException If the wait was interrupted
+     */
+    public RecordedRequest takeRequest(long timeoutMillis) throws InterruptedException {
+        return mRequests.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return The number of requests received and not yet taken with {@link #takeRequest(long)}
+     */
+    public int getPendingRequestCount() {
+        return mRequests.size();
+    }
+
+    /**
+     * @return The number of connections clients have opened to the server
+     */
+    public int getConnectionCount() {
+        return mConnectionCount.get();
+    }
+
+    private void acceptConnections() {
+        while (!mServerSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                /* The server was shut down */
+                return;
+            }
+            mConnectionCount.incrementAndGet();
+            mOpenSockets.add(socket);
+
+            /* Each connection gets a thread of its own, so a kept-alive one can't block others */
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        InputStream in = new BufferedInputStream(socket.getInputStream());
+                        while (serveRequest(in, socket.getOutputStream())) {
+                            /* Keep serving requests until the client closes the connection */
+                        }
+                    } catch (IOException | InterruptedException e) {
+                        /* The client went away */
+                    } finally {
+                        mOpenSockets.remove(socket);
+                        try {
+                            socket.close();
+                        } catch (IOException e) {
+                            /* Nothing more we can do with this socket */
+                        }
+                    }
+                }
+            }, "MockWeatherServer connection").start();
+        }
+    }
+
+    /**
+     * Reads one request from a connection and answers it.
+     *
+     * @return false if the client has closed the connection
+     */
+    private boolean serveRequest(InputStream in, OutputStream out)
+            throws IOException, InterruptedException {
+        String requestLine = readLine(in);
+        if (requestLine == null) return false;
+        String[] parts = requestLine.split(" ");
+        if (parts.length < 2) return false;
+
+        Map<String, String> headers = new LinkedHashMap<>();
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US),
+                        line.substring(colon + 1).trim());
+            }
+        }
+        mRequests.add(new RecordedRequest(parts[0], parts[1], headers));
+
+        MockResponse response = mResponses.poll();
+        if (response == null) {
+            response = mDefaultResponse;
+        }
+        if (response == null) {
+            response = new MockResponse().setStatusCode(503);
+        }
+        if (response.mDelayMillis > 0) {
+            Thread.sleep(response.mDelayMillis);
+        }
+        writeResponse(out, response);
+        return true;
+    }
+
+    private static void writeResponse(OutputStream out, MockResponse response)
+            throws IOException, InterruptedException {
+        StringBuilder head = new StringBuilder();
+        head.append("HTTP/1.1 ").append(response.mStatusCode).append(" Mock\r\n");
+        for (Map.Entry<String, String> header : response.mHeaders.entrySet()) {
+            head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+
+        /* A 304 never has a body, so it mustn't claim to have one */
+        boolean hasBody = response.mStatusCode != 304;
+        if (hasBody) {
+            head.append("Content-Length: ").append(response.mBody.length).append("\r\n");
+        }
+        head.append("\r\n");
+
+        out.write(head.toString().getBytes(ASCII));
+        if (hasBody) {
+            writeBody(out, response.mBody, response.mBytesPerSecond);
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes a body, in chunks sent every THROTTLE_PERIOD_MILLIS if its bandwidth is limited.
+     */
+    private static void writeBody(OutputStream out, byte[] body, long bytesPerSecond)
+            throws IOException, InterruptedException {
+        if (bytesPerSecond <= 0) {
+            out.write(body);
+            return;
+        }
+
+        int chunkSize = (int) Math.max(1, bytesPerSecond * THROTTLE_PERIOD_MILLIS / 1000);
+        for (int offset = 0; offset < body.length; offset += chunkSize) {
+            out.write(body, offset, Math.min(chunkSize, body.length - offset));
+            out.flush();
+            Thread.sleep(THROTTLE_PERIOD_MILLIS);
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                break;
+            }
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        if (b == -1 && line.size() == 0) {
+            return null;
+        }
+        return new String(line.toByteArray(), ASCII);
+    }
+}
@@ -28,15 +28,26 @@ import android.widget.TextView;
 import com.example.android.sunshine.utilities.SunshineDateUtils;
 import com.example.android.sunshine.utilities.SunshineWeatherUtils;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * {@link ForecastAdapter} exposes a list of weather forecasts
  * from a {@link android.database.Cursor} to a {@link android.support.v7.widget.RecyclerView}.
+ * <p>
+ * The forecast is read a page of {@link MainActivity#FORECAST_PAGE_SIZE} days at a time, each
+ * page in a Cursor of its own. The first page is all there is at first; as the user scrolls
+ * towards the end of the pages we have, the adapter asks for the next one. Only the days
+ * scrolled past are ever read, however many the provider keeps.
  */
 class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapterViewHolder> {
 
     private static final int VIEW_TYPE_TODAY = 0;
     private static final int VIEW_TYPE_FUTURE_DAY = 1;
 
+    /* How close to the end of the pages we have the user can scroll before we ask for more */
+    private static final int PREFETCH_DISTANCE = 5;
+
     /* The context we use to utility methods, app resources and layout inflaters */
     private final Context mContext;
 
@@ -55,6 +66,24 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
         void onClick(long date);
     }
 
+    /* Asked to load the next page of the forecast when the user scrolls close to its end */
+    final private ForecastAdapterPageHandler mPageHandler;
+
+    /**
+     * The interface that is asked for the pages of the forecast after the first.
+     */
+    public interface ForecastAdapterPageHandler {
+
+        /**
+         * Loads a page of the forecast and hands it to {@link ForecastAdapter#swapPage}.
+         *
+         * @param page     The index of the page, 1 for the page after the first
+         * @param lastDate The date of the last day of the page before, which the page starts
+         *                 after
+         */
+        void onLoadPage(int page, long lastDate);
+    }
+
     /*
      * Flag to determine if we want to use a separate view for the list item that represents
      * today. This flag will be true when the phone is in portrait mode and false when the phone
@@ -63,7 +92,11 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
      */
     private boolean mUseTodayLayout;
 
-    private Cursor mCursor;
+    /* The pages of the forecast loaded so far, in order */
+    private final List<Cursor> mPages = new ArrayList<>();
+
+    /* Whether the page after the last one in mPages has been asked for and not loaded yet */
+    private boolean mPageRequested;
 
     /**
      * Creates a ForecastAdapter.
@@ -71,10 +104,13 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
      * @param context      Used to talk to the UI and app resources
      * @param clickHandler The on-click handler for this adapter. This single handler is called
      *                     when an item is clicked.
+     * @param pageHandler  Asked to load the pages of the forecast after the first
      */
-    public ForecastAdapter(@NonNull Context context, ForecastAdapterOnClickHandler clickHandler) {
+    public ForecastAdapter(@NonNull Context context, ForecastAdapterOnClickHandler clickHandler,
+                           ForecastAdapterPageHandler pageHandler) {
         mContext = context;
         mClickHandler = clickHandler;
+        mPageHandler = pageHandler;
         mUseTodayLayout = mContext.getResources().getBoolean(R.bool.use_today_layout);
     }
 
@@ -129,12 +165,12 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
      */
     @Override
     public void onBindViewHolder(ForecastAdapterViewHolder forecastAdapterViewHolder, int position) {
-        mCursor.moveToPosition(position);
+        Cursor cursor = moveToPosition(position);
 
         /****************
          * Weather Icon *
          ****************/
-        int weatherId = mCursor.getInt(MainActivity.INDEX_WEATHER_CONDITION_ID);
+        int weatherId = cursor.getInt(MainActivity.INDEX_WEATHER_CONDITION_ID);
         int weatherImageId;
 
         int viewType = getItemViewType(position);
@@ -161,7 +197,7 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
          * Weather Date *
          ****************/
          /* Read date from the cursor */
-        long dateInMillis = mCursor.getLong(MainActivity.INDEX_WEATHER_DATE);
+        long dateInMillis = cursor.getLong(MainActivity.INDEX_WEATHER_DATE);
          /* Get human readable string using our utility method */
         String dateString = SunshineDateUtils.getFriendlyDateString(mContext, dateInMillis, false);
 
@@ -183,7 +219,7 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
          * High (max) temperature *
          **************************/
          /* Read high temperature from the cursor (in degrees celsius) */
-        double highInCelsius = mCursor.getDouble(MainActivity.INDEX_WEATHER_MAX_TEMP);
+        double highInCelsius = cursor.getDouble(MainActivity.INDEX_WEATHER_MAX_TEMP);
          /*
           * If the user's preference for weather is fahrenheit, formatTemperature will convert
           * the temperature. This method will also append either °C or °F to the temperature
@@ -201,7 +237,7 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
          * Low (min) temperature *
          *************************/
          /* Read low temperature from the cursor (in degrees celsius) */
-        double lowInCelsius = mCursor.getDouble(MainActivity.INDEX_WEATHER_MIN_TEMP);
+        double lowInCelsius = cursor.getDouble(MainActivity.INDEX_WEATHER_MIN_TEMP);
          /*
           * If the user's preference for weather is fahrenheit, formatTemperature will convert
           * the temperature. This method will also append either °C or °F to the temperature
@@ -213,6 +249,11 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
          /* Set the text and content description (for accessibility purposes) */
         forecastAdapterViewHolder.lowTempView.setText(lowString);
         forecastAdapterViewHolder.lowTempView.setContentDescription(lowA11y);
+
+        /* Done with the Cursor, which asking for the next page moves */
+        if (position >= getItemCount() - PREFETCH_DISTANCE) {
+            requestNextPage();
+        }
     }
 
     /**
@@ -223,8 +264,11 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
      */
     @Override
     public int getItemCount() {
-        if (null == mCursor) return 0;
-        return mCursor.getCount();
+        int count = 0;
+        for (Cursor page : mPages) {
+            count += page.getCount();
+        }
+        return count;
     }
 
     /**
@@ -247,18 +291,90 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
     }
 
     /**
-     * Swaps the cursor used by the ForecastAdapter for its weather data. This method is called by
-     * MainActivity after a load has finished, as well as when the Loader responsible for loading
-     * the weather data is reset. When this method is called, we assume we have a completely new
-     * set of data, so we call notifyDataSetChanged to tell the RecyclerView to update.
+     * Returns the number of pages of the forecast the adapter has.
+     */
+    int getPageCount() {
+        return mPages.size();
+    }
+
+    /**
+     * Sets the Cursor of a page of the forecast. This method is called by MainActivity after a
+     * load has finished. A new page is added after the others. A page the adapter already has
+     * is replaced, and since the pages after it start from its last date, which may have
+     * changed, they are dropped and asked for again as the user scrolls.
+     *
+     * @param page      The index of the page, 0 for the first
+     * @param newCursor The days of the page
+     */
+    void swapPage(int page, Cursor newCursor) {
+        if (page > mPages.size()) {
+            throw new IllegalArgumentException("Page " + page + " is after the last page");
+        }
+
+        if (page == mPages.size()) {
+            int positionStart = getItemCount();
+            mPages.add(newCursor);
+            mPageRequested = false;
+            notifyItemRangeInserted(positionStart, newCursor.getCount());
+            return;
+        }
+
+        mPages.set(page, newCursor);
+        mPages.subList(page + 1, mPages.size()).clear();
+        mPageRequested = false;
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Drops a page of the forecast and the pages after it. This method is called by
+     * MainActivity when the Loader of a page is reset, since its Cursor is about to be closed.
      *
-     * @param newCursor the new cursor to use as ForecastAdapter's data source
+     * @param page The index of the first page to drop, 0 to drop them all
      */
-    void swapCursor(Cursor newCursor) {
-        mCursor = newCursor;
+    void dropPages(int page) {
+        if (page >= mPages.size()) {
+            return;
+        }
+        mPages.subList(page, mPages.size()).clear();
+        mPageRequested = false;
         notifyDataSetChanged();
     }
 
+    /**
+     * Asks for the page after the last one we have, unless it has been asked for already, or
+     * the last page came back short, in which case there are no more days.
+     */
+    private void requestNextPage() {
+        if (mPageRequested || mPages.isEmpty()) {
+            return;
+        }
+        Cursor lastPage = mPages.get(mPages.size() - 1);
+        if (lastPage.getCount() < MainActivity.FORECAST_PAGE_SIZE || !lastPage.moveToLast()) {
+            return;
+        }
+
+        mPageRequested = true;
+        mPageHandler.onLoadPage(mPages.size(),
+                lastPage.getLong(MainActivity.INDEX_WEATHER_DATE));
+    }
+
+    /**
+     * Moves the Cursor of the page a position of the list is in to the day at that position.
+     *
+     * @param position The position in the list
+     * @return The Cursor of the page, at the day
+     */
+    private Cursor moveToPosition(int position) {
+        for (Cursor page : mPages) {
+            if (position < page.getCount()) {
+                page.moveToPosition(position);
+                return page;
+            }
+            position -= page.getCount();
+        }
+        throw new IndexOutOfBoundsException("No day at position " + position);
+    }
+
     /**
      * A ViewHolder is a required part of the pattern for RecyclerViews. It mostly behaves as
      * a cache of the child views for a forecast item. It's also a convenient place to set an
@@ -294,8 +410,8 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
         @Override
         public void onClick(View v) {
             int adapterPosition = getAdapterPosition();
-            mCursor.moveToPosition(adapterPosition);
-            long dateInMillis = mCursor.getLong(MainActivity.INDEX_WEATHER_DATE);
+            Cursor cursor = moveToPosition(adapterPosition);
+            long dateInMillis = cursor.getLong(MainActivity.INDEX_WEATHER_DATE);
             mClickHandler.onClick(dateInMillis);
         }
     }
@@ -15,10 +15,8 @@
  */
 package com.example.android.sunshine;
 
-import android.app.AlarmManager;
-import android.app.PendingIntent;
-import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
@@ -37,13 +35,13 @@ import android.widget.ProgressBar;
 
 import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
-import com.example.android.sunshine.sync.MyAlarmReceiver;
 import com.example.android.sunshine.sync.SunshineSyncUtils;
-import com.example.android.sunshine.sync.SunshineSyncWearableService;
 
 public class MainActivity extends AppCompatActivity implements
         LoaderManager.LoaderCallbacks<Cursor>,
-        ForecastAdapter.ForecastAdapterOnClickHandler {
+        ForecastAdapter.ForecastAdapterOnClickHandler,
+        ForecastAdapter.ForecastAdapterPageHandler,
+        SharedPreferences.OnSharedPreferenceChangeListener {
 
     private final String TAG = MainActivity.class.getSimpleName();
 
@@ -68,22 +66,32 @@ public class MainActivity extends AppCompatActivity implements
     public static final int INDEX_WEATHER_MIN_TEMP = 2;
     public static final int INDEX_WEATHER_CONDITION_ID = 3;
 
+    /*
+     * The number of days of forecast loaded at a time. The list starts with one page, and
+     * ForecastAdapter asks for the next as the user scrolls towards its end.
+     */
+    public static final int FORECAST_PAGE_SIZE = 20;
 
     /*
-     * This ID will be used to identify the Loader responsible for loading our weather forecast. In
-     * some cases, one Activity can deal with many Loaders. However, in our case, there is only one.
-     * We will still use this ID to initialize the loader and create the loader for best practice.
-     * Please note that 44 was chosen arbitrarily. You can use whatever number you like, so long as
-     * it is unique and consistent.
+     * This ID will be used to identify the Loader responsible for loading the first page of our
+     * weather forecast. Each page after it has a Loader of its own, whose ID is this one plus
+     * the index of the page. Please note that 44 was chosen arbitrarily. You can use whatever
+     * number you like, so long as it is unique and consistent.
      */
     private static final int ID_FORECAST_LOADER = 44;
 
+    /* The date the page a Loader loads starts after, in the arguments of its Loader */
+    private static final String ARG_LAST_DATE = "last_date";
+
     private ForecastAdapter mForecastAdapter;
     private RecyclerView mRecyclerView;
     private int mPosition = RecyclerView.NO_POSITION;
 
     private ProgressBar mLoadingIndicator;
 
+    /* The ID of the location whose forecast we are showing, see SunshinePreferences */
+    private long mLocationId;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -135,13 +143,13 @@ public class MainActivity extends AppCompatActivity implements
          * The ForecastAdapter is responsible for linking our weather data with the Views that
          * will end up displaying our weather data.
          *
-         * Although passing in "this" twice may seem strange, it is actually a sign of separation
-         * of concerns, which is best programming practice. The ForecastAdapter requires an
-         * Android Context (which all Activities are) as well as an onClickHandler. Since our
-         * MainActivity implements the ForecastAdapter ForecastOnClickHandler interface, "this"
-         * is also an instance of that type of handler.
+         * Although passing in "this" three times may seem strange, it is actually a sign of
+         * separation of concerns, which is best programming practice. The ForecastAdapter
+         * requires an Android Context (which all Activities are) as well as an onClickHandler
+         * and a handler that loads its pages. Since our MainActivity implements both of the
+         * ForecastAdapter handler interfaces, "this" is also an instance of those handlers.
          */
-        mForecastAdapter = new ForecastAdapter(this, this);
+        mForecastAdapter = new ForecastAdapter(this, this, this);
 
         /* Setting the adapter attaches it to the RecyclerView in our layout. */
         mRecyclerView.setAdapter(mForecastAdapter);
@@ -149,6 +157,21 @@ public class MainActivity extends AppCompatActivity implements
 
         showLoading();
 
+        /*
+         * The forecast of every location the user has chosen is kept, so if we know the ID of
+         * the preferred location, its forecast can be shown right away. Otherwise, we'll be told
+         * the ID once the first sync for the location has stored its forecast.
+         */
+        mLocationId = SunshinePreferences.getPreferredLocationId(this);
+        SunshinePreferences.registerLocationIdListener(this, this);
+
+        /*
+         * The Loaders of the pages after the first outlive a rotation, but the new list starts
+         * with the first page, which may have changed since. Pages are loaded again as the user
+         * scrolls.
+         */
+        destroyPageLoaders(1);
+
         /*
          * Ensures a loader is initialized and active. If the loader doesn't already exist, one is
          * created and (if the activity/fragment is currently started) starts the loader. Otherwise
@@ -157,14 +180,72 @@ public class MainActivity extends AppCompatActivity implements
         getSupportLoaderManager().initLoader(ID_FORECAST_LOADER, null, this);
 
         SunshineSyncUtils.initialize(this);
+    }
+
+    /**
+     * The user may have chosen another location in the settings while we were stopped. If we
+     * have its forecast already, we switch to it straight away.
+     */
+    @Override
+    protected void onStart() {
+        super.onStart();
+        showPreferredLocation();
+    }
+
+    @Override
+    protected void onDestroy() {
+        SunshinePreferences.unregisterLocationIdListener(this, this);
+        super.onDestroy();
+    }
+
+    /**
+     * Called when the ID of a location has been saved, which happens when a location is synced
+     * for the first time. If it's the location the user has chosen, we can show its forecast.
+     */
+    @Override
+    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+        showPreferredLocation();
+    }
+
+    /**
+     * Restarts the forecast loader for the preferred location, if that isn't the location
+     * whose forecast we're showing.
+     */
+    private void showPreferredLocation() {
+        long preferredLocationId = SunshinePreferences.getPreferredLocationId(this);
+        if (preferredLocationId == mLocationId) {
+            return;
+        }
 
-        Intent intent = new Intent(getApplicationContext(), MyAlarmReceiver.class);
-        final PendingIntent pIntent = PendingIntent.getBroadcast(this, MyAlarmReceiver.REQUEST_CODE,
-                intent, PendingIntent.FLAG_UPDATE_CURRENT);
-        long firstMillis = System.currentTimeMillis(); // alarm is set right away
-        AlarmManager alarm = (AlarmManager) this.getSystemService(Context.ALARM_SERVICE);
-        alarm.setInexactRepeating(AlarmManager.RTC_WAKEUP, firstMillis,
-                AlarmManager.INTERVAL_HOUR, pIntent);
+        mLocationId = preferredLocationId;
+        mPosition = RecyclerView.NO_POSITION;
+        showLoading();
+        destroyPageLoaders(1);
+        getSupportLoaderManager().restartLoader(ID_FORECAST_LOADER, null, this);
+    }
+
+    /**
+     * Called by the ForecastAdapter when the user scrolls close to the end of the pages it has.
+     * Starts the Loader of the next page, which starts after the last day of the page before.
+     */
+    @Override
+    public void onLoadPage(int page, long lastDate) {
+        Bundle args = new Bundle();
+        args.putLong(ARG_LAST_DATE, lastDate);
+        getSupportLoaderManager().restartLoader(ID_FORECAST_LOADER + page, args, this);
+    }
+
+    /**
+     * Destroys the Loaders of a page and the pages after it, which drops those pages from the
+     * ForecastAdapter.
+     *
+     * @param page The index of the first page whose Loader to destroy
+     */
+    private void destroyPageLoaders(int page) {
+        LoaderManager loaderManager = getSupportLoaderManager();
+        for (int id = ID_FORECAST_LOADER + page; loaderManager.getLoader(id) != null; id++) {
+            loaderManager.destroyLoader(id);
+        }
     }
 
     /**
@@ -195,8 +276,8 @@ public class MainActivity extends AppCompatActivity implements
 
     /**
      * Called by the {@link android.support.v4.app.LoaderManagerImpl} when a new Loader needs to be
-     * created. This Activity only uses one loader, so we don't necessarily NEED to check the
-     * loaderId, but this is certainly best practice.
+     * created. Every Loader of this Activity loads a page of the forecast, the first page with
+     * ID_FORECAST_LOADER and each page after it with the ID after that of the page before.
      *
      * @param loaderId The loader ID for which we need to create a loader
      * @param bundle   Any arguments supplied by the caller
@@ -205,31 +286,33 @@ public class MainActivity extends AppCompatActivity implements
     @Override
     public Loader<Cursor> onCreateLoader(int loaderId, Bundle bundle) {
 
+        if (loaderId < ID_FORECAST_LOADER) {
+            throw new RuntimeException("Loader Not Implemented: " + loaderId);
+        }
 
-        switch (loaderId) {
-
-            case ID_FORECAST_LOADER:
-                /* URI for all rows of weather data in our weather table */
-                Uri forecastQueryUri = WeatherContract.WeatherEntry.CONTENT_URI;
-                /* Sort order: Ascending by date */
-                String sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
-                /*
-                 * A SELECTION in SQL declares which rows you'd like to return. In our case, we
-                 * want all weather data from today onwards that is stored in our weather table.
-                 * We created a handy method to do that in our WeatherEntry class.
-                 */
-                String selection = WeatherContract.WeatherEntry.getSqlSelectForTodayOnwards();
-
-                return new CursorLoader(this,
-                        forecastQueryUri,
-                        MAIN_FORECAST_PROJECTION,
-                        selection,
-                        null,
-                        sortOrder);
-
-            default:
-                throw new RuntimeException("Loader Not Implemented: " + loaderId);
+        /* URI for the first page of weather data of the preferred location */
+        Uri forecastQueryUri = WeatherContract.WeatherEntry
+                .buildWeatherPageUri(mLocationId, FORECAST_PAGE_SIZE);
+        /* The pages after it start after the last day of the page before */
+        if (loaderId > ID_FORECAST_LOADER) {
+            forecastQueryUri = WeatherContract.buildNextPageUri(forecastQueryUri,
+                    bundle.getLong(ARG_LAST_DATE));
         }
+        /* Sort order: Ascending by date, the only order pages can be read in */
+        String sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+        /*
+         * A SELECTION in SQL declares which rows you'd like to return. In our case, we
+         * want all weather data from today onwards that is stored in our weather table.
+         * We created a handy method to do that in our WeatherEntry class.
+         */
+        String selection = WeatherContract.WeatherEntry.getSqlSelectForTodayOnwards();
+
+        return new CursorLoader(this,
+                forecastQueryUri,
+                MAIN_FORECAST_PROJECTION,
+                selection,
+                null,
+                sortOrder);
     }
 
     /**
@@ -245,7 +328,22 @@ public class MainActivity extends AppCompatActivity implements
      */
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        mForecastAdapter.swapCursor(data);
+        int page = loader.getId() - ID_FORECAST_LOADER;
+
+        /*
+         * A page we have already has been loaded again, because the forecast changed. The pages
+         * after it start from its last day, which may have changed too, so they are dropped.
+         */
+        if (page < mForecastAdapter.getPageCount()) {
+            destroyPageLoaders(page + 1);
+        }
+        mForecastAdapter.swapPage(page, data);
+
+        /* The pages after the first are added at the end, where the user scrolled to */
+        if (page > 0) {
+            return;
+        }
+
         if (mPosition == RecyclerView.NO_POSITION) mPosition = 0;
         mRecyclerView.smoothScrollToPosition(mPosition);
         if (data.getCount() != 0) showWeatherDataView();
@@ -261,9 +359,9 @@ public class MainActivity extends AppCompatActivity implements
     public void onLoaderReset(Loader<Cursor> loader) {
         /*
          * Since this Loader's data is now invalid, we need to clear the Adapter that is
-         * displaying the data.
+         * displaying the data. The pages after it start from its last day, so they go too.
          */
-        mForecastAdapter.swapCursor(null);
+        mForecastAdapter.dropPages(loader.getId() - ID_FORECAST_LOADER);
     }
 
     /**
@@ -275,7 +373,8 @@ public class MainActivity extends AppCompatActivity implements
     @Override
     public void onClick(long date) {
         Intent weatherDetailIntent = new Intent(MainActivity.this, DetailActivity.class);
-        Uri uriForDateClicked = WeatherContract.WeatherEntry.buildWeatherUriWithDate(date);
+        Uri uriForDateClicked = WeatherContract.WeatherEntry
+                .buildWeatherUriWithLocationAndDate(mLocationId, date);
         weatherDetailIntent.setData(uriForDateClicked);
         startActivity(weatherDetailIntent);
     }
@@ -0,0 +1,323 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Bundle;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+
+/**
+ * A forecast of any number of days, held as one primitive array per column of the weather table
+ * rather than as one {@link ContentValues} per day.
+ * <p>
+ * A ContentValues is a HashMap, so every value put in it is boxed into an object of its own, only
+ * to be unboxed again when it is written to the database. A forecast of N days would cost us
+ * N * 8 boxed values plus N maps. A ForecastBatch costs the same handful of arrays however many
+ * days it holds, which is why the sync hands one from the JSON parser all the way through to the
+ * {@link WeatherProvider}.
+ * <p>
+ * Days are kept in the order they were added. A batch is not thread safe.
+ */
+public final class ForecastBatch {
+
+    /* A forecast from Open Weather Map is usually two weeks long */
+    private static final int DEFAULT_CAPACITY = 14;
+
+    /* Keys used to pass a batch through a Bundle, see toBundle */
+    private static final String KEY_DATES = "forecast_batch_dates";
+    private static final String KEY_WEATHER_IDS = "forecast_batch_weather_ids";
+    private static final String KEY_MIN_TEMPS = "forecast_batch_min_temps";
+    private static final String KEY_MAX_TEMPS = "forecast_batch_max_temps";
+    private static final String KEY_HUMIDITIES = "forecast_batch_humidities";
+    private static final String KEY_PRESSURES = "forecast_batch_pressures";
+    private static final String KEY_WIND_SPEEDS = "forecast_batch_wind_speeds";
+    private static final String KEY_DEGREES = "forecast_batch_degrees";
+
+    private int mSize;
+
+    private long[] mDates;
+    private int[] mWeatherIds;
+    private double[] mMinTemps;
+    private double[] mMaxTemps;
+    private double[] mHumidities;
+    private double[] mPressures;
+    private double[] mWindSpeeds;
+    private double[] mDegrees;
+
+    /**
+     * Creates an empty batch with room for a two week forecast. It grows as needed.
+     */
+    public ForecastBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an empty batch with room for a number of days. It grows as needed.
+     *
+     * @param capacity The number of days the batch is expected to hold
+     */
+    public ForecastBatch(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Capacity must not be negative: " + capacity);
+        }
+        mDates = new long[capacity];
+        mWeatherIds = new int[capacity];
+        mMinTemps = new double[capacity];
+        mMaxTemps = new double[capacity];
+        mHumidities = new double[capacity];
+        mPressures = new double[capacity];
+        mWindSpeeds = new double[capacity];
+        mDegrees = new double[capacity];
+    }
+
+    /**
+     * @return The number of days in the batch
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return true if the batch holds no days at all
+     */
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /**
+     * Adds a day to the end of the batch. The values are the same as those of the matching
+     * columns in {@link WeatherEntry}.
+     *
+     * @param date      Normalized UTC date of the day
+     * @param weatherId Weather condition ID, as returned by Open Weather Map
+     * @param minTemp   Minimum temperature for the day in °C
+     * @param maxTemp   Maximum temperature for the day in °C
+     * @param humidity  Humidity as a percentage
+     * @param pressure  Atmospheric pressure in hPa
+     * @param windSpeed Wind speed
+     * @param degrees   Meteorological wind direction (0 is north, 180 is south)
+     */
+    public void add(long date, int weatherId, double minTemp, double maxTemp, double humidity,
+                    double pressure, double windSpeed, double degrees) {
+        if (mSize == mDates.length) {
+            grow();
+        }
+
+        mDates[mSize] = date;
+        mWeatherIds[mSize] = weatherId;
+        mMinTemps[mSize] = minTemp;
+        mMaxTemps[mSize] = maxTemp;
+        mHumidities[mSize] = humidity;
+        mPressures[mSize] = pressure;
+        mWindSpeeds[mSize] = windSpeed;
+        mDegrees[mSize] = degrees;
+        mSize++;
+    }
+
+    /**
+     * Removes every day from the batch, keeping its arrays so it can be filled again.
+     */
+    public void clear() {
+        mSize = 0;
+    }
+
+    public long getDate(int index) {
+        checkIndex(index);
+        return mDates[index];
+    }
+
+    public int getWeatherId(int index) {
+        checkIndex(index);
+        return mWeatherIds[index];
+    }
+
+    public double getMinTemp(int index) {
+        checkIndex(index);
+        return mMinTemps[index];
+    }
+
+    public double getMaxTemp(int index) {
+        checkIndex(index);
+        return mMaxTemps[index];
+    }
+
+    public double getHumidity(int index) {
+        checkIndex(index);
+        return mHumidities[index];
+    }
+
+    public double getPressure(int index) {
+        checkIndex(index);
+        return mPressures[index];
+    }
+
+    public double getWindSpeed(int index) {
+        checkIndex(index);
+        return mWindSpeeds[index];
+    }
+
+    public double getDegrees(int index) {
+        checkIndex(index);
+        return mDegrees[index];
+    }
+
+    /**
+     * Converts a single day into ContentValues, for the few callers that still need them. This
+     * boxes every value, so don't call it for every day of a batch on a hot path.
+     *
+     * @param index The position of the day in the batch
+     * @return ContentValues holding the day's weather, keyed by {@link WeatherEntry} columns
+     */
+    public ContentValues toContentValues(int index) {
+        checkIndex(index);
+
+        ContentValues weatherValues = new ContentValues();
+        weatherValues.put(WeatherEntry.COLUMN_DATE, mDates[index]);
+        weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, mWeatherIds[index]);
+        weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, mMinTemps[index]);
+        weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, mMaxTemps[index]);
+        weatherValues.put(WeatherEntry.COLUMN_HUMIDITY, mHumidities[index]);
+        weatherValues.put(WeatherEntry.COLUMN_PRESSURE, mPressures[index]);
+        weatherValues.put(WeatherEntry.COLUMN_WIND_SPEED, mWindSpeeds[index]);
+        weatherValues.put(WeatherEntry.COLUMN_DEGREES, mDegrees[index]);
+        return weatherValues;
+    }
+
+    /**
+     * Packs the batch into a Bundle, so it can be passed to {@link WeatherProvider} through
+     * {@link android.content.ContentResolver#call}. The arrays are trimmed to the size of the
+     * batch, so the Bundle holds one array per column and nothing else.
+     *
+     * @return A Bundle that {@link #fromBundle(Bundle)} turns back into an equal batch
+     */
+    public Bundle toBundle() {
+        Bundle bundle = new Bundle();
+        bundle.putLongArray(KEY_DATES, Arrays.copyOf(mDates, mSize));
+        bundle.putIntArray(KEY_WEATHER_IDS, Arrays.copyOf(mWeatherIds, mSize));
+        bundle.putDoubleArray(KEY_MIN_TEMPS, Arrays.copyOf(mMinTemps, mSize));
+        bundle.putDoubleArray(KEY_MAX_TEMPS, Arrays.copyOf(mMaxTemps, mSize));
+        bundle.putDoubleArray(KEY_HUMIDITIES, Arrays.copyOf(mHumidities, mSize));
+        bundle.putDoubleArray(KEY_PRESSURES, Arrays.copyOf(mPressures, mSize));
+        bundle.putDoubleArray(KEY_WIND_SPEEDS, Arrays.copyOf(mWindSpeeds, mSize));
+        bundle.putDoubleArray(KEY_DEGREES, Arrays.copyOf(mDegrees, mSize));
+        return bundle;
+    }
+
+    /**
+     * Unpacks a batch from a Bundle made by {@link #toBundle()}. The batch takes over the arrays
+     * in the Bundle rather than copying them.
+     *
+     * @param bundle A Bundle made by {@link #toBundle()}
+     * @return The batch, or null if the Bundle doesn't hold one
+     */
+    public static ForecastBatch fromBundle(Bundle bundle) {
+        if (bundle == null) {
+            return null;
+        }
+
+        long[] dates = bundle.getLongArray(KEY_DATES);
+        int[] weatherIds = bundle.getIntArray(KEY_WEATHER_IDS);
+        double[] minTemps = bundle.getDoubleArray(KEY_MIN_TEMPS);
+        double[] maxTemps = bundle.getDoubleArray(KEY_MAX_TEMPS);
+        double[] humidities = bundle.getDoubleArray(KEY_HUMIDITIES);
+        double[] pressures = bundle.getDoubleArray(KEY_PRESSURES);
+        double[] windSpeeds = bundle.getDoubleArray(KEY_WIND_SPEEDS);
+        double[] degrees = bundle.getDoubleArray(KEY_DEGREES);
+
+        if (dates == null || weatherIds == null || minTemps == null || maxTemps == null
+                || humidities == null || pressures == null || windSpeeds == null
+                || degrees == null) {
+            return null;
+        }
+
+        int size = dates.length;
+        if (weatherIds.length != size || minTemps.length != size || maxTemps.length != size
+                || humidities.length != size || pressures.length != size
+                || windSpeeds.length != size || degrees.length != size) {
+            throw new IllegalArgumentException("Forecast batch columns differ in length");
+        }
+
+        ForecastBatch batch = new ForecastBatch(0);
+        batch.mSize = size;
+        batch.mDates = dates;
+        batch.mWeatherIds = weatherIds;
+        batch.mMinTemps = minTemps;
+        batch.mMaxTemps = maxTemps;
+        batch.mHumidities = humidities;
+        batch.mPressures = pressures;
+        batch.mWindSpeeds = windSpeeds;
+        batch.mDegrees = degrees;
+        return batch;
+    }
+
+    /**
+     * Reads every row of a cursor into a batch, for instance to compare the forecast we have
+     * stored with a new one. The cursor must hold all of the {@link WeatherEntry} columns that a
+     * batch has, and is left positioned after its last row.
+     *
+     * @param cursor The rows to read
+     * @return A batch holding one day for each row, in the order of the cursor
+     */
+    public static ForecastBatch fromCursor(Cursor cursor) {
+        int dateColumn = cursor.getColumnIndexOrThrow(WeatherEntry.COLUMN_DATE);
+        int weatherIdColumn = cursor.getColumnIndexOrThrow(WeatherEntry.COLUMN_WEATHER_ID);
+        int minTempColumn = cursor.getColumnIndexOrThrow(WeatherEntry.COLUMN_MIN_TEMP);
+        int maxTempColumn = cursor.getColumnIndexOrThrow(WeatherEntry.COLUMN_MAX_TEMP);
+        int humidityColumn = cursor.getColumnIndexOrThrow(WeatherEntry.COLUMN_HUMIDITY);
+        int pressureColumn = cursor.getColumnIndexOrThrow(WeatherEntry.COLUMN_PRESSURE);
+        int windSpeedColumn = cursor.getColumnIndexOrThrow(WeatherEntry.COLUMN_WIND_SPEED);
+        int degreesColumn = cursor.getColumnIndexOrThrow(WeatherEntry.COLUMN_DEGREES);
+
+        ForecastBatch batch = new ForecastBatch(cursor.getCount());
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            batch.add(cursor.getLong(dateColumn),
+                    cursor.getInt(weatherIdColumn),
+                    cursor.getDouble(minTempColumn),
+                    cursor.getDouble(maxTempColumn),
+                    cursor.getDouble(humidityColumn),
+                    cursor.getDouble(pressureColumn),
+                    cursor.getDouble(windSpeedColumn),
+                    cursor.getDouble(degreesColumn));
+        }
+        return batch;
+    }
+
+    /**
+     * Doubles the capacity of every column, the way ArrayList grows.
+     */
+    private void grow() {
+        int capacity = Math.max(DEFAULT_CAPACITY, mDates.length * 2);
+        mDates = Arrays.copyOf(mDates, capacity);
+        mWeatherIds = Arrays.copyOf(mWeatherIds, capacity);
+        mMinTemps = Arrays.copyOf(mMinTemps, capacity);
+        mMaxTemps = Arrays.copyOf(mMaxTemps, capacity);
+        mHumidities = Arrays.copyOf(mHumidities, capacity);
+        mPressures = Arrays.copyOf(mPressures, capacity);
+        mWindSpeeds = Arrays.copyOf(mWindSpeeds, capacity);
+        mDegrees = Arrays.copyOf(mDegrees, capacity);
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + mSize);
+        }
+    }
+}
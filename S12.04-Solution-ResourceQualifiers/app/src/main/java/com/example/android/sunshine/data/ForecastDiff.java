@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import java.util.Arrays;
+
+/**
+ * The changes needed to turn the forecast we have stored into a new one, matched up by date.
+ * <p>
+ * Days in the new forecast that we don't have yet are inserts, days we have whose weather is
+ * different are updates, and days we have that the new forecast doesn't mention any more (such
+ * as yesterday) are removals. Days whose weather hasn't changed at all are left alone, so a sync
+ * that brings nothing new doesn't write anything.
+ * <p>
+ * Both forecasts are walked in date order, so working out the changes needs no more than a few
+ * primitive arrays, however long the forecasts are.
+ */
+public final class ForecastDiff {
+
+    private static final int[] NO_INDICES = new int[0];
+    private static final long[] NO_DATES = new long[0];
+
+    private final ForecastBatch mIncoming;
+    private final int[] mInsertIndices;
+    private final int[] mUpdateIndices;
+    private final long[] mRemovedDates;
+    private final int mUnchangedCount;
+
+    private ForecastDiff(ForecastBatch incoming, int[] insertIndices, int[] updateIndices,
+                         long[] removedDates, int unchangedCount) {
+        mIncoming = incoming;
+        mInsertIndices = insertIndices;
+        mUpdateIndices = updateIndices;
+        mRemovedDates = removedDates;
+        mUnchangedCount = unchangedCount;
+    }
+
+    /**
+     * Works out the changes needed to replace one forecast with another. If the new forecast
+     * holds the same date more than once, the last of them wins, just as it would when inserted
+     * into the weather table.
+     *
+     * @param stored   The forecast we have stored
+     * @param incoming The new forecast
+     * @return The changes to make
+     */
+    public static ForecastDiff compute(ForecastBatch stored, ForecastBatch incoming) {
+        int[] storedOrder = sortedByDate(stored);
+        int[] incomingOrder = sortedByDate(incoming);
+
+        /* Each list can be no longer than the forecast it indexes into */
+        int[] inserts = new int[incoming.size()];
+        int[] updates = new int[incoming.size()];
+        long[] removals = new long[stored.size()];
+        int insertCount = 0;
+        int updateCount = 0;
+        int removalCount = 0;
+        int unchangedCount = 0;
+
+        int s = 0;
+        int i = 0;
+        while (i < incomingOrder.length) {
+            int incomingIndex = incomingOrder[i];
+            long date = incoming.getDate(incomingIndex);
+
+            /* Skip ahead to the last day in the new forecast with this date */
+            while (i + 1 < incomingOrder.length
+                    && incoming.getDate(incomingOrder[i + 1]) == date) {
+                incomingIndex = incomingOrder[++i];
+            }
+
+            /* Stored days that come before this date aren't in the new forecast */
+            while (s < storedOrder.length && stored.getDate(storedOrder[s]) < date) {
+                removals[removalCount++] = stored.getDate(storedOrder[s++]);
+            }
+
+            if (s < storedOrder.length && stored.getDate(storedOrder[s]) == date) {
+                if (isSameWeather(stored, storedOrder[s], incoming, incomingIndex)) {
+                    unchangedCount++;
+                } else {
+                    updates[updateCount++] = incomingIndex;
+                }
+                s++;
+            } else {
+                inserts[insertCount++] = incomingIndex;
+            }
+            i++;
+        }
+
+        /* Whatever is left of the stored forecast comes after the end of the new one */
+        while (s < storedOrder.length) {
+            removals[removalCount++] = stored.getDate(storedOrder[s++]);
+        }
+
+        return new ForecastDiff(incoming,
+                insertCount > 0 ? Arrays.copyOf(inserts, insertCount) : NO_INDICES,
+                updateCount > 0 ? Arrays.copyOf(updates, updateCount) : NO_INDICES,
+                removalCount > 0 ? Arrays.copyOf(removals, removalCount) : NO_DATES,
+                unchangedCount);
+    }
+
+    /**
+     * @return The new forecast the diff was computed for
+     */
+    public ForecastBatch getIncoming() {
+        return mIncoming;
+    }
+
+    /**
+     * @return Positions in the new forecast of the days that need to be inserted
+     */
+    public int[] getInsertIndices() {
+        return mInsertIndices;
+    }
+
+    /**
+     * @return Positions in the new forecast of the days whose stored weather needs updating
+     */
+    public int[] getUpdateIndices() {
+        return mUpdateIndices;
+    }
+
+    /**
+     * @return Dates of the stored days that are no longer part of the forecast
+     */
+    public long[] getRemovedDates() {
+        return mRemovedDates;
+    }
+
+    /**
+     * @return The number of stored days whose weather is the same in the new forecast
+     */
+    public int getUnchangedCount() {
+        return mUnchangedCount;
+    }
+
+    /**
+     * @return true if the stored forecast already matches the new one
+     */
+    public boolean isEmpty() {
+        return mInsertIndices.length == 0
+                && mUpdateIndices.length == 0
+                && mRemovedDates.length == 0;
+    }
+
+    /**
+     * Compares every column except the date, which the caller has already matched.
+     * Double.compare is used so that two NaNs count as the same value.
+     */
+    private static boolean isSameWeather(ForecastBatch a, int indexA,
+                                         ForecastBatch b, int indexB) {
+        return a.getWeatherId(indexA) == b.getWeatherId(indexB)
+                && Double.compare(a.getMinTemp(indexA), b.getMinTemp(indexB)) == 0
+                && Double.compare(a.getMaxTemp(indexA), b.getMaxTemp(indexB)) == 0
+                && Double.compare(a.getHumidity(indexA), b.getHumidity(indexB)) == 0
+                && Double.compare(a.getPressure(indexA), b.getPressure(indexB)) == 0
+                && Double.compare(a.getWindSpeed(indexA), b.getWindSpeed(indexB)) == 0
+                && Double.compare(a.getDegrees(indexA), b.getDegrees(indexB)) == 0;
+    }
+
+    /**
+     * Returns the positions of a batch's days, ordered by date. Days with the same date keep
+     * the order they were added in. Forecasts almost always arrive in date order already, in
+     * which case no sorting is needed at all.
+     */
+    private static int[] sortedByDate(ForecastBatch batch) {
+        int size = batch.size();
+        int[] order = new int[size];
+        boolean isSorted = true;
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+            if (i > 0 && batch.getDate(i) < batch.getDate(i - 1)) {
+                isSorted = false;
+            }
+        }
+        if (isSorted) {
+            return order;
+        }
+
+        /* A bottom-up merge sort, which is stable and doesn't box the indices */
+        int[] scratch = new int[size];
+        for (int width = 1; width < size; width *= 2) {
+            for (int low = 0; low < size - width; low += 2 * width) {
+                int middle = low + width;
+                int high = Math.min(low + 2 * width, size);
+                int left = low;
+                int right = middle;
+                for (int k = low; k < high; k++) {
+                    if (left < middle && (right >= high
+                            || batch.getDate(order[left]) <= batch.getDate(order[right]))) {
+                        scratch[k] = order[left++];
+                    } else {
+                        scratch[k] = order[right++];
+                    }
+                }
+                System.arraycopy(scratch, low, order, low, high - low);
+            }
+        }
+        return order;
+    }
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.SparseIntArray;
+
+import com.example.android.sunshine.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Keeps the history table small enough to hold years of weather and still answer a query over a
+ * month or a year in a few milliseconds.
+ * <p>
+ * The history is handled in partitions of one calendar month. SQLite has no partitioned tables,
+ * so a partition is simply the range of dates in that month; every query over it goes through
+ * the (location_id, date) index. Months before the most recent few are downsampled from one row
+ * per day to one row per period of {@link #DAYS_PER_PERIOD} days, starting on the 1st, so that
+ * a period never spans two months. If the table still holds more rows than its budget, the
+ * oldest months are dropped whole.
+ * <p>
+ * Compacting is idempotent: a period that is already a single row is left as it is. It has to
+ * be run inside a transaction, see WeatherProvider.
+ */
+class HistoryCompaction {
+
+    /* Months, counting the current one, whose history is kept with a row for every day */
+    static final int DEFAULT_DAILY_MONTHS = 3;
+
+    /*
+     * The size budget of the history table. A location takes about 60 rows a year once it has
+     * been downsampled, so this is years of history for more locations than anyone syncs.
+     */
+    static final int DEFAULT_MAX_ROWS = 10000;
+
+    /* The number of days each row of a downsampled month stands for, apart from the last */
+    static final int DAYS_PER_PERIOD = 7;
+
+    private static final String[] HISTORY_COLUMNS = {
+            WeatherEntry.COLUMN_LOCATION_ID,
+            WeatherEntry.COLUMN_DATE,
+            HistoryEntry.COLUMN_DAYS,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES,
+            WeatherProvider.SQL_HISTORY_PRECIPITATION_DAYS
+    };
+
+    private static final String SQL_INSERT_PERIOD =
+            "INSERT INTO " + HistoryEntry.TABLE_NAME + " ("
+                    + WeatherEntry.COLUMN_LOCATION_ID + ", "
+                    + WeatherEntry.COLUMN_DATE + ", "
+                    + HistoryEntry.COLUMN_DAYS + ", "
+                    + WeatherEntry.COLUMN_WEATHER_ID + ", "
+                    + WeatherEntry.COLUMN_MIN_TEMP + ", "
+                    + WeatherEntry.COLUMN_MAX_TEMP + ", "
+                    + WeatherEntry.COLUMN_HUMIDITY + ", "
+                    + WeatherEntry.COLUMN_PRESSURE + ", "
+                    + WeatherEntry.COLUMN_WIND_SPEED + ", "
+                    + WeatherEntry.COLUMN_DEGREES + ", "
+                    + HistoryEntry.COLUMN_PRECIPITATION_DAYS
+                    + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String SQL_SELECT_PERIOD =
+            WeatherEntry.COLUMN_LOCATION_ID + " = ? AND "
+                    + WeatherEntry.COLUMN_DATE + " >= ? AND "
+                    + WeatherEntry.COLUMN_DATE + " < ?";
+
+    private final int mDailyMonths;
+    private final int mMaxRows;
+
+    private int mRowsInserted;
+    private int mRowsDeleted;
+
+    /**
+     * @param dailyMonths The number of months, counting the current one, to keep a row for
+     *                    every day of
+     * @param maxRows     The most rows the history table may hold after compacting
+     */
+    HistoryCompaction(int dailyMonths, int maxRows) {
+        if (dailyMonths < 1 || maxRows < 0) {
+            throw new IllegalArgumentException("Invalid compaction settings: " + dailyMonths
+                    + " daily months, " + maxRows + " rows");
+        }
+        mDailyMonths = dailyMonths;
+        mMaxRows = maxRows;
+    }
+
+    /**
+     * Downsamples the months before the daily ones, then drops the oldest months for as long as
+     * the table is over budget. Must be called inside a transaction.
+     *
+     * @param db    The database holding the history table
+     * @param today Normalized date of today
+     */
+    void compact(SQLiteDatabase db, long today) {
+        downsample(db, addMonths(startOfMonth(today), 1 - mDailyMonths));
+        enforceBudget(db);
+    }
+
+    /* The number of downsampled rows written by compact */
+    int getRowsInserted() {
+        return mRowsInserted;
+    }
+
+    /* The number of rows removed by compact, downsampled as well as dropped */
+    int getRowsDeleted() {
+        return mRowsDeleted;
+    }
+
+    boolean isEmpty() {
+        return mRowsInserted == 0 && mRowsDeleted == 0;
+    }
+
+    /**
+     * Replaces every period before the given date that has more than one row with a single row
+     * summarizing them.
+     */
+    private void downsample(SQLiteDatabase db, long endDate) {
+        /* Periods are collected first, so that no rows are replaced under the open cursor */
+        List<Period> periods = new ArrayList<>();
+
+        /* In (location_id, date) order, each period's rows come one after the other */
+        Cursor cursor = db.query(HistoryEntry.TABLE_NAME, HISTORY_COLUMNS,
+                WeatherEntry.COLUMN_DATE + " < ?", new String[]{Long.toString(endDate)},
+                null, null,
+                WeatherEntry.COLUMN_LOCATION_ID + " ASC, " + WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            Period period = null;
+            while (cursor.moveToNext()) {
+                long locationId = cursor.getLong(0);
+                long date = cursor.getLong(1);
+                if (period == null || !period.contains(locationId, date)) {
+                    period = new Period(locationId, date);
+                    periods.add(period);
+                }
+                period.add(cursor);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        SQLiteStatement insert = db.compileStatement(SQL_INSERT_PERIOD);
+        try {
+            for (Period period : periods) {
+                if (period.mRows < 2) {
+                    continue;
+                }
+
+                mRowsDeleted += db.delete(HistoryEntry.TABLE_NAME, SQL_SELECT_PERIOD,
+                        new String[]{
+                                Long.toString(period.mLocationId),
+                                Long.toString(period.mStartDate),
+                                Long.toString(period.mEndDate)});
+
+                period.bind(insert);
+                insert.executeInsert();
+                mRowsInserted++;
+            }
+        } finally {
+            insert.close();
+        }
+    }
+
+    /**
+     * Drops the oldest months, whole, until the table holds no more than its budget of rows.
+     */
+    private void enforceBudget(SQLiteDatabase db) {
+        /* The newest row that doesn't fit in the budget, if there is one */
+        Cursor cursor = db.query(HistoryEntry.TABLE_NAME,
+                new String[]{WeatherEntry.COLUMN_DATE}, null, null, null, null,
+                WeatherEntry.COLUMN_DATE + " DESC", mMaxRows + ", 1");
+        long newestDateOverBudget;
+        try {
+            if (!cursor.moveToFirst()) {
+                return;
+            }
+            newestDateOverBudget = cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+
+        long endOfPartition = addMonths(startOfMonth(newestDateOverBudget), 1);
+        mRowsDeleted += db.delete(HistoryEntry.TABLE_NAME,
+                WeatherEntry.COLUMN_DATE + " < ?",
+                new String[]{Long.toString(endOfPartition)});
+    }
+
+    /**
+     * Returns the normalized date of the 1st of the month a normalized date is in.
+     */
+    static long startOfMonth(long date) {
+        Calendar calendar = utcCalendar(date);
+        calendar.set(Calendar.DAY_OF_MONTH, 1);
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * Returns the normalized date of the 1st of a month some months before or after the month
+     * starting on the given date.
+     */
+    static long addMonths(long startOfMonth, int months) {
+        Calendar calendar = utcCalendar(startOfMonth);
+        calendar.add(Calendar.MONTH, months);
+        return calendar.getTimeInMillis();
+    }
+
+    private static Calendar utcCalendar(long date) {
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        calendar.setTimeInMillis(date);
+        return calendar;
+    }
+
+    /**
+     * The rows of one location's history in one period, and the summary they add up to.
+     */
+    private static class Period {
+
+        final long mLocationId;
+        final long mStartDate;
+        final long mEndDate;
+
+        int mRows;
+        int mDays;
+
+        /* The number of days with each weather ID, to find the most common one */
+        final SparseIntArray mDaysByWeatherId = new SparseIntArray();
+
+        /* Counted apart from the weather IDs, which only the most common one is kept of */
+        int mPrecipitationDays;
+
+        double mMinTemp = Double.MAX_VALUE;
+        double mMaxTemp = -Double.MAX_VALUE;
+
+        /* Sums weighted by the days of each row, divided by mDays for the averages */
+        double mHumidity;
+        double mPressure;
+        double mWindSpeed;
+
+        /* Wind directions are averaged as vectors, so that 350° and 10° make 0°, not 180° */
+        double mDirectionX;
+        double mDirectionY;
+
+        Period(long locationId, long date) {
+            mLocationId = locationId;
+
+            long startOfMonth = startOfMonth(date);
+            long periodLength = DAYS_PER_PERIOD * SunshineDateUtils.DAY_IN_MILLIS;
+            mStartDate = startOfMonth + (date - startOfMonth) / periodLength * periodLength;
+            mEndDate = Math.min(mStartDate + periodLength, addMonths(startOfMonth, 1));
+        }
+
+        boolean contains(long locationId, long date) {
+            return locationId == mLocationId && date >= mStartDate && date < mEndDate;
+        }
+
+        /* Adds the row the cursor is on, which has the columns in HISTORY_COLUMNS */
+        void add(Cursor cursor) {
+            int days = cursor.getInt(2);
+            int weatherId = cursor.getInt(3);
+
+            mRows++;
+            mDays += days;
+            mDaysByWeatherId.put(weatherId, mDaysByWeatherId.get(weatherId) + days);
+            mMinTemp = Math.min(mMinTemp, cursor.getDouble(4));
+            mMaxTemp = Math.max(mMaxTemp, cursor.getDouble(5));
+            mHumidity += days * cursor.getDouble(6);
+            mPressure += days * cursor.getDouble(7);
+            mWindSpeed += days * cursor.getDouble(8);
+
+            double direction = Math.toRadians(cursor.getDouble(9));
+            mDirectionX += days * Math.cos(direction);
+            mDirectionY += days * Math.sin(direction);
+
+            mPrecipitationDays += cursor.getInt(10);
+        }
+
+        /* Binds the summary to SQL_INSERT_PERIOD */
+        void bind(SQLiteStatement insert) {
+            int mostCommonWeatherId = mDaysByWeatherId.keyAt(0);
+            for (int i = 1; i < mDaysByWeatherId.size(); i++) {
+                if (mDaysByWeatherId.valueAt(i) > mDaysByWeatherId.get(mostCommonWeatherId)) {
+                    mostCommonWeatherId = mDaysByWeatherId.keyAt(i);
+                }
+            }
+
+            double degrees = Math.toDegrees(Math.atan2(mDirectionY, mDirectionX));
+            if (degrees < 0) {
+                degrees += 360;
+            }
+
+            insert.bindLong(1, mLocationId);
+            insert.bindLong(2, mStartDate);
+            insert.bindLong(3, mDays);
+            insert.bindLong(4, mostCommonWeatherId);
+            insert.bindDouble(5, mMinTemp);
+            insert.bindDouble(6, mMaxTemp);
+            insert.bindDouble(7, mHumidity / mDays);
+            insert.bindDouble(8, mPressure / mDays);
+            insert.bindDouble(9, mWindSpeed / mDays);
+            insert.bindDouble(10, degrees);
+            insert.bindLong(11, mPrecipitationDays);
+        }
+    }
+}
\ No newline at end of file
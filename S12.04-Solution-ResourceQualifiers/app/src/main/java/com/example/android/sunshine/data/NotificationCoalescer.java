@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.os.Handler;
+import android.util.Log;
+
+/**
+ * Holds back the notifications of the writes made within a short window and sends them
+ * together when it ends. A sync that deletes and then inserts, or several writes in a row,
+ * then makes each Loader query us again once instead of once per write, and the list is only
+ * bound again once.
+ * <p>
+ * The window starts with the first write after the last notification, and isn't pushed back
+ * by the writes made during it, so a steady stream of writes is still notified once per
+ * window. A window of 0 notifies every write straight away.
+ * <p>
+ * It keeps count of the notifications that writes asked for and of those it actually sent.
+ * Each one it saved is a query saved for every Loader watching its URI.
+ */
+class NotificationCoalescer {
+
+    private static final String TAG = NotificationCoalescer.class.getSimpleName();
+
+    private final ContentResolver mResolver;
+    private final Handler mHandler;
+    private final long mWindowMillis;
+
+    /* The changes waiting for the window to end, or null if there are none */
+    private WeatherChanges mPending;
+
+    /* The notifications the writes in mPending asked for */
+    private long mPendingRequested;
+
+    private long mNotificationsRequested;
+    private long mNotificationsSent;
+    private long mRequeriesSaved;
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * @param resolver     The ContentResolver to notify
+     * @param handler      The Handler the notifications are sent from when a window ends
+     * @param windowMillis How long to hold notifications back for, in milliseconds
+     */
+    NotificationCoalescer(ContentResolver resolver, Handler handler, long windowMillis) {
+        if (windowMillis < 0) {
+            throw new IllegalArgumentException("Invalid window: " + windowMillis + "ms");
+        }
+        mResolver = resolver;
+        mHandler = handler;
+        mWindowMillis = windowMillis;
+    }
+
+    /**
+     * Adds what a write changed to the notifications of the current window, starting a window
+     * if none is open.
+     *
+     * @param changes What the write changed
+     */
+    void post(WeatherChanges changes) {
+        if (changes.isEmpty()) {
+            return;
+        }
+
+        synchronized (this) {
+            mNotificationsRequested += changes.getNotificationCount();
+            if (mWindowMillis > 0) {
+                if (mPending == null) {
+                    mPending = new WeatherChanges();
+                    mHandler.postDelayed(mFlush, mWindowMillis);
+                }
+                mPending.addAll(changes);
+                mPendingRequested += changes.getNotificationCount();
+                return;
+            }
+            mNotificationsSent += changes.getNotificationCount();
+        }
+
+        changes.notifyObservers(mResolver);
+    }
+
+    /**
+     * Sends the notifications held back so far straight away, rather than when the window
+     * ends.
+     */
+    void flush() {
+        WeatherChanges pending;
+        synchronized (this) {
+            mHandler.removeCallbacks(mFlush);
+            pending = mPending;
+            mPending = null;
+            if (pending == null) {
+                return;
+            }
+            mNotificationsSent += pending.getNotificationCount();
+            mRequeriesSaved += mPendingRequested - pending.getNotificationCount();
+            mPendingRequested = 0;
+        }
+
+        pending.notifyObservers(mResolver);
+        Log.d(TAG, "Sent " + pending.getNotificationCount() + " notifications, "
+                + getRequeriesSaved() + " requeries saved so far");
+    }
+
+    /* The number of notifications writes asked for */
+    synchronized long getNotificationsRequested() {
+        return mNotificationsRequested;
+    }
+
+    /* The number of notifications actually sent */
+    synchronized long getNotificationsSent() {
+        return mNotificationsSent;
+    }
+
+    /* The notifications that were merged into others that were sent */
+    synchronized long getRequeriesSaved() {
+        return mRequeriesSaved;
+    }
+}
\ No newline at end of file
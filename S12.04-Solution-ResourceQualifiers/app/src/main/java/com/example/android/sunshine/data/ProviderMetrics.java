@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.UriMatcher;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import com.example.android.sunshine.data.WeatherContract.MetricsEntry;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps count of how long WeatherProvider takes to answer each operation, for each URI code or
+ * provider method, and of the rows returned or written. Recording a call costs two reads of the
+ * clock and a few additions, so it is always on; only reading the metrics is limited to debug
+ * builds.
+ * <p>
+ * Calls are made from any thread, binder threads as well as the main thread of the app, so
+ * recording and reading are synchronized.
+ */
+class ProviderMetrics {
+
+    /*
+     * The upper bounds of the buckets of the histogram, in nanoseconds, from 1ms up by a factor
+     * of 4. A last bucket holds the calls slower than all of them.
+     */
+    private static final long[] BUCKET_BOUNDS_NANOS = {
+            TimeUnit.MILLISECONDS.toNanos(1),
+            TimeUnit.MILLISECONDS.toNanos(4),
+            TimeUnit.MILLISECONDS.toNanos(16),
+            TimeUnit.MILLISECONDS.toNanos(64),
+            TimeUnit.MILLISECONDS.toNanos(256)
+    };
+
+    /* The columns of toCursor, the buckets in the same order as BUCKET_BOUNDS_NANOS */
+    private static final String[] COLUMNS = {
+            MetricsEntry.COLUMN_OPERATION,
+            MetricsEntry.COLUMN_URI_CODE,
+            MetricsEntry.COLUMN_METHOD,
+            MetricsEntry.COLUMN_CALLS,
+            MetricsEntry.COLUMN_ROWS,
+            MetricsEntry.COLUMN_TOTAL_MILLIS,
+            MetricsEntry.COLUMN_MAX_MILLIS,
+            MetricsEntry.COLUMN_UNDER_1_MS,
+            MetricsEntry.COLUMN_UNDER_4_MS,
+            MetricsEntry.COLUMN_UNDER_16_MS,
+            MetricsEntry.COLUMN_UNDER_64_MS,
+            MetricsEntry.COLUMN_UNDER_256_MS,
+            MetricsEntry.COLUMN_OVER_256_MS
+    };
+
+    /* Keyed by operation, URI code and method, in the order they were first recorded */
+    private final Map<String, Metric> mMetrics = new LinkedHashMap<>();
+
+    /**
+     * Returns the time to pass to {@link #record(String, int, long, long)} or
+     * {@link #recordCall(String, long, long)} when the call ends.
+     */
+    static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records a call that has ended.
+     *
+     * @param operation  The operation, one of the OPERATION values of MetricsEntry
+     * @param uriCode    The code the URI of the call matched
+     * @param startNanos What {@link #start()} returned when the call began
+     * @param rows       The rows the call returned or wrote
+     */
+    void record(String operation, int uriCode, long startNanos, long rows) {
+        record(operation, uriCode, null, startNanos, rows);
+    }
+
+    /**
+     * Records a provider method that has returned.
+     *
+     * @param method     The method, one of the METHOD constants of WeatherContract
+     * @param startNanos What {@link #start()} returned when the call began
+     * @param rows       The rows the method wrote
+     */
+    void recordCall(String method, long startNanos, long rows) {
+        record(MetricsEntry.OPERATION_CALL, UriMatcher.NO_MATCH, method, startNanos, rows);
+    }
+
+    private void record(String operation, int uriCode, String method, long startNanos,
+                        long rows) {
+        long nanos = System.nanoTime() - startNanos;
+        String key = operation + " " + uriCode + " " + method;
+        synchronized (this) {
+            Metric metric = mMetrics.get(key);
+            if (metric == null) {
+                metric = new Metric(operation, uriCode, method);
+                mMetrics.put(key, metric);
+            }
+            metric.add(nanos, rows);
+        }
+    }
+
+    /**
+     * Returns a Cursor over the metrics recorded so far, with the columns of MetricsEntry. It
+     * is a copy, which later calls don't change.
+     */
+    synchronized Cursor toCursor() {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS, mMetrics.size());
+        for (Metric metric : mMetrics.values()) {
+            Object[] row = new Object[COLUMNS.length];
+            row[0] = metric.mOperation;
+            row[1] = metric.mUriCode;
+            row[2] = metric.mMethod;
+            row[3] = metric.mCalls;
+            row[4] = metric.mRows;
+            row[5] = toMillis(metric.mTotalNanos);
+            row[6] = toMillis(metric.mMaxNanos);
+            for (int i = 0; i < metric.mBuckets.length; i++) {
+                row[7 + i] = metric.mBuckets[i];
+            }
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * The calls of one operation on one URI code, or of one provider method.
+     */
+    private static final class Metric {
+
+        final String mOperation;
+        final int mUriCode;
+        final String mMethod;
+
+        long mCalls;
+        long mRows;
+        long mTotalNanos;
+        long mMaxNanos;
+
+        /* The number of calls in each bucket of BUCKET_BOUNDS_NANOS, and in the one after */
+        final long[] mBuckets = new long[BUCKET_BOUNDS_NANOS.length + 1];
+
+        Metric(String operation, int uriCode, String method) {
+            mOperation = operation;
+            mUriCode = uriCode;
+            mMethod = method;
+        }
+
+        void add(long nanos, long rows) {
+            mCalls++;
+            mRows += rows;
+            mTotalNanos += nanos;
+            mMaxNanos = Math.max(mMaxNanos, nanos);
+
+            int bucket = 0;
+            while (bucket < BUCKET_BOUNDS_NANOS.length && nanos >= BUCKET_BOUNDS_NANOS[bucket]) {
+                bucket++;
+            }
+            mBuckets[bucket]++;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,308 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.net.Uri;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the results of the last few queries, so that the same query made again by another
+ * screen a moment later is answered without going to SQLite.
+ * <p>
+ * A result is kept as an immutable snapshot of its rows, and every Cursor returned for it reads
+ * that same snapshot. The cache has a version, which every write bumps with
+ * {@link #invalidate()}; a snapshot is only kept if no write happened while it was being read.
+ * This only holds if every write goes through WeatherProvider, which in Sunshine it does.
+ */
+class QueryCache {
+
+    /* The list, the detail screen, the notification and the wearable make a handful at most */
+    static final int DEFAULT_MAX_ENTRIES = 16;
+
+    /* Results with more rows than this aren't worth holding in memory, and aren't kept */
+    static final int MAX_ROWS = 500;
+
+    private final Map<Key, Snapshot> mSnapshots;
+
+    private long mVersion;
+    private long mHits;
+    private long mMisses;
+
+    /**
+     * @param maxEntries The number of results to keep, the least recently used going first
+     */
+    QueryCache(final int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Invalid cache size: " + maxEntries);
+        }
+        mSnapshots = new LinkedHashMap<Key, Snapshot>(maxEntries, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Snapshot> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the version of the cache, to be passed to {@link #put(Key, long, Cursor)} with
+     * the result of a query made after this call.
+     */
+    synchronized long getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * Returns a Cursor over the kept result of a query, counting a hit, or null if there is
+     * none, counting a miss.
+     *
+     * @param key The query
+     * @return A Cursor over the result, or null if it isn't kept
+     */
+    synchronized Cursor get(Key key) {
+        Snapshot snapshot = mSnapshots.get(key);
+        if (snapshot == null) {
+            mMisses++;
+            return null;
+        }
+        mHits++;
+        return new SnapshotCursor(snapshot);
+    }
+
+    /**
+     * Reads the result of a query into a snapshot and keeps it, unless the cache has been
+     * invalidated since the version was taken, in which case the result may be out of date
+     * already. The Cursor is closed, and one over the snapshot is returned instead. Results
+     * larger than {@link #MAX_ROWS} are left alone, and null is returned.
+     *
+     * @param key     The query
+     * @param version The version of the cache from before the query was made
+     * @param cursor  The result of the query, before it has been moved
+     * @return A Cursor over the snapshot, or null if the result is too large to keep
+     */
+    Cursor put(Key key, long version, Cursor cursor) {
+        if (cursor.getCount() > MAX_ROWS) {
+            return null;
+        }
+
+        Snapshot snapshot = new Snapshot(cursor);
+        cursor.close();
+
+        synchronized (this) {
+            if (version == mVersion) {
+                mSnapshots.put(key, snapshot);
+            }
+        }
+        return new SnapshotCursor(snapshot);
+    }
+
+    /**
+     * Drops every kept result and bumps the version. Called after every write.
+     */
+    synchronized void invalidate() {
+        mVersion++;
+        mSnapshots.clear();
+    }
+
+    synchronized long getHits() {
+        return mHits;
+    }
+
+    synchronized long getMisses() {
+        return mMisses;
+    }
+
+    /**
+     * Identifies a query by everything that affects its result.
+     */
+    static final class Key {
+
+        private final Uri mUri;
+        private final String[] mProjection;
+        private final String mSelection;
+        private final String[] mSelectionArgs;
+        private final String mSortOrder;
+
+        Key(Uri uri, String[] projection, String selection, String[] selectionArgs,
+            String sortOrder) {
+            mUri = uri;
+            mProjection = projection == null ? null : projection.clone();
+            mSelection = selection;
+            mSelectionArgs = selectionArgs == null ? null : selectionArgs.clone();
+            mSortOrder = sortOrder;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return mUri.equals(other.mUri)
+                    && Arrays.equals(mProjection, other.mProjection)
+                    && equal(mSelection, other.mSelection)
+                    && Arrays.equals(mSelectionArgs, other.mSelectionArgs)
+                    && equal(mSortOrder, other.mSortOrder);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(new Object[]{mUri, Arrays.hashCode(mProjection), mSelection,
+                    Arrays.hashCode(mSelectionArgs), mSortOrder});
+        }
+
+        private static boolean equal(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+
+    /**
+     * The rows of a result, read once and never changed afterwards.
+     */
+    private static final class Snapshot {
+
+        final String[] mColumnNames;
+
+        /* Each value is a Long, Double, String, byte[] or null, like the SQLite types */
+        final Object[][] mRows;
+
+        Snapshot(Cursor cursor) {
+            mColumnNames = cursor.getColumnNames();
+            mRows = new Object[cursor.getCount()][];
+
+            int columnCount = mColumnNames.length;
+            for (int row = 0; cursor.moveToNext(); row++) {
+                Object[] values = new Object[columnCount];
+                for (int i = 0; i < columnCount; i++) {
+                    switch (cursor.getType(i)) {
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            values[i] = cursor.getLong(i);
+                            break;
+                        case Cursor.FIELD_TYPE_FLOAT:
+                            values[i] = cursor.getDouble(i);
+                            break;
+                        case Cursor.FIELD_TYPE_STRING:
+                            values[i] = cursor.getString(i);
+                            break;
+                        case Cursor.FIELD_TYPE_BLOB:
+                            values[i] = cursor.getBlob(i);
+                            break;
+                        default:
+                            values[i] = null;
+                    }
+                }
+                mRows[row] = values;
+            }
+        }
+    }
+
+    /**
+     * A Cursor over a snapshot. It holds nothing but its position, so handing out one for
+     * every hit costs next to nothing.
+     */
+    private static final class SnapshotCursor extends AbstractCursor {
+
+        private final Snapshot mSnapshot;
+
+        SnapshotCursor(Snapshot snapshot) {
+            mSnapshot = snapshot;
+        }
+
+        @Override
+        public int getCount() {
+            return mSnapshot.mRows.length;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return mSnapshot.mColumnNames;
+        }
+
+        @Override
+        public int getType(int column) {
+            Object value = get(column);
+            if (value == null) {
+                return FIELD_TYPE_NULL;
+            } else if (value instanceof Long) {
+                return FIELD_TYPE_INTEGER;
+            } else if (value instanceof Double) {
+                return FIELD_TYPE_FLOAT;
+            } else if (value instanceof String) {
+                return FIELD_TYPE_STRING;
+            }
+            return FIELD_TYPE_BLOB;
+        }
+
+        @Override
+        public String getString(int column) {
+            Object value = get(column);
+            return value == null ? null : value.toString();
+        }
+
+        @Override
+        public short getShort(int column) {
+            return (short) getLong(column);
+        }
+
+        @Override
+        public int getInt(int column) {
+            return (int) getLong(column);
+        }
+
+        @Override
+        public long getLong(int column) {
+            Object value = get(column);
+            if (value instanceof Number) {
+                return ((Number) value).longValue();
+            }
+            return value == null ? 0 : Long.parseLong(value.toString());
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return (float) getDouble(column);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            Object value = get(column);
+            if (value instanceof Number) {
+                return ((Number) value).doubleValue();
+            }
+            return value == null ? 0 : Double.parseDouble(value.toString());
+        }
+
+        @Override
+        public byte[] getBlob(int column) {
+            Object value = get(column);
+            return value instanceof byte[] ? (byte[]) value : null;
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return get(column) == null;
+        }
+
+        private Object get(int column) {
+            checkPosition();
+            return mSnapshot.mRows[mPos][column];
+        }
+    }
+}
\ No newline at end of file
@@ -31,6 +31,28 @@ public final class SunshinePreferences {
     public static final String PREF_COORD_LAT = "coord_lat";
     public static final String PREF_COORD_LONG = "coord_long";
 
+    /*
+     * The validators (ETag and Last-Modified) that the weather server sent along with a forecast
+     * are kept in their own SharedPreferences file, keyed by the URL they were requested from.
+     * They are not user preferences, so we keep them out of the default SharedPreferences.
+     */
+    private static final String HTTP_VALIDATORS_PREFS_NAME = "http_validators";
+    private static final String SUFFIX_ETAG = "#etag";
+    private static final String SUFFIX_LAST_MODIFIED = "#last_modified";
+
+    /*
+     * The IDs the weather database gave the locations it holds weather for, keyed by location
+     * setting, so that we can tell which forecast to show without asking the database. They are
+     * saved by the sync, which is what adds locations to the database.
+     */
+    private static final String LOCATION_IDS_PREFS_NAME = "location_ids";
+
+    /*
+     * Returned by getPreferredLocationId until the first sync for the preferred location. The
+     * database never gives a location this ID, so URIs built with it hold no weather.
+     */
+    public static final long LOCATION_ID_UNKNOWN = 0;
+
     /**
      * Helper method to handle setting location details in Preferences (city name, latitude,
      * longitude)
@@ -82,6 +104,62 @@ public final class SunshinePreferences {
         return sp.getString(keyForLocation, defaultLocation);
     }
 
+    /**
+     * Returns the ID of the preferred weather location in the weather database, which is what
+     * {@link WeatherContract.WeatherEntry#buildWeatherUriWithLocation(long)} needs to find its
+     * forecast.
+     *
+     * @param context Context used to access SharedPreferences
+     * @return The ID of the preferred location, or {@link #LOCATION_ID_UNKNOWN} if no weather
+     * has been synced for it yet
+     */
+    public static long getPreferredLocationId(Context context) {
+        SharedPreferences sp = context.getSharedPreferences(
+                LOCATION_IDS_PREFS_NAME, Context.MODE_PRIVATE);
+        return sp.getLong(getPreferredWeatherLocation(context), LOCATION_ID_UNKNOWN);
+    }
+
+    /**
+     * Saves the ID the weather database gave a location, as returned by the provider when a
+     * forecast is stored for it.
+     *
+     * @param context         Context used to access SharedPreferences
+     * @param locationSetting The location setting the forecast was stored for
+     * @param locationId      The ID of the location in the weather database
+     */
+    public static void saveLocationId(Context context, String locationSetting, long locationId) {
+        SharedPreferences sp = context.getSharedPreferences(
+                LOCATION_IDS_PREFS_NAME, Context.MODE_PRIVATE);
+        if (sp.getLong(locationSetting, LOCATION_ID_UNKNOWN) != locationId) {
+            sp.edit().putLong(locationSetting, locationId).apply();
+        }
+    }
+
+    /**
+     * Registers a listener to be told whenever a location ID is saved, such as after the first
+     * sync for a new location.
+     *
+     * @param context  Context used to access SharedPreferences
+     * @param listener The listener to register
+     */
+    public static void registerLocationIdListener(
+            Context context, SharedPreferences.OnSharedPreferenceChangeListener listener) {
+        context.getSharedPreferences(LOCATION_IDS_PREFS_NAME, Context.MODE_PRIVATE)
+                .registerOnSharedPreferenceChangeListener(listener);
+    }
+
+    /**
+     * Unregisters a listener registered with {@link #registerLocationIdListener}.
+     *
+     * @param context  Context used to access SharedPreferences
+     * @param listener The listener to unregister
+     */
+    public static void unregisterLocationIdListener(
+            Context context, SharedPreferences.OnSharedPreferenceChangeListener listener) {
+        context.getSharedPreferences(LOCATION_IDS_PREFS_NAME, Context.MODE_PRIVATE)
+                .unregisterOnSharedPreferenceChangeListener(listener);
+    }
+
     /**
      * Returns true if the user has selected metric temperature display.
      *
@@ -242,4 +320,83 @@ public final class SunshinePreferences {
         editor.putLong(lastNotificationKey, timeOfNotification);
         editor.apply();
     }
+
+    /**
+     * Returns the ETag and Last-Modified validators the server sent the last time the forecast
+     * at this URL was successfully stored. Either value may be null if the server didn't send it
+     * or if the forecast at this URL was never stored.
+     *
+     * @param context    Used to access SharedPreferences
+     * @param requestUrl The URL the forecast was requested from
+     * @return An array holding the ETag at index 0 and Last-Modified at index 1
+     */
+    public static String[] getHttpValidators(Context context, String requestUrl) {
+        SharedPreferences sp = context.getSharedPreferences(
+                HTTP_VALIDATORS_PREFS_NAME, Context.MODE_PRIVATE);
+
+        String eTag = sp.getString(requestUrl + SUFFIX_ETAG, null);
+        String lastModified = sp.getString(requestUrl + SUFFIX_LAST_MODIFIED, null);
+
+        return new String[]{eTag, lastModified};
+    }
+
+    /**
+     * Saves the validators for the forecast at a URL. These should only be saved once the
+     * forecast they describe has been stored, as they will be used to ask the server to skip
+     * sending that forecast again.
+     *
+     * @param context      Used to access SharedPreferences
+     * @param requestUrl   The URL the forecast was requested from
+     * @param eTag         The ETag header sent by the server, or null
+     * @param lastModified The Last-Modified header sent by the server, or null
+     */
+    public static void saveHttpValidators(Context context, String requestUrl,
+                                          String eTag, String lastModified) {
+        SharedPreferences sp = context.getSharedPreferences(
+                HTTP_VALIDATORS_PREFS_NAME, Context.MODE_PRIVATE);
+        SharedPreferences.Editor editor = sp.edit();
+
+        if (eTag != null) {
+            editor.putString(requestUrl + SUFFIX_ETAG, eTag);
+        } else {
+            editor.remove(requestUrl + SUFFIX_ETAG);
+        }
+
+        if (lastModified != null) {
+            editor.putString(requestUrl + SUFFIX_LAST_MODIFIED, lastModified);
+        } else {
+            editor.remove(requestUrl + SUFFIX_LAST_MODIFIED);
+        }
+
+        editor.apply();
+    }
+
+    /**
+     * Forgets the validators for the forecast at a URL. After this is called, the next request
+     * for that forecast will download it in full, even if it hasn't changed on the server. The
+     * validators of other forecasts, such as those of other locations, are kept.
+     *
+     * @param context    Used to access SharedPreferences
+     * @param requestUrl The URL the forecast was requested from
+     */
+    public static void clearHttpValidators(Context context, String requestUrl) {
+        SharedPreferences sp = context.getSharedPreferences(
+                HTTP_VALIDATORS_PREFS_NAME, Context.MODE_PRIVATE);
+        sp.edit()
+                .remove(requestUrl + SUFFIX_ETAG)
+                .remove(requestUrl + SUFFIX_LAST_MODIFIED)
+                .apply();
+    }
+
+    /**
+     * Forgets every stored validator. After this is called, the next request for any forecast
+     * will download it in full, even if it hasn't changed on the server.
+     *
+     * @param context Used to access SharedPreferences
+     */
+    public static void clearHttpValidators(Context context) {
+        SharedPreferences sp = context.getSharedPreferences(
+                HTTP_VALIDATORS_PREFS_NAME, Context.MODE_PRIVATE);
+        sp.edit().clear().apply();
+    }
 }
\ No newline at end of file
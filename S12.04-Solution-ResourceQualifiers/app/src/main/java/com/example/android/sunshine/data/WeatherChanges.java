@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Collects what a write to the weather table changed, so that only the observers of what
+ * changed are notified.
+ * <p>
+ * Observers of a single day are notified on the URI of that day, and only if that day changed.
+ * Observers of whole forecasts are notified on a list URI (see
+ * {@link WeatherEntry#buildWeatherListUri(long)}), once per write however many days it changed.
+ * The list URIs aren't ancestors of the day URIs, so notifying a day doesn't also reload every
+ * list once per day.
+ * <p>
+ * Writes that can't tell which days they changed, such as a delete with a selection, record
+ * the URI they were made through instead. Notifying it reaches the observers of every day
+ * under it.
+ */
+class WeatherChanges {
+
+    /* The URIs of the days that changed, and of anything changed without knowing its days */
+    private final Set<Uri> mUris = new LinkedHashSet<>();
+
+    /* The locations whose forecast changed, for the list notification */
+    private final Set<Long> mLocationIds = new LinkedHashSet<>();
+
+    /* Whether anything may have changed in any location, see addAllLocations */
+    private boolean mAll;
+
+    /**
+     * Records that the weather of a location on one date changed.
+     */
+    void addDate(long locationId, long date) {
+        mUris.add(WeatherEntry.buildWeatherUriWithLocationAndDate(locationId, date));
+        mLocationIds.add(locationId);
+    }
+
+    /**
+     * Records that some of the weather of a location changed, without knowing which days.
+     */
+    void addLocation(long locationId) {
+        mUris.add(WeatherEntry.buildWeatherUriWithLocation(locationId));
+        mLocationIds.add(locationId);
+    }
+
+    /**
+     * Records that any of the weather of any location may have changed.
+     */
+    void addAllLocations() {
+        mAll = true;
+    }
+
+    /**
+     * Adds everything another set of changes recorded to this one.
+     */
+    void addAll(WeatherChanges changes) {
+        mUris.addAll(changes.mUris);
+        mLocationIds.addAll(changes.mLocationIds);
+        mAll |= changes.mAll;
+    }
+
+    boolean isEmpty() {
+        return !mAll && mLocationIds.isEmpty();
+    }
+
+    /**
+     * Returns the number of notifications notifyObservers sends for these changes. Every one
+     * of them makes the Loaders watching its URI query us again.
+     */
+    int getNotificationCount() {
+        if (mAll) {
+            return 1;
+        }
+        return mUris.size() + (mLocationIds.isEmpty() ? 0 : 1);
+    }
+
+    /**
+     * Notifies the observers of every day that changed, then, once, the observers of the
+     * forecasts they are in.
+     *
+     * @param resolver The ContentResolver to notify
+     */
+    void notifyObservers(ContentResolver resolver) {
+        /* The whole weather URI reaches every observer of weather, lists as well as days */
+        if (mAll) {
+            resolver.notifyChange(WeatherEntry.CONTENT_URI, null);
+            return;
+        }
+
+        for (Uri uri : mUris) {
+            resolver.notifyChange(uri, null);
+        }
+
+        /* The list URI of every location is under LIST_URI, so that one covers them all */
+        if (mLocationIds.size() == 1) {
+            resolver.notifyChange(
+                    WeatherEntry.buildWeatherListUri(mLocationIds.iterator().next()), null);
+        } else if (!mLocationIds.isEmpty()) {
+            resolver.notifyChange(WeatherEntry.LIST_URI, null);
+        }
+    }
+}
\ No newline at end of file
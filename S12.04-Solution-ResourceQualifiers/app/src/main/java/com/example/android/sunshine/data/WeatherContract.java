@@ -56,6 +56,153 @@ public class WeatherContract {
      */
     public static final String PATH_WEATHER = "weather";
 
+    /*
+     * Appended to PATH_WEATHER, followed by the ID of a location, to only look at the weather of
+     * that location. For instance,
+     *
+     *     content://com.example.android.sunshine/weather/location/2/1472214172
+     *
+     * is the weather on one day in the location with ID 2. See
+     * WeatherEntry#buildWeatherUriWithLocation.
+     */
+    public static final String PATH_LOCATION = "location";
+
+    /*
+     * Appended to PATH_WEATHER, optionally followed by the ID of a location, for the URIs that
+     * observers of whole forecasts are notified on. See WeatherEntry#buildWeatherListUri.
+     */
+    public static final String PATH_LIST = "list";
+
+    /*
+     * Appended to PATH_WEATHER, followed by PATH_LOCATION, the ID of a location and PATH_WEEK
+     * or PATH_MONTH, to look at the weather of that location summed up by week or by month.
+     * See StatsEntry.
+     */
+    public static final String PATH_STATS = "stats";
+    public static final String PATH_WEEK = "week";
+    public static final String PATH_MONTH = "month";
+
+    /*
+     * Appended to BASE_CONTENT_URI to look at the weather of days that have passed, see
+     * HistoryEntry. Like the forecast, history is looked at one location at a time.
+     */
+    public static final String PATH_HISTORY = "history";
+
+    /*
+     * Appended to PATH_WEATHER to look at how long the provider takes to answer, see
+     * MetricsEntry. Only debug builds of the app match it.
+     */
+    public static final String PATH_METRICS = "_metrics";
+
+    /*
+     * Query parameters that cut the forecast or the history of a location into pages by date.
+     * PARAM_LIMIT is the most rows a page has, and PARAM_AFTER the date of the last row of the
+     * page before, which the rows of this page come after. Pages are sorted by date, ascending.
+     * For instance,
+     *
+     *     content://com.example.android.sunshine/weather/location/2?limit=20&after=1472214172
+     *
+     * is the 20 days of weather of the location with ID 2 that come after 1472214172. Since the
+     * page starts from a date rather than from a row count, SQLite finds its first row in the
+     * (location_id, date) index straight away, however deep into the table it is, and a row
+     * inserted or deleted before it doesn't shift the rows of the page. See
+     * WeatherEntry#buildWeatherPageUri, HistoryEntry#buildHistoryPageUri and buildNextPageUri.
+     */
+    public static final String PARAM_LIMIT = "limit";
+    public static final String PARAM_AFTER = "after";
+
+    /*
+     * Provider methods that are called through ContentResolver#call rather than through a URI.
+     * Both take the location setting the forecast is for as their String argument. The location
+     * is added to the location table if it isn't there yet, and its ID is returned in the result
+     * Bundle under KEY_LOCATION_ID.
+     *
+     * METHOD_BULK_INSERT_BATCH inserts a ForecastBatch, packed into the extras Bundle with
+     * ForecastBatch#toBundle, into the weather table. Unlike bulkInsert, it never boxes a single
+     * value. The Bundle it returns holds the number of rows inserted under KEY_ROWS_INSERTED.
+     *
+     * METHOD_APPLY_FORECAST replaces the stored forecast of the location with a ForecastBatch,
+     * passed the same way. Only days that are new, changed or gone are written, all in one
+     * transaction, and observers are notified once at most. The forecasts of other locations
+     * are left alone. The Bundle it returns holds the number of rows inserted, updated and
+     * deleted under KEY_ROWS_INSERTED, KEY_ROWS_UPDATED and KEY_ROWS_DELETED. Days before
+     * today that drop out of the forecast are moved into the history table rather than lost;
+     * how many is returned under KEY_ROWS_ARCHIVED.
+     *
+     * METHOD_COMPACT_HISTORY takes no arguments. It downsamples old months of history and drops
+     * the oldest months once the history table is over its size budget, see HistoryCompaction.
+     * The Bundle it returns holds the number of rows written and removed under
+     * KEY_ROWS_INSERTED and KEY_ROWS_DELETED. It's run while the device is charging, so it also
+     * turns on incremental auto-vacuum for a database created without it, which takes a full
+     * VACUUM; the bytes that reclaimed are under KEY_BYTES_RECLAIMED.
+     *
+     * METHOD_NOTIFICATION_STATS takes no arguments either. The provider holds the notifications
+     * of its writes back for a moment and sends those made together at once. The Bundle it
+     * returns holds the number of notifications the writes asked for, the number it actually
+     * sent, and the number it saved by merging them, under KEY_NOTIFICATIONS_REQUESTED,
+     * KEY_NOTIFICATIONS_SENT and KEY_REQUERIES_SAVED, all longs.
+     *
+     * METHOD_QUERY_CACHE_STATS takes no arguments. The provider keeps the results of the
+     * queries made of a location's weather until the next write. The Bundle it returns holds
+     * the number of those queries answered from the cache and the number that went to the
+     * database under KEY_CACHE_HITS and KEY_CACHE_MISSES, both longs.
+     *
+     * METHOD_PRUNE_WEATHER takes no arguments. It moves the days before today out of the
+     * weather table and into the history table, for every location, a batch at a time, and then
+     * gives the space the database no longer uses back to the file system, with incremental
+     * auto-vacuum only, so never by rewriting the whole file. The forecasts of
+     * locations that are no longer synced would otherwise stay in the weather table for good.
+     * The Bundle it returns holds the number of days moved under KEY_ROWS_ARCHIVED, and the
+     * number of bytes the database shrank by under KEY_BYTES_RECLAIMED, a long.
+     */
+    public static final String METHOD_BULK_INSERT_BATCH = "bulkInsertBatch";
+    public static final String METHOD_APPLY_FORECAST = "applyForecast";
+    public static final String METHOD_COMPACT_HISTORY = "compactHistory";
+    public static final String METHOD_NOTIFICATION_STATS = "notificationStats";
+    public static final String METHOD_QUERY_CACHE_STATS = "queryCacheStats";
+    public static final String METHOD_PRUNE_WEATHER = "pruneWeather";
+    public static final String KEY_ROWS_INSERTED = "rows_inserted";
+    public static final String KEY_ROWS_UPDATED = "rows_updated";
+    public static final String KEY_ROWS_DELETED = "rows_deleted";
+    public static final String KEY_ROWS_ARCHIVED = "rows_archived";
+    public static final String KEY_LOCATION_ID = "location_id";
+    public static final String KEY_NOTIFICATIONS_REQUESTED = "notifications_requested";
+    public static final String KEY_NOTIFICATIONS_SENT = "notifications_sent";
+    public static final String KEY_REQUERIES_SAVED = "requeries_saved";
+    public static final String KEY_CACHE_HITS = "cache_hits";
+    public static final String KEY_CACHE_MISSES = "cache_misses";
+    public static final String KEY_BYTES_RECLAIMED = "bytes_reclaimed";
+
+    /**
+     * Builds the URI of the page that comes after another, from the URI of that page and the
+     * date of its last row. If that page had fewer rows than its limit, it was the last one.
+     *
+     * @param pageUri  The URI of a page, see WeatherEntry#buildWeatherPageUri and
+     *                 HistoryEntry#buildHistoryPageUri
+     * @param lastDate The date of the last row of the page
+     * @return Uri to query the page after it
+     */
+    public static Uri buildNextPageUri(Uri pageUri, long lastDate) {
+        return pageUri.buildUpon()
+                .clearQuery()
+                .appendQueryParameter(PARAM_LIMIT, pageUri.getQueryParameter(PARAM_LIMIT))
+                .appendQueryParameter(PARAM_AFTER, Long.toString(lastDate))
+                .build();
+    }
+
+    /* Inner class that defines the table contents of the location table */
+    public static final class LocationEntry implements BaseColumns {
+
+        /* Used internally as the name of our location table. */
+        public static final String TABLE_NAME = "location";
+
+        /*
+         * The location setting is the location as the user entered it in the settings, which
+         * is what we send to OpenWeatherMap to ask for its weather. Each one is only stored once.
+         */
+        public static final String COLUMN_LOCATION_SETTING = "location_setting";
+    }
+
     /* Inner class that defines the table contents of the weather table */
     public static final class WeatherEntry implements BaseColumns {
 
@@ -64,9 +211,23 @@ public class WeatherContract {
                 .appendPath(PATH_WEATHER)
                 .build();
 
+        /*
+         * The URI that observers of the forecasts of all locations are notified on, once per
+         * write. Every location's list URI is under it. Like those, it can't be queried.
+         */
+        public static final Uri LIST_URI = CONTENT_URI.buildUpon()
+                .appendPath(PATH_LIST)
+                .build();
+
         /* Used internally as the name of our weather table. */
         public static final String TABLE_NAME = "weather";
 
+        /*
+         * The ID of the row in the location table this weather is for. Each location has at most
+         * one row of weather per date.
+         */
+        public static final String COLUMN_LOCATION_ID = "location_id";
+
         /*
          * The date column will store the UTC date that correlates to the local date for which
          * each particular weather row represents. For example, if you live in the Eastern
@@ -111,11 +272,13 @@ public class WeatherContract {
 
         /**
          * Builds a URI that adds the weather date to the end of the forecast content URI path.
-         * This is used to query details about a single weather entry by date. This is what we
-         * use for the detail view query. We assume a normalized date is passed to this method.
+         * This is used to query details about a single weather entry by date, of the preferred
+         * location at the time of the query. The detail view, which needs the weather of a
+         * particular location, uses {@link #buildWeatherUriWithLocationAndDate(long, long)}
+         * instead. We assume a normalized date is passed to this method.
          *
          * @param date Normalized date in milliseconds
-         * @return Uri to query details about a single weather entry
+         * @return Uri to query details about a single weather entry of the preferred location
          */
         public static Uri buildWeatherUriWithDate(long date) {
             return CONTENT_URI.buildUpon()
@@ -123,6 +286,69 @@ public class WeatherContract {
                     .build();
         }
 
+        /**
+         * Builds a URI for the forecast of one location. Queries, inserts and deletes through
+         * this URI only see the weather of that location.
+         *
+         * @param locationId The ID of the location in the location table
+         * @return Uri to query the forecast of the location
+         */
+        public static Uri buildWeatherUriWithLocation(long locationId) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_LOCATION)
+                    .appendPath(Long.toString(locationId))
+                    .build();
+        }
+
+        /**
+         * Builds a URI for the first page of the forecast of one location, which has its
+         * earliest days. Use {@link WeatherContract#buildNextPageUri(Uri, long)} for the pages
+         * after it.
+         *
+         * @param locationId The ID of the location in the location table
+         * @param limit      The most days a page has
+         * @return Uri to query the first page of the forecast of the location
+         */
+        public static Uri buildWeatherPageUri(long locationId, int limit) {
+            return buildWeatherUriWithLocation(locationId).buildUpon()
+                    .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit))
+                    .build();
+        }
+
+        /**
+         * Builds the URI that observers of the forecast of one location are notified on. It
+         * can't be queried; a query of {@link #buildWeatherUriWithLocation(long)} returns a
+         * Cursor that is notified on it.
+         * <p>
+         * A write notifies the URI of every date it changed, which reloads only the queries of
+         * those days, and then this URI once, which reloads the forecast as a whole. Since this
+         * URI isn't above the URIs of the days, a write that changes a week of weather doesn't
+         * reload the forecast seven times, and one that leaves a day as it was doesn't reload
+         * that day.
+         *
+         * @param locationId The ID of the location in the location table
+         * @return Uri to observe the forecast of the location on
+         */
+        public static Uri buildWeatherListUri(long locationId) {
+            return LIST_URI.buildUpon()
+                    .appendPath(Long.toString(locationId))
+                    .build();
+        }
+
+        /**
+         * Builds a URI for the weather of one location on one date. This is used for the detail
+         * view query, as well as for today's weather in the notification and on the wearable.
+         *
+         * @param locationId The ID of the location in the location table
+         * @param date       Normalized date in milliseconds
+         * @return Uri to query details about a single weather entry
+         */
+        public static Uri buildWeatherUriWithLocationAndDate(long locationId, long date) {
+            return buildWeatherUriWithLocation(locationId).buildUpon()
+                    .appendPath(Long.toString(date))
+                    .build();
+        }
+
         /**
          * Returns just the selection part of the weather query from a normalized today value.
          * This is used to get a weather forecast from today's date. To make this easy to use
@@ -135,4 +361,203 @@ public class WeatherContract {
             return WeatherContract.WeatherEntry.COLUMN_DATE + " >= " + normalizedUtcNow;
         }
     }
+
+    /*
+     * Inner class that defines the table contents of the history table, which keeps the weather
+     * of days that have passed. Apart from COLUMN_DAYS and COLUMN_PRECIPITATION_DAYS, it has
+     * the same columns as the weather table, so the column names in WeatherEntry are used for
+     * it as well.
+     */
+    public static final class HistoryEntry implements BaseColumns {
+
+        /* The base CONTENT_URI used to query the history table from the content provider */
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_HISTORY)
+                .build();
+
+        /* Used internally as the name of our history table. */
+        public static final String TABLE_NAME = "history";
+
+        /*
+         * The number of days a row stands for. Recent history has a row per day, so this is 1.
+         * Older history is downsampled, and each row summarizes the days from its date onwards:
+         * the lowest minimum and highest maximum temperature, the average humidity, pressure,
+         * wind speed and direction, and the most common weather.
+         */
+        public static final String COLUMN_DAYS = "days";
+
+        /*
+         * The number of the row's days with rain, snow, drizzle or thunderstorms, which a
+         * downsampled row can't tell from its most common weather. Null on a row of a single
+         * day, whose weather ID says whether it had any.
+         */
+        public static final String COLUMN_PRECIPITATION_DAYS = "precipitation_days";
+
+        /**
+         * Builds a URI for all of the history of one location.
+         *
+         * @param locationId The ID of the location in the location table
+         * @return Uri to query the history of the location
+         */
+        public static Uri buildHistoryUriWithLocation(long locationId) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_LOCATION)
+                    .appendPath(Long.toString(locationId))
+                    .build();
+        }
+
+        /**
+         * Builds a URI for the first page of the history of one location, which has its
+         * oldest days. Use {@link WeatherContract#buildNextPageUri(Uri, long)} for the pages
+         * after it.
+         *
+         * @param locationId The ID of the location in the location table
+         * @param limit      The most rows a page has
+         * @return Uri to query the first page of the history of the location
+         */
+        public static Uri buildHistoryPageUri(long locationId, int limit) {
+            return buildHistoryUriWithLocation(locationId).buildUpon()
+                    .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit))
+                    .build();
+        }
+
+        /**
+         * Builds a URI for the history of one location over a range of dates, such as a month
+         * or a year. The query is answered from the (location_id, date) index, so it only
+         * reads the rows in the range.
+         *
+         * @param locationId The ID of the location in the location table
+         * @param startDate  Normalized date of the first day in the range
+         * @param endDate    Normalized date of the day after the range
+         * @return Uri to query the history of the location between the two dates
+         */
+        public static Uri buildHistoryUriWithLocationAndRange(long locationId, long startDate,
+                                                              long endDate) {
+            return buildHistoryUriWithLocation(locationId).buildUpon()
+                    .appendPath(Long.toString(startDate))
+                    .appendPath(Long.toString(endDate))
+                    .build();
+        }
+    }
+
+    /*
+     * Inner class that defines the columns of the weather statistics. They aren't a table but
+     * are summed up by SQLite, in one query, from the history and the forecast of a location,
+     * one row per week or per month. Weeks start on a Monday.
+     *
+     * Each row has the date the week or month starts on in WeatherEntry#COLUMN_DATE and the
+     * number of days with weather in HistoryEntry#COLUMN_DAYS. WeatherEntry#COLUMN_MIN_TEMP and
+     * WeatherEntry#COLUMN_MAX_TEMP hold the lowest and highest temperatures, and
+     * WeatherEntry#COLUMN_HUMIDITY the average humidity. The columns below are only found here.
+     * Any selection and sort order passed to a query apply to these rows.
+     *
+     * A downsampled row of history is summed up in the week its first day is in, as it can't
+     * be split. Weekly figures for downsampled months are therefore approximate, while monthly
+     * ones are exact, because a downsampled row never spans two months.
+     */
+    public static final class StatsEntry {
+
+        /* The average of each day's mean of its minimum and maximum temperatures, in °C */
+        public static final String COLUMN_AVERAGE_TEMP = "avg_temp";
+
+        /*
+         * The number of days with rain, snow, drizzle or thunderstorms, going by their weather
+         * IDs, as counted in HistoryEntry#COLUMN_PRECIPITATION_DAYS. Rows downsampled before
+         * database version 6 didn't count them and go by their most common weather instead.
+         */
+        public static final String COLUMN_PRECIPITATION_DAYS = "precipitation_days";
+
+        /**
+         * Builds a URI for the weather of one location summed up by week.
+         *
+         * @param locationId The ID of the location in the location table
+         * @return Uri to query weekly statistics of the location
+         */
+        public static Uri buildWeeklyStatsUri(long locationId) {
+            return buildStatsUri(locationId, PATH_WEEK);
+        }
+
+        /**
+         * Builds a URI for the weather of one location summed up by month.
+         *
+         * @param locationId The ID of the location in the location table
+         * @return Uri to query monthly statistics of the location
+         */
+        public static Uri buildMonthlyStatsUri(long locationId) {
+            return buildStatsUri(locationId, PATH_MONTH);
+        }
+
+        private static Uri buildStatsUri(long locationId, String period) {
+            return WeatherEntry.CONTENT_URI.buildUpon()
+                    .appendPath(PATH_STATS)
+                    .appendPath(PATH_LOCATION)
+                    .appendPath(Long.toString(locationId))
+                    .appendPath(period)
+                    .build();
+        }
+    }
+
+    /*
+     * Inner class that defines the columns of the provider's metrics, which are kept in memory
+     * from the moment the provider is created. There is a row for each operation and matched
+     * URI code that has been used, or for calls, each provider method, counting the calls, the
+     * rows returned or written, and how long the calls took, both in total and as a histogram.
+     * A query of CONTENT_URI returns them all; selections aren't supported. Only debug builds
+     * of the app answer it.
+     *
+     * Queries are timed until their rows have been read from the database, so a query that
+     * returns many rows is slower than one that returns few. Calls that fail aren't counted.
+     */
+    public static final class MetricsEntry {
+
+        /* The URI the metrics are queried through */
+        public static final Uri CONTENT_URI = WeatherEntry.CONTENT_URI.buildUpon()
+                .appendPath(PATH_METRICS)
+                .build();
+
+        /* The operation timed, one of the OPERATION values below */
+        public static final String COLUMN_OPERATION = "operation";
+
+        /*
+         * The URI code the calls matched, one of the CODE constants of WeatherProvider, or -1
+         * for calls and batches, which aren't made on a URI of their own
+         */
+        public static final String COLUMN_URI_CODE = "uri_code";
+
+        /* The provider method of OPERATION_CALL, one of the METHOD constants; null otherwise */
+        public static final String COLUMN_METHOD = "method";
+
+        /*
+         * The number of calls, and the rows they returned (queries) or wrote, all together. A
+         * provider method writes the rows it inserted, updated, deleted and archived, and a
+         * batch those of all its operations.
+         */
+        public static final String COLUMN_CALLS = "calls";
+        public static final String COLUMN_ROWS = "rows";
+
+        /* How long all the calls took, and the slowest of them, in milliseconds */
+        public static final String COLUMN_TOTAL_MILLIS = "total_ms";
+        public static final String COLUMN_MAX_MILLIS = "max_ms";
+
+        /*
+         * The number of calls that took less than 1, 4, 16, 64 and 256 milliseconds, each
+         * counting only those that didn't fit the one before, and those that took longer. A
+         * frame is drawn every 16 milliseconds.
+         */
+        public static final String COLUMN_UNDER_1_MS = "under_1ms";
+        public static final String COLUMN_UNDER_4_MS = "under_4ms";
+        public static final String COLUMN_UNDER_16_MS = "under_16ms";
+        public static final String COLUMN_UNDER_64_MS = "under_64ms";
+        public static final String COLUMN_UNDER_256_MS = "under_256ms";
+        public static final String COLUMN_OVER_256_MS = "over_256ms";
+
+        /* The operations timed */
+        public static final String OPERATION_QUERY = "query";
+        public static final String OPERATION_BULK_INSERT = "bulkInsert";
+        public static final String OPERATION_DELETE = "delete";
+        public static final String OPERATION_INSERT = "insert";
+        public static final String OPERATION_UPDATE = "update";
+        public static final String OPERATION_APPLY_BATCH = "applyBatch";
+        public static final String OPERATION_CALL = "call";
+    }
 }
\ No newline at end of file
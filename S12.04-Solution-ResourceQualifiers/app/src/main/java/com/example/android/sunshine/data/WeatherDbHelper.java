@@ -16,16 +16,30 @@
 package com.example.android.sunshine.data;
 
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.util.Log;
 
+import com.example.android.sunshine.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
 
 /**
  * Manages a local database for weather data.
+ * <p>
+ * The database uses write-ahead logging, so that the app's queries can keep reading the last
+ * forecast while a sync is writing the next one, rather than waiting for the sync's transaction
+ * to finish. Changes are written to a separate log first and copied back into the database by a
+ * checkpoint; see {@link #WeatherDbHelper(Context, int)} and {@link #checkpoint()}.
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
+    private static final String TAG = WeatherDbHelper.class.getSimpleName();
+
     /*
      * This is the name of our database. Database names should be descriptive and end with the
      * .db extension.
@@ -43,71 +57,334 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
      * use-case, we wanted to watch out for it and warn you what could happen if you mistakenly
      * version your databases.
      */
-    private static final int DATABASE_VERSION = 3;
+    private static final int DATABASE_VERSION = 6;
+
+    /* What migrateToLocations renames the version 3 weather table to while it copies it */
+    private static final String WEATHER_TABLE_V3 = WeatherEntry.TABLE_NAME + "_v3";
+
+    /*
+     * This String will contain a simple SQL statement that will create a table that will hold
+     * every location we have stored weather for.
+     */
+    private static final String SQL_CREATE_LOCATION_TABLE =
+
+            "CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
+
+            LocationEntry._ID                     + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+
+            /* A location is looked up by its setting, so each setting may only be stored once */
+            LocationEntry.COLUMN_LOCATION_SETTING + " TEXT NOT NULL UNIQUE);";
+
+    /*
+     * This String will contain a simple SQL statement that will create a table that will
+     * cache our weather data.
+     */
+    private static final String SQL_CREATE_WEATHER_TABLE =
+
+            "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
+
+            /*
+             * WeatherEntry did not explicitly declare a column called "_ID". However,
+             * WeatherEntry implements the interface, "BaseColumns", which does have a field
+             * named "_ID". We use that here to designate our table's primary key.
+             */
+            WeatherEntry._ID               + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+
+            /* The location this weather is for, as a foreign key into the location table */
+            WeatherEntry.COLUMN_LOCATION_ID + " INTEGER NOT NULL REFERENCES "
+                    + LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), "  +
+
+            WeatherEntry.COLUMN_DATE       + " INTEGER NOT NULL, "                 +
+
+            WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL,"                  +
+
+            WeatherEntry.COLUMN_MIN_TEMP   + " REAL NOT NULL, "                    +
+            WeatherEntry.COLUMN_MAX_TEMP   + " REAL NOT NULL, "                    +
+
+            WeatherEntry.COLUMN_HUMIDITY   + " REAL NOT NULL, "                    +
+            WeatherEntry.COLUMN_PRESSURE   + " REAL NOT NULL, "                    +
+
+            WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, "                    +
+            WeatherEntry.COLUMN_DEGREES    + " REAL NOT NULL, "                    +
+
+            /*
+             * To ensure this table can only contain one weather entry per date and location, we
+             * declare the pair of them to be unique. We also specify "ON CONFLICT REPLACE". This
+             * tells SQLite that if we have a weather entry for a certain date and location and we
+             * attempt to insert another weather entry for them, we replace the old weather entry.
+             *
+             * SQLite backs the constraint with a composite index on (location_id, date), which
+             * is also what finds the forecast of one location, in date order, without scanning
+             * the rows of any other location.
+             */
+            " UNIQUE (" + WeatherEntry.COLUMN_LOCATION_ID + ", " + WeatherEntry.COLUMN_DATE
+                    + ") ON CONFLICT REPLACE);";
+
+    /*
+     * This String will contain a simple SQL statement that will create a table that will keep
+     * the weather of days that have passed, moved there from the weather table by
+     * WeatherProvider. It has the columns of the weather table, plus the number of days each
+     * row stands for and how many of them had precipitation.
+     */
+    private static final String SQL_CREATE_HISTORY_TABLE =
+
+            "CREATE TABLE " + HistoryEntry.TABLE_NAME + " (" +
+
+            HistoryEntry._ID                + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+
+            WeatherEntry.COLUMN_LOCATION_ID + " INTEGER NOT NULL REFERENCES "
+                    + LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), "  +
+
+            WeatherEntry.COLUMN_DATE        + " INTEGER NOT NULL, "                 +
+            HistoryEntry.COLUMN_DAYS        + " INTEGER NOT NULL DEFAULT 1, "       +
+
+            WeatherEntry.COLUMN_WEATHER_ID  + " INTEGER NOT NULL, "                 +
+
+            WeatherEntry.COLUMN_MIN_TEMP    + " REAL NOT NULL, "                    +
+            WeatherEntry.COLUMN_MAX_TEMP    + " REAL NOT NULL, "                    +
+
+            WeatherEntry.COLUMN_HUMIDITY    + " REAL NOT NULL, "                    +
+            WeatherEntry.COLUMN_PRESSURE    + " REAL NOT NULL, "                    +
+
+            WeatherEntry.COLUMN_WIND_SPEED  + " REAL NOT NULL, "                    +
+            WeatherEntry.COLUMN_DEGREES     + " REAL NOT NULL, "                    +
+
+            HistoryEntry.COLUMN_PRECIPITATION_DAYS + " INTEGER, "                   +
+
+            /*
+             * As in the weather table, the composite index behind this constraint is what range
+             * queries over a month or a year of one location's history are answered from. It's
+             * also what HistoryCompaction walks, one month of one location at a time.
+             */
+            " UNIQUE (" + WeatherEntry.COLUMN_LOCATION_ID + ", " + WeatherEntry.COLUMN_DATE
+                    + ") ON CONFLICT REPLACE);";
+
+    /*
+     * The steps that upgrade an existing database one version at a time, keeping its rows. When
+     * you change the schema, increment DATABASE_VERSION and add a Migration from the previous
+     * version here, in addition to changing onCreate. See onUpgrade.
+     */
+    private final Migration[] mMigrations = {
+
+            /*
+             * Version 4 stores the weather of more than one location. The forecast we have is
+             * for whichever location the user has chosen, so it's moved over to that location.
+             */
+            new Migration(3) {
+                @Override
+                void migrate(SQLiteDatabase sqLiteDatabase) {
+                    migrateToLocations(sqLiteDatabase,
+                            SunshinePreferences.getPreferredWeatherLocation(mContext));
+                }
+            },
+
+            /* Version 5 keeps the weather of past days in the history table */
+            new Migration(4) {
+                @Override
+                void migrate(SQLiteDatabase sqLiteDatabase) {
+                    sqLiteDatabase.execSQL(SQL_CREATE_HISTORY_TABLE);
+                }
+            },
+
+            /*
+             * Version 6 counts the days with precipitation in a downsampled row of history.
+             * Rows downsampled before are left null, as their days can't be told apart anymore.
+             */
+            new Migration(5) {
+                @Override
+                void migrate(SQLiteDatabase sqLiteDatabase) {
+                    sqLiteDatabase.execSQL("ALTER TABLE " + HistoryEntry.TABLE_NAME
+                            + " ADD COLUMN " + HistoryEntry.COLUMN_PRECIPITATION_DAYS
+                            + " INTEGER");
+                }
+            }
+    };
+
+    private final Context mContext;
+
+    /*
+     * The number of pages the write-ahead log may grow to before a commit copies it back into
+     * the database. This is SQLite's own default. A forecast only takes a handful of pages, so
+     * in practice the log is checkpointed after each sync by WeatherProvider instead.
+     */
+    public static final int DEFAULT_WAL_AUTOCHECKPOINT_PAGES = 1000;
+
+    private final int mWalAutoCheckpointPages;
+
+    /* The value of PRAGMA auto_vacuum for incremental auto-vacuum, see onConfigure */
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
 
     public WeatherDbHelper(Context context) {
+        this(context, DEFAULT_WAL_AUTOCHECKPOINT_PAGES);
+    }
+
+    /**
+     * Creates a helper whose write-ahead log is checkpointed automatically once it holds the
+     * given number of pages.
+     *
+     * @param context                The context to open the database in
+     * @param walAutoCheckpointPages The size of the log, in pages, at which it's checkpointed,
+     *                               or 0 to only checkpoint when {@link #checkpoint()} is called
+     */
+    public WeatherDbHelper(Context context, int walAutoCheckpointPages) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        mContext = context;
+        if (walAutoCheckpointPages < 0) {
+            throw new IllegalArgumentException(
+                    "Checkpoint size must not be negative: " + walAutoCheckpointPages);
+        }
+        mWalAutoCheckpointPages = walAutoCheckpointPages;
+
     }
 
     /**
-     * Called when the database is created for the first time. This is where the creation of
-     * tables and the initial population of the tables should happen.
+     * Called when the database connection is being configured, before the database is created
+     * or upgraded. Only called from Jelly Bean on.
+     * <p>
+     * Incremental auto-vacuum only takes hold on a new database if it is asked for before
+     * anything is written to the file, and turning on write-ahead logging writes to it. So
+     * auto-vacuum is asked for first, and write-ahead logging is turned on here, rather than
+     * by the helper as the connection is opened. On a database that already has tables,
+     * asking for auto-vacuum changes nothing, see {@link #enableIncrementalVacuum()}.
      *
      * @param sqLiteDatabase The database.
      */
     @Override
-    public void onCreate(SQLiteDatabase sqLiteDatabase) {
+    public void onConfigure(SQLiteDatabase sqLiteDatabase) {
+        super.onConfigure(sqLiteDatabase);
 
-        /*
-         * This String will contain a simple SQL statement that will create a table that will
-         * cache our weather data.
-         */
-        final String SQL_CREATE_WEATHER_TABLE =
+        if (!sqLiteDatabase.isReadOnly()) {
+            sqLiteDatabase.execSQL("PRAGMA auto_vacuum = " + AUTO_VACUUM_INCREMENTAL);
+            sqLiteDatabase.enableWriteAheadLogging();
+        }
+    }
+
+    /**
+     * Called every time the database is opened, after it has been created or upgraded. This is
+     * where the write-ahead log is set up: turned on, for versions of Android that don't call
+     * onConfigure, and given the checkpoint size this helper was created with.
+     *
+     * @param sqLiteDatabase The database.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase sqLiteDatabase) {
+        super.onOpen(sqLiteDatabase);
+
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN
+                && !sqLiteDatabase.isReadOnly()) {
+            sqLiteDatabase.enableWriteAheadLogging();
+        }
+
+        /* PRAGMAs that return a row have to be run as queries; the row itself isn't needed */
+        runPragma(sqLiteDatabase, "PRAGMA wal_autocheckpoint = " + mWalAutoCheckpointPages);
+    }
 
-                "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
+    /**
+     * Copies as much of the write-ahead log back into the database as can be done without
+     * waiting for anyone who is reading, which keeps the log from growing between syncs.
+     * Queries that are running carry on undisturbed; whatever they are still using is left for
+     * the next checkpoint.
+     */
+    public void checkpoint() {
+        runPragma(getWritableDatabase(), "PRAGMA wal_checkpoint(PASSIVE)");
+    }
 
-                /*
-                 * WeatherEntry did not explicitly declare a column called "_ID". However,
-                 * WeatherEntry implements the interface, "BaseColumns", which does have a field
-                 * named "_ID". We use that here to designate our table's primary key.
-                 */
-                WeatherEntry._ID               + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+    /**
+     * Gives the pages that deletes have left empty back to the file system, and returns how
+     * many bytes the database shrank by. Deleted rows otherwise only leave free pages behind,
+     * which later inserts reuse, and the file never gets any smaller.
+     * <p>
+     * This uses incremental auto-vacuum, which lets SQLite drop the free pages from the end of
+     * the file without rewriting the rest of it. It's cheap enough to run after a sync. On a
+     * database that doesn't have incremental auto-vacuum yet, it does nothing; see
+     * {@link #enableIncrementalVacuum()}. With write-ahead logging, the file itself shrinks at
+     * the next checkpoint, which is run here. Must not be called inside a transaction.
+     *
+     * @return The number of bytes reclaimed
+     */
+    public long reclaimSpace() {
+        SQLiteDatabase sqLiteDatabase = getWritableDatabase();
+        long pageSize = DatabaseUtils.longForQuery(sqLiteDatabase, "PRAGMA page_size", null);
+        long pagesBefore = DatabaseUtils.longForQuery(sqLiteDatabase, "PRAGMA page_count", null);
 
-                WeatherEntry.COLUMN_DATE       + " INTEGER NOT NULL, "                 +
+        /* Each free page dropped is a row of the result, so it has to be read to the end */
+        Cursor cursor = sqLiteDatabase.rawQuery("PRAGMA incremental_vacuum", null);
+        try {
+            cursor.getCount();
+        } finally {
+            cursor.close();
+        }
 
-                WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL,"                  +
+        long pagesAfter = DatabaseUtils.longForQuery(sqLiteDatabase, "PRAGMA page_count", null);
+        checkpoint();
+        return (pagesBefore - pagesAfter) * pageSize;
+    }
 
-                WeatherEntry.COLUMN_MIN_TEMP   + " REAL NOT NULL, "                    +
-                WeatherEntry.COLUMN_MAX_TEMP   + " REAL NOT NULL, "                    +
+    /**
+     * Turns on incremental auto-vacuum for a database created without it, before it was asked
+     * for in onConfigure or on a version of Android that doesn't call onConfigure. On such a
+     * database the setting only takes hold with a full VACUUM, which rewrites the whole file,
+     * so this is only run from the history compaction job, while the device is charging. A
+     * database that already has it is left alone. Must not be called inside a transaction.
+     *
+     * @return The number of bytes the VACUUM reclaimed, 0 if it wasn't needed. Auto-vacuum
+     *         adds the pages it keeps track of the others in, so it can be negative.
+     */
+    public long enableIncrementalVacuum() {
+        SQLiteDatabase sqLiteDatabase = getWritableDatabase();
+        if (DatabaseUtils.longForQuery(sqLiteDatabase, "PRAGMA auto_vacuum", null)
+                == AUTO_VACUUM_INCREMENTAL) {
+            return 0;
+        }
 
-                WeatherEntry.COLUMN_HUMIDITY   + " REAL NOT NULL, "                    +
-                WeatherEntry.COLUMN_PRESSURE   + " REAL NOT NULL, "                    +
+        long pageSize = DatabaseUtils.longForQuery(sqLiteDatabase, "PRAGMA page_size", null);
+        long pagesBefore = DatabaseUtils.longForQuery(sqLiteDatabase, "PRAGMA page_count", null);
 
-                WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, "                    +
-                WeatherEntry.COLUMN_DEGREES    + " REAL NOT NULL, "                    +
+        sqLiteDatabase.execSQL("PRAGMA auto_vacuum = " + AUTO_VACUUM_INCREMENTAL);
+        sqLiteDatabase.execSQL("VACUUM");
 
-                /*
-                 * To ensure this table can only contain one weather entry per date, we declare
-                 * the date column to be unique. We also specify "ON CONFLICT REPLACE". This tells
-                 * SQLite that if we have a weather entry for a certain date and we attempt to
-                 * insert another weather entry with that date, we replace the old weather entry.
-                 */
-                " UNIQUE (" + WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
+        long pagesAfter = DatabaseUtils.longForQuery(sqLiteDatabase, "PRAGMA page_count", null);
+        checkpoint();
+        return (pagesBefore - pagesAfter) * pageSize;
+    }
+
+    private static void runPragma(SQLiteDatabase sqLiteDatabase, String pragma) {
+        Cursor cursor = sqLiteDatabase.rawQuery(pragma, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Called when the database is created for the first time. This is where the creation of
+     * tables and the initial population of the tables should happen.
+     *
+     * @param sqLiteDatabase The database.
+     */
+    @Override
+    public void onCreate(SQLiteDatabase sqLiteDatabase) {
 
         /*
-         * After we've spelled out our SQLite table creation statement above, we actually execute
+         * After we've spelled out our SQLite table creation statements above, we actually execute
          * that SQL with the execSQL method of our SQLite database object.
          */
+        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_HISTORY_TABLE);
     }
 
     /**
-     * This database is only a cache for online data, so its upgrade policy is simply to discard
-     * the data and call through to onCreate to recreate the table. Note that this only fires if
-     * you change the version number for your database (in our case, DATABASE_VERSION). It does NOT
-     * depend on the version number for your application found in your app/build.gradle file. If
-     * you want to update the schema without wiping data, commenting out the current body of this
-     * method should be your top priority before modifying this method.
+     * Upgrades the database one version at a time, using the {@link Migration}s in mMigrations,
+     * so that the forecast we already have is still there to show while the first sync after
+     * an app update is running. Note that this only fires if you change the version number for
+     * your database (in our case, DATABASE_VERSION). It does NOT depend on the version number
+     * for your application found in your app/build.gradle file.
+     * <p>
+     * This database is only a cache for online data, so if there is a version we have no
+     * migration for, or a migration fails, we fall back to discarding the data and calling
+     * through to onCreate to recreate the table. The next sync will fill it again.
      *
      * @param sqLiteDatabase Database that is being upgraded
      * @param oldVersion     The old database version
@@ -115,7 +392,136 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        if (!migrate(sqLiteDatabase, oldVersion, newVersion, mMigrations)) {
+            rebuild(sqLiteDatabase);
+        }
+    }
+
+    /**
+     * A database from a newer version of Sunshine can't be migrated backwards, so the data is
+     * discarded, just as for an upgrade without a migration path.
+     *
+     * @param sqLiteDatabase Database that is being downgraded
+     * @param oldVersion     The old database version
+     * @param newVersion     The new database version
+     */
+    @Override
+    public void onDowngrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        rebuild(sqLiteDatabase);
+    }
+
+    /**
+     * Runs the migrations that take a database from one version to another, in order. Nothing
+     * is run unless there is a migration for every version along the way. This is called from
+     * onUpgrade, inside the transaction SQLiteOpenHelper opens for it.
+     *
+     * @param sqLiteDatabase The database to migrate
+     * @param oldVersion     The version the database is at
+     * @param newVersion     The version to migrate it to
+     * @param migrations     The migrations to choose from, in any order
+     * @return true if the database was migrated, false if there was no migration path or a
+     *         migration failed, in which case the database needs to be rebuilt
+     */
+    static boolean migrate(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion,
+                           Migration[] migrations) {
+        Migration[] path = new Migration[newVersion - oldVersion];
+        for (int version = oldVersion; version < newVersion; version++) {
+            for (Migration migration : migrations) {
+                if (migration.fromVersion == version) {
+                    path[version - oldVersion] = migration;
+                    break;
+                }
+            }
+
+            if (path[version - oldVersion] == null) {
+                Log.w(TAG, "No migration from version " + version + ", rebuilding the database");
+                return false;
+            }
+        }
+
+        try {
+            for (Migration migration : path) {
+                migration.migrate(sqLiteDatabase);
+            }
+        } catch (SQLException e) {
+            Log.e(TAG, "Migration from version " + oldVersion + " to " + newVersion
+                    + " failed, rebuilding the database", e);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Discards the data, along with whatever state the schema was left in, and creates the
+     * tables again from scratch. That includes the old weather table migrateToLocations
+     * renames out of the way, in case it failed before dropping it.
+     */
+    private void rebuild(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + HistoryEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WEATHER_TABLE_V3);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
         onCreate(sqLiteDatabase);
     }
+
+    /**
+     * Migrates a version 3 database, which holds the forecast of a single location, to version
+     * 4. The location table is created and the stored forecast is copied, row IDs and all, into
+     * a new weather table under the given location.
+     *
+     * @param sqLiteDatabase  The database to migrate
+     * @param locationSetting The location the stored forecast is for
+     */
+    static void migrateToLocations(SQLiteDatabase sqLiteDatabase, String locationSetting) {
+        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
+        sqLiteDatabase.execSQL("INSERT INTO " + LocationEntry.TABLE_NAME
+                + " (" + LocationEntry.COLUMN_LOCATION_SETTING + ") VALUES (?)",
+                new Object[]{locationSetting});
+
+        sqLiteDatabase.execSQL("ALTER TABLE " + WeatherEntry.TABLE_NAME
+                + " RENAME TO " + WEATHER_TABLE_V3);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+
+        final String copiedColumns = WeatherEntry._ID + ", "
+                + WeatherEntry.COLUMN_DATE + ", "
+                + WeatherEntry.COLUMN_WEATHER_ID + ", "
+                + WeatherEntry.COLUMN_MIN_TEMP + ", "
+                + WeatherEntry.COLUMN_MAX_TEMP + ", "
+                + WeatherEntry.COLUMN_HUMIDITY + ", "
+                + WeatherEntry.COLUMN_PRESSURE + ", "
+                + WeatherEntry.COLUMN_WIND_SPEED + ", "
+                + WeatherEntry.COLUMN_DEGREES;
+        sqLiteDatabase.execSQL("INSERT INTO " + WeatherEntry.TABLE_NAME
+                + " (" + WeatherEntry.COLUMN_LOCATION_ID + ", " + copiedColumns + ")"
+                + " SELECT (SELECT " + LocationEntry._ID + " FROM " + LocationEntry.TABLE_NAME
+                + " WHERE " + LocationEntry.COLUMN_LOCATION_SETTING + " = ?), " + copiedColumns
+                + " FROM " + WEATHER_TABLE_V3,
+                new Object[]{locationSetting});
+
+        sqLiteDatabase.execSQL("DROP TABLE " + WEATHER_TABLE_V3);
+    }
+
+    /**
+     * One step of a schema upgrade, from a version to the one after it. A migration changes
+     * the existing tables in place (ALTER TABLE, CREATE INDEX, or copying the rows into a new
+     * table) rather than dropping them. It must leave the database exactly as onCreate would
+     * have created it at the next version, apart from the data.
+     */
+    abstract static class Migration {
+
+        /* The version this migration upgrades from; it upgrades to fromVersion + 1 */
+        final int fromVersion;
+
+        Migration(int fromVersion) {
+            this.fromVersion = fromVersion;
+        }
+
+        /**
+         * Upgrades the schema by one version. This runs inside the upgrade's transaction, so
+         * it must not begin or end transactions of its own.
+         *
+         * @param sqLiteDatabase The database to upgrade
+         */
+        abstract void migrate(SQLiteDatabase sqLiteDatabase);
+    }
 }
\ No newline at end of file
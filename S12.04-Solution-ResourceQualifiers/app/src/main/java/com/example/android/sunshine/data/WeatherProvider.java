@@ -17,24 +17,40 @@ package com.example.android.sunshine.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 
+import com.example.android.sunshine.BuildConfig;
+import com.example.android.sunshine.R;
 import com.example.android.sunshine.utilities.SunshineDateUtils;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * This class serves as the ContentProvider for all of Sunshine's data. This class allows us to
- * bulkInsert data, query data, and delete data.
+ * insert, bulkInsert, update, query and delete data. Whole forecasts can also be inserted through
+ * {@link #call(String, String, Bundle)}, see {@link WeatherContract#METHOD_BULK_INSERT_BATCH}.
+ * A mix of inserts, updates and deletes can be sent in one go through
+ * {@link #applyBatch(ArrayList)}, which applies them in a single transaction.
+ * <p>
+ * Every query, bulkInsert and delete is timed, see {@link WeatherContract.MetricsEntry}.
  * <p>
- * Although ContentProvider implementation requires the implementation of additional methods to
- * perform single inserts, updates, and the ability to get the type of the data from a URI.
- * However, here, they are not implemented for the sake of brevity and simplicity. If you would
- * like, you may implement them on your own. However, we are not going to be teaching how to do
- * so in this course.
+ * Getting the type of the data from a URI is not implemented, for the sake of brevity and
+ * simplicity.
  */
 public class WeatherProvider extends ContentProvider {
 
@@ -45,6 +61,13 @@ public class WeatherProvider extends ContentProvider {
      */
     public static final int CODE_WEATHER = 100;
     public static final int CODE_WEATHER_WITH_DATE = 101;
+    public static final int CODE_WEATHER_WITH_LOCATION = 102;
+    public static final int CODE_WEATHER_WITH_LOCATION_AND_DATE = 103;
+    public static final int CODE_HISTORY_WITH_LOCATION = 200;
+    public static final int CODE_HISTORY_WITH_LOCATION_AND_RANGE = 201;
+    public static final int CODE_STATS_WEEKLY = 300;
+    public static final int CODE_STATS_MONTHLY = 301;
+    public static final int CODE_METRICS = 900;
 
     /*
      * The URI Matcher used by this content provider. The leading "s" in this variable name
@@ -54,9 +77,279 @@ public class WeatherProvider extends ContentProvider {
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
 
+    /* Sends the notifications of our writes, a short while after them, see notifyChanges */
+    private NotificationCoalescer mNotifications;
+
+    /*
+     * The results of the queries the screens make of a location's weather, which are made
+     * over and over with the same arguments. Every write invalidates it, see publishChanges.
+     */
+    private final QueryCache mQueryCache = new QueryCache(QueryCache.DEFAULT_MAX_ENTRIES);
+
+    /* How long our queries, bulk inserts and deletes take, by URI code */
+    private final ProviderMetrics mMetrics = new ProviderMetrics();
+
+    /* Stands in for a location ID where there is none; real ones start at 1 */
+    private static final long NO_LOCATION = -1;
+
+    /*
+     * The statements every write goes through. They are compiled the first time we write and
+     * then reused for every row of every sync, until the database they were compiled against is
+     * closed. They are only ever bound and executed inside a transaction, which no two threads
+     * can be in at once, so sharing them is safe. See prepareStatements.
+     */
+    private SQLiteDatabase mStatementDatabase;
+    private SQLiteStatement mInsertStatement;
+    private SQLiteStatement mUpdateStatement;
+    private SQLiteStatement mDeleteStatement;
+    private SQLiteStatement mArchiveStatement;
+
+    /*
+     * Set on the thread running applyBatch while its operations are applied. Their inserts,
+     * updates and deletes don't notify observers one by one; they add what they changed to it,
+     * and applyBatch notifies once when the whole batch has been committed.
+     */
+    private final ThreadLocal<WeatherChanges> mBatchChanges = new ThreadLocal<>();
+
+    /*
+     * Inserts one day of weather. Bound with the date first, then bindWeatherValues, and the
+     * location last.
+     */
+    private static final String SQL_INSERT_WEATHER =
+            "INSERT INTO " + WeatherContract.WeatherEntry.TABLE_NAME + " ("
+                    + WeatherContract.WeatherEntry.COLUMN_DATE + ", "
+                    + WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + ", "
+                    + WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ", "
+                    + WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ", "
+                    + WeatherContract.WeatherEntry.COLUMN_HUMIDITY + ", "
+                    + WeatherContract.WeatherEntry.COLUMN_PRESSURE + ", "
+                    + WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + ", "
+                    + WeatherContract.WeatherEntry.COLUMN_DEGREES + ", "
+                    + WeatherContract.WeatherEntry.COLUMN_LOCATION_ID
+                    + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    /*
+     * Replaces the weather of one day in one location. Bound with bindWeatherValues first, then
+     * the location and the date.
+     */
+    private static final String SQL_UPDATE_WEATHER =
+            "UPDATE " + WeatherContract.WeatherEntry.TABLE_NAME + " SET "
+                    + WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + " = ?, "
+                    + WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + " = ?, "
+                    + WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + " = ?, "
+                    + WeatherContract.WeatherEntry.COLUMN_HUMIDITY + " = ?, "
+                    + WeatherContract.WeatherEntry.COLUMN_PRESSURE + " = ?, "
+                    + WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + " = ?, "
+                    + WeatherContract.WeatherEntry.COLUMN_DEGREES + " = ?"
+                    + " WHERE " + WeatherContract.WeatherEntry.COLUMN_LOCATION_ID + " = ?"
+                    + " AND " + WeatherContract.WeatherEntry.COLUMN_DATE + " = ?";
+
+    /* Removes the weather of one day in one location, bound with the location first */
+    private static final String SQL_DELETE_WEATHER =
+            "DELETE FROM " + WeatherContract.WeatherEntry.TABLE_NAME
+                    + " WHERE " + WeatherContract.WeatherEntry.COLUMN_LOCATION_ID + " = ?"
+                    + " AND " + WeatherContract.WeatherEntry.COLUMN_DATE + " = ?";
+
+    /*
+     * Copies rows of the weather table into the history table, as rows of one day each. The
+     * statements below add the rows to copy.
+     */
+    private static final String SQL_COPY_TO_HISTORY =
+            "INSERT INTO " + WeatherContract.HistoryEntry.TABLE_NAME + " ("
+                    + WeatherContract.WeatherEntry.COLUMN_LOCATION_ID + ", "
+                    + WeatherContract.WeatherEntry.COLUMN_DATE + ", "
+                    + WeatherContract.HistoryEntry.COLUMN_DAYS + ", "
+                    + WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + ", "
+                    + WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ", "
+                    + WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ", "
+                    + WeatherContract.WeatherEntry.COLUMN_HUMIDITY + ", "
+                    + WeatherContract.WeatherEntry.COLUMN_PRESSURE + ", "
+                    + WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + ", "
+                    + WeatherContract.WeatherEntry.COLUMN_DEGREES + ")"
+                    + " SELECT "
+                    + WeatherContract.WeatherEntry.COLUMN_LOCATION_ID + ", "
+                    + WeatherContract.WeatherEntry.COLUMN_DATE + ", 1, "
+                    + WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + ", "
+                    + WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ", "
+                    + WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ", "
+                    + WeatherContract.WeatherEntry.COLUMN_HUMIDITY + ", "
+                    + WeatherContract.WeatherEntry.COLUMN_PRESSURE + ", "
+                    + WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + ", "
+                    + WeatherContract.WeatherEntry.COLUMN_DEGREES
+                    + " FROM " + WeatherContract.WeatherEntry.TABLE_NAME;
+
+    /*
+     * Copies the weather of one day in one location into the history table, bound with the
+     * location first. It's run just before that day is deleted from the weather table.
+     */
+    private static final String SQL_ARCHIVE_WEATHER =
+            SQL_COPY_TO_HISTORY
+                    + " WHERE " + WeatherContract.WeatherEntry.COLUMN_LOCATION_ID + " = ?"
+                    + " AND " + WeatherContract.WeatherEntry.COLUMN_DATE + " = ?";
+
+    /*
+     * Past days are pruned from the weather table this many at a time, each batch in a
+     * transaction of its own, so that a sync or a screen never waits long behind the pruning.
+     */
+    static final int PRUNE_BATCH_ROWS = 100;
+
+    /*
+     * Finds the last row of the next batch of days to prune, bound with today and the size of
+     * the batch. Row IDs only grow, so a batch is the days before today that were written
+     * first, whichever location they are for. If there are none, the row ID is NULL.
+     */
+    private static final String SQL_LAST_ID_OF_PRUNE_BATCH =
+            "SELECT MAX(" + WeatherContract.WeatherEntry._ID + ") FROM (SELECT "
+                    + WeatherContract.WeatherEntry._ID
+                    + " FROM " + WeatherContract.WeatherEntry.TABLE_NAME
+                    + " WHERE " + WeatherContract.WeatherEntry.COLUMN_DATE + " < ?"
+                    + " ORDER BY " + WeatherContract.WeatherEntry._ID + " LIMIT ?)";
+
+    /* Selects a batch of days to prune, bound with today and the last row ID of the batch */
+    private static final String SQL_SELECT_PRUNE_BATCH =
+            WeatherContract.WeatherEntry.COLUMN_DATE + " < ? AND "
+                    + WeatherContract.WeatherEntry._ID + " <= ?";
+
+    /* Copies a batch of days to prune into the history table, bound like the selection */
+    private static final String SQL_ARCHIVE_PRUNE_BATCH =
+            SQL_COPY_TO_HISTORY + " WHERE " + SQL_SELECT_PRUNE_BATCH;
+
+    /* Selects the weather of one location, or of one location on one date */
+    private static final String SQL_SELECT_LOCATION =
+            WeatherContract.WeatherEntry.COLUMN_LOCATION_ID + " = ?";
+    private static final String SQL_SELECT_LOCATION_AND_DATE =
+            WeatherContract.WeatherEntry.COLUMN_LOCATION_ID + " = ? AND "
+                    + WeatherContract.WeatherEntry.COLUMN_DATE + " = ?";
+
+    /* Selects the history of one location over a range of dates, the end excluded */
+    private static final String SQL_SELECT_LOCATION_AND_RANGE =
+            WeatherContract.WeatherEntry.COLUMN_LOCATION_ID + " = ? AND "
+                    + WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? AND "
+                    + WeatherContract.WeatherEntry.COLUMN_DATE + " < ?";
+
+    /*
+     * Selects the rows of a page after the first, those after the last date of the page
+     * before, and the order pages are sorted in. See WeatherContract#PARAM_AFTER.
+     */
+    private static final String SQL_SELECT_AFTER =
+            WeatherContract.WeatherEntry.COLUMN_DATE + " > ?";
+    private static final String SQL_SORT_BY_DATE =
+            WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+
+    /* Weather IDs below 700 are thunderstorms, drizzle, rain and snow */
+    private static final int FIRST_DRY_WEATHER_ID = 700;
+
+    /*
+     * The number of days with precipitation in a row of history. A row that doesn't count them
+     * is a single day, or was downsampled before they were counted, and goes by its weather ID.
+     * HistoryCompaction adds these up for the rows it downsamples.
+     */
+    static final String SQL_HISTORY_PRECIPITATION_DAYS =
+            "COALESCE(" + WeatherContract.HistoryEntry.COLUMN_PRECIPITATION_DAYS
+                    + ", CASE WHEN " + WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + " < "
+                    + FIRST_DRY_WEATHER_ID + " THEN " + WeatherContract.HistoryEntry.COLUMN_DAYS
+                    + " ELSE 0 END)";
+
+    /*
+     * The history and the forecast of one location as one table, bound with the location twice.
+     * Days are moved from the forecast into the history once they have passed, so no day is in
+     * both. Each row of the forecast is one day.
+     */
+    private static final String SQL_SELECT_HISTORY_AND_FORECAST =
+            "SELECT "
+                    + WeatherContract.WeatherEntry.COLUMN_DATE + ", "
+                    + WeatherContract.HistoryEntry.COLUMN_DAYS + ", "
+                    + SQL_HISTORY_PRECIPITATION_DAYS + " AS "
+                    + WeatherContract.HistoryEntry.COLUMN_PRECIPITATION_DAYS + ", "
+                    + WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ", "
+                    + WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ", "
+                    + WeatherContract.WeatherEntry.COLUMN_HUMIDITY
+                    + " FROM " + WeatherContract.HistoryEntry.TABLE_NAME
+                    + " WHERE " + SQL_SELECT_LOCATION
+                    + " UNION ALL SELECT "
+                    + WeatherContract.WeatherEntry.COLUMN_DATE + ", 1, "
+                    + "CASE WHEN " + WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + " < "
+                    + FIRST_DRY_WEATHER_ID + " THEN 1 ELSE 0 END, "
+                    + WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ", "
+                    + WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ", "
+                    + WeatherContract.WeatherEntry.COLUMN_HUMIDITY
+                    + " FROM " + WeatherContract.WeatherEntry.TABLE_NAME
+                    + " WHERE " + SQL_SELECT_LOCATION;
+
+    /*
+     * The start of the week, a Monday, and of the month a date is in. Day 0 of the epoch was a
+     * Thursday, so counting weeks from 3 days later makes them start on Mondays.
+     */
+    private static final String SQL_START_OF_WEEK =
+            "((" + WeatherContract.WeatherEntry.COLUMN_DATE + " / "
+                    + SunshineDateUtils.DAY_IN_MILLIS + " + 3) / 7 * 7 - 3) * "
+                    + SunshineDateUtils.DAY_IN_MILLIS;
+    private static final String SQL_START_OF_MONTH =
+            "strftime('%s', " + WeatherContract.WeatherEntry.COLUMN_DATE
+                    + " / 1000, 'unixepoch', 'start of month') * 1000";
+
+    /*
+     * Sums up SQL_SELECT_HISTORY_AND_FORECAST by week or by month, into the columns of
+     * StatsEntry. Rows of history can stand for several days, so averages and counts are
+     * weighted by their days.
+     */
+    private static final String SQL_WEEKLY_STATS = buildStatsSql(SQL_START_OF_WEEK);
+    private static final String SQL_MONTHLY_STATS = buildStatsSql(SQL_START_OF_MONTH);
+
+    /*
+     * The columns read back into a ForecastBatch to compare a new forecast against. They are in
+     * the same order as the first arguments of SQL_INSERT_WEATHER, which end with the location.
+     */
+    private static final String[] FORECAST_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
+    };
+
+    /**
+     * Builds the query that sums up the history and forecast of a location by period.
+     *
+     * @param startOfPeriod SQL for the start of the period a date is in, which rows are
+     *                      grouped by
+     * @return The query, bound with the location twice
+     */
+    private static String buildStatsSql(String startOfPeriod) {
+        String days = WeatherContract.HistoryEntry.COLUMN_DAYS;
+        /*
+         * A computed column has no type, and SQLite never finds a number equal to the strings
+         * selection arguments are bound as. The cast gives the date the type of a column, so
+         * a selection on it compares as it would on the weather table.
+         */
+        return "SELECT "
+                + "CAST(" + startOfPeriod + " AS INTEGER) AS "
+                + WeatherContract.WeatherEntry.COLUMN_DATE + ", "
+                + "SUM(" + days + ") AS " + days + ", "
+                + "MIN(" + WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ") AS "
+                + WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ", "
+                + "MAX(" + WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ") AS "
+                + WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ", "
+                + "SUM((" + WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + " + "
+                + WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ") / 2.0 * " + days + ")"
+                + " / SUM(" + days + ") AS " + WeatherContract.StatsEntry.COLUMN_AVERAGE_TEMP + ", "
+                + "SUM(" + WeatherContract.WeatherEntry.COLUMN_HUMIDITY + " * " + days + ")"
+                + " / CAST(SUM(" + days + ") AS REAL) AS "
+                + WeatherContract.WeatherEntry.COLUMN_HUMIDITY + ", "
+                + "SUM(" + WeatherContract.HistoryEntry.COLUMN_PRECIPITATION_DAYS + ") AS "
+                + WeatherContract.StatsEntry.COLUMN_PRECIPITATION_DAYS
+                + " FROM (" + SQL_SELECT_HISTORY_AND_FORECAST + ")"
+                + " GROUP BY 1";
+    }
+
     /**
-     * Creates the UriMatcher that will match each URI to the CODE_WEATHER and
-     * CODE_WEATHER_WITH_DATE constants defined above.
+     * Creates the UriMatcher that will match each URI to the CODE_WEATHER, CODE_WEATHER_WITH_DATE,
+     * CODE_WEATHER_WITH_LOCATION, CODE_WEATHER_WITH_LOCATION_AND_DATE, CODE_HISTORY_WITH_LOCATION,
+     * CODE_HISTORY_WITH_LOCATION_AND_RANGE, CODE_STATS_WEEKLY and CODE_STATS_MONTHLY constants
+     * defined above.
      * <p>
      * It's possible you might be thinking, "Why create a UriMatcher when you can use regular
      * expressions instead? After all, we really just need to match some patterns, and we can
@@ -68,7 +361,7 @@ public class WeatherProvider extends ContentProvider {
      * been tested and proven, you should almost always use it unless there is a compelling
      * reason not to.
      *
-     * @return A UriMatcher that correctly matches the constants for CODE_WEATHER and CODE_WEATHER_WITH_DATE
+     * @return A UriMatcher that correctly matches the CODE_WEATHER constants
      */
     public static UriMatcher buildUriMatcher() {
 
@@ -96,6 +389,52 @@ public class WeatherProvider extends ContentProvider {
          */
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/#", CODE_WEATHER_WITH_DATE);
 
+        /*
+         * These URIs look like content://com.example.android.sunshine/weather/location/2 and
+         * content://com.example.android.sunshine/weather/location/2/1472214172, for the forecast
+         * of the location with ID 2 and for its weather on one date.
+         */
+        matcher.addURI(authority,
+                WeatherContract.PATH_WEATHER + "/" + WeatherContract.PATH_LOCATION + "/#",
+                CODE_WEATHER_WITH_LOCATION);
+        matcher.addURI(authority,
+                WeatherContract.PATH_WEATHER + "/" + WeatherContract.PATH_LOCATION + "/#/#",
+                CODE_WEATHER_WITH_LOCATION_AND_DATE);
+
+        /*
+         * These URIs look like content://com.example.android.sunshine/history/location/2 and
+         * content://com.example.android.sunshine/history/location/2/1470009600000/1472688000000,
+         * for all of the history of the location with ID 2 and for its history in August 2016.
+         */
+        matcher.addURI(authority,
+                WeatherContract.PATH_HISTORY + "/" + WeatherContract.PATH_LOCATION + "/#",
+                CODE_HISTORY_WITH_LOCATION);
+        matcher.addURI(authority,
+                WeatherContract.PATH_HISTORY + "/" + WeatherContract.PATH_LOCATION + "/#/#/#",
+                CODE_HISTORY_WITH_LOCATION_AND_RANGE);
+
+        /*
+         * These URIs look like
+         * content://com.example.android.sunshine/weather/stats/location/2/week and
+         * .../weather/stats/location/2/month, for the weather of the location with ID 2 summed
+         * up by week and by month.
+         */
+        String statsPath = WeatherContract.PATH_WEATHER + "/" + WeatherContract.PATH_STATS + "/"
+                + WeatherContract.PATH_LOCATION + "/#/";
+        matcher.addURI(authority, statsPath + WeatherContract.PATH_WEEK, CODE_STATS_WEEKLY);
+        matcher.addURI(authority, statsPath + WeatherContract.PATH_MONTH, CODE_STATS_MONTHLY);
+
+        /*
+         * This URI is content://com.example.android.sunshine/weather/_metrics. It tells how long
+         * we take to answer, which is for us to know rather than for other apps, so release
+         * builds don't match it.
+         */
+        if (BuildConfig.DEBUG) {
+            matcher.addURI(authority,
+                    WeatherContract.PATH_WEATHER + "/" + WeatherContract.PATH_METRICS,
+                    CODE_METRICS);
+        }
+
         return matcher;
     }
 
@@ -122,6 +461,11 @@ public class WeatherProvider extends ContentProvider {
          * very lightweight, we are safe to perform that initialization here.
          */
         mOpenHelper = new WeatherDbHelper(getContext());
+
+        /* The window is a resource, so a build or a configuration can pick its own */
+        mNotifications = new NotificationCoalescer(getContext().getContentResolver(),
+                new Handler(Looper.getMainLooper()),
+                getContext().getResources().getInteger(R.integer.notification_window_millis));
         return true;
     }
 
@@ -132,6 +476,10 @@ public class WeatherProvider extends ContentProvider {
      * implement bulkInsert. In a normal ContentProvider's implementation, you will probably want
      * to provide proper functionality for the insert method as well.
      *
+     * Rows inserted through CODE_WEATHER need to name their location in
+     * {@link WeatherContract.WeatherEntry#COLUMN_LOCATION_ID}; rows inserted through
+     * CODE_WEATHER_WITH_LOCATION are stored under the location in the URI.
+     *
      * @param uri    The content:// URI of the insertion request.
      * @param values An array of sets of column_name/value pairs to add to the database.
      *               This must not be {@code null}.
@@ -140,14 +488,26 @@ public class WeatherProvider extends ContentProvider {
      */
     @Override
     public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+        long start = ProviderMetrics.start();
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
 
-        switch (sUriMatcher.match(uri)) {
+        /* The location every row goes into, or NO_LOCATION if each row names its own */
+        long locationId = NO_LOCATION;
+
+        int match = sUriMatcher.match(uri);
+        switch (match) {
+
+            case CODE_WEATHER_WITH_LOCATION:
+                locationId = Long.parseLong(uri.getLastPathSegment());
+                /* Fall through to insert the rows like any others */
 
             case CODE_WEATHER:
+                WeatherChanges changes = new WeatherChanges();
                 db.beginTransaction();
                 int rowsInserted = 0;
                 try {
+                    prepareStatements(db);
+
                     for (ContentValues value : values) {
                         long weatherDate =
                                 value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
@@ -155,9 +515,30 @@ public class WeatherProvider extends ContentProvider {
                             throw new IllegalArgumentException("Date must be normalized to insert");
                         }
 
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
+                        /*
+                         * Rows made up of our own columns are bound to the precompiled INSERT.
+                         * Anything else is left to SQLiteDatabase#insert, so that it fails the
+                         * same way it always has.
+                         */
+                        long _id;
+                        if (bindContentValues(mInsertStatement, value, locationId)) {
+                            _id = executeInsert(mInsertStatement);
+                        } else {
+                            if (locationId != NO_LOCATION) {
+                                value = new ContentValues(value);
+                                value.put(WeatherContract.WeatherEntry.COLUMN_LOCATION_ID,
+                                        locationId);
+                            }
+                            _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
+                        }
+
                         if (_id != -1) {
                             rowsInserted++;
+
+                            /* The location can't be null, or the row wouldn't have gone in */
+                            changes.addDate(locationId != NO_LOCATION ? locationId : value
+                                    .getAsLong(WeatherContract.WeatherEntry.COLUMN_LOCATION_ID),
+                                    weatherDate);
                         }
                     }
                     db.setTransactionSuccessful();
@@ -165,10 +546,10 @@ public class WeatherProvider extends ContentProvider {
                     db.endTransaction();
                 }
 
-                if (rowsInserted > 0) {
-                    getContext().getContentResolver().notifyChange(uri, null);
-                }
+                notifyChanges(changes);
 
+                mMetrics.record(WeatherContract.MetricsEntry.OPERATION_BULK_INSERT, match, start,
+                        rowsInserted);
                 return rowsInserted;
 
             default:
@@ -176,6 +557,531 @@ public class WeatherProvider extends ContentProvider {
         }
     }
 
+    /**
+     * Handles provider methods that don't fit a URI. Two of them take a whole forecast without
+     * boxing every value into a ContentValues first:
+     * {@link WeatherContract#METHOD_BULK_INSERT_BATCH} inserts it, and
+     * {@link WeatherContract#METHOD_APPLY_FORECAST}, which the sync uses, replaces the stored
+     * forecast with it. {@link WeatherContract#METHOD_COMPACT_HISTORY} is run by a background
+     * job to keep the history table within its budget, and
+     * {@link WeatherContract#METHOD_NOTIFICATION_STATS} tells how many notifications, and so
+     * how many queries, holding notifications back has saved.
+     * {@link WeatherContract#METHOD_QUERY_CACHE_STATS} tells how many queries were answered
+     * from the cache. {@link WeatherContract#METHOD_PRUNE_WEATHER} is run after a sync once a
+     * day, to move past days into the history and shrink the database file.
+     *
+     * @param method The method to call, one of the METHOD_ constants in WeatherContract
+     * @param arg    The location setting of the location the forecast is for
+     * @param extras The arguments of the method: a {@link ForecastBatch} packed with
+     *               {@link ForecastBatch#toBundle()}.
+     * @return The ID of the location under KEY_LOCATION_ID, and the number of rows the method
+     *         inserted, updated, deleted and archived, under the KEY_ROWS_ constants in
+     *         WeatherContract
+     */
+    @Override
+    public Bundle call(@NonNull String method, String arg, Bundle extras) {
+        long start = ProviderMetrics.start();
+        Bundle result = callMethod(method, arg, extras);
+        if (result != null) {
+            mMetrics.recordCall(method, start,
+                    result.getInt(WeatherContract.KEY_ROWS_INSERTED)
+                            + result.getInt(WeatherContract.KEY_ROWS_UPDATED)
+                            + result.getInt(WeatherContract.KEY_ROWS_DELETED)
+                            + result.getInt(WeatherContract.KEY_ROWS_ARCHIVED));
+        }
+        return result;
+    }
+
+    /**
+     * Runs a provider method for {@link #call(String, String, Bundle)}, which times it.
+     *
+     * @return The result of the method, or null if there is no such method
+     */
+    private Bundle callMethod(String method, String arg, Bundle extras) {
+        if (WeatherContract.METHOD_BULK_INSERT_BATCH.equals(method)) {
+            ForecastBatch batch = ForecastBatch.fromBundle(extras);
+            if (batch == null) {
+                throw new IllegalArgumentException("No forecast batch to insert");
+            }
+            if (arg == null) {
+                throw new IllegalArgumentException("No location to insert the forecast for");
+            }
+
+            long[] locationId = new long[1];
+            int rowsInserted = bulkInsert(batch, arg, locationId);
+            if (rowsInserted > 0) {
+                WeatherChanges changes = new WeatherChanges();
+                for (int i = 0; i < batch.size(); i++) {
+                    changes.addDate(locationId[0], batch.getDate(i));
+                }
+                notifyChanges(changes);
+            }
+
+            Bundle result = new Bundle();
+            result.putLong(WeatherContract.KEY_LOCATION_ID, locationId[0]);
+            result.putInt(WeatherContract.KEY_ROWS_INSERTED, rowsInserted);
+            return result;
+        }
+
+        if (WeatherContract.METHOD_APPLY_FORECAST.equals(method)) {
+            ForecastBatch batch = ForecastBatch.fromBundle(extras);
+            if (batch == null) {
+                throw new IllegalArgumentException("No forecast batch to apply");
+            }
+            if (arg == null) {
+                throw new IllegalArgumentException("No location to apply the forecast to");
+            }
+
+            long today = SunshineDateUtils.normalizeDate(System.currentTimeMillis());
+            long[] locationId = new long[1];
+            ForecastDiff diff = applyForecast(batch, arg, today, locationId);
+
+            int rowsArchived = 0;
+            for (long date : diff.getRemovedDates()) {
+                if (date < today) {
+                    rowsArchived++;
+                }
+            }
+
+            /*
+             * Only the days that were inserted, updated or deleted are notified, along with the
+             * forecast as a whole. A day that is the same as before doesn't make the Loaders
+             * showing it query us again, and if nothing changed, no Loader does.
+             */
+            if (!diff.isEmpty()) {
+                WeatherChanges changes = new WeatherChanges();
+                for (long date : diff.getRemovedDates()) {
+                    changes.addDate(locationId[0], date);
+                }
+                for (int i : diff.getUpdateIndices()) {
+                    changes.addDate(locationId[0], batch.getDate(i));
+                }
+                for (int i : diff.getInsertIndices()) {
+                    changes.addDate(locationId[0], batch.getDate(i));
+                }
+                notifyChanges(changes);
+
+                if (rowsArchived > 0) {
+                    getContext().getContentResolver()
+                            .notifyChange(WeatherContract.HistoryEntry.CONTENT_URI, null);
+                }
+
+                /* Syncs are hours apart, so this is a good time to tidy up the write-ahead log */
+                mOpenHelper.checkpoint();
+            }
+
+            Bundle result = new Bundle();
+            result.putLong(WeatherContract.KEY_LOCATION_ID, locationId[0]);
+            result.putInt(WeatherContract.KEY_ROWS_INSERTED, diff.getInsertIndices().length);
+            result.putInt(WeatherContract.KEY_ROWS_UPDATED, diff.getUpdateIndices().length);
+            result.putInt(WeatherContract.KEY_ROWS_DELETED, diff.getRemovedDates().length);
+            result.putInt(WeatherContract.KEY_ROWS_ARCHIVED, rowsArchived);
+            return result;
+        }
+
+        if (WeatherContract.METHOD_COMPACT_HISTORY.equals(method)) {
+            HistoryCompaction compaction = new HistoryCompaction(
+                    HistoryCompaction.DEFAULT_DAILY_MONTHS, HistoryCompaction.DEFAULT_MAX_ROWS);
+
+            final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                compaction.compact(db, SunshineDateUtils.normalizeDate(System.currentTimeMillis()));
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+
+            if (!compaction.isEmpty()) {
+                getContext().getContentResolver()
+                        .notifyChange(WeatherContract.HistoryEntry.CONTENT_URI, null);
+                mOpenHelper.checkpoint();
+            }
+
+            /*
+             * The device is charging, so this is where a database from before incremental
+             * auto-vacuum gets the full VACUUM it needs, once; pruning only runs the
+             * incremental one
+             */
+            long bytesReclaimed = mOpenHelper.enableIncrementalVacuum();
+
+            Bundle result = new Bundle();
+            result.putInt(WeatherContract.KEY_ROWS_INSERTED, compaction.getRowsInserted());
+            result.putInt(WeatherContract.KEY_ROWS_DELETED, compaction.getRowsDeleted());
+            result.putLong(WeatherContract.KEY_BYTES_RECLAIMED, bytesReclaimed);
+            return result;
+        }
+
+        if (WeatherContract.METHOD_PRUNE_WEATHER.equals(method)) {
+            int rowsArchived =
+                    prunePastWeather(SunshineDateUtils.normalizeDate(System.currentTimeMillis()));
+
+            if (rowsArchived > 0) {
+                WeatherChanges changes = new WeatherChanges();
+                changes.addAllLocations();
+                notifyChanges(changes);
+                getContext().getContentResolver()
+                        .notifyChange(WeatherContract.HistoryEntry.CONTENT_URI, null);
+            }
+
+            /* Whatever compaction or syncs have freed since the last run is given back too */
+            long bytesReclaimed = mOpenHelper.reclaimSpace();
+
+            Bundle result = new Bundle();
+            result.putInt(WeatherContract.KEY_ROWS_ARCHIVED, rowsArchived);
+            result.putLong(WeatherContract.KEY_BYTES_RECLAIMED, bytesReclaimed);
+            return result;
+        }
+
+        if (WeatherContract.METHOD_QUERY_CACHE_STATS.equals(method)) {
+            Bundle result = new Bundle();
+            result.putLong(WeatherContract.KEY_CACHE_HITS, mQueryCache.getHits());
+            result.putLong(WeatherContract.KEY_CACHE_MISSES, mQueryCache.getMisses());
+            return result;
+        }
+
+        if (WeatherContract.METHOD_NOTIFICATION_STATS.equals(method)) {
+            Bundle result = new Bundle();
+            result.putLong(WeatherContract.KEY_NOTIFICATIONS_REQUESTED,
+                    mNotifications.getNotificationsRequested());
+            result.putLong(WeatherContract.KEY_NOTIFICATIONS_SENT,
+                    mNotifications.getNotificationsSent());
+            result.putLong(WeatherContract.KEY_REQUERIES_SAVED,
+                    mNotifications.getRequeriesSaved());
+            return result;
+        }
+
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Replaces the stored forecast of a location with a new one. The stored forecast is read and
+     * compared with the new one by date (see {@link ForecastDiff}), and then only the days that
+     * are new, changed or no longer in the forecast are written. This all happens in one
+     * transaction, so anyone querying us sees either the old forecast or the new one, never an
+     * empty table. The forecasts of other locations aren't touched.
+     * <p>
+     * Days before today that are no longer in the forecast are moved into the history table
+     * before they are deleted, so their weather is kept.
+     *
+     * @param batch           The new forecast
+     * @param locationSetting The location the forecast is for
+     * @param today           Normalized date of today
+     * @param locationId      Receives the ID of the location, which is added if it's new
+     * @return The changes that were made
+     */
+    private ForecastDiff applyForecast(ForecastBatch batch, String locationSetting, long today,
+                                       long[] locationId) {
+        for (int i = 0; i < batch.size(); i++) {
+            if (!SunshineDateUtils.isDateNormalized(batch.getDate(i))) {
+                throw new IllegalArgumentException("Date must be normalized to insert");
+            }
+        }
+
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+
+        db.beginTransaction();
+        try {
+            prepareStatements(db);
+            locationId[0] = getOrInsertLocation(db, locationSetting);
+
+            ForecastBatch stored;
+            Cursor cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                    FORECAST_COLUMNS, SQL_SELECT_LOCATION,
+                    new String[]{Long.toString(locationId[0])}, null, null,
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+            try {
+                stored = ForecastBatch.fromCursor(cursor);
+            } finally {
+                cursor.close();
+            }
+
+            ForecastDiff diff = ForecastDiff.compute(stored, batch);
+
+            for (long date : diff.getRemovedDates()) {
+                if (date < today) {
+                    mArchiveStatement.bindLong(1, locationId[0]);
+                    mArchiveStatement.bindLong(2, date);
+                    mArchiveStatement.executeInsert();
+                }
+
+                mDeleteStatement.bindLong(1, locationId[0]);
+                mDeleteStatement.bindLong(2, date);
+                mDeleteStatement.executeUpdateDelete();
+            }
+
+            for (int i : diff.getUpdateIndices()) {
+                bindWeatherValues(mUpdateStatement, 1, batch, i);
+                mUpdateStatement.bindLong(8, locationId[0]);
+                mUpdateStatement.bindLong(9, batch.getDate(i));
+                mUpdateStatement.executeUpdateDelete();
+            }
+
+            for (int i : diff.getInsertIndices()) {
+                mInsertStatement.bindLong(1, batch.getDate(i));
+                bindWeatherValues(mInsertStatement, 2, batch, i);
+                mInsertStatement.bindLong(9, locationId[0]);
+                mInsertStatement.executeInsert();
+            }
+
+            db.setTransactionSuccessful();
+            return diff;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Moves the days before today out of the weather table and into the history table, for
+     * every location. Syncs only do this for the location they sync, so the forecasts of the
+     * locations the user has moved away from would otherwise never leave the weather table.
+     * <p>
+     * The days are moved {@link #PRUNE_BATCH_ROWS} at a time, each batch in its own transaction,
+     * so that the database is never locked for long. If the process running this is killed,
+     * the batches that were committed stay moved, and the next run carries on from there.
+     *
+     * @param today Normalized date of today
+     * @return The number of days moved
+     */
+    private int prunePastWeather(long today) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+
+        int rowsArchived = 0;
+        int batchRows;
+        do {
+            db.beginTransaction();
+            try {
+                batchRows = prunePastWeatherBatch(db, today);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            rowsArchived += batchRows;
+        } while (batchRows == PRUNE_BATCH_ROWS);
+        return rowsArchived;
+    }
+
+    /**
+     * Moves the next batch of days before today into the history table. Must be called inside
+     * a transaction.
+     *
+     * @param db    The database being written to
+     * @param today Normalized date of today
+     * @return The number of days moved, fewer than {@link #PRUNE_BATCH_ROWS} if it was the last
+     *         batch
+     */
+    private static int prunePastWeatherBatch(SQLiteDatabase db, long today) {
+        String todayArg = Long.toString(today);
+
+        /* NULL, when there is nothing left to prune, reads as 0; row IDs start at 1 */
+        long lastId = DatabaseUtils.longForQuery(db, SQL_LAST_ID_OF_PRUNE_BATCH,
+                new String[]{todayArg, Integer.toString(PRUNE_BATCH_ROWS)});
+        if (lastId == 0) {
+            return 0;
+        }
+
+        String[] batchArgs = {todayArg, Long.toString(lastId)};
+        db.execSQL(SQL_ARCHIVE_PRUNE_BATCH, batchArgs);
+        return db.delete(WeatherContract.WeatherEntry.TABLE_NAME, SQL_SELECT_PRUNE_BATCH,
+                batchArgs);
+    }
+
+    /**
+     * Looks up the ID of a location, adding the location to the location table if it isn't
+     * there yet. Must be called inside a transaction.
+     *
+     * @param db              The database being written to
+     * @param locationSetting The location setting to look up
+     * @return The ID of the location
+     */
+    private static long getOrInsertLocation(SQLiteDatabase db, String locationSetting) {
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry._ID},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting}, null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                return cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        ContentValues location = new ContentValues();
+        location.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        return db.insertOrThrow(WeatherContract.LocationEntry.TABLE_NAME, null, location);
+    }
+
+    /**
+     * Makes sure the cached write statements are compiled against the given database. They are
+     * compiled once, the first time we write, and only again if the database has been closed
+     * and opened again since. Must be called inside a transaction on that database.
+     *
+     * @param db The database about to be written to
+     */
+    private synchronized void prepareStatements(SQLiteDatabase db) {
+        if (db == mStatementDatabase) {
+            return;
+        }
+
+        closeStatements();
+        mInsertStatement = db.compileStatement(SQL_INSERT_WEATHER);
+        mUpdateStatement = db.compileStatement(SQL_UPDATE_WEATHER);
+        mDeleteStatement = db.compileStatement(SQL_DELETE_WEATHER);
+        mArchiveStatement = db.compileStatement(SQL_ARCHIVE_WEATHER);
+        mStatementDatabase = db;
+    }
+
+    /**
+     * Releases the cached write statements, if they have been compiled.
+     */
+    private synchronized void closeStatements() {
+        if (mStatementDatabase == null) {
+            return;
+        }
+
+        mInsertStatement.close();
+        mUpdateStatement.close();
+        mDeleteStatement.close();
+        mArchiveStatement.close();
+        mInsertStatement = null;
+        mUpdateStatement = null;
+        mDeleteStatement = null;
+        mArchiveStatement = null;
+        mStatementDatabase = null;
+    }
+
+    /**
+     * Binds a row given as ContentValues to SQL_INSERT_WEATHER. This only works if every value
+     * belongs to one of the columns of the weather table; if any doesn't, nothing useful is bound
+     * and false is returned. Missing columns are bound to null and will fail the insert, as
+     * they would with SQLiteDatabase#insert.
+     *
+     * @param statement  The compiled SQL_INSERT_WEATHER
+     * @param values     The row to insert
+     * @param locationId The location to insert the row into, which takes the place of any
+     *                   location in the values, or NO_LOCATION to use the one in the values
+     * @return true if the row was bound, false if it holds values for other columns
+     */
+    private static boolean bindContentValues(SQLiteStatement statement, ContentValues values,
+                                             long locationId) {
+        int columnsBound = 0;
+
+        String locationColumn = WeatherContract.WeatherEntry.COLUMN_LOCATION_ID;
+        Long location = locationId != NO_LOCATION ? locationId : values.getAsLong(locationColumn);
+        if (location == null) {
+            statement.bindNull(FORECAST_COLUMNS.length + 1);
+        } else {
+            statement.bindLong(FORECAST_COLUMNS.length + 1, location);
+        }
+        if (values.containsKey(locationColumn)) {
+            columnsBound++;
+        }
+
+        for (int i = 0; i < FORECAST_COLUMNS.length; i++) {
+            String column = FORECAST_COLUMNS[i];
+            if (!values.containsKey(column)) {
+                statement.bindNull(i + 1);
+                continue;
+            }
+
+            /* The first two columns, date and weather ID, are integers; the rest are reals */
+            if (i < 2) {
+                Long value = values.getAsLong(column);
+                if (value == null) {
+                    statement.bindNull(i + 1);
+                } else {
+                    statement.bindLong(i + 1, value);
+                }
+            } else {
+                Double value = values.getAsDouble(column);
+                if (value == null) {
+                    statement.bindNull(i + 1);
+                } else {
+                    statement.bindDouble(i + 1, value);
+                }
+            }
+            columnsBound++;
+        }
+        return columnsBound == values.size();
+    }
+
+    /**
+     * Executes a bound insert, returning -1 rather than throwing if the row breaks a constraint,
+     * just like SQLiteDatabase#insert.
+     *
+     * @param statement The bound insert
+     * @return The row ID of the inserted row, or -1 if it couldn't be inserted
+     */
+    private static long executeInsert(SQLiteStatement statement) {
+        try {
+            return statement.executeInsert();
+        } catch (SQLiteConstraintException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Binds every value of a day except its date to consecutive arguments of a statement, in
+     * the order of the columns in SQL_INSERT_WEATHER.
+     *
+     * @param statement  The statement to bind the values to
+     * @param firstIndex The index of the argument to bind the weather ID to
+     * @param batch      The forecast holding the day
+     * @param i          The position of the day in the forecast
+     */
+    private static void bindWeatherValues(SQLiteStatement statement, int firstIndex,
+                                          ForecastBatch batch, int i) {
+        statement.bindLong(firstIndex, batch.getWeatherId(i));
+        statement.bindDouble(firstIndex + 1, batch.getMinTemp(i));
+        statement.bindDouble(firstIndex + 2, batch.getMaxTemp(i));
+        statement.bindDouble(firstIndex + 3, batch.getHumidity(i));
+        statement.bindDouble(firstIndex + 4, batch.getPressure(i));
+        statement.bindDouble(firstIndex + 5, batch.getWindSpeed(i));
+        statement.bindDouble(firstIndex + 6, batch.getDegrees(i));
+    }
+
+    /**
+     * Inserts every day of a forecast in one transaction. Each day's primitives are bound
+     * straight to the precompiled INSERT, instead of going through SQLiteDatabase#insert, which
+     * builds and compiles the same SQL again for every row.
+     *
+     * @param batch           The forecast to insert
+     * @param locationSetting The location the forecast is for
+     * @param locationId      Receives the ID of the location, which is added if it's new
+     * @return The number of rows inserted
+     */
+    private int bulkInsert(ForecastBatch batch, String locationSetting, long[] locationId) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+
+        db.beginTransaction();
+        int rowsInserted = 0;
+        try {
+            prepareStatements(db);
+            locationId[0] = getOrInsertLocation(db, locationSetting);
+
+            for (int i = 0; i < batch.size(); i++) {
+                long weatherDate = batch.getDate(i);
+                if (!SunshineDateUtils.isDateNormalized(weatherDate)) {
+                    throw new IllegalArgumentException("Date must be normalized to insert");
+                }
+
+                mInsertStatement.bindLong(1, weatherDate);
+                bindWeatherValues(mInsertStatement, 2, batch, i);
+                mInsertStatement.bindLong(9, locationId[0]);
+
+                if (executeInsert(mInsertStatement) != -1) {
+                    rowsInserted++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        return rowsInserted;
+    }
+
     /**
      * Handles query requests from clients. We will use this method in Sunshine to query for all
      * of our weather data as well as to query for the weather on a particular day.
@@ -195,13 +1101,38 @@ public class WeatherProvider extends ContentProvider {
     public Cursor query(@NonNull Uri uri, String[] projection, String selection,
                         String[] selectionArgs, String sortOrder) {
 
+        /*
+         * The weather of a location is what the list, the detail screen, the notification and
+         * the wearable ask for, often within seconds of each other, so those results are
+         * kept. Queries made inside a batch might see changes that are then rolled back, so
+         * they neither use nor fill the cache.
+         */
+        long start = ProviderMetrics.start();
+        QueryCache.Key key = null;
+        long cacheVersion = 0;
+        int match = sUriMatcher.match(uri);
+        if ((match == CODE_WEATHER_WITH_LOCATION || match == CODE_WEATHER_WITH_LOCATION_AND_DATE)
+                && mBatchChanges.get() == null) {
+            key = new QueryCache.Key(uri, projection, selection, selectionArgs, sortOrder);
+            cacheVersion = mQueryCache.getVersion();
+
+            Cursor cached = mQueryCache.get(key);
+            if (cached != null) {
+                cached.setNotificationUri(getContext().getContentResolver(),
+                        notificationUri(uri));
+                mMetrics.record(WeatherContract.MetricsEntry.OPERATION_QUERY, match, start,
+                        cached.getCount());
+                return cached;
+            }
+        }
+
         Cursor cursor;
 
         /*
          * Here's the switch statement that, given a URI, will determine what kind of request is
          * being made and query the database accordingly.
          */
-        switch (sUriMatcher.match(uri)) {
+        switch (match) {
 
             /*
              * When sUriMatcher's match method is called with a URI that looks something like this
@@ -214,7 +1145,9 @@ public class WeatherProvider extends ContentProvider {
              * programmatically using Uri's getLastPathSegment method.
              *
              * In this case, we want to return a cursor that contains one row of weather data for
-             * a particular date.
+             * a particular date. Every location has weather on that date, so the row is the one
+             * of the preferred location; other locations are queried through
+             * CODE_WEATHER_WITH_LOCATION_AND_DATE.
              */
             case CODE_WEATHER_WITH_DATE: {
 
@@ -227,11 +1160,12 @@ public class WeatherProvider extends ContentProvider {
 
                 /*
                  * The query method accepts a string array of arguments, as there may be more
-                 * than one "?" in the selection statement. Even though in our case, we only have
-                 * one "?", we have to create a string array that only contains one element
-                 * because this method signature accepts a string array.
+                 * than one "?" in the selection statement. Here we have two: the location and
+                 * the date, in the order they appear in the selection.
                  */
-                String[] selectionArguments = new String[]{normalizedUtcDateString};
+                String[] selectionArguments = new String[]{
+                        Long.toString(SunshinePreferences.getPreferredLocationId(getContext())),
+                        normalizedUtcDateString};
 
                 cursor = mOpenHelper.getReadableDatabase().query(
                         /* Table we are going to query */
@@ -245,14 +1179,16 @@ public class WeatherProvider extends ContentProvider {
                         projection,
                         /*
                          * The URI that matches CODE_WEATHER_WITH_DATE contains a date at the end
-                         * of it. We extract that date and use it with these next two lines to
-                         * specify the row of weather we want returned in the cursor. We use a
-                         * question mark here and then designate selectionArguments as the next
-                         * argument for performance reasons. Whatever Strings are contained
-                         * within the selectionArguments array will be inserted into the
-                         * selection statement by SQLite under the hood.
+                         * of it. We extract that date and use it, with the preferred location,
+                         * in these next two lines to specify the row of weather we want
+                         * returned in the cursor. We use question marks here and then
+                         * designate selectionArguments as the next argument for performance
+                         * reasons. Whatever Strings are contained within the selectionArguments
+                         * array will be inserted into the selection statement by SQLite under
+                         * the hood.
                          */
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ",
+                        WeatherContract.WeatherEntry.COLUMN_LOCATION_ID + " = ? AND "
+                                + WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ",
                         selectionArguments,
                         null,
                         null,
@@ -285,14 +1221,255 @@ public class WeatherProvider extends ContentProvider {
                 break;
             }
 
+            /*
+             * The forecast of one location, content://com.example.android.sunshine/weather/
+             * location/2, and its weather on one date, .../weather/location/2/1472214172. The
+             * location (and date) are added to whatever selection the caller made, so the query
+             * is answered from the (location_id, date) index. The forecast can be read a page
+             * at a time, see WeatherContract#PARAM_LIMIT.
+             */
+            case CODE_WEATHER_WITH_LOCATION:
+            case CODE_WEATHER_WITH_LOCATION_AND_DATE: {
+                cursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.WeatherEntry.TABLE_NAME,
+                        projection,
+                        selectPage(uri,
+                                DatabaseUtils.concatenateWhere(selection, selectLocation(uri))),
+                        pageArgs(uri, DatabaseUtils.appendSelectionArgs(
+                                selectionArgs, locationArgs(uri))),
+                        null,
+                        null,
+                        pageSortOrder(uri, sortOrder),
+                        pageLimit(uri));
+
+                break;
+            }
+
+            /*
+             * The history of one location, content://com.example.android.sunshine/history/
+             * location/2, or of the days from one date up to another, .../history/location/2/
+             * 1470009600000/1472688000000. Like the forecast, it's read from the
+             * (location_id, date) index, so a range only reads the rows inside it, and a page
+             * only the rows of the page.
+             */
+            case CODE_HISTORY_WITH_LOCATION:
+            case CODE_HISTORY_WITH_LOCATION_AND_RANGE: {
+                cursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.HistoryEntry.TABLE_NAME,
+                        projection,
+                        selectPage(uri,
+                                DatabaseUtils.concatenateWhere(selection, selectHistory(uri))),
+                        pageArgs(uri, DatabaseUtils.appendSelectionArgs(
+                                selectionArgs, locationArgs(uri))),
+                        null,
+                        null,
+                        pageSortOrder(uri, sortOrder),
+                        pageLimit(uri));
+
+                break;
+            }
+
+            /*
+             * The weather of one location summed up by week or month, content://
+             * com.example.android.sunshine/weather/stats/location/2/week or .../month. SQLite
+             * does the summing, so only a row per period comes back, however long the history
+             * grows. The caller's selection and sort order apply to those rows.
+             */
+            case CODE_STATS_WEEKLY:
+            case CODE_STATS_MONTHLY: {
+                String locationId = uri.getPathSegments().get(3);
+                String stats = match == CODE_STATS_WEEKLY ? SQL_WEEKLY_STATS : SQL_MONTHLY_STATS;
+                cursor = mOpenHelper.getReadableDatabase().query(
+                        "(" + stats + ")",
+                        projection,
+                        selection,
+                        /* The location is bound first, as it comes first in the SQL */
+                        DatabaseUtils.appendSelectionArgs(
+                                new String[]{locationId, locationId}, selectionArgs),
+                        null,
+                        null,
+                        sortOrder != null ? sortOrder : SQL_SORT_BY_DATE);
+
+                break;
+            }
+
+            /* How long we have taken to answer so far, see WeatherContract.MetricsEntry */
+            case CODE_METRICS: {
+                cursor = mMetrics.toCursor();
+
+                break;
+            }
+
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
 
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        if (key != null) {
+            Cursor snapshot = mQueryCache.put(key, cacheVersion, cursor);
+            if (snapshot != null) {
+                cursor = snapshot;
+            }
+        }
+
+        cursor.setNotificationUri(getContext().getContentResolver(), notificationUri(uri));
+
+        /*
+         * A Cursor from SQLite doesn't read its rows until they are first asked for, so getCount
+         * is what runs the query. Whoever we return the Cursor to would call it next anyway.
+         */
+        mMetrics.record(WeatherContract.MetricsEntry.OPERATION_QUERY, match, start,
+                cursor.getCount());
         return cursor;
     }
 
+    /**
+     * Returns the URI that a Cursor queried from a URI should be notified on. The weather of
+     * one location on one date, and history, are notified on their own URI. Whole forecasts
+     * are notified on a list URI instead, once per write, see
+     * {@link WeatherContract.WeatherEntry#buildWeatherListUri(long)}.
+     */
+    private static Uri notificationUri(Uri uri) {
+        switch (sUriMatcher.match(uri)) {
+
+            case CODE_WEATHER_WITH_LOCATION:
+                return WeatherContract.WeatherEntry.buildWeatherListUri(
+                        Long.parseLong(uri.getLastPathSegment()));
+
+            /* Statistics change whenever the forecast does; days only get into history from it */
+            case CODE_STATS_WEEKLY:
+            case CODE_STATS_MONTHLY:
+                return WeatherContract.WeatherEntry.buildWeatherListUri(
+                        Long.parseLong(uri.getPathSegments().get(3)));
+
+            /*
+             * All weather, or that of whichever location is preferred at the time of the
+             * query, so a change to any location may concern it
+             */
+            case CODE_WEATHER:
+            case CODE_WEATHER_WITH_DATE:
+                return WeatherContract.WeatherEntry.LIST_URI;
+
+            default:
+                return uri;
+        }
+    }
+
+    /**
+     * Returns what a write through a URI with an arbitrary selection may have changed: the
+     * weather of the location and date in the URI, of the location in it, or of any location.
+     */
+    private static WeatherChanges changesAt(Uri uri) {
+        WeatherChanges changes = new WeatherChanges();
+        List<String> segments = uri.getPathSegments();
+        switch (sUriMatcher.match(uri)) {
+
+            case CODE_WEATHER_WITH_LOCATION_AND_DATE:
+                changes.addDate(Long.parseLong(segments.get(2)),
+                        Long.parseLong(segments.get(3)));
+                break;
+
+            case CODE_WEATHER_WITH_LOCATION:
+                changes.addLocation(Long.parseLong(segments.get(2)));
+                break;
+
+            default:
+                changes.addAllLocations();
+        }
+        return changes;
+    }
+
+    /**
+     * Returns the selection that restricts a query to the location, and the date if there is
+     * one, of a CODE_WEATHER_WITH_LOCATION or CODE_WEATHER_WITH_LOCATION_AND_DATE URI. Its
+     * arguments come from {@link #locationArgs(Uri)}.
+     */
+    private static String selectLocation(Uri uri) {
+        return uri.getPathSegments().size() > 3
+                ? SQL_SELECT_LOCATION_AND_DATE
+                : SQL_SELECT_LOCATION;
+    }
+
+    /**
+     * Returns the selection that restricts a query to the location, and the range of dates if
+     * there is one, of a CODE_HISTORY_WITH_LOCATION or CODE_HISTORY_WITH_LOCATION_AND_RANGE URI.
+     * Its arguments come from {@link #locationArgs(Uri)}.
+     */
+    private static String selectHistory(Uri uri) {
+        return uri.getPathSegments().size() > 3
+                ? SQL_SELECT_LOCATION_AND_RANGE
+                : SQL_SELECT_LOCATION;
+    }
+
+    /**
+     * Returns the location ID, and the date or range of dates if there is one, from a URI
+     * matching any of the CODE_WEATHER_WITH_LOCATION and CODE_HISTORY_WITH_LOCATION codes, as
+     * the arguments of {@link #selectLocation(Uri)} or {@link #selectHistory(Uri)}.
+     */
+    private static String[] locationArgs(Uri uri) {
+        /*
+         * The path is weather/location/<location ID>[/<date>] or
+         * history/location/<location ID>[/<start date>/<end date>]
+         */
+        List<String> segments = uri.getPathSegments();
+        return segments.subList(2, segments.size()).toArray(new String[segments.size() - 2]);
+    }
+
+    /**
+     * Adds the start of a page to a selection, if the URI is of a page after the first. Its
+     * argument comes from {@link #pageArgs(Uri, String[])}.
+     */
+    private static String selectPage(Uri uri, String selection) {
+        if (uri.getQueryParameter(WeatherContract.PARAM_AFTER) == null) {
+            return selection;
+        }
+        return DatabaseUtils.concatenateWhere(selection, SQL_SELECT_AFTER);
+    }
+
+    /**
+     * Adds the date a page starts after to the arguments of a selection, if the URI is of a
+     * page after the first, as the argument of {@link #selectPage(Uri, String)}.
+     */
+    private static String[] pageArgs(Uri uri, String[] selectionArgs) {
+        String after = uri.getQueryParameter(WeatherContract.PARAM_AFTER);
+        if (after == null) {
+            return selectionArgs;
+        }
+        /* Parsed so that a date that isn't one fails the query rather than ending the pages */
+        return DatabaseUtils.appendSelectionArgs(selectionArgs,
+                new String[]{Long.toString(Long.parseLong(after))});
+    }
+
+    /**
+     * Returns the sort order of a query. Each page starts after the last date of the page
+     * before, so pages have to be sorted by date; any other order would skip or repeat rows.
+     *
+     * @throws IllegalArgumentException If the URI is of a page and the caller asked for
+     *                                  another order
+     */
+    private static String pageSortOrder(Uri uri, String sortOrder) {
+        if (uri.getQueryParameter(WeatherContract.PARAM_LIMIT) == null
+                && uri.getQueryParameter(WeatherContract.PARAM_AFTER) == null) {
+            return sortOrder;
+        }
+        if (sortOrder != null && !SQL_SORT_BY_DATE.equalsIgnoreCase(sortOrder.trim())) {
+            throw new IllegalArgumentException("Pages are sorted by date, not: " + sortOrder);
+        }
+        return SQL_SORT_BY_DATE;
+    }
+
+    /**
+     * Returns the most rows a page has, or null if the URI isn't of a page.
+     *
+     * @throws IllegalArgumentException If the limit isn't a positive number
+     */
+    private static String pageLimit(Uri uri) {
+        String limit = uri.getQueryParameter(WeatherContract.PARAM_LIMIT);
+        if (limit != null && Integer.parseInt(limit) < 1) {
+            throw new IllegalArgumentException("Invalid page limit: " + limit);
+        }
+        return limit;
+    }
+
     /**
      * Deletes data at a given URI with optional arguments for more fine tuned deletions.
      *
@@ -303,6 +1480,7 @@ public class WeatherProvider extends ContentProvider {
      */
     @Override
     public int delete(@NonNull Uri uri, String selection, String[] selectionArgs) {
+        long start = ProviderMetrics.start();
 
         /* Users of the delete method will expect the number of rows deleted to be returned. */
         int numRowsDeleted;
@@ -316,7 +1494,8 @@ public class WeatherProvider extends ContentProvider {
          */
         if (null == selection) selection = "1";
 
-        switch (sUriMatcher.match(uri)) {
+        int match = sUriMatcher.match(uri);
+        switch (match) {
 
             case CODE_WEATHER:
                 numRowsDeleted = mOpenHelper.getWritableDatabase().delete(
@@ -326,15 +1505,26 @@ public class WeatherProvider extends ContentProvider {
 
                 break;
 
+            case CODE_WEATHER_WITH_LOCATION:
+            case CODE_WEATHER_WITH_LOCATION_AND_DATE:
+                numRowsDeleted = mOpenHelper.getWritableDatabase().delete(
+                        WeatherContract.WeatherEntry.TABLE_NAME,
+                        DatabaseUtils.concatenateWhere(selection, selectLocation(uri)),
+                        DatabaseUtils.appendSelectionArgs(selectionArgs, locationArgs(uri)));
+
+                break;
+
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
 
         /* If we actually deleted any rows, notify that a change has occurred to this URI */
         if (numRowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChanges(changesAt(uri));
         }
 
+        mMetrics.record(WeatherContract.MetricsEntry.OPERATION_DELETE, match, start,
+                numRowsDeleted);
         return numRowsDeleted;
     }
 
@@ -354,25 +1544,198 @@ public class WeatherProvider extends ContentProvider {
     }
 
     /**
-     * In Sunshine, we aren't going to do anything with this method. However, we are required to
-     * override it as WeatherProvider extends ContentProvider and insert is an abstract method in
-     * ContentProvider. Rather than the single insert method, we are only going to implement
-     * {@link WeatherProvider#bulkInsert}.
+     * Inserts the weather of one day. Like {@link #bulkInsert(Uri, ContentValues[])}, a row
+     * inserted through CODE_WEATHER needs to name its location in
+     * {@link WeatherContract.WeatherEntry#COLUMN_LOCATION_ID}, while a row inserted through
+     * CODE_WEATHER_WITH_LOCATION is stored under the location in the URI. A row for a date the
+     * location already has weather for replaces it.
      *
      * @param uri    The URI of the insertion request. This must not be null.
      * @param values A set of column_name/value pairs to add to the database.
      *               This must not be null
-     * @return nothing in Sunshine, but normally the URI for the newly inserted item.
+     * @return The URI of the weather of the location on the inserted date, or null if the row
+     *         couldn't be inserted
      */
     @Override
     public Uri insert(@NonNull Uri uri, ContentValues values) {
-        throw new RuntimeException(
-                "We are not implementing insert in Sunshine. Use bulkInsert instead");
+        long start = ProviderMetrics.start();
+
+        int match = sUriMatcher.match(uri);
+        switch (match) {
+
+            case CODE_WEATHER_WITH_LOCATION:
+                values = new ContentValues(values);
+                values.put(WeatherContract.WeatherEntry.COLUMN_LOCATION_ID,
+                        Long.parseLong(uri.getLastPathSegment()));
+                break;
+
+            case CODE_WEATHER:
+                break;
+
+            default:
+                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+
+        Long weatherDate = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        if (weatherDate == null || !SunshineDateUtils.isDateNormalized(weatherDate)) {
+            throw new IllegalArgumentException("Date must be normalized to insert");
+        }
+
+        long _id = mOpenHelper.getWritableDatabase().insert(
+                WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+        if (_id == -1) {
+            mMetrics.record(WeatherContract.MetricsEntry.OPERATION_INSERT, match, start, 0);
+            return null;
+        }
+
+        long locationId = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOCATION_ID);
+        WeatherChanges changes = new WeatherChanges();
+        changes.addDate(locationId, weatherDate);
+        notifyChanges(changes);
+
+        mMetrics.record(WeatherContract.MetricsEntry.OPERATION_INSERT, match, start, 1);
+        return WeatherContract.WeatherEntry.buildWeatherUriWithLocationAndDate(
+                locationId, weatherDate);
+    }
+
+    /**
+     * Updates the weather at a given URI with optional arguments to pick the rows to update.
+     * Through CODE_WEATHER_WITH_LOCATION and CODE_WEATHER_WITH_LOCATION_AND_DATE, only the
+     * weather of that location, or of that location on that date, is updated.
+     *
+     * @param uri           The URI of the weather to update
+     * @param values        The new values of the columns to change
+     * @param selection     An optional restriction to apply to rows when updating.
+     * @param selectionArgs Used in conjunction with the selection statement
+     * @return The number of rows updated
+     */
+    @Override
+    public int update(@NonNull Uri uri, ContentValues values, String selection,
+                      String[] selectionArgs) {
+        long start = ProviderMetrics.start();
+
+        if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
+            Long weatherDate = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+            if (weatherDate == null || !SunshineDateUtils.isDateNormalized(weatherDate)) {
+                throw new IllegalArgumentException("Date must be normalized to update");
+            }
+        }
+
+        int numRowsUpdated;
+
+        int match = sUriMatcher.match(uri);
+        switch (match) {
+
+            case CODE_WEATHER:
+                numRowsUpdated = mOpenHelper.getWritableDatabase().update(
+                        WeatherContract.WeatherEntry.TABLE_NAME,
+                        values,
+                        selection,
+                        selectionArgs);
+
+                break;
+
+            case CODE_WEATHER_WITH_LOCATION:
+            case CODE_WEATHER_WITH_LOCATION_AND_DATE:
+                numRowsUpdated = mOpenHelper.getWritableDatabase().update(
+                        WeatherContract.WeatherEntry.TABLE_NAME,
+                        values,
+                        DatabaseUtils.concatenateWhere(selection, selectLocation(uri)),
+                        DatabaseUtils.appendSelectionArgs(selectionArgs, locationArgs(uri)));
+
+                break;
+
+            default:
+                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+
+        if (numRowsUpdated != 0) {
+            notifyChanges(changesAt(uri));
+        }
+
+        mMetrics.record(WeatherContract.MetricsEntry.OPERATION_UPDATE, match, start,
+                numRowsUpdated);
+        return numRowsUpdated;
     }
 
+    /**
+     * Applies a batch of inserts, updates and deletes in one transaction: either all of them
+     * are applied, or, if any of them fails, none are. Observers are notified after the batch
+     * has been committed, instead of after every operation: every day the batch changed is
+     * notified once, and so is every forecast, so a Loader only queries us again once.
+     *
+     * @param operations The operations to apply, in order
+     * @return The results of the operations, in the same order
+     * @throws OperationApplicationException if any operation fails, in which case nothing in
+     *                                       the batch is applied
+     */
+    @NonNull
     @Override
-    public int update(@NonNull Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        throw new RuntimeException("We are not implementing update in Sunshine");
+    public ContentProviderResult[] applyBatch(
+            @NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        long start = ProviderMetrics.start();
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        WeatherChanges changes = new WeatherChanges();
+
+        ContentProviderResult[] results;
+        db.beginTransaction();
+        mBatchChanges.set(changes);
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+        } finally {
+            mBatchChanges.remove();
+            db.endTransaction();
+        }
+
+        publishChanges(changes);
+
+        /* Each operation is measured as well; this is the batch as a whole, commit included */
+        long rows = 0;
+        for (ContentProviderResult result : results) {
+            if (result.count != null) {
+                rows += result.count;
+            } else if (result.uri != null) {
+                rows++;
+            }
+        }
+        mMetrics.record(WeatherContract.MetricsEntry.OPERATION_APPLY_BATCH,
+                UriMatcher.NO_MATCH, start, rows);
+
+        return results;
+    }
+
+    /**
+     * Notifies the observers of what a write changed, unless this thread is applying a batch,
+     * in which case applyBatch notifies them once the batch is done. The notifications are
+     * held back for a moment, so that those of the writes that follow, such as the rest of a
+     * sync, are sent along with them, see {@link NotificationCoalescer}.
+     *
+     * @param changes What the write changed
+     */
+    private void notifyChanges(WeatherChanges changes) {
+        WeatherChanges batchChanges = mBatchChanges.get();
+        if (batchChanges != null) {
+            batchChanges.addAll(changes);
+        } else {
+            publishChanges(changes);
+        }
+    }
+
+    /**
+     * Drops the cached query results and notifies the observers of what a write changed. Must
+     * only be called once the write has been committed, or a query made in between could
+     * cache what was there before it.
+     *
+     * @param changes What the write changed
+     */
+    private void publishChanges(WeatherChanges changes) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        mQueryCache.invalidate();
+        mNotifications.post(changes);
     }
 
     /**
@@ -383,6 +1746,8 @@ public class WeatherProvider extends ContentProvider {
     @Override
     @TargetApi(11)
     public void shutdown() {
+        mNotifications.flush();
+        closeStatements();
         mOpenHelper.close();
         super.shutdown();
     }
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.example.android.sunshine.data.WeatherContract;
+import com.firebase.jobdispatcher.JobParameters;
+import com.firebase.jobdispatcher.JobService;
+
+/**
+ * Compacts the weather history about once a day, while the device is charging, so that the
+ * work of downsampling old months never competes with the user for the battery or the disk.
+ * The space it frees is given back to the file system the next time past days are pruned. See
+ * SyncScheduler#scheduleHistoryCompaction.
+ */
+public class HistoryCompactionJobService extends JobService {
+
+    private static final String TAG = HistoryCompactionJobService.class.getSimpleName();
+
+    private AsyncTask<Void, Void, Void> mCompactHistoryTask;
+
+    /**
+     * Called on the main thread by the Job Dispatcher, so the compaction itself is run on a
+     * background thread.
+     *
+     * @return whether there is more work remaining.
+     */
+    @Override
+    public boolean onStartJob(final JobParameters jobParameters) {
+
+        mCompactHistoryTask = new AsyncTask<Void, Void, Void>() {
+            @Override
+            protected Void doInBackground(Void... voids) {
+                SyncScheduler.countWakeup(getApplicationContext(),
+                        SyncScheduler.Wakeup.HISTORY_COMPACTION);
+
+                Bundle result = getContentResolver().call(
+                        WeatherContract.HistoryEntry.CONTENT_URI,
+                        WeatherContract.METHOD_COMPACT_HISTORY,
+                        null,
+                        null);
+
+                if (result != null) {
+                    Log.d(TAG, "History compacted: "
+                            + result.getInt(WeatherContract.KEY_ROWS_INSERTED) + " written, "
+                            + result.getInt(WeatherContract.KEY_ROWS_DELETED) + " removed, "
+                            + result.getLong(WeatherContract.KEY_BYTES_RECLAIMED)
+                            + " bytes reclaimed");
+                }
+                return null;
+            }
+
+            @Override
+            protected void onPostExecute(Void aVoid) {
+                jobFinished(jobParameters, false);
+            }
+        };
+
+        mCompactHistoryTask.execute();
+        return true;
+    }
+
+    /**
+     * Called if the device stops charging before the compaction is done. The compaction runs in
+     * a single transaction, so it either finishes or leaves the history as it was; either way,
+     * tomorrow's run will pick up where it left off.
+     *
+     * @return whether the job should be retried
+     */
+    @Override
+    public boolean onStopJob(JobParameters jobParameters) {
+        if (mCompactHistoryTask != null) {
+            mCompactHistoryTask.cancel(true);
+        }
+        return false;
+    }
+}
\ No newline at end of file
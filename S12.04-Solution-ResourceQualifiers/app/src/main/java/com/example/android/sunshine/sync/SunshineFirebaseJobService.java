@@ -26,7 +26,7 @@ import com.firebase.jobdispatcher.RetryStrategy;
 
 public class SunshineFirebaseJobService extends JobService {
 
-    private AsyncTask<Void, Void, Void> mFetchWeatherTask;
+    private AsyncTask<Void, Void, SunshineSyncTask.Result> mFetchWeatherTask;
 
     /**
      * The entry point to your Job. Implementations should offload work to another thread of
@@ -35,24 +35,36 @@ public class SunshineFirebaseJobService extends JobService {
      * This is called by the Job Dispatcher to tell us we should start our job. Keep in mind this
      * method is run on the application's main thread, so we need to offload work to a background
      * thread.
+     * <p>
+     * If the sync fails in a way that might be fixed by trying again later, we ask the Job
+     * Dispatcher to reschedule the job according to its retry strategy, rather than waiting for
+     * the next periodic sync. A sync that wasn't attempted because the circuit breaker is open
+     * isn't rescheduled: the retry strategy would wake the device again and again before the
+     * breaker lets anything through, and the breaker opens for less than a sync interval.
      *
      * @return whether there is more work remaining.
      */
     @Override
     public boolean onStartJob(final JobParameters jobParameters) {
 
-        mFetchWeatherTask = new AsyncTask<Void, Void, Void>(){
+        mFetchWeatherTask = new AsyncTask<Void, Void, SunshineSyncTask.Result>(){
             @Override
-            protected Void doInBackground(Void... voids) {
+            protected SunshineSyncTask.Result doInBackground(Void... voids) {
                 Context context = getApplicationContext();
-                SunshineSyncTask.syncWeather(context);
-                jobFinished(jobParameters, false);
-                return null;
+                try {
+                    return SyncCoordinator.getInstance()
+                            .requestSync(context, SyncScheduler.Wakeup.PERIODIC_SYNC, false)
+                            .await();
+                } catch (InterruptedException e) {
+                    /* The job was stopped; the sync carries on, but may not be done in time */
+                    return SunshineSyncTask.Result.RETRY_LATER;
+                }
             }
 
             @Override
-            protected void onPostExecute(Void aVoid) {
-                jobFinished(jobParameters, false);
+            protected void onPostExecute(SunshineSyncTask.Result result) {
+                boolean needsReschedule = result == SunshineSyncTask.Result.RETRY_LATER;
+                jobFinished(jobParameters, needsReschedule);
             }
         };
 
@@ -63,6 +75,9 @@ public class SunshineFirebaseJobService extends JobService {
     /**
      * Called when the scheduling engine has decided to interrupt the execution of a running job,
      * most likely because the runtime constraints associated with the job are no longer satisfied.
+     * <p>
+     * This only stops the job waiting for the sync. The sync runs on {@link SyncCoordinator}'s
+     * thread, and may be shared with syncs asked for by others, so it carries on.
      *
      * @return whether the job should be retried
      * @see Job.Builder#setRetryStrategy(RetryStrategy)
@@ -18,18 +18,59 @@ package com.example.android.sunshine.sync;
 import android.app.IntentService;
 import android.content.Intent;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * An {@link IntentService} subclass for handling asynchronous task requests in
  * a service on a separate handler thread.
+ * <p>
+ * The sync itself is run by {@link SyncCoordinator}; the service keeps the app running until
+ * it's done.
  */
 public class SunshineSyncIntentService extends IntentService {
 
+    /*
+     * Set to true if the sync is asked for after a change the sync that is running may not have
+     * seen, see SyncCoordinator#requestSync.
+     */
+    public static final String EXTRA_AFTER_CHANGE = "after_change";
+
+    /* The syncs asked for by the intents that haven't been handled yet */
+    private final Map<Intent, SyncCoordinator.SyncHandle> mSyncs =
+            Collections.synchronizedMap(new HashMap<Intent, SyncCoordinator.SyncHandle>());
+
     public SunshineSyncIntentService() {
         super("SunshineSyncIntentService");
     }
 
+    /**
+     * Asks for the sync as soon as the intent arrives, rather than when it's handled, so that
+     * syncs asked for together attach to one another instead of waiting in line to run one
+     * after the other.
+     */
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent != null) {
+            mSyncs.put(intent, SyncCoordinator.getInstance().requestSync(this,
+                    SyncScheduler.Wakeup.IMMEDIATE_SYNC,
+                    intent.getBooleanExtra(EXTRA_AFTER_CHANGE, false)));
+        }
+        return super.onStartCommand(intent, flags, startId);
+    }
+
     @Override
     protected void onHandleIntent(Intent intent) {
-        SunshineSyncTask.syncWeather(this);
+        SyncCoordinator.SyncHandle sync = mSyncs.remove(intent);
+        if (sync == null) {
+            return;
+        }
+
+        try {
+            sync.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 }
\ No newline at end of file
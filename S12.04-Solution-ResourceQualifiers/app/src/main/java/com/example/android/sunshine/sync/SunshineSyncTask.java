@@ -16,101 +16,318 @@
 package com.example.android.sunshine.sync;
 
 import android.content.ContentResolver;
-import android.content.ContentValues;
 import android.content.Context;
-import android.text.format.DateUtils;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.util.Log;
 
+import com.example.android.sunshine.data.ForecastBatch;
 import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
 import com.example.android.sunshine.utilities.NetworkUtils;
-import com.example.android.sunshine.utilities.NotificationUtils;
 import com.example.android.sunshine.utilities.OpenWeatherJsonUtils;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
 
 public class SunshineSyncTask {
 
+    private static final String TAG = SunshineSyncTask.class.getSimpleName();
+
+    /**
+     * How a sync turned out, so whoever started it knows whether to try again later.
+     */
+    public enum Result {
+        /* The weather we have stored is up to date */
+        SUCCESS,
+        /* The sync failed in a way that trying again won't fix, such as an unknown location */
+        FAILED,
+        /* The sync failed, but may well succeed later on */
+        RETRY_LATER,
+        /*
+         * The sync wasn't attempted, as the circuit breaker is open. Trying again before it
+         * half opens would only bounce off it, so it's left to the next periodic sync.
+         */
+        BREAKER_OPEN
+    }
+
     /**
      * Performs the network request for updated weather, parses the JSON from that request, and
-     * inserts the new weather information into our ContentProvider. Will notify the user that new
-     * weather has been loaded if the user hasn't been notified of the weather within the last day
-     * AND they haven't disabled notifications in the preferences screen.
+     * inserts the new weather information into our ContentProvider. Notifying the user and the
+     * rest of the work that follows a successful sync is up to {@link SyncScheduler}.
+     * <p>
+     * Syncs are asked for through {@link SyncCoordinator}, which runs them one at a time on a
+     * thread of its own. That is what keeps two syncs from running at once, so this method
+     * holds no lock, not even while it waits between attempts.
+     * <p>
+     * Requests that fail for reasons that might go away by themselves are retried, with a
+     * growing and partly random wait between attempts. If syncs keep failing, the
+     * {@link SyncRetryPolicy}'s circuit breaker opens and syncs leave the server alone for a
+     * while, returning {@link Result#BREAKER_OPEN} straight away.
      *
      * @param context Used to access utility methods and the ContentResolver
+     * @return How the sync turned out
      */
-    synchronized public static void syncWeather(Context context) {
+    public static Result syncWeather(final Context context) {
 
-        try {
+        SyncRetryPolicy retryPolicy = SyncRetryPolicy.getInstance(context);
+
+        int attemptsAllowed = retryPolicy.getAttemptsAllowed();
+        if (attemptsAllowed == 0) {
+            Log.i(TAG, "Too many failed syncs, not syncing for another "
+                    + retryPolicy.getMillisUntilHalfOpen() + " ms");
+            return Result.BREAKER_OPEN;
+        }
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return syncWeatherOnce(context, retryPolicy);
+
+            } catch (IOException e) {
+                if (!retryPolicy.isRetryable(e)) {
+                    Log.w(TAG, "Sync failed, not retrying", e);
+                    return Result.FAILED;
+                }
+
+                if (attempt >= attemptsAllowed) {
+                    Log.w(TAG, "Sync failed after " + attempt + " attempt(s)", e);
+                    retryPolicy.onFailure();
+                    return Result.RETRY_LATER;
+                }
+
+                long backoffMillis = retryPolicy.getBackoffMillis(attempt);
+                Log.i(TAG, "Sync attempt " + attempt + " failed, retrying in "
+                        + backoffMillis + " ms", e);
+                try {
+                    Thread.sleep(backoffMillis);
+                } catch (InterruptedException interrupted) {
+                    /* The thread syncs run on is being shut down */
+                    Thread.currentThread().interrupt();
+                    return Result.RETRY_LATER;
+                }
+
+            } catch (RuntimeException e) {
+                /* Something is wrong with our own data or code; trying again won't help */
+                e.printStackTrace();
+                return Result.FAILED;
+            }
+        }
+    }
+
+    /**
+     * Makes a single attempt at syncing the weather, as described in
+     * {@link #syncWeather(Context)}.
+     * <p>
+     * Forecasts are kept in a disk cache as well. If we have no weather to show but the cache
+     * holds a recent enough forecast, it is stored right away so the UI and wear paths have
+     * something to show, and the server is only asked for an update if that forecast is stale.
+     * Only an answer from the server counts as a success for the circuit breaker; a sync that
+     * is answered from the cache leaves it as it was.
+     *
+     * @param context     Used to access utility methods and the ContentResolver
+     * @param retryPolicy Told when the server answers
+     * @return {@link Result#SUCCESS} if our weather is now current, or {@link Result#FAILED} if
+     *         the server had no forecast for us
+     * @throws IOException If the server couldn't be reached or didn't send a usable forecast
+     */
+    private static Result syncWeatherOnce(final Context context, SyncRetryPolicy retryPolicy)
+            throws IOException {
+        /*
+         * The getUrl method will return the URL that we need to get the forecast JSON for the
+         * weather. It will decide whether to create a URL based off of the latitude and
+         * longitude or off of a simple location as a String.
+         */
+        URL weatherRequestUrl = NetworkUtils.getUrl(context);
+
+        /* The forecast is stored under the location the user has chosen, next to any others */
+        final String locationSetting = SunshinePreferences.getPreferredWeatherLocation(context);
+
+        /* Parses forecast JSON into a batch of weather values as it streams in */
+        NetworkUtils.ResponseParser<ForecastBatch> weatherParser =
+                new NetworkUtils.ResponseParser<ForecastBatch>() {
+                    @Override
+                    public ForecastBatch parse(InputStream in) throws IOException {
+                        return OpenWeatherJsonUtils.getForecastBatchFromStream(context, in);
+                    }
+                };
+
+        /*
+         * Every location has a forecast of its own, so only the weather stored for this one
+         * counts. If the user has switched back to a location they've synced before, it's
+         * already there.
+         */
+        int currentDays = countWeatherForTodayOnwards(
+                context, SunshinePreferences.getPreferredLocationId(context));
+        boolean hasCurrentWeather = currentDays > 0;
+
+        if (!hasCurrentWeather) {
             /*
-             * The getUrl method will return the URL that we need to get the forecast JSON for the
-             * weather. It will decide whether to create a URL based off of the latitude and
-             * longitude or off of a simple location as a String.
+             * Before going to the network, see if the cache holds a forecast that's still
+             * usable. Even a stale one is better than an empty screen while we wait.
              */
-            URL weatherRequestUrl = NetworkUtils.getUrl(context);
+            NetworkUtils.Response<ForecastBatch> cachedResponse = null;
+            try {
+                cachedResponse = NetworkUtils.getCachedResponse(
+                        context, weatherRequestUrl, weatherParser);
+            } catch (IOException e) {
+                /* A broken cache entry is no worse than a missing one */
+                e.printStackTrace();
+            }
 
-            /* Use the URL to retrieve the JSON */
-            String jsonWeatherResponse = NetworkUtils.getResponseFromHttpUrl(weatherRequestUrl);
+            if (cachedResponse != null
+                    && storeWeather(context, locationSetting, cachedResponse.body) != null) {
+                /* If the cached forecast is fresh, there's no need to ask the server */
+                if (cachedResponse.isFresh) {
+                    return Result.SUCCESS;
+                }
+                hasCurrentWeather = true;
+                currentDays = cachedResponse.body.size();
+            }
+        } else if (NetworkUtils.isCachedResponseFresh(context, weatherRequestUrl)) {
+            /* The server told us recently enough that the weather we have is current */
+            return Result.SUCCESS;
+        }
 
-            /* Parse the JSON into a list of weather values */
-            ContentValues[] weatherValues = OpenWeatherJsonUtils
-                    .getWeatherContentValuesFromJson(context, jsonWeatherResponse);
+        /*
+         * If we don't have any weather to show, we want the full forecast no matter what.
+         * Forgetting the stored validators makes sure the server can't tell us that nothing
+         * has changed since a forecast that we no longer have. Only this location's are
+         * forgotten; the forecasts of the others are still stored.
+         */
+        if (!hasCurrentWeather) {
+            SunshinePreferences.clearHttpValidators(context, weatherRequestUrl.toString());
+        }
 
+        /*
+         * Use the URL to retrieve the JSON and parse it into a list of weather values as it
+         * streams in from the server. We never hold the entire response in memory at once.
+         * The request is conditional, so the server won't resend a forecast we already have.
+         */
+        NetworkUtils.Response<ForecastBatch> weatherResponse = NetworkUtils
+                .getResponseFromHttpUrlIfModified(context, weatherRequestUrl, weatherParser);
+
+        /* The server answered, whatever it had to say, so it's reachable again */
+        retryPolicy.onSuccess();
+
+        /*
+         * If the forecast hasn't changed since our last sync, the weather we have stored is
+         * already up to date. There is nothing to parse or write, and since no data changed,
+         * there is no reason to wake up any Loaders or notify the user either. We do note
+         * that the cached forecast has been revalidated, so it counts as fresh again, and that
+         * none of the days we have changed, so the next sync can wait a little longer.
+         */
+        if (weatherResponse.isNotModified()) {
+            NetworkUtils.commitResponse(context, weatherResponse);
+            SyncIntervalPolicy.getInstance(context).onForecastSynced(0, currentDays);
+            return Result.SUCCESS;
+        }
+
+        ForecastBatch weatherValues = weatherResponse.body;
+
+        /*
+         * In cases where our JSON contained an error code, getForecastBatchFromStream
+         * would have returned null. We need to check for those cases here to prevent any
+         * NullPointerExceptions being thrown. We also have no reason to insert fresh data if
+         * there isn't any to insert.
+         */
+        Bundle changes = storeWeather(context, locationSetting, weatherValues);
+        if (changes != null) {
             /*
-             * In cases where our JSON contained an error code, getWeatherContentValuesFromJson
-             * would have returned null. We need to check for those cases here to prevent any
-             * NullPointerExceptions being thrown. We also have no reason to insert fresh data if
-             * there isn't any to insert.
+             * Now that the new forecast is stored, remember its validators so the next sync
+             * can ask the server whether it has changed, and keep a copy in the cache.
              */
-            if (weatherValues != null && weatherValues.length != 0) {
-                /* Get a handle on the ContentResolver to delete and insert data */
-                ContentResolver sunshineContentResolver = context.getContentResolver();
-
-                /* Delete old weather data because we don't need to keep multiple days' data */
-                sunshineContentResolver.delete(
-                        WeatherContract.WeatherEntry.CONTENT_URI,
-                        null,
-                        null);
-
-                /* Insert our new weather data into Sunshine's ContentProvider */
-                sunshineContentResolver.bulkInsert(
-                        WeatherContract.WeatherEntry.CONTENT_URI,
-                        weatherValues);
-
-                /*
-                 * Finally, after we insert data into the ContentProvider, determine whether or not
-                 * we should notify the user that the weather has been refreshed.
-                 */
-                boolean notificationsEnabled = SunshinePreferences.areNotificationsEnabled(context);
-
-                /*
-                 * If the last notification was shown was more than 1 day ago, we want to send
-                 * another notification to the user that the weather has been updated. Remember,
-                 * it's important that you shouldn't spam your users with notifications.
-                 */
-                long timeSinceLastNotification = SunshinePreferences
-                        .getEllapsedTimeSinceLastNotification(context);
-
-                boolean oneDayPassedSinceLastNotification = false;
-
-                if (timeSinceLastNotification >= DateUtils.DAY_IN_MILLIS) {
-                    oneDayPassedSinceLastNotification = true;
-                }
+            NetworkUtils.commitResponse(context, weatherResponse);
 
-                /*
-                 * We only want to show the notification if the user wants them shown and we
-                 * haven't shown a notification in the past day.
-                 */
-                if (notificationsEnabled && oneDayPassedSinceLastNotification) {
-                    NotificationUtils.notifyUserOfNewWeather(context);
-                }
+            /*
+             * How much of the forecast changed decides when the next sync is due. Only the
+             * days we already had could have changed; the days new to the forecast don't count.
+             */
+            SyncIntervalPolicy.getInstance(context).onForecastSynced(
+                    changes.getInt(WeatherContract.KEY_ROWS_UPDATED),
+                    weatherValues.size() - changes.getInt(WeatherContract.KEY_ROWS_INSERTED));
 
             /* If the code reaches this point, we have successfully performed our sync */
+            return Result.SUCCESS;
+        }
 
-            }
+        /* Nothing was stored, so the copy of this response must not be cached either */
+        NetworkUtils.discardResponse(weatherResponse);
+        return Result.FAILED;
+    }
 
-        } catch (Exception e) {
-            /* Server probably invalid */
-            e.printStackTrace();
+    /**
+     * Replaces the weather of a location in our ContentProvider with a new forecast. The
+     * provider compares it with the forecast it has stored for the location and only writes the
+     * days that changed, in one transaction, so the forecast list never empties out while we
+     * sync and isn't reloaded if nothing changed.
+     *
+     * @param context         Used to access the ContentResolver
+     * @param locationSetting The location the forecast is for
+     * @param weatherValues   The forecast to store, which may be null
+     * @return What the provider changed, as returned by METHOD_APPLY_FORECAST, or null if
+     *         there was no weather to store
+     */
+    private static Bundle storeWeather(Context context, String locationSetting,
+                                        ForecastBatch weatherValues) {
+        if (weatherValues == null || weatherValues.isEmpty()) {
+            return null;
+        }
+
+        /* Get a handle on the ContentResolver to hand the forecast over */
+        ContentResolver sunshineContentResolver = context.getContentResolver();
+
+        /*
+         * Apply our new weather data to Sunshine's ContentProvider. Days that are no longer part
+         * of the forecast are removed, since we don't need to keep multiple days' data. The batch
+         * is handed over as a handful of primitive arrays, so no value is boxed on the way.
+         */
+        Bundle changes = sunshineContentResolver.call(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_APPLY_FORECAST,
+                locationSetting,
+                weatherValues.toBundle());
+
+        if (changes == null) {
+            return null;
+        }
+
+        Log.d(TAG, "Forecast applied: "
+                + changes.getInt(WeatherContract.KEY_ROWS_INSERTED) + " inserted, "
+                + changes.getInt(WeatherContract.KEY_ROWS_UPDATED) + " updated, "
+                + changes.getInt(WeatherContract.KEY_ROWS_DELETED) + " deleted, "
+                + changes.getInt(WeatherContract.KEY_ROWS_ARCHIVED) + " archived");
+
+        /* The first forecast for a location tells us its ID, which is how the UI finds it */
+        SunshinePreferences.saveLocationId(context, locationSetting,
+                changes.getLong(WeatherContract.KEY_LOCATION_ID));
+        return changes;
+    }
+
+    /**
+     * Counts the days of weather the ContentProvider has stored for today or later for a
+     * location.
+     *
+     * @param context    Used to access the ContentResolver
+     * @param locationId The ID of the location
+     * @return The number of days of weather from today onwards
+     */
+    private static int countWeatherForTodayOnwards(Context context, long locationId) {
+        Cursor cursor = context.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherUriWithLocation(locationId),
+                new String[]{WeatherContract.WeatherEntry._ID},
+                WeatherContract.WeatherEntry.getSqlSelectForTodayOnwards(),
+                null,
+                null);
+
+        if (cursor == null) {
+            return 0;
+        }
+
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
         }
     }
 }
\ No newline at end of file
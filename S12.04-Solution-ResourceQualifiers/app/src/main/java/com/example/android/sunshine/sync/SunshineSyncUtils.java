@@ -21,84 +21,13 @@ import android.database.Cursor;
 import android.net.Uri;
 import android.support.annotation.NonNull;
 
+import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
-import com.firebase.jobdispatcher.Constraint;
-import com.firebase.jobdispatcher.Driver;
-import com.firebase.jobdispatcher.FirebaseJobDispatcher;
-import com.firebase.jobdispatcher.GooglePlayDriver;
-import com.firebase.jobdispatcher.Job;
-import com.firebase.jobdispatcher.Lifetime;
-import com.firebase.jobdispatcher.Trigger;
-
-import java.util.concurrent.TimeUnit;
 
 public class SunshineSyncUtils {
 
-    /*
-     * Interval at which to sync with the weather. Use TimeUnit for convenience, rather than
-     * writing out a bunch of multiplication ourselves and risk making a silly mistake.
-     */
-    private static final int SYNC_INTERVAL_HOURS = 3;
-    private static final int SYNC_INTERVAL_SECONDS = (int) TimeUnit.HOURS.toSeconds(SYNC_INTERVAL_HOURS);
-    private static final int SYNC_FLEXTIME_SECONDS = SYNC_INTERVAL_SECONDS / 3;
-
     private static boolean sInitialized;
 
-    private static final String SUNSHINE_SYNC_TAG = "sunshine-sync";
-
-    /**
-     * Schedules a repeating sync of Sunshine's weather data using FirebaseJobDispatcher.
-     * @param context Context used to create the GooglePlayDriver that powers the
-     *                FirebaseJobDispatcher
-     */
-    static void scheduleFirebaseJobDispatcherSync(@NonNull final Context context) {
-
-        Driver driver = new GooglePlayDriver(context);
-        FirebaseJobDispatcher dispatcher = new FirebaseJobDispatcher(driver);
-
-        /* Create the Job to periodically sync Sunshine */
-        Job syncSunshineJob = dispatcher.newJobBuilder()
-                /* The Service that will be used to sync Sunshine's data */
-                .setService(SunshineFirebaseJobService.class)
-                /* Set the UNIQUE tag used to identify this Job */
-                .setTag(SUNSHINE_SYNC_TAG)
-                /*
-                 * Network constraints on which this Job should run. We choose to run on any
-                 * network, but you can also choose to run only on un-metered networks or when the
-                 * device is charging. It might be a good idea to include a preference for this,
-                 * as some users may not want to download any data on their mobile plan. ($$$)
-                 */
-                .setConstraints(Constraint.ON_ANY_NETWORK)
-                /*
-                 * setLifetime sets how long this job should persist. The options are to keep the
-                 * Job "forever" or to have it die the next time the device boots up.
-                 */
-                .setLifetime(Lifetime.FOREVER)
-                /*
-                 * We want Sunshine's weather data to stay up to date, so we tell this Job to recur.
-                 */
-                .setRecurring(true)
-                /*
-                 * We want the weather data to be synced every 3 to 4 hours. The first argument for
-                 * Trigger's static executionWindow method is the start of the time frame when the
-                 * sync should be performed. The second argument is the latest point in time at
-                 * which the data should be synced. Please note that this end time is not
-                 * guaranteed, but is more of a guideline for FirebaseJobDispatcher to go off of.
-                 */
-                .setTrigger(Trigger.executionWindow(
-                        SYNC_INTERVAL_SECONDS,
-                        SYNC_INTERVAL_SECONDS + SYNC_FLEXTIME_SECONDS))
-                /*
-                 * If a Job with the tag with provided already exists, this new job will replace
-                 * the old one.
-                 */
-                .setReplaceCurrent(true)
-                /* Once the Job is ready, call the builder's build method to return the Job */
-                .build();
-
-        /* Schedule the Job with the dispatcher */
-        dispatcher.schedule(syncSunshineJob);
-    }
     /**
      * Creates periodic sync tasks and checks to see if an immediate sync is required. If an
      * immediate sync is required, this method will take care of making sure that sync occurs.
@@ -118,9 +47,10 @@ public class SunshineSyncUtils {
 
         /*
          * This method call triggers Sunshine to create its task to synchronize weather data
-         * periodically.
+         * periodically, along with everything else Sunshine does periodically. See
+         * SyncScheduler.
          */
-        scheduleFirebaseJobDispatcherSync(context);
+        SyncScheduler.schedule(context);
 
         /*
          * We need to check to see if our ContentProvider has data to display in our forecast
@@ -132,8 +62,9 @@ public class SunshineSyncUtils {
             @Override
             public void run() {
 
-                /* URI for every row of weather data in our weather table*/
-                Uri forecastQueryUri = WeatherContract.WeatherEntry.CONTENT_URI;
+                /* URI for every row of weather data of the preferred location */
+                Uri forecastQueryUri = WeatherContract.WeatherEntry.buildWeatherUriWithLocation(
+                        SunshinePreferences.getPreferredLocationId(context));
 
                 /*
                  * Since this query is going to be used only as a check to see if we have any
@@ -186,7 +117,21 @@ public class SunshineSyncUtils {
      * @param context The Context used to start the IntentService for the sync.
      */
     public static void startImmediateSync(@NonNull final Context context) {
+        startImmediateSync(context, false);
+    }
+
+    /**
+     * Helper method to perform a sync immediately using an IntentService for asynchronous
+     * execution. If a sync is already running, it's only used if nothing has changed since it
+     * started; otherwise another sync runs once it's done. See SyncCoordinator.
+     *
+     * @param context     The Context used to start the IntentService for the sync.
+     * @param afterChange Whether something the sync depends on, such as the location, has just
+     *                    changed
+     */
+    public static void startImmediateSync(@NonNull final Context context, boolean afterChange) {
         Intent intentToSyncImmediately = new Intent(context, SunshineSyncIntentService.class);
+        intentToSyncImmediately.putExtra(SunshineSyncIntentService.EXTRA_AFTER_CHANGE, afterChange);
         context.startService(intentToSyncImmediately);
     }
 }
\ No newline at end of file
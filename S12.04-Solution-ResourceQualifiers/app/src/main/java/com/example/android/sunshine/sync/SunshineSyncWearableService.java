@@ -11,6 +11,7 @@ import android.os.IBinder;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
+import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
 import com.example.android.sunshine.utilities.SunshineDateUtils;
 import com.example.android.sunshine.utilities.SunshineWeatherUtils;
@@ -69,8 +70,9 @@ public class SunshineSyncWearableService extends Service implements
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
 
-        Uri todaysWeatherUri = WeatherContract.WeatherEntry
-                .buildWeatherUriWithDate(SunshineDateUtils.normalizeDate(System.currentTimeMillis()));
+        Uri todaysWeatherUri = WeatherContract.WeatherEntry.buildWeatherUriWithLocationAndDate(
+                SunshinePreferences.getPreferredLocationId(this),
+                SunshineDateUtils.normalizeDate(System.currentTimeMillis()));
 
         Cursor todayWeatherCursor = getContentResolver().query(
                 todaysWeatherUri,
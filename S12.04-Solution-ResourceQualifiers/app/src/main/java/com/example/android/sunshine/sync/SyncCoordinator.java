@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Makes sure only one sync runs at a time, and that syncs asked for together are only run once.
+ * <p>
+ * A sync that is asked for while another is running attaches to the one running: the weather
+ * it brings back is as current as any. The exception is a sync asked for after a change the
+ * running sync may not have seen, such as a new location. That one is queued to run once the
+ * running sync is done, and every sync asked for after a change in the meantime attaches to the
+ * queued one, so there is at most one sync running and one waiting. A launch, a change of
+ * location in the settings and the periodic job that come at once make two syncs, not three.
+ * <p>
+ * Syncs run one after the other on a thread of the coordinator's own. Whoever asks for a sync
+ * gets a {@link SyncHandle}, to wait for the sync to finish or to check how far it has got.
+ */
+public final class SyncCoordinator {
+
+    private static final String TAG = SyncCoordinator.class.getSimpleName();
+
+    /**
+     * Runs one sync. Replaced in tests, so they don't go to the network.
+     */
+    interface Sync {
+        SunshineSyncTask.Result run(Context context);
+    }
+
+    private static SyncCoordinator sInstance;
+
+    private final Sync mSync;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    /* The sync running, or about to, and the one waiting for it to finish; null if none */
+    private SyncHandle mRunning;
+    private SyncHandle mQueued;
+
+    private long mSyncsRequested;
+    private long mSyncsRun;
+
+    /**
+     * Returns the coordinator every sync goes through, created the first time it is needed.
+     *
+     * @return The coordinator of syncs
+     */
+    public static synchronized SyncCoordinator getInstance() {
+        if (sInstance == null) {
+            sInstance = new SyncCoordinator(new Sync() {
+                @Override
+                public SunshineSyncTask.Result run(Context context) {
+                    return SyncScheduler.runSync(context);
+                }
+            });
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    SyncCoordinator(Sync sync) {
+        mSync = sync;
+    }
+
+    /**
+     * Asks for a sync. It attaches to the sync that is running or waiting, if there is one it
+     * can attach to, or else starts one.
+     *
+     * @param context     Used by the sync
+     * @param wakeup      What the sync is asked for, which is counted whether the request
+     *                    starts a sync or attaches to one
+     * @param afterChange Whether the sync is asked for after a change the sync that is running
+     *                    may not have seen, in which case it can only attach to one that
+     *                    hasn't started yet
+     * @return The sync the request attached to or started
+     */
+    public synchronized SyncHandle requestSync(Context context, SyncScheduler.Wakeup wakeup,
+                                               boolean afterChange) {
+        mSyncsRequested++;
+        SyncScheduler.countWakeup(context, wakeup);
+
+        if (mRunning == null) {
+            mRunning = start(context);
+            return mRunning;
+        }
+        if (!afterChange) {
+            Log.d(TAG, wakeup + " sync attached to the one running");
+            return mRunning;
+        }
+        if (mQueued == null) {
+            mQueued = start(context);
+        } else {
+            Log.d(TAG, wakeup + " sync attached to the one waiting");
+        }
+        return mQueued;
+    }
+
+    /**
+     * Hands a sync over to the thread syncs run on, which runs it once the syncs handed over
+     * before it are done. Must be called holding the lock of the coordinator.
+     */
+    private SyncHandle start(final Context context) {
+        final SyncHandle handle = new SyncHandle();
+        final Context appContext = context.getApplicationContext();
+        mSyncsRun++;
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (SyncCoordinator.this) {
+                    mRunning = handle;
+                    if (mQueued == handle) {
+                        mQueued = null;
+                    }
+                }
+                handle.mStatus = SyncHandle.Status.RUNNING;
+
+                SunshineSyncTask.Result result = SunshineSyncTask.Result.FAILED;
+                try {
+                    result = mSync.run(appContext);
+                } finally {
+                    /* A sync waiting to run is as good as running for the syncs asked for now */
+                    synchronized (SyncCoordinator.this) {
+                        if (mRunning == handle) {
+                            mRunning = mQueued;
+                        }
+                    }
+                    handle.finish(result);
+                }
+            }
+        });
+        return handle;
+    }
+
+    /* The number of syncs asked for */
+    public synchronized long getSyncsRequested() {
+        return mSyncsRequested;
+    }
+
+    /* The number of syncs actually run, or waiting to; the rest attached to one of them */
+    public synchronized long getSyncsRun() {
+        return mSyncsRun;
+    }
+
+    /**
+     * A sync that has been asked for, shared by everyone who asked for it.
+     */
+    public static final class SyncHandle {
+
+        /**
+         * How far a sync has got.
+         */
+        public enum Status {
+            /* Waiting for the sync before it to finish */
+            QUEUED,
+            /* Running */
+            RUNNING,
+            /* Done, see getResult */
+            DONE
+        }
+
+        private final CountDownLatch mDone = new CountDownLatch(1);
+
+        private volatile Status mStatus = Status.QUEUED;
+        private volatile SunshineSyncTask.Result mResult;
+
+        private SyncHandle() {
+        }
+
+        public Status getStatus() {
+            return mStatus;
+        }
+
+        /**
+         * @return How the sync turned out, or null if it isn't done yet
+         */
+        public SunshineSyncTask.Result getResult() {
+            return mResult;
+        }
+
+        /**
+         * Waits for the sync to finish. Must not be called on the main thread.
+         *
+         * @return How the sync turned out
+         * @throws InterruptedException If the thread was interrupted while waiting; the sync
+         *                              itself carries on
+         */
+        public SunshineSyncTask.Result await() throws InterruptedException {
+            mDone.await();
+            return mResult;
+        }
+
+        /**
+         * Waits for the sync to finish, for a while at most. Must not be called on the main
+         * thread.
+         *
+         * @param timeout How long to wait
+         * @param unit    The unit of the timeout
+         * @return How the sync turned out, or null if it didn't finish in time
+         * @throws InterruptedException If the thread was interrupted while waiting; the sync
+         *                              itself carries on
+         */
+        public SunshineSyncTask.Result await(long timeout, TimeUnit unit)
+                throws InterruptedException {
+            mDone.await(timeout, unit);
+            return mResult;
+        }
+
+        private void finish(SunshineSyncTask.Result result) {
+            mResult = result;
+            mStatus = Status.DONE;
+            mDone.countDown();
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides how long to wait between periodic syncs.
+ * <p>
+ * A sync whose forecast is the same as the one we already had, or nearly so, was one we could
+ * have done without, so the interval grows by half after it. A sync that finds much of the
+ * forecast has changed means the weather is changing fast, so the interval is halved. The
+ * interval never drops below a minimum, and never grows so long that the forecast the user sees
+ * could be older than the freshness target by the time the sync runs: a sync is scheduled in a
+ * window from the interval to a third past it, and the end of that window is kept within the
+ * target. See {@link #nextIntervalSeconds(int, double, int, int)}.
+ * <p>
+ * Every decision is appended to a log file as a line of comma separated values: the time, the
+ * days of the forecast that changed and that could have, and the interval before and after.
+ * Replaying those lines through nextIntervalSeconds with other thresholds shows what they would
+ * have decided. The interval is kept in SharedPreferences, since each scheduled sync may well
+ * run in a fresh process.
+ */
+public final class SyncIntervalPolicy {
+
+    private static final String TAG = SyncIntervalPolicy.class.getSimpleName();
+
+    /* The interval we start with, and the shortest one there may be */
+    static final int DEFAULT_INTERVAL_SECONDS = (int) TimeUnit.HOURS.toSeconds(3);
+    static final int DEFAULT_MIN_INTERVAL_SECONDS = (int) TimeUnit.HOURS.toSeconds(1);
+
+    /* The oldest the forecast may get before a sync is due, as far as the window is kept to */
+    static final int DEFAULT_FRESHNESS_TARGET_SECONDS = (int) TimeUnit.HOURS.toSeconds(8);
+
+    /*
+     * The share of the days that could have changed, at or below which a forecast counts as
+     * the same as before, and at or above which the weather counts as changing fast.
+     */
+    static final double CALM_CHANGE = 0.1;
+    static final double VOLATILE_CHANGE = 0.5;
+
+    /* The log is started again once it's this long, keeping the one before it */
+    private static final long MAX_DECISION_LOG_BYTES = 64 * 1024;
+
+    private static final String DECISION_LOG_NAME = "sync_decisions.csv";
+
+    private static final String PREFS_NAME = "sync_interval_policy";
+    private static final String KEY_INTERVAL_SECONDS = "interval_seconds";
+
+    private static SyncIntervalPolicy sInstance;
+
+    private final SharedPreferences mPreferences;
+    private final int mInitialIntervalSeconds;
+    private final int mMinIntervalSeconds;
+    private final int mMaxIntervalSeconds;
+    private final File mDecisionLog;
+
+    /**
+     * Returns the policy used by {@link SunshineSyncTask} and {@link SyncScheduler}, created
+     * with the default settings the first time it is needed.
+     *
+     * @param context Used to access SharedPreferences and the app's files
+     * @return The policy for the interval between syncs
+     */
+    public static synchronized SyncIntervalPolicy getInstance(Context context) {
+        if (sInstance == null) {
+            Context appContext = context.getApplicationContext();
+            sInstance = new SyncIntervalPolicy(appContext,
+                    DEFAULT_INTERVAL_SECONDS,
+                    DEFAULT_MIN_INTERVAL_SECONDS,
+                    DEFAULT_FRESHNESS_TARGET_SECONDS,
+                    new File(appContext.getFilesDir(), DECISION_LOG_NAME));
+        }
+        return sInstance;
+    }
+
+    /**
+     * Replaces the policy used by {@link SunshineSyncTask} and {@link SyncScheduler}, so tests
+     * don't write to the real decision log.
+     *
+     * @param policy The policy to use, or null to go back to the default one
+     */
+    @VisibleForTesting
+    public static synchronized void setInstance(SyncIntervalPolicy policy) {
+        sInstance = policy;
+    }
+
+    /**
+     * Creates a policy. Every policy shares the same interval.
+     *
+     * @param context                Used to access SharedPreferences
+     * @param initialIntervalSeconds The interval until the first decision is made
+     * @param minIntervalSeconds     The shortest interval there may be
+     * @param freshnessTargetSeconds The oldest the forecast may get before a sync is due
+     * @param decisionLog            The file decisions are appended to
+     */
+    public SyncIntervalPolicy(Context context, int initialIntervalSeconds,
+                              int minIntervalSeconds, int freshnessTargetSeconds,
+                              File decisionLog) {
+        /* A sync may run up to a third past the interval, which must still be within the target */
+        int maxIntervalSeconds = freshnessTargetSeconds / 4 * 3;
+        if (minIntervalSeconds < 1 || maxIntervalSeconds < minIntervalSeconds
+                || initialIntervalSeconds < minIntervalSeconds
+                || initialIntervalSeconds > maxIntervalSeconds) {
+            throw new IllegalArgumentException("Invalid intervals: " + initialIntervalSeconds
+                    + "s to start with, " + minIntervalSeconds + "s to "
+                    + maxIntervalSeconds + "s");
+        }
+        mPreferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        mInitialIntervalSeconds = initialIntervalSeconds;
+        mMinIntervalSeconds = minIntervalSeconds;
+        mMaxIntervalSeconds = maxIntervalSeconds;
+        mDecisionLog = decisionLog;
+    }
+
+    /**
+     * @return The interval to schedule syncs at, in seconds
+     */
+    public synchronized int getIntervalSeconds() {
+        int intervalSeconds = mPreferences.getInt(KEY_INTERVAL_SECONDS, mInitialIntervalSeconds);
+        return Math.max(mMinIntervalSeconds, Math.min(mMaxIntervalSeconds, intervalSeconds));
+    }
+
+    /**
+     * Returns how long past an interval a sync scheduled at it may run, a third of it.
+     *
+     * @param intervalSeconds The interval between syncs
+     * @return The length of the window a sync may run in
+     */
+    public static int getFlextimeSeconds(int intervalSeconds) {
+        return intervalSeconds / 3;
+    }
+
+    /**
+     * Records how much of the forecast a sync changed, and decides the interval to the next one.
+     * The days that could have changed are those that were in both the forecast we had and the
+     * new one; days that are new to the forecast don't count. A forecast the server says hasn't
+     * changed is 0 days changed out of however many we have.
+     *
+     * @param daysChanged  The number of days whose weather changed
+     * @param daysCompared The number of days that could have changed, or 0 if there were none
+     *                     to compare, in which case the interval is left as it is
+     * @return The interval to schedule syncs at from now on, in seconds
+     */
+    public synchronized int onForecastSynced(int daysChanged, int daysCompared) {
+        int intervalSeconds = getIntervalSeconds();
+        if (daysCompared <= 0) {
+            return intervalSeconds;
+        }
+
+        int nextIntervalSeconds = nextIntervalSeconds(intervalSeconds,
+                daysChanged / (double) daysCompared, mMinIntervalSeconds, mMaxIntervalSeconds);
+        mPreferences.edit().putInt(KEY_INTERVAL_SECONDS, nextIntervalSeconds).apply();
+
+        logDecision(System.currentTimeMillis() + "," + daysChanged + "," + daysCompared + ","
+                + intervalSeconds + "," + nextIntervalSeconds);
+        return nextIntervalSeconds;
+    }
+
+    /**
+     * Works out the interval after a sync from the one before it and how much of the forecast
+     * the sync changed. This is all there is to a decision, so it can be replayed from the log.
+     *
+     * @param intervalSeconds    The interval before the sync
+     * @param changedFraction    The share of the days that could have changed that did
+     * @param minIntervalSeconds The shortest interval there may be
+     * @param maxIntervalSeconds The longest interval there may be
+     * @return The interval after the sync
+     */
+    static int nextIntervalSeconds(int intervalSeconds, double changedFraction,
+                                   int minIntervalSeconds, int maxIntervalSeconds) {
+        int nextIntervalSeconds = intervalSeconds;
+        if (changedFraction <= CALM_CHANGE) {
+            nextIntervalSeconds = intervalSeconds + intervalSeconds / 2;
+        } else if (changedFraction >= VOLATILE_CHANGE) {
+            nextIntervalSeconds = intervalSeconds / 2;
+        }
+        return Math.max(minIntervalSeconds, Math.min(maxIntervalSeconds, nextIntervalSeconds));
+    }
+
+    /**
+     * Goes back to the initial interval.
+     */
+    public synchronized void reset() {
+        mPreferences.edit().remove(KEY_INTERVAL_SECONDS).apply();
+    }
+
+    /**
+     * Appends a decision to the log, starting it again if it has grown too long. The log is only
+     * there to tune the policy, so failing to write it doesn't fail the sync.
+     *
+     * @param decision The decision, as a line of comma separated values
+     */
+    private void logDecision(String decision) {
+        Log.d(TAG, "Sync interval decision: " + decision);
+
+        if (mDecisionLog.length() > MAX_DECISION_LOG_BYTES) {
+            File previous = new File(mDecisionLog.getPath() + ".1");
+            if (!mDecisionLog.renameTo(previous)) {
+                Log.w(TAG, "Couldn't rotate " + mDecisionLog);
+            }
+        }
+
+        Writer writer = null;
+        try {
+            writer = new FileWriter(mDecisionLog, true);
+            writer.write(decision + "\n");
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't log the sync interval decision", e);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    Log.w(TAG, "Couldn't close " + mDecisionLog, e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.annotation.VisibleForTesting;
+
+import com.example.android.sunshine.utilities.NetworkUtils;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides whether, and when, a failed sync should be tried again.
+ * <p>
+ * Within a single sync, a request that fails for a reason that might go away by itself (the
+ * network dropped, the server had a hiccup) is retried a few times. The wait before each retry
+ * doubles, up to a limit, and is partly random so that many devices that failed together don't
+ * all come back at the same moment.
+ * <p>
+ * Across syncs, a circuit breaker keeps us from hammering a server that is clearly down. After a
+ * number of syncs in a row have failed, the breaker opens and syncs don't touch the network at
+ * all for a while. Once that time has passed, the breaker is half open: the next sync gets one
+ * attempt, which closes the breaker again if it succeeds and reopens it if it doesn't.
+ * <p>
+ * The state of the breaker is kept in SharedPreferences, since each scheduled sync may well run
+ * in a fresh process.
+ */
+public final class SyncRetryPolicy {
+
+    /**
+     * The states of the circuit breaker.
+     */
+    public enum State {
+        /* Syncs run normally */
+        CLOSED,
+        /* Too many syncs failed recently; syncs must not contact the server */
+        OPEN,
+        /* The breaker has been open long enough; the next sync may make one attempt */
+        HALF_OPEN
+    }
+
+    /* The number of attempts a sync makes, including the first, while the breaker is closed */
+    static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+    /* The wait before the first retry, and the longest wait before any retry */
+    static final long DEFAULT_INITIAL_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(2);
+    static final long DEFAULT_MAX_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    /* The number of failed syncs in a row that opens the breaker, and how long it stays open */
+    static final int DEFAULT_FAILURE_THRESHOLD = 3;
+    static final long DEFAULT_OPEN_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+    private static final String PREFS_NAME = "sync_retry_policy";
+    private static final String KEY_CONSECUTIVE_FAILURES = "consecutive_failures";
+    private static final String KEY_OPENED_AT = "opened_at";
+
+    private static SyncRetryPolicy sInstance;
+
+    private final SharedPreferences mPreferences;
+    private final int mMaxAttempts;
+    private final long mInitialBackoffMillis;
+    private final long mMaxBackoffMillis;
+    private final int mFailureThreshold;
+    private final long mOpenMillis;
+    private final Random mRandom = new Random();
+
+    /**
+     * Returns the policy used by {@link SunshineSyncTask}, created with the default settings the
+     * first time it is needed.
+     *
+     * @param context Used to access SharedPreferences
+     * @return The policy for syncing the weather
+     */
+    public static synchronized SyncRetryPolicy getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SyncRetryPolicy(context.getApplicationContext(),
+                    DEFAULT_MAX_ATTEMPTS,
+                    DEFAULT_INITIAL_BACKOFF_MILLIS,
+                    DEFAULT_MAX_BACKOFF_MILLIS,
+                    DEFAULT_FAILURE_THRESHOLD,
+                    DEFAULT_OPEN_MILLIS);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Replaces the policy used by {@link SunshineSyncTask}, so tests don't have to wait through
+     * real backoffs.
+     *
+     * @param policy The policy to use, or null to go back to the default one
+     */
+    @VisibleForTesting
+    public static synchronized void setInstance(SyncRetryPolicy policy) {
+        sInstance = policy;
+    }
+
+    /**
+     * Creates a policy. Every policy shares the same circuit breaker state.
+     *
+     * @param context              Used to access SharedPreferences
+     * @param maxAttempts          The number of attempts a sync makes while the breaker is closed
+     * @param initialBackoffMillis The wait before the first retry
+     * @param maxBackoffMillis     The longest wait before any retry
+     * @param failureThreshold     The number of failed syncs in a row that opens the breaker
+     * @param openMillis           How long the breaker stays open before a sync may try again
+     */
+    public SyncRetryPolicy(Context context, int maxAttempts, long initialBackoffMillis,
+                           long maxBackoffMillis, int failureThreshold, long openMillis) {
+        if (maxAttempts < 1 || failureThreshold < 1) {
+            throw new IllegalArgumentException("There must be at least one attempt and failure");
+        }
+        mPreferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        mMaxAttempts = maxAttempts;
+        mInitialBackoffMillis = initialBackoffMillis;
+        mMaxBackoffMillis = maxBackoffMillis;
+        mFailureThreshold = failureThreshold;
+        mOpenMillis = openMillis;
+    }
+
+    /**
+     * @return The current state of the circuit breaker
+     */
+    public synchronized State getState() {
+        if (mPreferences.getInt(KEY_CONSECUTIVE_FAILURES, 0) < mFailureThreshold) {
+            return State.CLOSED;
+        }
+        if (getMillisUntilHalfOpen() > 0) {
+            return State.OPEN;
+        }
+        return State.HALF_OPEN;
+    }
+
+    /**
+     * @return How long until an open breaker lets a sync try again, or 0 if it already would
+     */
+    public synchronized long getMillisUntilHalfOpen() {
+        if (mPreferences.getInt(KEY_CONSECUTIVE_FAILURES, 0) < mFailureThreshold) {
+            return 0;
+        }
+
+        long openedAt = mPreferences.getLong(KEY_OPENED_AT, 0);
+        long elapsed = System.currentTimeMillis() - openedAt;
+
+        /* If the clock was set back, don't leave the breaker open for longer than it should be */
+        if (elapsed < 0) elapsed = 0;
+        return Math.max(0, mOpenMillis - elapsed);
+    }
+
+    /**
+     * @return The number of attempts a sync starting now may make, or 0 if it must not contact
+     *         the server at all
+     */
+    public int getAttemptsAllowed() {
+        switch (getState()) {
+            case CLOSED:
+                return mMaxAttempts;
+            case HALF_OPEN:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Works out how long to wait before retrying. The wait doubles with every attempt, up to the
+     * maximum backoff. Half of it is fixed, and the other half is picked at random.
+     *
+     * @param failedAttempts The number of attempts that have failed so far in this sync
+     * @return How long to wait before the next attempt, in milliseconds
+     */
+    public long getBackoffMillis(int failedAttempts) {
+        long backoff = mInitialBackoffMillis;
+        for (int i = 1; i < failedAttempts && backoff < mMaxBackoffMillis; i++) {
+            backoff *= 2;
+        }
+        backoff = Math.min(backoff, mMaxBackoffMillis);
+
+        long half = backoff / 2;
+        long jitter;
+        synchronized (mRandom) {
+            jitter = (long) (mRandom.nextDouble() * (backoff - half + 1));
+        }
+        return half + jitter;
+    }
+
+    /**
+     * Checks whether a failed request is worth trying again. Network errors and server errors
+     * may well go away by themselves. A client error, such as a location the server doesn't
+     * know, will fail the same way every time.
+     *
+     * @param e The reason the request failed
+     * @return true if the request should be retried
+     */
+    public boolean isRetryable(IOException e) {
+        if (e instanceof NetworkUtils.HttpStatusException) {
+            int statusCode = ((NetworkUtils.HttpStatusException) e).statusCode;
+            return statusCode >= HttpURLConnection.HTTP_INTERNAL_ERROR
+                    || statusCode == HttpURLConnection.HTTP_CLIENT_TIMEOUT
+                    || statusCode == NetworkUtils.HTTP_TOO_MANY_REQUESTS;
+        }
+        return true;
+    }
+
+    /**
+     * Records that a sync reached the server successfully, which closes the breaker.
+     */
+    public synchronized void onSuccess() {
+        mPreferences.edit()
+                .remove(KEY_CONSECUTIVE_FAILURES)
+                .remove(KEY_OPENED_AT)
+                .apply();
+    }
+
+    /**
+     * Records that a sync failed after all of its attempts. Once enough syncs in a row have
+     * failed, the breaker opens. A failure while the breaker is half open reopens it.
+     */
+    public synchronized void onFailure() {
+        int failures = mPreferences.getInt(KEY_CONSECUTIVE_FAILURES, 0) + 1;
+
+        SharedPreferences.Editor editor = mPreferences.edit();
+        editor.putInt(KEY_CONSECUTIVE_FAILURES, failures);
+        if (failures >= mFailureThreshold) {
+            editor.putLong(KEY_OPENED_AT, System.currentTimeMillis());
+        }
+        editor.apply();
+    }
+
+    /**
+     * Closes the breaker and forgets every failure recorded so far.
+     */
+    public void reset() {
+        onSuccess();
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.Bundle;
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import com.example.android.sunshine.data.SunshinePreferences;
+import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.utilities.NotificationUtils;
+import com.firebase.jobdispatcher.Constraint;
+import com.firebase.jobdispatcher.Driver;
+import com.firebase.jobdispatcher.FirebaseJobDispatcher;
+import com.firebase.jobdispatcher.GooglePlayDriver;
+import com.firebase.jobdispatcher.Job;
+import com.firebase.jobdispatcher.Lifetime;
+import com.firebase.jobdispatcher.RetryStrategy;
+import com.firebase.jobdispatcher.Trigger;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Owns all of the work Sunshine does periodically, so that it wakes the device as seldom as it
+ * can.
+ * <p>
+ * The periodic sync is the only job that wakes the device on battery. Everything else that
+ * needs doing regularly is done right after a sync that succeeded, while the device is awake
+ * anyway: notifying the user of the day's weather, pushing today's weather to a paired watch
+ * and, once a day, pruning past days from the weather table. The only other job compacts the
+ * history, and it only runs while the device is charging. How long the sync waits between runs
+ * is up to {@link SyncIntervalPolicy}, and the sync is scheduled again whenever that changes.
+ * <p>
+ * Every job and service that does this work counts the wakeups it was started for, see
+ * {@link #getWakeupCount(Context, Wakeup)}. The counts are kept in SharedPreferences, since each
+ * one may well run in a fresh process.
+ */
+public final class SyncScheduler {
+
+    private static final String TAG = SyncScheduler.class.getSimpleName();
+
+    /**
+     * What the app was woken up, or started, for.
+     */
+    public enum Wakeup {
+        /* The periodic sync job */
+        PERIODIC_SYNC,
+        /* A sync started straight away, because there was no weather to show */
+        IMMEDIATE_SYNC,
+        /* The history compaction job, which only runs while the device is charging */
+        HISTORY_COMPACTION
+    }
+
+    private static final String SUNSHINE_SYNC_TAG = "sunshine-sync";
+
+    /* The history is compacted about once a day, whenever the device is charging */
+    private static final int COMPACTION_INTERVAL_SECONDS = (int) TimeUnit.DAYS.toSeconds(1);
+    private static final int COMPACTION_FLEXTIME_SECONDS = (int) TimeUnit.HOURS.toSeconds(6);
+
+    private static final String HISTORY_COMPACTION_TAG = "sunshine-history-compaction";
+
+    /* Past days are pruned after the first successful sync of each day */
+    private static final long PRUNE_INTERVAL_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private static final String PREFS_NAME = "sync_scheduler";
+    private static final String KEY_LAST_PRUNED_AT = "last_pruned_at";
+    private static final String KEY_SYNC_INTERVAL_SECONDS = "sync_interval_seconds";
+    private static final String KEY_WAKEUPS_PREFIX = "wakeups_";
+
+    private SyncScheduler() {
+    }
+
+    /**
+     * Schedules the periodic sync and the history compaction. Each job replaces the one
+     * scheduled before it, so calling this again changes nothing.
+     *
+     * @param context Context used to create the GooglePlayDriver that powers the
+     *                FirebaseJobDispatcher
+     */
+    static void schedule(@NonNull final Context context) {
+        scheduleFirebaseJobDispatcherSync(context);
+        scheduleHistoryCompaction(context);
+    }
+
+    /**
+     * Schedules a repeating sync of Sunshine's weather data using FirebaseJobDispatcher, at the
+     * interval {@link SyncIntervalPolicy} has decided on.
+     * @param context Context used to create the GooglePlayDriver that powers the
+     *                FirebaseJobDispatcher
+     */
+    private static void scheduleFirebaseJobDispatcherSync(@NonNull final Context context) {
+
+        int intervalSeconds = SyncIntervalPolicy.getInstance(context).getIntervalSeconds();
+
+        Driver driver = new GooglePlayDriver(context);
+        FirebaseJobDispatcher dispatcher = new FirebaseJobDispatcher(driver);
+
+        /* Create the Job to periodically sync Sunshine */
+        Job syncSunshineJob = dispatcher.newJobBuilder()
+                /* The Service that will be used to sync Sunshine's data */
+                .setService(SunshineFirebaseJobService.class)
+                /* Set the UNIQUE tag used to identify this Job */
+                .setTag(SUNSHINE_SYNC_TAG)
+                /*
+                 * Network constraints on which this Job should run. We choose to run on any
+                 * network, but you can also choose to run only on un-metered networks or when the
+                 * device is charging. It might be a good idea to include a preference for this,
+                 * as some users may not want to download any data on their mobile plan. ($$$)
+                 */
+                .setConstraints(Constraint.ON_ANY_NETWORK)
+                /*
+                 * setLifetime sets how long this job should persist. The options are to keep the
+                 * Job "forever" or to have it die the next time the device boots up.
+                 */
+                .setLifetime(Lifetime.FOREVER)
+                /*
+                 * We want Sunshine's weather data to stay up to date, so we tell this Job to recur.
+                 */
+                .setRecurring(true)
+                /*
+                 * If a sync fails but asks to be retried, wait a little longer each time before
+                 * trying again. See SunshineFirebaseJobService#onStartJob.
+                 */
+                .setRetryStrategy(RetryStrategy.DEFAULT_EXPONENTIAL)
+                /*
+                 * We want the weather data to be synced every interval, give or take a third of
+                 * it. The first argument for Trigger's static executionWindow method is the start
+                 * of the time frame when the sync should be performed. The second argument is the
+                 * latest point in time at which the data should be synced. Please note that this
+                 * end time is not guaranteed, but is more of a guideline for
+                 * FirebaseJobDispatcher to go off of.
+                 */
+                .setTrigger(Trigger.executionWindow(
+                        intervalSeconds,
+                        intervalSeconds + SyncIntervalPolicy.getFlextimeSeconds(intervalSeconds)))
+                /*
+                 * If a Job with the tag with provided already exists, this new job will replace
+                 * the old one.
+                 */
+                .setReplaceCurrent(true)
+                /* Once the Job is ready, call the builder's build method to return the Job */
+                .build();
+
+        /* Schedule the Job with the dispatcher */
+        dispatcher.schedule(syncSunshineJob);
+        getPreferences(context).edit().putInt(KEY_SYNC_INTERVAL_SECONDS, intervalSeconds).apply();
+    }
+
+    /**
+     * Schedules the daily compaction of the weather history using FirebaseJobDispatcher. It
+     * only runs while the device is charging. See HistoryCompactionJobService.
+     *
+     * @param context Context used to create the GooglePlayDriver that powers the
+     *                FirebaseJobDispatcher
+     */
+    private static void scheduleHistoryCompaction(@NonNull final Context context) {
+
+        Driver driver = new GooglePlayDriver(context);
+        FirebaseJobDispatcher dispatcher = new FirebaseJobDispatcher(driver);
+
+        Job compactHistoryJob = dispatcher.newJobBuilder()
+                .setService(HistoryCompactionJobService.class)
+                .setTag(HISTORY_COMPACTION_TAG)
+                .setConstraints(Constraint.DEVICE_CHARGING)
+                .setLifetime(Lifetime.FOREVER)
+                .setRecurring(true)
+                .setTrigger(Trigger.executionWindow(
+                        COMPACTION_INTERVAL_SECONDS,
+                        COMPACTION_INTERVAL_SECONDS + COMPACTION_FLEXTIME_SECONDS))
+                .setReplaceCurrent(true)
+                .build();
+
+        dispatcher.schedule(compactHistoryJob);
+    }
+
+    /**
+     * Syncs the weather, then, if the sync succeeded, does the work that is batched behind it.
+     * This is what every sync, periodic or immediate, goes through.
+     * <p>
+     * The wakeup isn't counted here but by {@link SyncCoordinator#requestSync}, as a request
+     * that attaches to a sync already running has still woken the app.
+     *
+     * @param context Used to access the ContentResolver and SharedPreferences
+     * @return How the sync turned out
+     */
+    static SunshineSyncTask.Result runSync(Context context) {
+        SunshineSyncTask.Result result = SunshineSyncTask.syncWeather(context);
+        if (result == SunshineSyncTask.Result.SUCCESS) {
+            rescheduleIfIntervalChanged(context);
+            runAfterSync(context, System.currentTimeMillis());
+        }
+        return result;
+    }
+
+    /**
+     * Schedules the periodic sync again if the sync that just ran made {@link SyncIntervalPolicy}
+     * decide on another interval. The new job replaces the one that is scheduled.
+     *
+     * @param context Used to access SharedPreferences and the FirebaseJobDispatcher
+     */
+    private static void rescheduleIfIntervalChanged(Context context) {
+        int intervalSeconds = SyncIntervalPolicy.getInstance(context).getIntervalSeconds();
+        if (getPreferences(context).getInt(KEY_SYNC_INTERVAL_SECONDS, 0) != intervalSeconds) {
+            Log.i(TAG, "Syncing every " + intervalSeconds + " seconds from now on");
+            scheduleFirebaseJobDispatcherSync(context);
+        }
+    }
+
+    /**
+     * Does the periodic work that doesn't need a wakeup of its own, right after a sync that
+     * succeeded. The weather we have stored is current at this point, so this is when the
+     * notification and the watch are best told about it.
+     *
+     * @param context Used to access the ContentResolver and SharedPreferences
+     * @param now     The current time, in milliseconds
+     */
+    private static void runAfterSync(Context context, long now) {
+        /*
+         * If the last notification was shown more than 1 day ago and the user wants them
+         * shown, we want to send another notification that the weather has been updated.
+         * Remember, it's important that you shouldn't spam your users with notifications.
+         */
+        if (SunshinePreferences.areNotificationsEnabled(context)
+                && SunshinePreferences.getEllapsedTimeSinceLastNotification(context)
+                        >= DateUtils.DAY_IN_MILLIS) {
+            NotificationUtils.notifyUserOfNewWeather(context);
+        }
+
+        context.startService(new Intent(context, SunshineSyncWearableService.class));
+
+        SharedPreferences preferences = getPreferences(context);
+        if (now - preferences.getLong(KEY_LAST_PRUNED_AT, 0) >= PRUNE_INTERVAL_MILLIS) {
+            Bundle result = context.getContentResolver().call(
+                    WeatherContract.WeatherEntry.CONTENT_URI,
+                    WeatherContract.METHOD_PRUNE_WEATHER,
+                    null,
+                    null);
+
+            if (result != null) {
+                preferences.edit().putLong(KEY_LAST_PRUNED_AT, now).apply();
+                Log.d(TAG, "Weather pruned: "
+                        + result.getInt(WeatherContract.KEY_ROWS_ARCHIVED)
+                        + " past days moved, "
+                        + result.getLong(WeatherContract.KEY_BYTES_RECLAIMED)
+                        + " bytes reclaimed");
+            }
+        }
+    }
+
+    /**
+     * Counts a wakeup. Called for each sync asked for, and by each other job as it starts.
+     *
+     * @param context Used to access SharedPreferences
+     * @param wakeup  What the app was woken up for
+     */
+    static synchronized void countWakeup(Context context, Wakeup wakeup) {
+        SharedPreferences preferences = getPreferences(context);
+        String key = KEY_WAKEUPS_PREFIX + wakeup.name();
+        long wakeups = preferences.getLong(key, 0) + 1;
+        preferences.edit().putLong(key, wakeups).apply();
+        Log.d(TAG, "Woken up for " + wakeup + ", " + wakeups + " time(s) so far");
+    }
+
+    /**
+     * Returns the number of times the app has been woken up, or started, for some periodic
+     * work since the counts were last reset, to check how much battery that work costs.
+     *
+     * @param context Used to access SharedPreferences
+     * @param wakeup  What the app was woken up for
+     * @return The number of wakeups
+     */
+    public static synchronized long getWakeupCount(Context context, Wakeup wakeup) {
+        return getPreferences(context).getLong(KEY_WAKEUPS_PREFIX + wakeup.name(), 0);
+    }
+
+    /**
+     * Sets every wakeup count back to 0.
+     *
+     * @param context Used to access SharedPreferences
+     */
+    @VisibleForTesting
+    public static synchronized void resetWakeupCounts(Context context) {
+        SharedPreferences.Editor editor = getPreferences(context).edit();
+        for (Wakeup wakeup : Wakeup.values()) {
+            editor.remove(KEY_WAKEUPS_PREFIX + wakeup.name());
+        }
+        editor.apply();
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
\ No newline at end of file
@@ -3,6 +3,7 @@ package com.example.android.sunshine.utilities;
 import android.content.ContentValues;
 import android.content.Context;
 
+import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
 
 import java.util.ArrayList;
@@ -48,7 +49,8 @@ public class FakeDataUtils {
         }
         // Bulk Insert our new weather data into Sunshine's Database
         context.getContentResolver().bulkInsert(
-                WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.WeatherEntry.buildWeatherUriWithLocation(
+                        SunshinePreferences.getPreferredLocationId(context)),
                 fakeValues.toArray(new ContentValues[7]));
     }
 }
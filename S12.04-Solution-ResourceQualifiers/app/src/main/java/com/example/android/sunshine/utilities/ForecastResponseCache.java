@@ -0,0 +1,474 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A small, size bounded disk cache for the responses of the weather server. Each entry is keyed
+ * by the URL that {@link NetworkUtils#getUrl(Context)} built for it and remembers how long it
+ * stays fresh, as well as how long it may still be used while a newer copy is fetched
+ * (stale-while-revalidate). When the cache grows larger than its maximum size, the least
+ * recently used entries are removed first.
+ * <p>
+ * Every entry is stored as two files: the raw body of the response, and a small metadata file
+ * holding the URL and the entry's freshness.
+ */
+public final class ForecastResponseCache {
+
+    private static final String TAG = ForecastResponseCache.class.getSimpleName();
+
+    /* The directory, inside of the app's cache directory, that holds the cached responses */
+    private static final String CACHE_DIRECTORY_NAME = "forecast_responses";
+
+    private static final String BODY_SUFFIX = ".body";
+    private static final String METADATA_SUFFIX = ".meta";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /* A forecast is roughly 5KB, so this is plenty of room for several locations */
+    public static final long DEFAULT_MAX_SIZE_BYTES = 256 * 1024;
+
+    /* Used when the server doesn't tell us how long a response stays fresh */
+    public static final long DEFAULT_FRESHNESS_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    /* Used when the server doesn't tell us how long a stale response may still be used */
+    public static final long DEFAULT_STALE_WHILE_REVALIDATE_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private static ForecastResponseCache sInstance;
+
+    private final File mDirectory;
+    private final long mMaxSizeBytes;
+
+    /*
+     * Maps the key of each entry to the size of its body. The map is kept in access order, so
+     * iterating over it starts with the least recently used entry.
+     */
+    private final LinkedHashMap<String, Long> mEntrySizes =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+    private long mSizeBytes;
+    private boolean mInitialized;
+
+    /**
+     * Returns the cache used by the app, stored in the app's cache directory.
+     *
+     * @param context Used to find the app's cache directory
+     * @return The app's forecast response cache
+     */
+    public static synchronized ForecastResponseCache getInstance(Context context) {
+        if (sInstance == null) {
+            File directory = new File(context.getCacheDir(), CACHE_DIRECTORY_NAME);
+            sInstance = new ForecastResponseCache(directory, DEFAULT_MAX_SIZE_BYTES);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Creates a cache that stores its entries in a directory. Only one ForecastResponseCache
+     * should be used with a directory at a time.
+     *
+     * @param directory    The directory to store the entries in. It is created if needed.
+     * @param maxSizeBytes The maximum combined size of all cached response bodies
+     */
+    public ForecastResponseCache(File directory, long maxSizeBytes) {
+        mDirectory = directory;
+        mMaxSizeBytes = maxSizeBytes;
+    }
+
+    /**
+     * A response read from the cache. An Entry is a snapshot; it is not updated if the cache
+     * entry is replaced later on.
+     */
+    public static final class Entry {
+
+        /* The URL the response was requested from */
+        public final String url;
+
+        /* When the response was received from the server (in UNIX time) */
+        public final long fetchedAtMillis;
+
+        /* The response is fresh until this time (in UNIX time) */
+        public final long freshUntilMillis;
+
+        /* The response may still be used while revalidating until this time (in UNIX time) */
+        public final long staleUntilMillis;
+
+        private final File mBodyFile;
+
+        Entry(String url, long fetchedAtMillis, long freshUntilMillis, long staleUntilMillis,
+              File bodyFile) {
+            this.url = url;
+            this.fetchedAtMillis = fetchedAtMillis;
+            this.freshUntilMillis = freshUntilMillis;
+            this.staleUntilMillis = staleUntilMillis;
+            mBodyFile = bodyFile;
+        }
+
+        /**
+         * @param nowMillis The current time (in UNIX time)
+         * @return true if the response can be used without asking the server
+         */
+        public boolean isFresh(long nowMillis) {
+            return nowMillis < freshUntilMillis;
+        }
+
+        /**
+         * @param nowMillis The current time (in UNIX time)
+         * @return true if the response may be used while a newer copy is requested
+         */
+        public boolean isUsable(long nowMillis) {
+            return nowMillis < staleUntilMillis;
+        }
+
+        /**
+         * Opens the body of the cached response. The caller is responsible for closing it.
+         *
+         * @return The body of the response
+         * @throws IOException If the body can no longer be read
+         */
+        public InputStream openBody() throws IOException {
+            return new BufferedInputStream(new FileInputStream(mBodyFile));
+        }
+    }
+
+    /**
+     * Writes a new response into the cache. The body is written to a temporary file and only
+     * becomes visible to {@link #get(String)} once {@link #commit} is called, so a download that
+     * fails half way never replaces a good entry.
+     */
+    public final class Editor {
+
+        private final String mUrl;
+        private final String mKey;
+        private final File mTempFile;
+        private final OutputStream mOutputStream;
+        private boolean mDone;
+
+        private Editor(String url, String key) throws IOException {
+            mUrl = url;
+            mKey = key;
+            mTempFile = new File(mDirectory, key + TEMP_SUFFIX);
+            mOutputStream = new BufferedOutputStream(new FileOutputStream(mTempFile));
+        }
+
+        /**
+         * @return The stream the body of the response should be written to
+         */
+        public OutputStream getOutputStream() {
+            return mOutputStream;
+        }
+
+        /**
+         * Makes the written body the cache entry for this editor's URL.
+         *
+         * @param fetchedAtMillis When the response was received from the server
+         * @param freshForMillis  How long the response stays fresh
+         * @param staleForMillis  How long after that the response may still be used while a
+         *                        newer copy is requested
+         * @throws IOException If the entry could not be written
+         */
+        public void commit(long fetchedAtMillis, long freshForMillis, long staleForMillis)
+                throws IOException {
+            if (mDone) return;
+            mDone = true;
+            mOutputStream.close();
+            commitEdit(this, fetchedAtMillis, freshForMillis, staleForMillis);
+        }
+
+        /**
+         * Throws away the written body. The existing entry for the URL, if any, is kept.
+         */
+        public void abort() {
+            if (mDone) return;
+            mDone = true;
+            try {
+                mOutputStream.close();
+            } catch (IOException e) {
+                /* We're throwing the file away anyway */
+            }
+            deleteIfExists(mTempFile);
+        }
+    }
+
+    /**
+     * Looks up the cached response for a URL. Reading an entry marks it as recently used.
+     *
+     * @param url The URL the response was requested from
+     * @return The cached response, or null if there is none
+     */
+    public synchronized Entry get(String url) {
+        initializeIfNeeded();
+
+        /* get() (unlike containsKey()) moves the entry to the end of the access order */
+        String key = keyFor(url);
+        if (mEntrySizes.get(key) == null) {
+            return null;
+        }
+
+        Entry entry = readEntry(key);
+        if (entry == null || !url.equals(entry.url)) {
+            /* The entry is corrupt, or (very unlikely) a different URL with the same key */
+            return null;
+        }
+
+        /* Record the access on disk too, so the LRU order survives the process */
+        entry.mBodyFile.setLastModified(System.currentTimeMillis());
+        return entry;
+    }
+
+    /**
+     * Starts writing a new response for a URL into the cache.
+     *
+     * @param url The URL the response was requested from
+     * @return An Editor to write the body with. It must be committed or aborted.
+     * @throws IOException If the cache directory can't be written to
+     */
+    public synchronized Editor edit(String url) throws IOException {
+        initializeIfNeeded();
+        return new Editor(url, keyFor(url));
+    }
+
+    /**
+     * Updates how long an entry stays fresh, without changing its body. This is used when the
+     * server tells us the response we have cached hasn't changed.
+     *
+     * @param url             The URL the response was requested from
+     * @param fetchedAtMillis When the server confirmed the response (in UNIX time)
+     * @param freshForMillis  How long the response stays fresh from now on
+     * @param staleForMillis  How long after that the response may still be used
+     */
+    public synchronized void refresh(String url, long fetchedAtMillis, long freshForMillis,
+                                     long staleForMillis) {
+        Entry entry = get(url);
+        if (entry == null) return;
+
+        try {
+            writeMetadata(keyFor(url), url, fetchedAtMillis, freshForMillis, staleForMillis);
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't refresh cached response for " + url, e);
+        }
+    }
+
+    /**
+     * Removes the cached response for a URL, if there is one.
+     *
+     * @param url The URL the response was requested from
+     */
+    public synchronized void remove(String url) {
+        initializeIfNeeded();
+        removeEntry(keyFor(url));
+    }
+
+    /**
+     * Removes every cached response.
+     */
+    public synchronized void clear() {
+        initializeIfNeeded();
+        while (!mEntrySizes.isEmpty()) {
+            removeEntry(mEntrySizes.keySet().iterator().next());
+        }
+    }
+
+    /**
+     * @return The combined size of all cached response bodies
+     */
+    public synchronized long size() {
+        initializeIfNeeded();
+        return mSizeBytes;
+    }
+
+    private synchronized void commitEdit(Editor editor, long fetchedAtMillis,
+                                         long freshForMillis, long staleForMillis)
+            throws IOException {
+        File bodyFile = new File(mDirectory, editor.mKey + BODY_SUFFIX);
+
+        removeEntry(editor.mKey);
+
+        if (!editor.mTempFile.renameTo(bodyFile)) {
+            deleteIfExists(editor.mTempFile);
+            throw new IOException("Couldn't store cached response for " + editor.mUrl);
+        }
+
+        writeMetadata(editor.mKey, editor.mUrl, fetchedAtMillis, freshForMillis, staleForMillis);
+
+        long size = bodyFile.length();
+        mEntrySizes.put(editor.mKey, size);
+        mSizeBytes += size;
+
+        trimToSize();
+    }
+
+    /**
+     * Removes the least recently used entries until the cache is no larger than its maximum
+     * size. The most recently written entry is always kept, even if it is larger than that.
+     */
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> iterator = mEntrySizes.entrySet().iterator();
+        while (mSizeBytes > mMaxSizeBytes && mEntrySizes.size() > 1) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            iterator.remove();
+            mSizeBytes -= eldest.getValue();
+            deleteIfExists(new File(mDirectory, eldest.getKey() + BODY_SUFFIX));
+            deleteIfExists(new File(mDirectory, eldest.getKey() + METADATA_SUFFIX));
+        }
+    }
+
+    private void removeEntry(String key) {
+        Long size = mEntrySizes.remove(key);
+        if (size != null) {
+            mSizeBytes -= size;
+        }
+        deleteIfExists(new File(mDirectory, key + BODY_SUFFIX));
+        deleteIfExists(new File(mDirectory, key + METADATA_SUFFIX));
+    }
+
+    /**
+     * Reads the entries already on disk the first time the cache is used. Entries are ordered
+     * by the time they were last used, and any leftovers from interrupted writes are deleted.
+     */
+    private void initializeIfNeeded() {
+        if (mInitialized) return;
+        mInitialized = true;
+
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.w(TAG, "Couldn't create cache directory " + mDirectory);
+            return;
+        }
+
+        File[] files = mDirectory.listFiles();
+        if (files == null) return;
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long lhsModified = lhs.lastModified();
+                long rhsModified = rhs.lastModified();
+                return lhsModified < rhsModified ? -1 : (lhsModified == rhsModified ? 0 : 1);
+            }
+        });
+
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(BODY_SUFFIX)) {
+                String key = name.substring(0, name.length() - BODY_SUFFIX.length());
+                if (new File(mDirectory, key + METADATA_SUFFIX).exists()) {
+                    long size = file.length();
+                    mEntrySizes.put(key, size);
+                    mSizeBytes += size;
+                } else {
+                    deleteIfExists(file);
+                }
+            } else if (name.endsWith(TEMP_SUFFIX)) {
+                deleteIfExists(file);
+            }
+        }
+
+        trimToSize();
+    }
+
+    private Entry readEntry(String key) {
+        File metadataFile = new File(mDirectory, key + METADATA_SUFFIX);
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(metadataFile)));
+            String url = in.readUTF();
+            long fetchedAtMillis = in.readLong();
+            long freshUntilMillis = in.readLong();
+            long staleUntilMillis = in.readLong();
+            return new Entry(url, fetchedAtMillis, freshUntilMillis, staleUntilMillis,
+                    new File(mDirectory, key + BODY_SUFFIX));
+        } catch (IOException e) {
+            Log.w(TAG, "Discarding unreadable cache entry " + key, e);
+            removeEntry(key);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private void writeMetadata(String key, String url, long fetchedAtMillis,
+                               long freshForMillis, long staleForMillis) throws IOException {
+        long freshUntilMillis = fetchedAtMillis + freshForMillis;
+        long staleUntilMillis = freshUntilMillis + staleForMillis;
+
+        File metadataFile = new File(mDirectory, key + METADATA_SUFFIX);
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(metadataFile)));
+        try {
+            out.writeUTF(url);
+            out.writeLong(fetchedAtMillis);
+            out.writeLong(freshUntilMillis);
+            out.writeLong(staleUntilMillis);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * URLs can contain characters that aren't allowed in file names, so entries are stored
+     * under a hex encoded hash of their URL instead.
+     */
+    private static String keyFor(String url) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] hash = digest.digest(url.getBytes("UTF-8"));
+            StringBuilder key = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                key.append(Character.forDigit((b >> 4) & 0xf, 16));
+                key.append(Character.forDigit(b & 0xf, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            /* Every Android device supports MD5 and UTF-8 */
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void deleteIfExists(File file) {
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "Couldn't delete " + file);
+        }
+    }
+
+    private static void closeQuietly(InputStream in) {
+        if (in == null) return;
+        try {
+            in.close();
+        } catch (IOException e) {
+            /* Nothing useful we can do about this */
+        }
+    }
+}
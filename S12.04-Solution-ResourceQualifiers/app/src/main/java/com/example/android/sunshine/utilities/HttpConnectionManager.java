@@ -0,0 +1,442 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.os.SystemClock;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opens and releases the HTTP connections that {@link NetworkUtils} uses to talk to the weather
+ * server.
+ * <p>
+ * HttpURLConnection keeps the underlying socket alive and hands it to the next request for the
+ * same host, but only if the response body was read to the end and closed. Calling disconnect()
+ * closes the socket instead, so every request would pay for a new TCP (and TLS) handshake. A
+ * released {@link Connection} finishes reading the body and closes it, and only disconnects if
+ * something went wrong.
+ * <p>
+ * Every connection gets connect and read timeouts, so a stalled server can't hold up a sync
+ * forever, and the number of connections open to any one host at a time is limited. The limit
+ * only applies to connections opened here; HttpURLConnection's pool, which the rest of the app
+ * shares, is left as it is.
+ */
+public final class HttpConnectionManager {
+
+    /* Used when no other timeouts have been set with setTimeouts */
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 20 * 1000;
+
+    /* Used when no other limit has been set with setMaxConnectionsPerHost */
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 2;
+
+    /*
+     * How long HttpURLConnection keeps an idle connection around for reuse. This matches the
+     * keep-alive duration of the connection pool built into Android.
+     */
+    private static final long KEEP_ALIVE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    /* The most we'll read from an unfinished body to be able to reuse its connection */
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    private static final Object sLock = new Object();
+
+    private static int sConnectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+    private static int sReadTimeoutMillis = DEFAULT_READ_TIMEOUT_MILLIS;
+    private static int sMaxConnectionsPerHost = DEFAULT_MAX_CONNECTIONS_PER_HOST;
+
+    /* What we know about the connections to each host, keyed by host and port */
+    private static final Map<String, HostState> sHosts = new HashMap<>();
+
+    /* Counters for getStats */
+    private static long sRequestCount;
+    private static long sReusedConnectionCount;
+    private static long sClosedConnectionCount;
+    private static long sTimeToFirstByteTotalMillis;
+    private static long sTimeToFirstByteMaxMillis;
+    private static long sTimeToFirstByteCount;
+
+    private HttpConnectionManager() {
+    }
+
+    /**
+     * A snapshot of the counters kept by the HttpConnectionManager.
+     */
+    public static final class Stats {
+
+        /* The number of connections opened */
+        public final long requestCount;
+
+        /* The number of those that could reuse a connection kept alive by an earlier request */
+        public final long reusedConnectionCount;
+
+        /* The number closed rather than kept alive, usually because the request failed */
+        public final long closedConnectionCount;
+
+        /* The time between starting a request and receiving the response headers */
+        public final long timeToFirstByteTotalMillis;
+        public final long timeToFirstByteMaxMillis;
+        public final long timeToFirstByteCount;
+
+        Stats(long requestCount, long reusedConnectionCount, long closedConnectionCount,
+              long timeToFirstByteTotalMillis, long timeToFirstByteMaxMillis,
+              long timeToFirstByteCount) {
+            this.requestCount = requestCount;
+            this.reusedConnectionCount = reusedConnectionCount;
+            this.closedConnectionCount = closedConnectionCount;
+            this.timeToFirstByteTotalMillis = timeToFirstByteTotalMillis;
+            this.timeToFirstByteMaxMillis = timeToFirstByteMaxMillis;
+            this.timeToFirstByteCount = timeToFirstByteCount;
+        }
+
+        /**
+         * @return The fraction of requests that could reuse a kept-alive connection, from 0 to 1
+         */
+        public double getReuseRate() {
+            return requestCount == 0 ? 0 : (double) reusedConnectionCount / requestCount;
+        }
+
+        /**
+         * @return The average time to first byte, or 0 if no response has been received yet
+         */
+        public long getAverageTimeToFirstByteMillis() {
+            return timeToFirstByteCount == 0
+                    ? 0
+                    : timeToFirstByteTotalMillis / timeToFirstByteCount;
+        }
+
+        @Override
+        public String toString() {
+            return "requests=" + requestCount
+                    + " reused=" + reusedConnectionCount
+                    + " closed=" + closedConnectionCount
+                    + " ttfbAvgMs=" + getAverageTimeToFirstByteMillis()
+                    + " ttfbMaxMs=" + timeToFirstByteMaxMillis;
+        }
+    }
+
+    /**
+     * Changes the timeouts used for connections opened from now on.
+     *
+     * @param connectTimeoutMillis How long to wait for a connection to be established. This is
+     *                             also how long we wait for a free connection to a busy host.
+     * @param readTimeoutMillis    How long to wait for more data once connected
+     */
+    public static void setTimeouts(int connectTimeoutMillis, int readTimeoutMillis) {
+        synchronized (sLock) {
+            sConnectTimeoutMillis = connectTimeoutMillis;
+            sReadTimeoutMillis = readTimeoutMillis;
+        }
+    }
+
+    /**
+     * Changes how many connections may be open to the same host at once. This should only be
+     * changed while no connections are open, since connections that are already open are
+     * counted against the old limit.
+     *
+     * @param maxConnectionsPerHost The maximum number of connections open to a host at once
+     */
+    public static void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+        synchronized (sLock) {
+            sMaxConnectionsPerHost = maxConnectionsPerHost;
+            sHosts.clear();
+        }
+    }
+
+    /**
+     * @return A snapshot of the request, reuse and time-to-first-byte counters
+     */
+    public static Stats getStats() {
+        synchronized (sLock) {
+            return new Stats(sRequestCount, sReusedConnectionCount, sClosedConnectionCount,
+                    sTimeToFirstByteTotalMillis, sTimeToFirstByteMaxMillis,
+                    sTimeToFirstByteCount);
+        }
+    }
+
+    /**
+     * Sets every counter back to zero.
+     */
+    public static void resetStats() {
+        synchronized (sLock) {
+            sRequestCount = 0;
+            sReusedConnectionCount = 0;
+            sClosedConnectionCount = 0;
+            sTimeToFirstByteTotalMillis = 0;
+            sTimeToFirstByteMaxMillis = 0;
+            sTimeToFirstByteCount = 0;
+        }
+    }
+
+    /**
+     * Opens a connection to a URL, waiting for one of the host's connections to be released if
+     * it already has as many open as it is allowed. The connection must be released with
+     * {@link Connection#release()} once the caller is done with it.
+     *
+     * @param url The URL to connect to
+     * @return The opened (but not yet connected) connection
+     * @throws IOException If the host stays busy for longer than the connect timeout, or the
+     *                     connection can't be opened
+     */
+    public static Connection open(URL url) throws IOException {
+        int connectTimeoutMillis;
+        int readTimeoutMillis;
+        HostState host;
+        synchronized (sLock) {
+            connectTimeoutMillis = sConnectTimeoutMillis;
+            readTimeoutMillis = sReadTimeoutMillis;
+            host = getHostState(url);
+        }
+
+        try {
+            if (!host.permits.tryAcquire(connectTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new IOException("Too many connections open to " + url.getHost());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting to connect to " + url.getHost());
+        }
+
+        HttpURLConnection urlConnection;
+        try {
+            urlConnection = (HttpURLConnection) url.openConnection();
+        } catch (IOException | RuntimeException e) {
+            host.permits.release();
+            throw e;
+        }
+        urlConnection.setConnectTimeout(connectTimeoutMillis);
+        urlConnection.setReadTimeout(readTimeoutMillis);
+
+        synchronized (sLock) {
+            sRequestCount++;
+            if (host.takeIdleConnection(SystemClock.elapsedRealtime())) {
+                sReusedConnectionCount++;
+            }
+        }
+
+        return new Connection(urlConnection, host);
+    }
+
+    private static HostState getHostState(URL url) {
+        int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+        String key = url.getHost() + ":" + port;
+        HostState host = sHosts.get(key);
+        if (host == null) {
+            host = new HostState(sMaxConnectionsPerHost);
+            sHosts.put(key, host);
+        }
+        return host;
+    }
+
+    /**
+     * Keeps track of the connections to one host.
+     */
+    private static final class HostState {
+
+        /* One permit for each connection that may be open to the host at once */
+        final Semaphore permits;
+
+        /* How many kept-alive connections are idle, and when the last one became idle */
+        private final int mMaxIdleConnections;
+        private int mIdleConnections;
+        private long mLastIdleAtMillis;
+
+        HostState(int maxConnections) {
+            permits = new Semaphore(maxConnections, true);
+            mMaxIdleConnections = maxConnections;
+        }
+
+        /* Called with sLock held */
+        void addIdleConnection(long nowMillis) {
+            mIdleConnections = Math.min(mIdleConnections + 1, mMaxIdleConnections);
+            mLastIdleAtMillis = nowMillis;
+        }
+
+        /*
+         * Called with sLock held. HttpURLConnection doesn't tell us whether it reused a
+         * connection, so this is our best guess: it will have if one was kept alive recently
+         * enough that the pool hasn't closed it yet.
+         */
+        boolean takeIdleConnection(long nowMillis) {
+            if (mIdleConnections > 0 && nowMillis - mLastIdleAtMillis < KEEP_ALIVE_MILLIS) {
+                mIdleConnections--;
+                return true;
+            }
+            mIdleConnections = 0;
+            return false;
+        }
+    }
+
+    /**
+     * A connection opened by the HttpConnectionManager. Callers should use it like this, so
+     * that the connection is only kept alive when the request succeeded:
+     * <pre>
+     * Connection connection = HttpConnectionManager.open(url);
+     * try {
+     *     ...
+     * } catch (IOException | RuntimeException e) {
+     *     connection.abort();
+     *     throw e;
+     * } finally {
+     *     connection.release();
+     * }
+     * </pre>
+     */
+    public static final class Connection {
+
+        private final HttpURLConnection mUrlConnection;
+        private final HostState mHost;
+        private final long mStartedAtMillis;
+
+        private int mResponseCode = -1;
+        private InputStream mBody;
+        private boolean mAborted;
+        private boolean mReleased;
+
+        Connection(HttpURLConnection urlConnection, HostState host) {
+            mUrlConnection = urlConnection;
+            mHost = host;
+            mStartedAtMillis = SystemClock.elapsedRealtime();
+        }
+
+        /**
+         * @return The underlying connection, used to set request headers and read response
+         * headers
+         */
+        public HttpURLConnection getUrlConnection() {
+            return mUrlConnection;
+        }
+
+        /**
+         * Sends the request, if that hasn't happened yet, and waits for the response headers.
+         *
+         * @return The HTTP status code of the response
+         * @throws IOException Related to the network
+         */
+        public int getResponseCode() throws IOException {
+            if (mResponseCode == -1) {
+                mResponseCode = mUrlConnection.getResponseCode();
+                recordTimeToFirstByte(SystemClock.elapsedRealtime() - mStartedAtMillis);
+            }
+            return mResponseCode;
+        }
+
+        /**
+         * Opens the decoded body of the response. It is closed when the connection is released,
+         * so callers don't need to (but may) close it themselves.
+         *
+         * @return The decoded body of the response
+         * @throws IOException Related to network and stream reading
+         * @see ResponseBodyReader#openBody(HttpURLConnection)
+         */
+        public InputStream openBody() throws IOException {
+            getResponseCode();
+            if (mBody == null) {
+                mBody = ResponseBodyReader.openBody(mUrlConnection);
+            }
+            return mBody;
+        }
+
+        /**
+         * Closes the connection without keeping it alive. Call this if the request failed, as
+         * the connection may be left in a state that can't be reused.
+         */
+        public void abort() {
+            if (mAborted) return;
+            mAborted = true;
+            mUrlConnection.disconnect();
+        }
+
+        /**
+         * Finishes with the connection. If the request succeeded, whatever is left of the body
+         * is read and the connection is kept alive for the next request to the same host.
+         */
+        public void release() {
+            if (mReleased) return;
+            mReleased = true;
+
+            boolean keptAlive = false;
+            try {
+                if (!mAborted && mResponseCode != -1) {
+                    keptAlive = finishBody();
+                }
+            } finally {
+                if (!keptAlive) {
+                    abort();
+                }
+                synchronized (sLock) {
+                    if (keptAlive) {
+                        mHost.addIdleConnection(SystemClock.elapsedRealtime());
+                    } else {
+                        sClosedConnectionCount++;
+                    }
+                }
+                mHost.permits.release();
+            }
+        }
+
+        /**
+         * Reads what is left of the response body and closes it. The connection can only be
+         * reused if the whole body has been read.
+         *
+         * @return true if the body was finished and the connection can be kept alive
+         */
+        private boolean finishBody() {
+            InputStream body = mBody;
+            byte[] buffer = ResponseBodyReader.acquireByteBuffer();
+            try {
+                if (body == null) {
+                    /* The body was never opened (a 304, say). Errors have a stream of their own. */
+                    body = mResponseCode >= HttpURLConnection.HTTP_BAD_REQUEST
+                            ? mUrlConnection.getErrorStream()
+                            : mUrlConnection.getInputStream();
+                    if (body == null) return true;
+                }
+
+                int drained = 0;
+                int read;
+                while ((read = body.read(buffer)) != -1) {
+                    drained += read;
+                    if (drained > MAX_DRAIN_BYTES) {
+                        /* Not worth reading this much just to keep the connection */
+                        return false;
+                    }
+                }
+                body.close();
+                return true;
+            } catch (IOException e) {
+                return false;
+            } finally {
+                ResponseBodyReader.releaseByteBuffer(buffer);
+            }
+        }
+
+        private void recordTimeToFirstByte(long millis) {
+            synchronized (sLock) {
+                sTimeToFirstByteTotalMillis += millis;
+                sTimeToFirstByteMaxMillis = Math.max(sTimeToFirstByteMaxMillis, millis);
+                sTimeToFirstByteCount++;
+            }
+        }
+    }
+}
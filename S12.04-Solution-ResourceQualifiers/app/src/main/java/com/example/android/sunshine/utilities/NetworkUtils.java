@@ -17,16 +17,19 @@ package com.example.android.sunshine.utilities;
 
 import android.content.Context;
 import android.net.Uri;
+import android.support.annotation.VisibleForTesting;
 import android.util.Log;
 
 import com.example.android.sunshine.data.SunshinePreferences;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
 
 /**
  * These utilities will be used to communicate with the weather servers.
@@ -56,6 +59,9 @@ public final class NetworkUtils {
 
     private static final String FORECAST_BASE_URL = STATIC_WEATHER_URL;
 
+    /* When set, used instead of FORECAST_BASE_URL so tests can talk to a local server */
+    private static volatile String sForecastBaseUrlOverride;
+
     /*
      * NOTE: These values only effect responses from OpenWeatherMap, NOT from the fake weather
      * server. They are simply here to allow us to teach you how to build a URL if you were to use
@@ -83,6 +89,135 @@ public final class NetworkUtils {
     /* The days parameter allows us to designate how many days of weather data we want */
     private static final String DAYS_PARAM = "cnt";
 
+    /* Request and response headers used to ask the server for a forecast only if it changed */
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+
+    /* Used to learn how long the server says a response may be cached */
+    private static final String HEADER_CACHE_CONTROL = "Cache-Control";
+    private static final String DIRECTIVE_NO_STORE = "no-store";
+    private static final String DIRECTIVE_MAX_AGE = "max-age";
+    private static final String DIRECTIVE_STALE_WHILE_REVALIDATE = "stale-while-revalidate";
+
+    /* Sent by servers that want us to slow down. HttpURLConnection has no constant for it. */
+    public static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    /**
+     * Interface used to consume the body of an HTTP response while it is still streaming in from
+     * the server. This lets callers such as {@link OpenWeatherJsonUtils} parse the forecast
+     * without first holding the whole response in memory as a String.
+     *
+     * @param <T> The type of object produced from the response body
+     */
+    public interface ResponseParser<T> {
+        /**
+         * Reads the response body and converts it into a result.
+         *
+         * @param in The buffered, decoded body of the HTTP response. It is closed for you
+         *           afterwards.
+         * @return The parsed result, or null if the response did not contain usable data
+         * @throws IOException Related to network and stream reading or malformed data
+         */
+        T parse(InputStream in) throws IOException;
+    }
+
+    /**
+     * Thrown when the server answers a request with an error status, so that callers can tell a
+     * server that is having trouble (5xx) from a request it will never accept (4xx).
+     */
+    public static class HttpStatusException extends IOException {
+
+        /* The HTTP status code the server answered with */
+        public final int statusCode;
+
+        HttpStatusException(String requestUrl, int statusCode) {
+            super("HTTP " + statusCode + " from " + requestUrl);
+            this.statusCode = statusCode;
+        }
+    }
+
+    /**
+     * The result of a request made with
+     * {@link #getResponseFromHttpUrlIfModified(Context, URL, ResponseParser)} or
+     * {@link #getCachedResponse(Context, URL, ResponseParser)}. If the server reports that the
+     * forecast hasn't changed since we last stored it, there is no body.
+     *
+     * @param <T> The type of object produced from the response body
+     */
+    public static final class Response<T> {
+
+        /* The URL the response was requested from, used to key its validators */
+        final String requestUrl;
+
+        /* The HTTP status code sent by the server */
+        public final int statusCode;
+
+        /* The parsed body of the response, or null if the forecast was not modified */
+        public final T body;
+
+        /* True if the response was read from the disk cache rather than the network */
+        public final boolean isFromCache;
+
+        /* True if the response can be used without asking the server whether it changed */
+        public final boolean isFresh;
+
+        /* The validators the server sent with this response. Either may be null. */
+        final String eTag;
+        final String lastModified;
+
+        /* When the response was received, and how long the server says it may be cached */
+        final long fetchedAtMillis;
+        final long freshForMillis;
+        final long staleForMillis;
+
+        /* Holds the body of a network response until it is committed to the cache, or null */
+        final ForecastResponseCache.Editor cacheEditor;
+
+        Response(String requestUrl, int statusCode, T body, boolean isFromCache, boolean isFresh,
+                 String eTag, String lastModified, long fetchedAtMillis, long freshForMillis,
+                 long staleForMillis, ForecastResponseCache.Editor cacheEditor) {
+            this.requestUrl = requestUrl;
+            this.statusCode = statusCode;
+            this.body = body;
+            this.isFromCache = isFromCache;
+            this.isFresh = isFresh;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.fetchedAtMillis = fetchedAtMillis;
+            this.freshForMillis = freshForMillis;
+            this.staleForMillis = staleForMillis;
+            this.cacheEditor = cacheEditor;
+        }
+
+        /**
+         * @return true if the server told us the forecast hasn't changed since we last stored it
+         */
+        public boolean isNotModified() {
+            return statusCode == HttpURLConnection.HTTP_NOT_MODIFIED;
+        }
+    }
+
+    /**
+     * Points every forecast request at a different server. Tests use this to fetch forecasts from
+     * a stand-in server running on the device instead of the real weather server.
+     *
+     * @param baseUrl The base URL to use for forecast requests, or null to use the real server
+     */
+    @VisibleForTesting
+    public static void setForecastBaseUrl(String baseUrl) {
+        sForecastBaseUrlOverride = baseUrl;
+    }
+
+    /**
+     * @return The base URL that forecast requests are currently built from
+     */
+    private static String getForecastBaseUrl() {
+        String override = sForecastBaseUrlOverride;
+        return override != null ? override : FORECAST_BASE_URL;
+    }
+
     /**
      * Retrieves the proper URL to query for the weather data. The reason for both this method as
      * well as {@link #buildUrlWithLocationQuery(String)} is two fold.
@@ -118,7 +253,7 @@ public final class NetworkUtils {
      * @return The Url to use to query the weather server.
      */
     private static URL buildUrlWithLatitudeLongitude(Double latitude, Double longitude) {
-        Uri weatherQueryUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
+        Uri weatherQueryUri = Uri.parse(getForecastBaseUrl()).buildUpon()
                 .appendQueryParameter(LAT_PARAM, String.valueOf(latitude))
                 .appendQueryParameter(LON_PARAM, String.valueOf(longitude))
                 .appendQueryParameter(FORMAT_PARAM, format)
@@ -144,7 +279,7 @@ public final class NetworkUtils {
      * @return The URL to use to query the weather server.
      */
     private static URL buildUrlWithLocationQuery(String locationQuery) {
-        Uri weatherQueryUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
+        Uri weatherQueryUri = Uri.parse(getForecastBaseUrl()).buildUpon()
                 .appendQueryParameter(QUERY_PARAM, locationQuery)
                 .appendQueryParameter(FORMAT_PARAM, format)
                 .appendQueryParameter(UNITS_PARAM, units)
@@ -162,29 +297,343 @@ public final class NetworkUtils {
     }
 
     /**
-     * This method returns the entire result from the HTTP response.
+     * This method returns the entire result from the HTTP response. The server is asked to
+     * compress the response, which is decoded before it is returned.
      *
      * @param url The URL to fetch the HTTP response from.
      * @return The contents of the HTTP response, null if no response
-     * @throws IOException Related to network and stream reading
+     * @throws IOException Related to network and stream reading, or if the response is larger
+     *                     than we are willing to read
      */
     public static String getResponseFromHttpUrl(URL url) throws IOException {
-        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        HttpConnectionManager.Connection connection = HttpConnectionManager.open(url);
+        try {
+            HttpURLConnection urlConnection = connection.getUrlConnection();
+            ResponseBodyReader.requestCompressedBody(urlConnection);
+            return ResponseBodyReader.readString(urlConnection, connection.openBody());
+        } catch (IOException | RuntimeException e) {
+            connection.abort();
+            throw e;
+        } finally {
+            connection.release();
+        }
+    }
+
+    /**
+     * This method hands the body of the HTTP response to a {@link ResponseParser} as it streams
+     * in from the connection. Unlike {@link #getResponseFromHttpUrl(URL)}, the response is never
+     * copied into a String, which keeps large forecasts from creating a lot of garbage.
+     *
+     * @param url    The URL to fetch the HTTP response from.
+     * @param parser Used to convert the response body into a result
+     * @param <T>    The type of object produced by the parser
+     * @return The result returned by the parser
+     * @throws IOException Related to network and stream reading
+     */
+    public static <T> T getParsedResponseFromHttpUrl(URL url, ResponseParser<T> parser)
+            throws IOException {
+        HttpConnectionManager.Connection connection = HttpConnectionManager.open(url);
         try {
-            InputStream in = urlConnection.getInputStream();
+            ResponseBodyReader.requestCompressedBody(connection.getUrlConnection());
+            return parser.parse(connection.openBody());
+        } catch (IOException | RuntimeException e) {
+            connection.abort();
+            throw e;
+        } finally {
+            /* Releasing the connection closes the body, and keeps the connection alive */
+            connection.release();
+        }
+    }
 
-            Scanner scanner = new Scanner(in);
-            scanner.useDelimiter("\\A");
+    /**
+     * Performs a conditional request for the forecast at a URL. If we have stored the forecast
+     * from this URL before, the validators the server sent with it are sent back using the
+     * If-None-Match and If-Modified-Since headers. When the server answers with
+     * 304 (Not Modified), the parser is never called and the returned Response has no body.
+     * <p>
+     * While the parser reads a 200 response, the body is also copied into the
+     * {@link ForecastResponseCache}. Neither the copy nor the validators are kept by this method.
+     * Call {@link #commitResponse(Context, Response)} once the forecast has been stored, so that
+     * a failed write can never cause us to skip a forecast we don't actually have.
+     *
+     * @param context Used to access the stored validators and the response cache
+     * @param url     The URL to fetch the HTTP response from.
+     * @param parser  Used to convert the response body into a result
+     * @param <T>     The type of object produced by the parser
+     * @return The status of the response and, if the forecast was modified, its parsed body
+     * @throws IOException Related to network and stream reading, or an {@link HttpStatusException}
+     *                     if the server answered with an error status
+     */
+    public static <T> Response<T> getResponseFromHttpUrlIfModified(
+            Context context, URL url, ResponseParser<T> parser) throws IOException {
 
-            boolean hasInput = scanner.hasNext();
-            String response = null;
-            if (hasInput) {
-                response = scanner.next();
+        String requestUrl = url.toString();
+        String[] validators = SunshinePreferences.getHttpValidators(context, requestUrl);
+        String storedETag = validators[0];
+        String storedLastModified = validators[1];
+
+        HttpConnectionManager.Connection connection = HttpConnectionManager.open(url);
+        try {
+            HttpURLConnection urlConnection = connection.getUrlConnection();
+            ResponseBodyReader.requestCompressedBody(urlConnection);
+            if (storedETag != null) {
+                urlConnection.setRequestProperty(HEADER_IF_NONE_MATCH, storedETag);
             }
-            scanner.close();
-            return response;
+            if (storedLastModified != null) {
+                urlConnection.setRequestProperty(HEADER_IF_MODIFIED_SINCE, storedLastModified);
+            }
+
+            int statusCode = connection.getResponseCode();
+            long fetchedAtMillis = System.currentTimeMillis();
+
+            /* How long may this response be cached, and may it be stored at all? */
+            String cacheControl = urlConnection.getHeaderField(HEADER_CACHE_CONTROL);
+            long freshForMillis = getCacheControlMillis(cacheControl, DIRECTIVE_MAX_AGE,
+                    ForecastResponseCache.DEFAULT_FRESHNESS_MILLIS);
+            long staleForMillis = getCacheControlMillis(cacheControl,
+                    DIRECTIVE_STALE_WHILE_REVALIDATE,
+                    ForecastResponseCache.DEFAULT_STALE_WHILE_REVALIDATE_MILLIS);
+            boolean mayStore = cacheControl == null || !cacheControl.contains(DIRECTIVE_NO_STORE);
+
+            if (statusCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                Log.v(TAG, "Forecast not modified: " + requestUrl);
+                return new Response<>(requestUrl, statusCode, null, false, true,
+                        storedETag, storedLastModified,
+                        fetchedAtMillis, freshForMillis, staleForMillis, null);
+            }
+
+            /* Report the status itself, so the caller can decide whether to try again */
+            if (statusCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                throw new HttpStatusException(requestUrl, statusCode);
+            }
+
+            ForecastResponseCache.Editor cacheEditor = null;
+            if (mayStore && statusCode == HttpURLConnection.HTTP_OK) {
+                try {
+                    cacheEditor = ForecastResponseCache.getInstance(context).edit(requestUrl);
+                } catch (IOException e) {
+                    /* The cache is an optimization. Carry on without it. */
+                    Log.w(TAG, "Couldn't cache response for " + requestUrl, e);
+                }
+            }
+
+            T body;
+            InputStream in = connection.openBody();
+            try {
+                if (cacheEditor == null) {
+                    body = parser.parse(in);
+                } else {
+                    CachingInputStream cachingIn =
+                            new CachingInputStream(in, cacheEditor.getOutputStream());
+                    body = parser.parse(cachingIn);
+                    /* The parser may stop before the end of the body; copy the rest too */
+                    cachingIn.drain();
+                }
+            } catch (IOException | RuntimeException e) {
+                if (cacheEditor != null) cacheEditor.abort();
+                throw e;
+            }
+
+            return new Response<>(requestUrl, statusCode, body, false, true,
+                    urlConnection.getHeaderField(HEADER_ETAG),
+                    urlConnection.getHeaderField(HEADER_LAST_MODIFIED),
+                    fetchedAtMillis, freshForMillis, staleForMillis, cacheEditor);
+        } catch (IOException | RuntimeException e) {
+            connection.abort();
+            throw e;
+        } finally {
+            /* Rather than disconnecting, keep the connection alive for the next sync */
+            connection.release();
+        }
+    }
+
+    /**
+     * Reads the forecast for a URL from the disk cache, as long as it is still usable. A usable
+     * response may be stale; check {@link Response#isFresh} to find out whether it should be
+     * revalidated with the server.
+     *
+     * @param context Used to access the response cache
+     * @param url     The URL the forecast was requested from
+     * @param parser  Used to convert the cached body into a result
+     * @param <T>     The type of object produced by the parser
+     * @return The cached response, or null if there is no usable response in the cache
+     * @throws IOException If the cached body can't be read or parsed
+     */
+    public static <T> Response<T> getCachedResponse(
+            Context context, URL url, ResponseParser<T> parser) throws IOException {
+
+        String requestUrl = url.toString();
+        ForecastResponseCache.Entry entry =
+                ForecastResponseCache.getInstance(context).get(requestUrl);
+
+        long nowMillis = System.currentTimeMillis();
+        if (entry == null || !entry.isUsable(nowMillis)) {
+            return null;
+        }
+
+        T body;
+        InputStream in = entry.openBody();
+        try {
+            body = parser.parse(in);
         } finally {
-            urlConnection.disconnect();
+            in.close();
+        }
+
+        return new Response<>(requestUrl, HttpURLConnection.HTTP_OK, body, true,
+                entry.isFresh(nowMillis), null, null, entry.fetchedAtMillis,
+                entry.freshUntilMillis - entry.fetchedAtMillis,
+                entry.staleUntilMillis - entry.freshUntilMillis, null);
+    }
+
+    /**
+     * Checks whether the disk cache holds a fresh response for a URL. A fresh response doesn't
+     * need to be revalidated with the server.
+     *
+     * @param context Used to access the response cache
+     * @param url     The URL the forecast was requested from
+     * @return true if the cached response for the URL is fresh
+     */
+    public static boolean isCachedResponseFresh(Context context, URL url) {
+        ForecastResponseCache.Entry entry =
+                ForecastResponseCache.getInstance(context).get(url.toString());
+        return entry != null && entry.isFresh(System.currentTimeMillis());
+    }
+
+    /**
+     * Keeps what we learned from a network response once its forecast has been stored (or, for a
+     * 304, once we know the stored forecast is still current). The validators are saved so the
+     * next request can be conditional, and the body is committed to the disk cache.
+     *
+     * @param context  Used to access SharedPreferences and the response cache
+     * @param response The network response whose forecast was stored
+     */
+    public static void commitResponse(Context context, Response<?> response) {
+        if (response.isFromCache) return;
+
+        SunshinePreferences.saveHttpValidators(context,
+                response.requestUrl,
+                response.eTag,
+                response.lastModified);
+
+        ForecastResponseCache cache = ForecastResponseCache.getInstance(context);
+        if (response.isNotModified()) {
+            cache.refresh(response.requestUrl,
+                    response.fetchedAtMillis,
+                    response.freshForMillis,
+                    response.staleForMillis);
+        } else if (response.cacheEditor != null) {
+            try {
+                response.cacheEditor.commit(response.fetchedAtMillis,
+                        response.freshForMillis,
+                        response.staleForMillis);
+            } catch (IOException e) {
+                Log.w(TAG, "Couldn't cache response for " + response.requestUrl, e);
+            }
+        }
+    }
+
+    /**
+     * Throws away a network response whose forecast could not be stored. Its copy in the disk
+     * cache is discarded and the validators are left untouched.
+     *
+     * @param response The network response that was not stored
+     */
+    public static void discardResponse(Response<?> response) {
+        if (response.cacheEditor != null) {
+            response.cacheEditor.abort();
+        }
+    }
+
+    /**
+     * Reads a directive such as "max-age=3600" from a Cache-Control header.
+     *
+     * @param cacheControl  The value of the Cache-Control header, or null
+     * @param directive     The name of the directive holding a number of seconds
+     * @param defaultMillis Returned if the directive is missing or invalid
+     * @return The directive's value in milliseconds, or defaultMillis
+     */
+    private static long getCacheControlMillis(String cacheControl, String directive,
+                                              long defaultMillis) {
+        if (cacheControl == null) return defaultMillis;
+
+        for (String part : cacheControl.split(",")) {
+            String[] nameAndValue = part.trim().split("=", 2);
+            if (nameAndValue.length == 2 && directive.equalsIgnoreCase(nameAndValue[0].trim())) {
+                try {
+                    long seconds = Long.parseLong(nameAndValue[1].trim());
+                    return seconds >= 0 ? TimeUnit.SECONDS.toMillis(seconds) : defaultMillis;
+                } catch (NumberFormatException e) {
+                    return defaultMillis;
+                }
+            }
+        }
+
+        return defaultMillis;
+    }
+
+    /**
+     * Copies everything read from a stream into an OutputStream as well. This lets us write the
+     * body of a response into the cache while it is being parsed, without reading it twice.
+     */
+    private static final class CachingInputStream extends FilterInputStream {
+
+        private final OutputStream mCopy;
+
+        CachingInputStream(InputStream in, OutputStream copy) {
+            super(in);
+            mCopy = copy;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) mCopy.write(b);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0) mCopy.write(buffer, offset, read);
+            return read;
+        }
+
+        @Override
+        public long skip(long byteCount) throws IOException {
+            /* Skipped bytes must still be copied, so read them instead */
+            byte[] buffer = ResponseBodyReader.acquireByteBuffer();
+            try {
+                int read = read(buffer, 0, (int) Math.min(byteCount, buffer.length));
+                return read < 0 ? 0 : read;
+            } finally {
+                ResponseBodyReader.releaseByteBuffer(buffer);
+            }
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        /**
+         * Reads (and copies) whatever is left of the stream.
+         *
+         * @throws IOException Related to network and stream reading
+         */
+        void drain() throws IOException {
+            byte[] buffer = ResponseBodyReader.acquireByteBuffer();
+            try {
+                while (read(buffer, 0, buffer.length) != -1) {
+                    /* read() does the copying */
+                }
+            } finally {
+                ResponseBodyReader.releaseByteBuffer(buffer);
+            }
+        }
+
+        @Override
+        public void close() {
+            /* The underlying stream is closed by its owner; the copy by the cache Editor */
         }
     }
-}
\ No newline at end of file
+}
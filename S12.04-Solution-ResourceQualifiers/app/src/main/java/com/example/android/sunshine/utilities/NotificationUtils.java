@@ -54,8 +54,9 @@ public class NotificationUtils {
     public static void notifyUserOfNewWeather(Context context) {
 
         /* Build the URI for today's weather in order to show up to date data in notification */
-        Uri todaysWeatherUri = WeatherContract.WeatherEntry
-                .buildWeatherUriWithDate(SunshineDateUtils.normalizeDate(System.currentTimeMillis()));
+        Uri todaysWeatherUri = WeatherContract.WeatherEntry.buildWeatherUriWithLocationAndDate(
+                SunshinePreferences.getPreferredLocationId(context),
+                SunshineDateUtils.normalizeDate(System.currentTimeMillis()));
 
         /*
          * The MAIN_FORECAST_PROJECTION array passed in as the second parameter is defined in our WeatherContract
@@ -17,7 +17,10 @@ package com.example.android.sunshine.utilities;
 
 import android.content.ContentValues;
 import android.content.Context;
+import android.util.JsonReader;
+import android.util.JsonToken;
 
+import com.example.android.sunshine.data.ForecastBatch;
 import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
 
@@ -25,6 +28,9 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 
 /**
@@ -60,6 +66,25 @@ public final class OpenWeatherJsonUtils {
 
     private static final String OWM_MESSAGE_CODE = "cod";
 
+    /*
+     * Each bit represents one of the values we require from a day's forecast. The streaming parser
+     * uses these to make sure no value was missing, just like JSONObject's getters would.
+     */
+    private static final int DAY_PRESSURE = 1;
+    private static final int DAY_HUMIDITY = 1 << 1;
+    private static final int DAY_WIND_SPEED = 1 << 2;
+    private static final int DAY_WIND_DIRECTION = 1 << 3;
+    private static final int DAY_WEATHER_ID = 1 << 4;
+    private static final int DAY_MAX = 1 << 5;
+    private static final int DAY_MIN = 1 << 6;
+    private static final int DAY_ALL_VALUES = (1 << 7) - 1;
+
+    /*
+     * A streaming parse doesn't know how many days are in the response until it has read them
+     * all. Most responses are two weeks long, so we size the batch for that up front.
+     */
+    private static final int EXPECTED_DAY_COUNT = 14;
+
     /**
      * This method parses JSON from a web response and returns an array of Strings
      * describing the weather over various days from the forecast.
@@ -181,4 +206,219 @@ public final class OpenWeatherJsonUtils {
 
         return weatherContentValues;
     }
+
+    /**
+     * This method parses the same JSON as {@link #getWeatherContentValuesFromJson(Context, String)},
+     * but reads it token by token straight from an InputStream using a {@link JsonReader}. Each
+     * day's values are written into a {@link ForecastBatch} as they are read, so neither the
+     * response String, a tree of JSONObjects, nor a boxed value per column of each day is ever
+     * built. This matters for long forecasts on low-end devices.
+     * <p>
+     * Because JSON object members may arrive in any order, the location coordinates and the error
+     * code are remembered while reading and only acted upon once the whole response is parsed.
+     *
+     * @param context Used to store the location's coordinates in SharedPreferences
+     * @param in      Stream of the JSON response from the server. It is closed when done.
+     *
+     * @return The forecast, one day for each element of the list, or null if the server reported
+     *         an error
+     *
+     * @throws IOException If the stream can't be read or the JSON is not a valid forecast
+     */
+    public static ForecastBatch getForecastBatchFromStream(Context context, InputStream in)
+            throws IOException {
+
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+
+        try {
+            int errorCode = HttpURLConnection.HTTP_OK;
+            double[] cityCoordinates = null;
+            ForecastBatch forecast = null;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+
+                if (OWM_MESSAGE_CODE.equals(name)) {
+                    errorCode = reader.nextInt();
+                } else if (OWM_CITY.equals(name)) {
+                    cityCoordinates = readCityCoordinates(reader);
+                } else if (OWM_LIST.equals(name)) {
+                    forecast = readDays(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            /* Is there an error? Location invalid or server probably down */
+            if (errorCode != HttpURLConnection.HTTP_OK) {
+                return null;
+            }
+
+            if (forecast == null || cityCoordinates == null) {
+                throw new IOException("Forecast response is missing its list or city coordinates");
+            }
+
+            SunshinePreferences.setLocationDetails(context, cityCoordinates[0], cityCoordinates[1]);
+
+            return forecast;
+
+        } catch (IllegalStateException | NumberFormatException e) {
+            /* JsonReader reports unexpected tokens and numbers as unchecked exceptions */
+            throw new IOException("Forecast response is not in the expected format", e);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Reads the "city" object and returns its coordinates.
+     *
+     * @param reader Positioned at the value of the "city" member
+     * @return The latitude and longitude of the city, or null if there were none
+     * @throws IOException If the JSON can't be read
+     */
+    private static double[] readCityCoordinates(JsonReader reader) throws IOException {
+        double[] coordinates = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (OWM_COORD.equals(reader.nextName())) {
+                double latitude = Double.NaN;
+                double longitude = Double.NaN;
+
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if (OWM_LATITUDE.equals(name)) {
+                        latitude = reader.nextDouble();
+                    } else if (OWM_LONGITUDE.equals(name)) {
+                        longitude = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+
+                if (!Double.isNaN(latitude) && !Double.isNaN(longitude)) {
+                    coordinates = new double[]{latitude, longitude};
+                }
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return coordinates;
+    }
+
+    /**
+     * Reads the "list" array, adding each day's forecast to a batch as it goes.
+     *
+     * @param reader Positioned at the value of the "list" member
+     * @return The forecast for each day, in the order they were sent
+     * @throws IOException If the JSON can't be read or a day is missing a value
+     */
+    private static ForecastBatch readDays(JsonReader reader) throws IOException {
+        ForecastBatch days = new ForecastBatch(EXPECTED_DAY_COUNT);
+
+        /* See getWeatherContentValuesFromJson for why we ignore the dates sent by the server */
+        long normalizedUtcStartDay = SunshineDateUtils.getNormalizedUtcDateForToday();
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            long dateTimeMillis = normalizedUtcStartDay
+                    + SunshineDateUtils.DAY_IN_MILLIS * days.size();
+            readDay(reader, dateTimeMillis, days);
+        }
+        reader.endArray();
+
+        return days;
+    }
+
+    /**
+     * Reads a single day's forecast object and adds it to the end of a batch.
+     *
+     * @param reader         Positioned at the start of the day's object
+     * @param dateTimeMillis Normalized UTC date of the day being read
+     * @param days           The batch to add the day's weather to
+     * @throws IOException If the JSON can't be read or the day is missing a value
+     */
+    private static void readDay(JsonReader reader, long dateTimeMillis, ForecastBatch days)
+            throws IOException {
+
+        double pressure = 0;
+        int humidity = 0;
+        double windSpeed = 0;
+        double windDirection = 0;
+        int weatherId = 0;
+        double high = 0;
+        double low = 0;
+
+        int valuesRead = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+
+            if (OWM_PRESSURE.equals(name)) {
+                pressure = reader.nextDouble();
+                valuesRead |= DAY_PRESSURE;
+            } else if (OWM_HUMIDITY.equals(name)) {
+                humidity = (int) reader.nextDouble();
+                valuesRead |= DAY_HUMIDITY;
+            } else if (OWM_WINDSPEED.equals(name)) {
+                windSpeed = reader.nextDouble();
+                valuesRead |= DAY_WIND_SPEED;
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                windDirection = reader.nextDouble();
+                valuesRead |= DAY_WIND_DIRECTION;
+            } else if (OWM_WEATHER.equals(name) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                /* Only the first element of the "weather" array is used, just as before */
+                reader.beginArray();
+                if (reader.hasNext()) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if (OWM_WEATHER_ID.equals(reader.nextName())) {
+                            weatherId = (int) reader.nextDouble();
+                            valuesRead |= DAY_WEATHER_ID;
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+            } else if (OWM_TEMPERATURE.equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String temperatureName = reader.nextName();
+                    if (OWM_MAX.equals(temperatureName)) {
+                        high = reader.nextDouble();
+                        valuesRead |= DAY_MAX;
+                    } else if (OWM_MIN.equals(temperatureName)) {
+                        low = reader.nextDouble();
+                        valuesRead |= DAY_MIN;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (valuesRead != DAY_ALL_VALUES) {
+            throw new IOException("Forecast for " + dateTimeMillis + " is missing values");
+        }
+
+        days.add(dateTimeMillis, weatherId, low, high, humidity, pressure, windSpeed,
+                windDirection);
+    }
 }
\ No newline at end of file
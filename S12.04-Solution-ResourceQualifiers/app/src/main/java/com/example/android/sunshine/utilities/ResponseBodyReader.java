@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads the bodies of HTTP responses for {@link NetworkUtils}.
+ * <p>
+ * Forecast JSON compresses very well, so we ask the server for a gzip or deflate encoded body
+ * and decode it ourselves. Android's HttpURLConnection would ask for gzip on its own, but it
+ * stops decoding for us as soon as we set the Accept-Encoding header, which we need to do to
+ * offer deflate as well.
+ * <p>
+ * The buffers used to read bodies are pooled and reused from one sync to the next, rather than
+ * allocated and thrown away every time the forecast is fetched.
+ */
+final class ResponseBodyReader {
+
+    /* The largest (decoded) response body we are willing to read. Forecasts are ~10 KB. */
+    static final int MAX_BODY_BYTES = 1024 * 1024;
+
+    /* Sent with every request so the server can compress the forecast */
+    static final String ACCEPTED_ENCODINGS = "gzip, deflate";
+
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String HEADER_CONTENT_LENGTH = "Content-Length";
+
+    private static final String ENCODING_GZIP = "gzip";
+    private static final String ENCODING_DEFLATE = "deflate";
+    private static final String ENCODING_IDENTITY = "identity";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /* Sizes of the pooled buffers, and how many of each we keep around between syncs */
+    private static final int BYTE_BUFFER_SIZE = 8192;
+    private static final int CHAR_BUFFER_SIZE = 4096;
+    private static final int MAX_POOLED_BUFFERS = 4;
+
+    /* Used when we don't know how long a body is going to be */
+    private static final int DEFAULT_STRING_CAPACITY = 16 * 1024;
+
+    private static final ArrayDeque<byte[]> sByteBuffers = new ArrayDeque<>();
+    private static final ArrayDeque<char[]> sCharBuffers = new ArrayDeque<>();
+
+    private ResponseBodyReader() {
+    }
+
+    /**
+     * Asks the server to compress the body of its response. Call this before connecting.
+     *
+     * @param urlConnection The connection the request will be made on
+     */
+    static void requestCompressedBody(HttpURLConnection urlConnection) {
+        urlConnection.setRequestProperty(HEADER_ACCEPT_ENCODING, ACCEPTED_ENCODINGS);
+    }
+
+    /**
+     * Opens the decoded body of a response. The returned stream is buffered, and throws an
+     * IOException if the body turns out to be larger than {@link #MAX_BODY_BYTES}. The caller
+     * is responsible for closing it, which hands its buffer back to the pool.
+     *
+     * @param urlConnection The connection to read the response body from
+     * @return The decoded body of the response
+     * @throws IOException If the body is too large, uses an encoding we don't understand, or
+     *                     can't be read
+     */
+    static InputStream openBody(HttpURLConnection urlConnection) throws IOException {
+
+        /*
+         * If the server tells us up front that the body is too large, there's no need to start
+         * downloading it. An encoded body will only be larger once it is decoded.
+         */
+        long contentLength = getContentLength(urlConnection);
+        if (contentLength > MAX_BODY_BYTES) {
+            throw new IOException("Response body too large: " + contentLength + " bytes");
+        }
+
+        InputStream in = new PooledBufferedInputStream(urlConnection.getInputStream());
+
+        String encoding = urlConnection.getContentEncoding();
+        try {
+            if (ENCODING_GZIP.equalsIgnoreCase(encoding)) {
+                in = new GZIPInputStream(in);
+            } else if (ENCODING_DEFLATE.equalsIgnoreCase(encoding)) {
+                in = openDeflatedBody(in);
+            } else if (encoding != null && !ENCODING_IDENTITY.equalsIgnoreCase(encoding)) {
+                throw new IOException("Unsupported Content-Encoding: " + encoding);
+            }
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+
+        return new LimitedInputStream(in, MAX_BODY_BYTES);
+    }
+
+    /**
+     * Reads the entire decoded body of a response into a String. The body is read to the end,
+     * but not closed.
+     *
+     * @param urlConnection The connection the response was received on
+     * @param body          The decoded body, as opened by {@link #openBody(HttpURLConnection)}
+     * @return The body of the response, or null if it was empty
+     * @throws IOException If the body is too large, or can't be read
+     */
+    static String readString(HttpURLConnection urlConnection, InputStream body)
+            throws IOException {
+
+        /* If the body isn't encoded, its length tells us how big a builder we need */
+        long contentLength = getContentLength(urlConnection);
+        String encoding = urlConnection.getContentEncoding();
+        boolean isEncoded = encoding != null && !ENCODING_IDENTITY.equalsIgnoreCase(encoding);
+        int capacity = contentLength >= 0 && !isEncoded
+                ? (int) Math.min(contentLength, MAX_BODY_BYTES)
+                : DEFAULT_STRING_CAPACITY;
+
+        /* Not closed, as that would close the body too */
+        Reader reader = new InputStreamReader(body, UTF_8);
+        char[] buffer = acquireCharBuffer();
+        try {
+            StringBuilder builder = new StringBuilder(capacity);
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                builder.append(buffer, 0, read);
+            }
+            return builder.length() > 0 ? builder.toString() : null;
+        } finally {
+            releaseCharBuffer(buffer);
+        }
+    }
+
+    /**
+     * @return A byte buffer from the pool. Hand it back with {@link #releaseByteBuffer(byte[])}.
+     */
+    static byte[] acquireByteBuffer() {
+        synchronized (sByteBuffers) {
+            byte[] buffer = sByteBuffers.poll();
+            return buffer != null ? buffer : new byte[BYTE_BUFFER_SIZE];
+        }
+    }
+
+    /**
+     * Returns a byte buffer to the pool. It must not be used afterwards.
+     *
+     * @param buffer A buffer from {@link #acquireByteBuffer()}
+     */
+    static void releaseByteBuffer(byte[] buffer) {
+        synchronized (sByteBuffers) {
+            if (sByteBuffers.size() < MAX_POOLED_BUFFERS) {
+                sByteBuffers.push(buffer);
+            }
+        }
+    }
+
+    private static char[] acquireCharBuffer() {
+        synchronized (sCharBuffers) {
+            char[] buffer = sCharBuffers.poll();
+            return buffer != null ? buffer : new char[CHAR_BUFFER_SIZE];
+        }
+    }
+
+    private static void releaseCharBuffer(char[] buffer) {
+        synchronized (sCharBuffers) {
+            if (sCharBuffers.size() < MAX_POOLED_BUFFERS) {
+                sCharBuffers.push(buffer);
+            }
+        }
+    }
+
+    /**
+     * @param urlConnection A connection whose response headers have arrived
+     * @return The Content-Length of the response, or -1 if the server didn't send it
+     */
+    private static long getContentLength(HttpURLConnection urlConnection) {
+        /* getContentLengthLong() would do this for us, but it needs API 24 */
+        String contentLength = urlConnection.getHeaderField(HEADER_CONTENT_LENGTH);
+        if (contentLength == null) return -1;
+        try {
+            return Long.parseLong(contentLength.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * The "deflate" encoding is supposed to be zlib-wrapped, but some servers send a raw deflate
+     * stream instead. The first two bytes of a zlib stream form a header we can recognize.
+     */
+    private static InputStream openDeflatedBody(InputStream in) throws IOException {
+        in.mark(2);
+        int first = in.read();
+        int second = in.read();
+        in.reset();
+
+        boolean isZlib = first != -1 && second != -1
+                && (first & 0x0f) == 8
+                && ((first << 8) | second) % 31 == 0;
+
+        return new InflaterInputStream(in, new Inflater(!isZlib));
+    }
+
+    /**
+     * A BufferedInputStream whose buffer comes from the pool and is returned when it is closed.
+     */
+    private static final class PooledBufferedInputStream extends BufferedInputStream {
+
+        private byte[] mPooledBuffer;
+
+        PooledBufferedInputStream(InputStream in) {
+            /* The superclass allocates a buffer of its own; keep it as small as possible */
+            super(in, 1);
+            mPooledBuffer = acquireByteBuffer();
+            buf = mPooledBuffer;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (mPooledBuffer != null) {
+                    releaseByteBuffer(mPooledBuffer);
+                    mPooledBuffer = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Fails with an IOException once more than a given number of bytes have been read.
+     */
+    private static final class LimitedInputStream extends FilterInputStream {
+
+        private final long mLimit;
+        private long mBytesRead;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            mLimit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) count(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0) count(read);
+            return read;
+        }
+
+        @Override
+        public long skip(long byteCount) throws IOException {
+            long skipped = super.skip(byteCount);
+            count(skipped);
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void count(long bytes) throws IOException {
+            mBytesRead += bytes;
+            if (mBytesRead > mLimit) {
+                throw new IOException("Response body larger than " + mLimit + " bytes");
+            }
+        }
+    }
+}